@@ -0,0 +1,180 @@
+package com.example.tinyurl.cache;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.redis.connection.ReactiveSubscription;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.ReactiveRedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cross-node notification of redirect cache fills
+ * The lock holder publishes a fill (with the cached value) or a not-found event on a Redis channel
+ * once it has queried the DB. Nodes waiting on the lock complete as soon as the event arrives
+ * instead of polling the lock and cache keys.
+ *
+ * All waiters of a node are served by one shared channel subscription; waiters for the same
+ * short code share a single pending outcome.
+ */
+@Slf4j
+@Component
+public class CacheFillNotifier {
+
+    static final String FILL_CHANNEL = "cache:fill:short";
+
+    private static final char FILLED = 'F';
+    private static final char NOT_FOUND = 'N';
+
+    private final ReactiveRedisTemplate<String, String> redisTemplate;
+    private final ObjectProvider<ReactiveRedisMessageListenerContainer> listenerContainer;
+
+    private final ConcurrentMap<String, Waiter> waiters = new ConcurrentHashMap<>();
+    private Disposable subscription;
+
+    public CacheFillNotifier(@Qualifier("reactiveStringRedisTemplate") ReactiveRedisTemplate<String, String> redisTemplate,
+                             ObjectProvider<ReactiveRedisMessageListenerContainer> listenerContainer) {
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    public void initialize() {
+        // Subscribes in the background - until Redis answers, waiters fall back to their timeout
+        subscription = Flux.defer(() -> listenerContainer.getObject().receive(ChannelTopic.of(FILL_CHANNEL)))
+            .map(ReactiveSubscription.Message::getMessage)
+            .doOnNext(this::onMessage)
+            .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofMillis(500)).maxBackoff(Duration.ofSeconds(10)))
+            .subscribe(
+                message -> {
+                    // Handled in doOnNext
+                },
+                error -> log.error("Cache fill subscription terminated", error)
+            );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+
+    /**
+     * Publishes that the cache for a short code was filled with the given value
+     */
+    public Mono<Long> publishFilled(String shortUrlCode, String cachedValue) {
+        return redisTemplate.convertAndSend(FILL_CHANNEL, encode(FILLED, shortUrlCode, cachedValue));
+    }
+
+    /**
+     * Publishes that the short code does not resolve to a long URL
+     */
+    public Mono<Long> publishNotFound(String shortUrlCode) {
+        return redisTemplate.convertAndSend(FILL_CHANNEL, encode(NOT_FOUND, shortUrlCode, ""));
+    }
+
+    /**
+     * Registers interest in the next fill event for a short code
+     * Must be called before re-checking the cache so that a fill racing with the check is not missed.
+     * Every call must be paired with {@link #unregister(Registration)}.
+     */
+    public Registration register(String shortUrlCode) {
+        Waiter waiter = waiters.compute(shortUrlCode, (code, existing) -> {
+            Waiter w = existing != null ? existing : new Waiter();
+            w.references++;
+            return w;
+        });
+        return new Registration(shortUrlCode, waiter);
+    }
+
+    /**
+     * Drops interest registered with {@link #register(String)}
+     * A waiter already completed by its event was replaced by a new one for later registrations,
+     * which is left alone.
+     */
+    public void unregister(Registration registration) {
+        waiters.computeIfPresent(registration.shortUrlCode, (code, existing) ->
+            existing != registration.waiter || --existing.references > 0 ? existing : null);
+    }
+
+    private void onMessage(String message) {
+        FillEvent event;
+        try {
+            event = decode(message);
+        } catch (RuntimeException e) {
+            log.warn("Ignoring malformed cache fill message");
+            return;
+        }
+        Waiter waiter = waiters.get(event.getShortUrlCode());
+        if (waiter != null && waiters.remove(event.getShortUrlCode(), waiter)) {
+            waiter.sink.tryEmitValue(event);
+        }
+    }
+
+    // Message format: <type><code length>:<code><value>
+    private String encode(char type, String shortUrlCode, String value) {
+        return type + Integer.toString(shortUrlCode.length()) + ":" + shortUrlCode + value;
+    }
+
+    private FillEvent decode(String message) {
+        char type = message.charAt(0);
+        int separator = message.indexOf(':');
+        int codeLength = Integer.parseInt(message.substring(1, separator));
+        int codeEnd = separator + 1 + codeLength;
+        String shortUrlCode = message.substring(separator + 1, codeEnd);
+        String value = type == FILLED ? message.substring(codeEnd) : null;
+        return new FillEvent(shortUrlCode, value);
+    }
+
+    private static final class Waiter {
+        private final Sinks.One<FillEvent> sink = Sinks.one();
+        private int references;
+    }
+
+    /**
+     * Interest in the next fill event of a short code, see {@link #register(String)}
+     */
+    public static final class Registration {
+        private final String shortUrlCode;
+        private final Waiter waiter;
+
+        private Registration(String shortUrlCode, Waiter waiter) {
+            this.shortUrlCode = shortUrlCode;
+            this.waiter = waiter;
+        }
+
+        /**
+         * Mono emitting the fill event once it arrives (never completes on its own)
+         */
+        public Mono<FillEvent> event() {
+            return waiter.sink.asMono();
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class FillEvent {
+        private final String shortUrlCode;
+        // Cached value on fill, null when the short code was not found
+        private final String cachedValue;
+
+        public boolean isFilled() {
+            return cachedValue != null;
+        }
+    }
+}
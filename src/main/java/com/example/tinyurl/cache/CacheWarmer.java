@@ -0,0 +1,238 @@
+package com.example.tinyurl.cache;
+
+import com.example.tinyurl.entity.CustomUrlCode;
+import com.example.tinyurl.entity.ShortUrl;
+import com.example.tinyurl.repository.CustomUrlCodeRepository;
+import com.example.tinyurl.repository.ShortUrlClickAnalyticsRepository;
+import com.example.tinyurl.repository.ShortUrlRepository;
+import com.example.tinyurl.util.Base62Util;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ReactiveValueOperations;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pre-loads redirects into Redis so hot links do not stampede the DB
+ * after a deploy or a Redis flush.
+ *
+ * - TOP: the top-N most-clicked URLs of a recent window (from short_url_click_analytics)
+ * - FULL: every URL, streamed from short_url with keyset pagination
+ *
+ * Writes are SET NX (an entry written meanwhile by a regular cache fill is left alone) and are
+ * issued concurrently up to a bound, so Lettuce pipelines them on the shared connection.
+ * TTLs are jittered, so the warmed entries do not all expire at the same moment. The local cache
+ * is not written: the SET's own tracking invalidation would race with the put, so the first
+ * redirect of a code fills it from Redis.
+ * The warm-up started at application start gates readiness until it completes.
+ */
+@Slf4j
+@Component
+public class CacheWarmer {
+
+    public enum Mode {
+        TOP,
+        FULL
+    }
+
+    private final ShortUrlRepository shortUrlRepository;
+    private final CustomUrlCodeRepository customUrlCodeRepository;
+    private final ShortUrlClickAnalyticsRepository analyticsRepository;
+    private final ReactiveRedisTemplate<String, String> redisTemplate;
+    private final RedirectCachePolicy redirectCachePolicy;
+
+    @Value("${cache.warmup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${cache.warmup.mode:TOP}")
+    private Mode startupMode;
+
+    @Value("${cache.warmup.top.n:10000}")
+    private int topN;
+
+    @Value("${cache.warmup.window.hours:24}")
+    private long windowHours;
+
+    @Value("${cache.warmup.concurrency:64}")
+    private int concurrency;
+
+    @Value("${cache.warmup.page.size:1000}")
+    private int pageSize;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean startupComplete;
+    private volatile Mode lastMode;
+    private volatile long lastWarmed;
+    private volatile OffsetDateTime lastCompletedAt;
+    private volatile String lastError;
+
+    public CacheWarmer(ShortUrlRepository shortUrlRepository,
+                       CustomUrlCodeRepository customUrlCodeRepository,
+                       ShortUrlClickAnalyticsRepository analyticsRepository,
+                       @Qualifier("reactiveStringRedisTemplate") ReactiveRedisTemplate<String, String> redisTemplate,
+                       RedirectCachePolicy redirectCachePolicy) {
+        this.shortUrlRepository = shortUrlRepository;
+        this.customUrlCodeRepository = customUrlCodeRepository;
+        this.analyticsRepository = analyticsRepository;
+        this.redisTemplate = redisTemplate;
+        this.redirectCachePolicy = redirectCachePolicy;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpOnStartup() {
+        if (!enabled || !trigger(startupMode, true)) {
+            startupComplete = true;
+        }
+    }
+
+    /**
+     * Starts a warm-up in the background
+     * @return false if a warm-up is already running
+     */
+    public boolean trigger(Mode mode) {
+        return trigger(mode, false);
+    }
+
+    private boolean trigger(Mode mode, boolean startup) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        Mono.fromCallable(() -> warmUp(mode))
+            .subscribeOn(Schedulers.boundedElastic())
+            .doFinally(signal -> {
+                running.set(false);
+                if (startup) {
+                    // A failed warm-up must not keep the node out of rotation
+                    startupComplete = true;
+                }
+            })
+            .subscribe(
+                warmed -> {
+                    lastMode = mode;
+                    lastWarmed = warmed;
+                    lastCompletedAt = OffsetDateTime.now();
+                    lastError = null;
+                },
+                error -> {
+                    lastError = error.getMessage();
+                    log.error("Cache warm-up ({}) failed", mode, error);
+                }
+            );
+        return true;
+    }
+
+    /**
+     * Runs a warm-up on the calling thread (blocking)
+     * @return Number of cache entries written
+     */
+    public long warmUp(Mode mode) {
+        long start = System.currentTimeMillis();
+        long warmed = mode == Mode.FULL ? warmAll() : warmTop();
+        log.info("Cache warm-up ({}) wrote {} entries in {} ms", mode, warmed, System.currentTimeMillis() - start);
+        return warmed;
+    }
+
+    public boolean isStartupComplete() {
+        return startupComplete;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public Mode getLastMode() {
+        return lastMode;
+    }
+
+    public long getLastWarmed() {
+        return lastWarmed;
+    }
+
+    public OffsetDateTime getLastCompletedAt() {
+        return lastCompletedAt;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    private long warmTop() {
+        OffsetDateTime since = OffsetDateTime.now().minusHours(windowHours);
+        List<Long> urlIds = analyticsRepository.findTopUrlIdsSince(since, PageRequest.of(0, topN));
+        long warmed = 0;
+        for (int from = 0; from < urlIds.size(); from += pageSize) {
+            List<Long> page = urlIds.subList(from, Math.min(from + pageSize, urlIds.size()));
+            warmed += warmUrls(shortUrlRepository.findAllById(page));
+        }
+        return warmed;
+    }
+
+    private long warmAll() {
+        long warmed = 0;
+        long afterId = 0;
+        List<ShortUrl> page;
+        do {
+            page = shortUrlRepository.findPageAfter(afterId, PageRequest.of(0, pageSize));
+            warmed += warmUrls(page);
+            if (!page.isEmpty()) {
+                afterId = page.get(page.size() - 1).getId();
+            }
+        } while (page.size() == pageSize);
+        return warmed;
+    }
+
+    /**
+     * Writes the redirects of a batch of URLs (base62 code and custom codes) to Redis
+     */
+    private long warmUrls(List<ShortUrl> urls) {
+        if (urls.isEmpty()) {
+            return 0;
+        }
+        long now = OffsetDateTime.now().toEpochSecond();
+
+        Map<Long, List<String>> customCodes = new HashMap<>();
+        for (CustomUrlCode customCode : customUrlCodeRepository.findByUrlIdIn(urls.stream().map(ShortUrl::getId).toList())) {
+            customCodes.computeIfAbsent(customCode.getUrl().getId(), id -> new ArrayList<>()).add(customCode.getCode());
+        }
+
+        List<Map.Entry<String, CachedRedirect>> entries = new ArrayList<>();
+        for (ShortUrl url : urls) {
+            CachedRedirect redirect = CachedRedirect.of(url.getId(), url.getExpiry(), url.getLongUrl());
+            if (redirect.isExpired(now)) {
+                continue;
+            }
+            entries.add(Map.entry("_" + Base62Util.encode(url.getId()), redirect));
+            for (String code : customCodes.getOrDefault(url.getId(), List.of())) {
+                entries.add(Map.entry(code, redirect));
+            }
+        }
+
+        ReactiveValueOperations<String, String> valueOps = redisTemplate.opsForValue();
+        Long written = Flux.fromIterable(entries)
+            .flatMap(entry -> {
+                long ttlSeconds = Math.max(1, redirectCachePolicy.ttlSeconds(entry.getValue(), now));
+                CachedRedirect redirect = redirectCachePolicy.forCaching(entry.getValue(), ttlSeconds, 0);
+                return valueOps.setIfAbsent(LocalRedirectCache.CACHE_KEY_PREFIX + entry.getKey(), redirect.encode(),
+                        Duration.ofSeconds(ttlSeconds));
+            }, concurrency)
+            .filter(Boolean::booleanValue)
+            .count()
+            .block();
+        return written != null ? written : 0;
+    }
+}
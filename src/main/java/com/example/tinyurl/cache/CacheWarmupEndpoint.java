@@ -0,0 +1,56 @@
+package com.example.tinyurl.cache;
+
+import org.jspecify.annotations.Nullable;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Admin endpoint for the cache warm-up (`/actuator/cachewarmup`)
+ * - GET: status of the last warm-up
+ * - POST {"mode": "top" | "full"}: starts a warm-up in the background
+ * Both require a Bearer token of a user with ROLE_ADMIN (see auth.admin.user.ids).
+ */
+@Component
+@Endpoint(id = "cachewarmup")
+public class CacheWarmupEndpoint {
+
+    private final CacheWarmer cacheWarmer;
+
+    public CacheWarmupEndpoint(CacheWarmer cacheWarmer) {
+        this.cacheWarmer = cacheWarmer;
+    }
+
+    @ReadOperation
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", cacheWarmer.isRunning());
+        status.put("startupComplete", cacheWarmer.isStartupComplete());
+        status.put("lastMode", cacheWarmer.getLastMode());
+        status.put("lastWarmed", cacheWarmer.getLastWarmed());
+        status.put("lastCompletedAt", cacheWarmer.getLastCompletedAt() != null ? cacheWarmer.getLastCompletedAt().toString() : null);
+        status.put("lastError", cacheWarmer.getLastError());
+        return status;
+    }
+
+    @WriteOperation
+    public Map<String, Object> trigger(@Nullable String mode) {
+        CacheWarmer.Mode warmupMode;
+        try {
+            warmupMode = mode != null ? CacheWarmer.Mode.valueOf(mode.toUpperCase(Locale.ROOT)) : CacheWarmer.Mode.TOP;
+        } catch (IllegalArgumentException e) {
+            // Answered with 400 instead of a server error
+            throw new InvalidEndpointRequestException("Unknown warm-up mode: " + mode, "mode must be top or full");
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("mode", warmupMode);
+        result.put("started", cacheWarmer.trigger(warmupMode));
+        return result;
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.tinyurl.cache;
+
+import org.springframework.boot.health.contributor.Health;
+import org.springframework.boot.health.contributor.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports OUT_OF_SERVICE until the startup cache warm-up has completed
+ * Included in the readiness health group, so traffic is only routed to a warmed node.
+ */
+@Component
+public class CacheWarmupHealthIndicator implements HealthIndicator {
+
+    private final CacheWarmer cacheWarmer;
+
+    public CacheWarmupHealthIndicator(CacheWarmer cacheWarmer) {
+        this.cacheWarmer = cacheWarmer;
+    }
+
+    @Override
+    public Health health() {
+        Health.Builder builder = cacheWarmer.isStartupComplete() ? Health.up() : Health.outOfService();
+        builder.withDetail("running", cacheWarmer.isRunning());
+        if (cacheWarmer.getLastCompletedAt() != null) {
+            builder.withDetail("lastMode", cacheWarmer.getLastMode())
+                .withDetail("lastWarmed", cacheWarmer.getLastWarmed())
+                .withDetail("lastCompletedAt", cacheWarmer.getLastCompletedAt().toString());
+        }
+        if (cacheWarmer.getLastError() != null) {
+            builder.withDetail("lastError", cacheWarmer.getLastError());
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.tinyurl.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.OffsetDateTime;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Value stored under the Redis `short:<code>` keys (and in the local cache)
+ * Compact text encoding: `2|<urlId>|<expiryEpochSeconds or 0>|<cachedUntilMillis>|<recomputeMillis>|<longUrl>`
+ * The cache window (when the entry expires from the cache and how long it took to compute)
+ * drives probabilistic early refresh; version 1 values (`1|<urlId>|<expiry>|<longUrl>`) carry none.
+ * A long URL always starts with a scheme letter, so the leading version digit is unambiguous;
+ * values without it are legacy entries holding only the raw long URL.
+ */
+@Getter
+@AllArgsConstructor
+public class CachedRedirect {
+
+    /**
+     * Stored for codes known not to resolve (never a valid URL or encoded value)
+     */
+    public static final String TOMBSTONE = "!";
+
+    private static final String VERSION_1_PREFIX = "1|";
+    private static final String VERSION_PREFIX = "2|";
+    private static final char SEPARATOR = '|';
+
+    // Null for legacy entries
+    private final Long urlId;
+    // 0 when the link never expires
+    private final long expiryEpochSeconds;
+    private final String longUrl;
+    // When the cache entry expires (epoch millis), 0 when unknown
+    private final long cachedUntilMillis;
+    // Time it took to compute the entry (XFetch delta)
+    private final long recomputeMillis;
+
+    public CachedRedirect(Long urlId, long expiryEpochSeconds, String longUrl) {
+        this(urlId, expiryEpochSeconds, longUrl, 0L, 0L);
+    }
+
+    public static CachedRedirect of(Long urlId, OffsetDateTime expiry, String longUrl) {
+        return new CachedRedirect(urlId, expiry != null ? expiry.toEpochSecond() : 0L, longUrl);
+    }
+
+    /**
+     * Returns a copy carrying the cache window of the entry about to be written
+     */
+    public CachedRedirect withCacheWindow(long cachedUntilMillis, long recomputeMillis) {
+        return new CachedRedirect(urlId, expiryEpochSeconds, longUrl, cachedUntilMillis, recomputeMillis);
+    }
+
+    /**
+     * Encodes the value for storage
+     */
+    public String encode() {
+        return VERSION_PREFIX + (urlId != null ? urlId : "") + SEPARATOR + expiryEpochSeconds
+            + SEPARATOR + cachedUntilMillis + SEPARATOR + recomputeMillis + SEPARATOR + longUrl;
+    }
+
+    /**
+     * Decodes a stored value (the caller handles {@link #TOMBSTONE})
+     * @throws IllegalArgumentException if the value is not a valid encoding
+     */
+    public static CachedRedirect decode(String value) {
+        int fields;
+        if (value.startsWith(VERSION_PREFIX)) {
+            fields = 4;
+        } else if (value.startsWith(VERSION_1_PREFIX)) {
+            fields = 2;
+        } else {
+            // Legacy entry - raw long URL
+            return new CachedRedirect(null, 0L, value);
+        }
+
+        // Numeric fields up to the long URL (which may itself contain separators)
+        String[] parts = new String[fields];
+        int start = VERSION_PREFIX.length();
+        for (int i = 0; i < fields; i++) {
+            int end = value.indexOf(SEPARATOR, start);
+            if (end < 0) {
+                throw new IllegalArgumentException("Malformed cached redirect value");
+            }
+            parts[i] = value.substring(start, end);
+            start = end + 1;
+        }
+        try {
+            return new CachedRedirect(
+                parts[0].isEmpty() ? null : Long.parseLong(parts[0]),
+                Long.parseLong(parts[1]),
+                value.substring(start),
+                fields > 2 ? Long.parseLong(parts[2]) : 0L,
+                fields > 2 ? Long.parseLong(parts[3]) : 0L);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed cached redirect value", e);
+        }
+    }
+
+    public boolean hasExpiry() {
+        return expiryEpochSeconds > 0;
+    }
+
+    /**
+     * Returns true if the link has expired at the given time
+     */
+    public boolean isExpired(long nowEpochSeconds) {
+        return hasExpiry() && expiryEpochSeconds <= nowEpochSeconds;
+    }
+
+    /**
+     * Cache TTL for this value: min(cacheTtl, expiry - now)
+     * @return TTL in seconds, 0 or less if the link is already expired
+     */
+    public long ttlSeconds(long cacheTtlSeconds, long nowEpochSeconds) {
+        if (!hasExpiry()) {
+            return cacheTtlSeconds;
+        }
+        return Math.min(cacheTtlSeconds, expiryEpochSeconds - nowEpochSeconds);
+    }
+
+    /**
+     * XFetch: decides whether to recompute the entry ahead of its cache expiry
+     * Refreshes when now - delta * beta * ln(rand) >= cachedUntil, so the probability rises
+     * sharply as the entry nears expiry and a single request (not a herd) usually triggers it.
+     */
+    public boolean shouldRefreshEarly(long nowMillis, long deltaMillis, double beta) {
+        if (cachedUntilMillis <= 0) {
+            return false;
+        }
+        double random = 1.0 - ThreadLocalRandom.current().nextDouble(); // (0, 1]
+        return nowMillis - deltaMillis * beta * Math.log(random) >= cachedUntilMillis;
+    }
+}
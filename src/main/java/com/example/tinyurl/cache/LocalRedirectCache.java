@@ -0,0 +1,324 @@
+package com.example.tinyurl.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.lettuce.core.RedisChannelHandler;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionStateListener;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.TrackingArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.push.PushMessage;
+import io.lettuce.core.codec.StringCodec;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.stereotype.Component;
+
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process (L1) cache of short code -> cached redirect sitting in front of the Redis `short:` keys
+ * Entries are admitted with Caffeine's W-TinyLFU policy, bounded by their size in bytes
+ * and stored as UTF-8 byte arrays (the Redis encoding) to keep the heap footprint small.
+ * An entry never outlives the link's own expiry.
+ *
+ * Short codes known not to resolve (unknown, expired) are kept in a separate, short-lived
+ * negative layer so repeated misses never leave the JVM.
+ *
+ * Coherence across nodes is kept with Redis server-assisted client-side caching:
+ * a dedicated RESP3 connection enables `CLIENT TRACKING ON BCAST PREFIX short:`, so any
+ * write, delete or expiry of a `short:` key on any node evicts the local copy.
+ * While the tracking connection is down the cache is bypassed and flushed.
+ */
+@Slf4j
+@Component
+public class LocalRedirectCache {
+
+    static final String CACHE_KEY_PREFIX = "short:";
+
+    // Rough per-entry overhead (entry object, key string header, array header)
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final ReactiveRedisConnectionFactory connectionFactory;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${cache.local.enabled:true}")
+    private boolean enabled;
+
+    @Value("${cache.local.max.bytes:67108864}")
+    private long maxBytes;
+
+    @Value("${cache.local.ttl:300}")
+    private long localTtlSeconds;
+
+    @Value("${cache.short.url.ttl:3600}")
+    private long cacheTtlSeconds;
+
+    @Value("${cache.negative.local.ttl:5}")
+    private long negativeTtlSeconds;
+
+    @Value("${cache.negative.local.max.entries:100000}")
+    private long negativeMaxEntries;
+
+    private Cache<String, byte[]> cache;
+    private Cache<String, Boolean> negativeCache;
+    private StatefulRedisConnection<String, String> trackingConnection;
+    private volatile boolean trackingActive;
+
+    // Bumped on every invalidation; used to drop puts that raced with an invalidation
+    private final AtomicLong invalidationStamp = new AtomicLong();
+    private long ttlSeconds;
+
+    public LocalRedirectCache(ReactiveRedisConnectionFactory connectionFactory, MeterRegistry meterRegistry) {
+        this.connectionFactory = connectionFactory;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void initialize() {
+        // Never keep a local copy longer than Redis would
+        ttlSeconds = Math.min(localTtlSeconds, cacheTtlSeconds);
+
+        cache = Caffeine.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher((String code, byte[] value) -> ENTRY_OVERHEAD_BYTES + code.length() * 2 + value.length)
+            .expireAfter(new Expiry<String, byte[]>() {
+                @Override
+                public long expireAfterCreate(String code, byte[] value, long currentTime) {
+                    return entryTtlNanos(value);
+                }
+
+                @Override
+                public long expireAfterUpdate(String code, byte[] value, long currentTime, long currentDuration) {
+                    return entryTtlNanos(value);
+                }
+
+                @Override
+                public long expireAfterRead(String code, byte[] value, long currentTime, long currentDuration) {
+                    return currentDuration;
+                }
+            })
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "redirect.local");
+
+        negativeCache = Caffeine.newBuilder()
+            .maximumSize(negativeMaxEntries)
+            .expireAfterWrite(Duration.ofSeconds(negativeTtlSeconds))
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, negativeCache, "redirect.local.negative");
+
+        if (!enabled) {
+            log.info("Local redirect cache disabled");
+            return;
+        }
+
+        if (!(connectionFactory instanceof LettuceConnectionFactory lettuceFactory)
+                || !(lettuceFactory.getNativeClient() instanceof RedisClient redisClient)) {
+            log.warn("Local redirect cache requires a standalone Lettuce connection for client tracking, disabling it");
+            enabled = false;
+            return;
+        }
+
+        try {
+            redisClient.addListener(new RedisConnectionStateListener() {
+                @Override
+                public void onRedisConnected(RedisChannelHandler<?, ?> connection, SocketAddress socketAddress) {
+                    if (connection == trackingConnection) {
+                        // Tracking state does not survive a reconnect - enable it again
+                        enableTracking();
+                    }
+                }
+
+                @Override
+                public void onRedisDisconnected(RedisChannelHandler<?, ?> connection) {
+                    if (connection == trackingConnection) {
+                        // Invalidations may be lost while disconnected - stop serving local copies
+                        trackingActive = false;
+                        invalidateAll();
+                    }
+                }
+            });
+
+            trackingConnection = redisClient.connect(StringCodec.UTF8, buildRedisUri(lettuceFactory));
+            trackingConnection.addListener(this::onPushMessage);
+            trackingConnection.sync().clientTracking(trackingArgs());
+            trackingActive = true;
+            log.info("Local redirect cache enabled with client tracking (max {} bytes, ttl {}s)", maxBytes, ttlSeconds);
+        } catch (Exception e) {
+            log.warn("Could not enable Redis client tracking, disabling local redirect cache", e);
+            enabled = false;
+            closeTrackingConnection();
+        }
+    }
+
+    /**
+     * Returns the locally cached redirect for a short code, or null on a miss
+     */
+    public CachedRedirect get(String shortUrlCode) {
+        if (!isActive()) {
+            return null;
+        }
+        byte[] value = cache.getIfPresent(shortUrlCode);
+        return value != null ? CachedRedirect.decode(new String(value, StandardCharsets.UTF_8)) : null;
+    }
+
+    /**
+     * Current invalidation stamp; take it before reading Redis and hand it to {@link #put}
+     */
+    public long stamp() {
+        return invalidationStamp.get();
+    }
+
+    /**
+     * Stores a redirect read from Redis or the DB
+     * The put is dropped if any invalidation arrived after `stamp` was taken,
+     * since the value may already be stale.
+     */
+    public void put(String shortUrlCode, CachedRedirect redirect, long stamp) {
+        if (!isActive() || redirect == null) {
+            return;
+        }
+        cache.put(shortUrlCode, redirect.encode().getBytes(StandardCharsets.UTF_8));
+        if (invalidationStamp.get() != stamp) {
+            cache.invalidate(shortUrlCode);
+        }
+    }
+
+    /**
+     * Returns true if the short code is locally known not to resolve
+     */
+    public boolean isNegative(String shortUrlCode) {
+        return isActive() && negativeCache.getIfPresent(shortUrlCode) != null;
+    }
+
+    /**
+     * Records that a short code does not resolve (same stamp semantics as {@link #put})
+     */
+    public void putNegative(String shortUrlCode, long stamp) {
+        if (!isActive()) {
+            return;
+        }
+        negativeCache.put(shortUrlCode, Boolean.TRUE);
+        if (invalidationStamp.get() != stamp) {
+            negativeCache.invalidate(shortUrlCode);
+        }
+    }
+
+    /**
+     * Evicts a single short code (positive and negative entries) from the local cache
+     */
+    public void invalidate(String shortUrlCode) {
+        invalidationStamp.incrementAndGet();
+        cache.invalidate(shortUrlCode);
+        negativeCache.invalidate(shortUrlCode);
+    }
+
+    /**
+     * Evicts all local entries
+     */
+    public void invalidateAll() {
+        invalidationStamp.incrementAndGet();
+        cache.invalidateAll();
+        negativeCache.invalidateAll();
+    }
+
+    public boolean isActive() {
+        return enabled && trackingActive;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        trackingActive = false;
+        closeTrackingConnection();
+    }
+
+    /**
+     * Handles RESP3 `invalidate` push messages
+     * Content is ["invalidate", [key, ...]] or ["invalidate", null] when the server flushed its keyspace
+     */
+    private void onPushMessage(PushMessage message) {
+        if (!"invalidate".equals(message.getType())) {
+            return;
+        }
+        List<Object> content = message.getContent(StringCodec.UTF8::decodeKey);
+        if (content.size() < 2 || !(content.get(1) instanceof List<?> keys)) {
+            invalidateAll();
+            return;
+        }
+        for (Object key : keys) {
+            String redisKey = String.valueOf(key);
+            if (redisKey.startsWith(CACHE_KEY_PREFIX)) {
+                invalidate(redisKey.substring(CACHE_KEY_PREFIX.length()));
+            }
+        }
+    }
+
+    /**
+     * Local TTL of an entry: min(local TTL, link expiry - now)
+     */
+    private long entryTtlNanos(byte[] value) {
+        long ttl = ttlSeconds;
+        try {
+            CachedRedirect redirect = CachedRedirect.decode(new String(value, StandardCharsets.UTF_8));
+            ttl = redirect.ttlSeconds(ttlSeconds, System.currentTimeMillis() / 1000);
+        } catch (IllegalArgumentException e) {
+            // Fall back to the default TTL
+        }
+        return TimeUnit.SECONDS.toNanos(Math.max(0, ttl));
+    }
+
+    private void enableTracking() {
+        trackingConnection.async().clientTracking(trackingArgs())
+            .whenComplete((reply, error) -> {
+                invalidateAll();
+                if (error != null) {
+                    log.warn("Could not re-enable Redis client tracking after reconnect", error);
+                    trackingActive = false;
+                } else {
+                    trackingActive = true;
+                }
+            });
+    }
+
+    private TrackingArgs trackingArgs() {
+        // BCAST: get notified for every key under the prefix, independent of what this connection read
+        return TrackingArgs.Builder.enabled().bcast().prefixes(CACHE_KEY_PREFIX);
+    }
+
+    private RedisURI buildRedisUri(LettuceConnectionFactory factory) {
+        RedisURI.Builder builder = RedisURI.builder()
+            .withHost(factory.getHostName())
+            .withPort(factory.getPort())
+            .withDatabase(factory.getDatabase())
+            .withSsl(factory.isUseSsl());
+        if (factory.getPassword() != null && !factory.getPassword().isEmpty()) {
+            builder.withPassword(factory.getPassword().toCharArray());
+        }
+        return builder.build();
+    }
+
+    private void closeTrackingConnection() {
+        if (trackingConnection != null) {
+            try {
+                trackingConnection.close();
+            } catch (Exception e) {
+                log.debug("Error closing Redis tracking connection", e);
+            }
+            trackingConnection = null;
+        }
+    }
+}
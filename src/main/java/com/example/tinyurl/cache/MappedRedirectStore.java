@@ -0,0 +1,397 @@
+package com.example.tinyurl.cache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Persistent, memory-mapped map of key -> redirect (url id, expiry, long URL)
+ * Lives entirely off-heap, so the heap does not grow with the number of links.
+ *
+ * Two files in the given directory:
+ * - redirects.dat: append-only log of records [keyLen][urlId][expiry][urlLen][key][url]
+ * - redirects.idx: open-addressing (linear probing) hash table of [keyHash][record offset] slots
+ *
+ * A single writer appends records and then publishes the slot with a release store, so lookups
+ * are lock-free. The index doubles (into a new file, renamed over the old one) past a 0.7 load factor.
+ * A missing or corrupt index is rebuilt by scanning the log.
+ */
+@Slf4j
+public class MappedRedirectStore implements Closeable {
+
+    static final String DATA_FILE = "redirects.dat";
+    static final String INDEX_FILE = "redirects.idx";
+
+    private static final long DATA_MAGIC = 0x54494E5955524C44L; // "TINYURLD"
+    private static final long INDEX_MAGIC = 0x54494E5955524C49L; // "TINYURLI"
+    private static final long HASH_SEED = 0x27D4EB2F165667C5L;
+
+    // Data header: magic, write position, indexed-up-to id, last url id
+    private static final int DATA_HEADER_BYTES = 64;
+    private static final int POS_WRITE = 8;
+    private static final int POS_INDEXED_UP_TO = 16;
+    private static final int POS_LAST_URL_ID = 24;
+
+    // Index header: magic, capacity, size
+    private static final int INDEX_HEADER_BYTES = 64;
+    private static final int POS_CAPACITY = 8;
+    private static final int POS_SIZE = 16;
+    private static final int SLOT_BYTES = 16;
+    private static final double MAX_LOAD_FACTOR = 0.7;
+    private static final long MAX_INDEX_CAPACITY = (Integer.MAX_VALUE - INDEX_HEADER_BYTES) / SLOT_BYTES;
+
+    // Record layout: keyLen(4) urlId(8) expiry(8) urlLen(4) key url
+    private static final int RECORD_HEADER_BYTES = 24;
+    private static final int RECORD_EXPIRY_OFFSET = 12;
+    // Expiry written over invalidated records (always in the past)
+    private static final long INVALIDATED_EXPIRY = 1L;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final Path directory;
+    private final FileChannel dataChannel;
+    private final FileLock dataLock;
+    private final MappedByteBuffer data;
+    private volatile Index index;
+    private boolean fullWarned;
+
+    /**
+     * Opens (or creates) the store
+     * @param directory Directory holding the two files (must not be shared by several processes)
+     * @param maxDataBytes Maximum size of the record log (at most 2 GiB)
+     * @param initialIndexCapacity Initial number of index slots (rounded up to a power of two)
+     * @throws IOException if the files cannot be opened or are locked by another process
+     */
+    public MappedRedirectStore(Path directory, long maxDataBytes, long initialIndexCapacity) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+
+        dataChannel = FileChannel.open(directory.resolve(DATA_FILE),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        dataLock = dataChannel.tryLock();
+        if (dataLock == null) {
+            dataChannel.close();
+            throw new IOException("Snapshot directory " + directory + " is in use by another process");
+        }
+
+        long mapSize = Math.min(Integer.MAX_VALUE, Math.max(dataChannel.size(), maxDataBytes));
+        data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, mapSize);
+        long writePosition = (long) LONGS.getAcquire(data, POS_WRITE);
+        if ((long) LONGS.get(data, 0) != DATA_MAGIC || writePosition < DATA_HEADER_BYTES || writePosition > mapSize) {
+            initializeData();
+        }
+
+        Index existing = openIndex(directory.resolve(INDEX_FILE));
+        if (existing != null) {
+            index = existing;
+        } else {
+            index = createIndex(directory.resolve(INDEX_FILE), tableSizeFor(initialIndexCapacity));
+            rebuildIndexFromData();
+        }
+    }
+
+    /**
+     * Looks up a key (lock-free)
+     * @return The stored redirect, or null if the key is not in the store
+     */
+    public CachedRedirect get(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long hash = ScalableBloomFilter.hash64(keyBytes, HASH_SEED);
+        Index current = index;
+        long writePosition = (long) LONGS.getAcquire(data, POS_WRITE);
+        long offset = current.find(hash, keyBytes, this);
+        if (offset <= 0 || offset >= writePosition) {
+            return null;
+        }
+        return readRecord((int) offset);
+    }
+
+    /**
+     * Appends a redirect under a key, unless the key is already present
+     * @return false if the key was present or the log is full
+     */
+    public synchronized boolean put(String key, CachedRedirect redirect) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long hash = ScalableBloomFilter.hash64(keyBytes, HASH_SEED);
+        if (index.find(hash, keyBytes, this) > 0) {
+            return false;
+        }
+
+        byte[] urlBytes = redirect.getLongUrl().getBytes(StandardCharsets.UTF_8);
+        long offset = (long) LONGS.get(data, POS_WRITE);
+        long end = offset + RECORD_HEADER_BYTES + keyBytes.length + urlBytes.length;
+        // Keep records 8-byte aligned
+        end = (end + 7) & ~7L;
+        if (end > data.capacity()) {
+            if (!fullWarned) {
+                log.warn("Redirect snapshot {} is full ({} bytes), new links are no longer added", directory, data.capacity());
+                fullWarned = true;
+            }
+            return false;
+        }
+
+        int position = (int) offset;
+        data.putInt(position, keyBytes.length);
+        data.putLong(position + 4, redirect.getUrlId() != null ? redirect.getUrlId() : 0L);
+        data.putLong(position + RECORD_EXPIRY_OFFSET, redirect.getExpiryEpochSeconds());
+        data.putInt(position + 20, urlBytes.length);
+        data.put(position + RECORD_HEADER_BYTES, keyBytes);
+        data.put(position + RECORD_HEADER_BYTES + keyBytes.length, urlBytes);
+        LONGS.setRelease(data, POS_WRITE, end);
+
+        if (index.size + 1 > index.capacity * MAX_LOAD_FACTOR) {
+            growIndex();
+        }
+        index.insert(hash, offset);
+        if (redirect.getUrlId() != null && redirect.getUrlId() > getLastUrlId()) {
+            LONGS.setRelease(data, POS_LAST_URL_ID, redirect.getUrlId());
+        }
+        return true;
+    }
+
+    /**
+     * Marks the redirect under a key as expired, so it no longer resolves
+     * The log is append-only, so the record stays in place and only its expiry is overwritten.
+     * @return false if the key is not in the store
+     */
+    public synchronized boolean invalidate(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long offset = index.find(ScalableBloomFilter.hash64(keyBytes, HASH_SEED), keyBytes, this);
+        if (offset <= 0) {
+            return false;
+        }
+        data.putLong((int) offset + RECORD_EXPIRY_OFFSET, INVALIDATED_EXPIRY);
+        return true;
+    }
+
+    /**
+     * Highest url id all of whose links are known to be in the store
+     */
+    public long getIndexedUpToId() {
+        return (long) LONGS.getAcquire(data, POS_INDEXED_UP_TO);
+    }
+
+    public synchronized void setIndexedUpToId(long indexedUpToId) {
+        LONGS.setRelease(data, POS_INDEXED_UP_TO, indexedUpToId);
+    }
+
+    /**
+     * Highest url id stored
+     */
+    public long getLastUrlId() {
+        return (long) LONGS.getAcquire(data, POS_LAST_URL_ID);
+    }
+
+    public long size() {
+        return index.size;
+    }
+
+    public long dataBytes() {
+        return (long) LONGS.getAcquire(data, POS_WRITE);
+    }
+
+    /**
+     * Drops every entry (e.g. when the snapshot belongs to another database)
+     */
+    public synchronized void clear() throws IOException {
+        initializeData();
+        fullWarned = false;
+        Index old = index;
+        index = createIndex(directory.resolve(INDEX_FILE + ".tmp"), old.capacity);
+        Files.move(directory.resolve(INDEX_FILE + ".tmp"), directory.resolve(INDEX_FILE),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        old.close();
+    }
+
+    /**
+     * Flushes both files to disk
+     */
+    public synchronized void force() {
+        data.force();
+        index.buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        index.close();
+        dataLock.release();
+        dataChannel.close();
+    }
+
+    private void initializeData() {
+        data.putLong(POS_INDEXED_UP_TO, 0L);
+        data.putLong(POS_LAST_URL_ID, 0L);
+        LONGS.setRelease(data, POS_WRITE, (long) DATA_HEADER_BYTES);
+        LONGS.setRelease(data, 0, DATA_MAGIC);
+    }
+
+    private CachedRedirect readRecord(int position) {
+        int keyLength = data.getInt(position);
+        long urlId = data.getLong(position + 4);
+        long expiry = data.getLong(position + RECORD_EXPIRY_OFFSET);
+        int urlLength = data.getInt(position + 20);
+        byte[] urlBytes = new byte[urlLength];
+        data.get(position + RECORD_HEADER_BYTES + keyLength, urlBytes);
+        return new CachedRedirect(urlId != 0 ? urlId : null, expiry, new String(urlBytes, StandardCharsets.UTF_8));
+    }
+
+    private boolean keyEquals(long offset, byte[] keyBytes) {
+        int position = (int) offset;
+        if (data.getInt(position) != keyBytes.length) {
+            return false;
+        }
+        byte[] stored = new byte[keyBytes.length];
+        data.get(position + RECORD_HEADER_BYTES, stored);
+        return Arrays.equals(stored, keyBytes);
+    }
+
+    private void rebuildIndexFromData() {
+        long writePosition = (long) LONGS.get(data, POS_WRITE);
+        long offset = DATA_HEADER_BYTES;
+        long count = 0;
+        while (offset < writePosition) {
+            int position = (int) offset;
+            int keyLength = data.getInt(position);
+            int urlLength = data.getInt(position + 20);
+            byte[] keyBytes = new byte[keyLength];
+            data.get(position + RECORD_HEADER_BYTES, keyBytes);
+            if (index.size + 1 > index.capacity * MAX_LOAD_FACTOR) {
+                growIndex();
+            }
+            index.insert(ScalableBloomFilter.hash64(keyBytes, HASH_SEED), offset);
+            count++;
+            offset = (offset + RECORD_HEADER_BYTES + keyLength + urlLength + 7) & ~7L;
+        }
+        if (count > 0) {
+            log.info("Rebuilt redirect snapshot index with {} entries", count);
+        }
+    }
+
+    private void growIndex() {
+        Index old = index;
+        long capacity = old.capacity * 2;
+        if (capacity > MAX_INDEX_CAPACITY) {
+            throw new IllegalStateException("Redirect snapshot index cannot grow beyond " + MAX_INDEX_CAPACITY + " slots");
+        }
+        Path temp = directory.resolve(INDEX_FILE + ".tmp");
+        try {
+            Index grown = createIndex(temp, capacity);
+            for (long slot = 0; slot < old.capacity; slot++) {
+                long base = INDEX_HEADER_BYTES + slot * SLOT_BYTES;
+                long offset = (long) LONGS.getAcquire(old.buffer, (int) (base + 8));
+                if (offset != 0) {
+                    grown.insert((long) LONGS.get(old.buffer, (int) base), offset);
+                }
+            }
+            grown.buffer.force();
+            Files.move(temp, directory.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            index = grown;
+            old.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not grow redirect snapshot index", e);
+        }
+    }
+
+    private Index openIndex(Path file) throws IOException {
+        if (!Files.exists(file) || Files.size(file) < INDEX_HEADER_BYTES) {
+            return null;
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        long capacity = (long) LONGS.get(buffer, POS_CAPACITY);
+        boolean valid = (long) LONGS.get(buffer, 0) == INDEX_MAGIC
+            && capacity > 0 && Long.bitCount(capacity) == 1
+            && INDEX_HEADER_BYTES + capacity * SLOT_BYTES == channel.size();
+        if (!valid) {
+            channel.close();
+            log.warn("Redirect snapshot index {} is invalid, rebuilding it from the data file", file);
+            return null;
+        }
+        return new Index(channel, buffer, capacity, (long) LONGS.get(buffer, POS_SIZE));
+    }
+
+    private static Index createIndex(Path file, long capacity) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER_BYTES + capacity * SLOT_BYTES);
+        LONGS.set(buffer, POS_CAPACITY, capacity);
+        LONGS.set(buffer, POS_SIZE, 0L);
+        LONGS.setRelease(buffer, 0, INDEX_MAGIC);
+        return new Index(channel, buffer, capacity, 0);
+    }
+
+    private static long tableSizeFor(long capacity) {
+        long size = Math.max(1024, Long.highestOneBit(Math.max(1, capacity - 1)) << 1);
+        return Math.min(size, Long.highestOneBit(MAX_INDEX_CAPACITY));
+    }
+
+    /**
+     * Open-addressing table over record offsets (offset 0 marks an empty slot)
+     */
+    private static final class Index {
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final long capacity;
+        // Only written by the (synchronized) writer
+        private volatile long size;
+
+        private Index(FileChannel channel, MappedByteBuffer buffer, long capacity, long size) {
+            this.channel = channel;
+            this.buffer = buffer;
+            this.capacity = capacity;
+            this.size = size;
+        }
+
+        private long find(long hash, byte[] keyBytes, MappedRedirectStore store) {
+            long mask = capacity - 1;
+            long slot = hash & mask;
+            for (long probes = 0; probes < capacity; probes++) {
+                int base = (int) (INDEX_HEADER_BYTES + slot * SLOT_BYTES);
+                long offset = (long) LONGS.getAcquire(buffer, base + 8);
+                if (offset == 0) {
+                    return 0;
+                }
+                if ((long) LONGS.get(buffer, base) == hash && store.keyEquals(offset, keyBytes)) {
+                    return offset;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return 0;
+        }
+
+        private void insert(long hash, long offset) {
+            long mask = capacity - 1;
+            long slot = hash & mask;
+            while (true) {
+                int base = (int) (INDEX_HEADER_BYTES + slot * SLOT_BYTES);
+                if ((long) LONGS.get(buffer, base + 8) == 0) {
+                    // Hash first, then publish the offset
+                    LONGS.set(buffer, base, hash);
+                    LONGS.setRelease(buffer, base + 8, offset);
+                    size = size + 1;
+                    LONGS.set(buffer, POS_SIZE, size);
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private void close() throws IOException {
+            channel.close();
+        }
+    }
+}
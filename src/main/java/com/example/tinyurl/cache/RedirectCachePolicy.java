@@ -0,0 +1,69 @@
+package com.example.tinyurl.cache;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * TTL and refresh policy for redirect cache entries
+ * - TTLs get random jitter, so entries written together (warm bursts, warm-up) do not expire together
+ * - Entries close to their cache expiry are refreshed early in the background (XFetch),
+ *   so hot links keep being served from the cache instead of falling through to a blocking miss
+ */
+@Component
+public class RedirectCachePolicy {
+
+    @Value("${cache.short.url.ttl:3600}")
+    private long cacheTtlSeconds;
+
+    // Fraction of the TTL that may be taken off at random (0 disables jitter)
+    @Value("${cache.ttl.jitter:0.1}")
+    private double ttlJitter;
+
+    @Value("${cache.refresh.early.enabled:true}")
+    private boolean earlyRefreshEnabled;
+
+    // XFetch beta: > 1 favours earlier refreshes
+    @Value("${cache.refresh.early.beta:1.0}")
+    private double beta;
+
+    // Lower bound for the recompute time, which also covers the lock and Redis round trips
+    @Value("${cache.refresh.early.min.delta.ms:1000}")
+    private long minDeltaMillis;
+
+    /**
+     * Jittered cache TTL for a fresh entry, capped by the link's own expiry
+     * @return TTL in seconds, 0 or less if the link is already expired
+     */
+    public long ttlSeconds(CachedRedirect redirect, long nowEpochSeconds) {
+        return redirect.ttlSeconds(jitteredTtlSeconds(), nowEpochSeconds);
+    }
+
+    /**
+     * Returns the entry to write: the redirect stamped with its cache window
+     */
+    public CachedRedirect forCaching(CachedRedirect redirect, long ttlSeconds, long recomputeMillis) {
+        return redirect.withCacheWindow(System.currentTimeMillis() + ttlSeconds * 1000, recomputeMillis);
+    }
+
+    /**
+     * Returns true if a request served from this entry should refresh it in the background
+     */
+    public boolean shouldRefreshEarly(CachedRedirect redirect) {
+        if (!earlyRefreshEnabled) {
+            return false;
+        }
+        long deltaMillis = Math.max(minDeltaMillis, redirect.getRecomputeMillis());
+        return redirect.shouldRefreshEarly(System.currentTimeMillis(), deltaMillis, beta);
+    }
+
+    private long jitteredTtlSeconds() {
+        if (ttlJitter <= 0) {
+            return cacheTtlSeconds;
+        }
+        long maxJitter = (long) (cacheTtlSeconds * Math.min(ttlJitter, 1.0));
+        long jitter = maxJitter > 0 ? ThreadLocalRandom.current().nextLong(maxJitter + 1) : 0;
+        return Math.max(1, cacheTtlSeconds - jitter);
+    }
+}
@@ -0,0 +1,296 @@
+package com.example.tinyurl.cache;
+
+import com.example.tinyurl.entity.CustomUrlCode;
+import com.example.tinyurl.entity.ShortUrl;
+import com.example.tinyurl.repository.CustomUrlCodeRepository;
+import com.example.tinyurl.repository.ShortUrlRepository;
+import com.example.tinyurl.util.Base62Util;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Node-local, memory-mapped snapshot of every short code -> redirect (url id, expiry, long URL)
+ * Survives restarts, so a node resolves Redis misses from the mapped file instead of the lock / DB
+ * load path - right after it starts, without waiting for a cache warm-up, and while Redis is down.
+ *
+ * - Persisted in snapshot.dir (see MappedRedirectStore), one directory per node
+ * - Caught up from short_url and custom_url_code with keyset pagination at startup and periodically
+ * - Updated locally by createShortUrl
+ *
+ * Redis is consulted first, so its tombstones always win over the snapshot; expiry is checked on every lookup.
+ * An entry whose code the cache reports as not resolving is re-checked against the DB (see verify)
+ * and invalidated if its row is gone or expired.
+ * A snapshot whose newest entry does not match the DB (e.g. a different database) is discarded.
+ */
+@Slf4j
+@Component
+public class RedirectSnapshot {
+
+    private static final String ID_PREFIX = "#";
+    private static final String CUSTOM_CODE_PREFIX = "c:";
+
+    private final ShortUrlRepository shortUrlRepository;
+    private final CustomUrlCodeRepository customUrlCodeRepository;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${snapshot.enabled:true}")
+    private boolean enabled;
+
+    @Value("${snapshot.dir:${user.home}/.tinyurl/snapshot}")
+    private String directory;
+
+    @Value("${snapshot.data.max.bytes:268435456}")
+    private long maxDataBytes;
+
+    @Value("${snapshot.index.initial.capacity:1048576}")
+    private long initialIndexCapacity;
+
+    @Value("${snapshot.page.size:1000}")
+    private int pageSize;
+
+    // Rows younger than this may still be committing out of id order
+    @Value("${snapshot.refresh.lag.seconds:30}")
+    private long refreshLagSeconds;
+
+    private volatile MappedRedirectStore store;
+    // Codes with a DB re-check in progress
+    private final Set<String> verifyingCodes = ConcurrentHashMap.newKeySet();
+
+    private Counter hitCounter;
+
+    public RedirectSnapshot(ShortUrlRepository shortUrlRepository,
+                            CustomUrlCodeRepository customUrlCodeRepository,
+                            MeterRegistry meterRegistry) {
+        this.shortUrlRepository = shortUrlRepository;
+        this.customUrlCodeRepository = customUrlCodeRepository;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void initialize() {
+        if (!enabled) {
+            return;
+        }
+        MappedRedirectStore opened;
+        try {
+            opened = new MappedRedirectStore(Path.of(directory), maxDataBytes, initialIndexCapacity);
+            if (!matchesDatabase(opened)) {
+                log.warn("Redirect snapshot in {} does not match the database, discarding it", directory);
+                opened.clear();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not open redirect snapshot in {}, continuing without it", directory, e);
+            return;
+        }
+        store = opened;
+        log.info("Opened redirect snapshot in {} with {} entries", directory, opened.size());
+
+        hitCounter = Counter.builder("redirect.snapshot.hits")
+            .description("Redirects resolved from the mapped snapshot")
+            .register(meterRegistry);
+        Gauge.builder("redirect.snapshot.entries", opened, MappedRedirectStore::size)
+            .register(meterRegistry);
+        Gauge.builder("redirect.snapshot.bytes", opened, MappedRedirectStore::dataBytes)
+            .baseUnit("bytes")
+            .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        MappedRedirectStore current = store;
+        store = null;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                log.warn("Failed to close redirect snapshot", e);
+            }
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void catchUpOnStartup() {
+        if (store == null) {
+            return;
+        }
+        Mono.fromRunnable(this::refresh)
+            .subscribeOn(Schedulers.boundedElastic())
+            .subscribe(
+                v -> {
+                },
+                error -> log.error("Failed to catch up redirect snapshot", error)
+            );
+    }
+
+    /**
+     * Adds the rows created since the last watermark (links created on this or any other node)
+     */
+    @Scheduled(fixedDelayString = "${snapshot.refresh.interval.ms:5000}")
+    public synchronized void refresh() {
+        MappedRedirectStore current = store;
+        if (current == null) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            long previous = current.getIndexedUpToId();
+            Long maxId = shortUrlRepository.findMaxIdCreatedBefore(OffsetDateTime.now().minusSeconds(refreshLagSeconds));
+            long watermark = maxId != null ? maxId : 0L;
+
+            long added = 0;
+            long afterId = previous;
+            List<ShortUrl> page;
+            do {
+                page = shortUrlRepository.findPageAfter(afterId, PageRequest.of(0, pageSize));
+                added += addAll(current, page);
+                if (!page.isEmpty()) {
+                    afterId = page.get(page.size() - 1).getId();
+                }
+            } while (page.size() == pageSize);
+
+            current.setIndexedUpToId(Math.max(previous, watermark));
+            if (added > 0) {
+                log.info("Added {} entries to the redirect snapshot in {} ms", added, System.currentTimeMillis() - start);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to refresh redirect snapshot", e);
+        }
+    }
+
+    /**
+     * Looks up a short code in the snapshot
+     * @return The redirect, or null if the snapshot is disabled or does not know the code
+     */
+    public CachedRedirect get(String shortUrlCode) {
+        MappedRedirectStore current = store;
+        if (current == null) {
+            return null;
+        }
+        String key = toKey(shortUrlCode);
+        CachedRedirect redirect = key != null ? current.get(key) : null;
+        if (redirect != null) {
+            hitCounter.increment();
+        }
+        return redirect;
+    }
+
+    /**
+     * Re-checks a code the cache reports as not resolving (a Redis tombstone), in the background
+     * The entry is invalidated if the DB has no row for the code or the row has expired.
+     */
+    public void verify(String shortUrlCode) {
+        MappedRedirectStore current = store;
+        String key = toKey(shortUrlCode);
+        if (current == null || key == null || current.get(key) == null || !verifyingCodes.add(shortUrlCode)) {
+            return;
+        }
+        Mono.fromCallable(() -> findLiveUrl(shortUrlCode).isPresent())
+            .subscribeOn(Schedulers.boundedElastic())
+            .doFinally(signal -> verifyingCodes.remove(shortUrlCode))
+            .subscribe(
+                live -> {
+                    if (!live && current.invalidate(key)) {
+                        log.info("Invalidated short code {} in the redirect snapshot", shortUrlCode);
+                    }
+                },
+                error -> log.warn("Failed to verify short code {} in the redirect snapshot", shortUrlCode, error)
+            );
+    }
+
+    /**
+     * Adds a newly created short URL (its id and optional custom code)
+     */
+    public void add(ShortUrl url, String customShortUrl) {
+        MappedRedirectStore current = store;
+        if (current == null) {
+            return;
+        }
+        CachedRedirect redirect = CachedRedirect.of(url.getId(), url.getExpiry(), url.getLongUrl());
+        current.put(ID_PREFIX + url.getId(), redirect);
+        if (customShortUrl != null && !customShortUrl.trim().isEmpty()) {
+            current.put(CUSTOM_CODE_PREFIX + customShortUrl, redirect);
+        }
+    }
+
+    private long addAll(MappedRedirectStore current, List<ShortUrl> urls) {
+        if (urls.isEmpty()) {
+            return 0;
+        }
+        Map<Long, List<String>> customCodes = new HashMap<>();
+        for (CustomUrlCode customCode : customUrlCodeRepository.findByUrlIdIn(urls.stream().map(ShortUrl::getId).toList())) {
+            customCodes.computeIfAbsent(customCode.getUrl().getId(), id -> new ArrayList<>()).add(customCode.getCode());
+        }
+
+        long added = 0;
+        for (ShortUrl url : urls) {
+            CachedRedirect redirect = CachedRedirect.of(url.getId(), url.getExpiry(), url.getLongUrl());
+            if (current.put(ID_PREFIX + url.getId(), redirect)) {
+                added++;
+            }
+            for (String code : customCodes.getOrDefault(url.getId(), List.of())) {
+                if (current.put(CUSTOM_CODE_PREFIX + code, redirect)) {
+                    added++;
+                }
+            }
+        }
+        return added;
+    }
+
+    private Optional<ShortUrl> findLiveUrl(String shortUrlCode) {
+        Optional<ShortUrl> url = shortUrlCode.startsWith("_")
+            ? shortUrlRepository.findById(Base62Util.decode(shortUrlCode.substring(1)))
+            : customUrlCodeRepository.findByCode(shortUrlCode).map(CustomUrlCode::getUrl);
+        OffsetDateTime now = OffsetDateTime.now();
+        return url.filter(row -> row.getExpiry() == null || row.getExpiry().isAfter(now));
+    }
+
+    /**
+     * Checks that the newest entry of the snapshot is the same row in the DB
+     */
+    private boolean matchesDatabase(MappedRedirectStore opened) {
+        long lastUrlId = opened.getLastUrlId();
+        if (lastUrlId == 0) {
+            return true;
+        }
+        CachedRedirect stored = opened.get(ID_PREFIX + lastUrlId);
+        Optional<ShortUrl> row = shortUrlRepository.findById(lastUrlId);
+        return stored != null && row.isPresent() && row.get().getLongUrl().equals(stored.getLongUrl());
+    }
+
+    /**
+     * Maps a short code to its snapshot key (the numeric id is canonical, as leading zero digits decode alike)
+     */
+    private static String toKey(String shortUrlCode) {
+        if (!shortUrlCode.startsWith("_")) {
+            return CUSTOM_CODE_PREFIX + shortUrlCode;
+        }
+        try {
+            return ID_PREFIX + Base62Util.decode(shortUrlCode.substring(1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
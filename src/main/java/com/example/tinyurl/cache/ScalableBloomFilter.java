@@ -0,0 +1,197 @@
+package com.example.tinyurl.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe scalable Bloom filter (Almeida et al.)
+ * A chain of plain Bloom filters: when the newest stage reaches its capacity a new stage is added
+ * with twice the capacity and a tighter error rate, so the compound false-positive probability
+ * stays below the configured target no matter how many items are inserted.
+ * Bits live in AtomicLongArrays, so concurrent puts and lookups need no locking.
+ */
+public class ScalableBloomFilter {
+
+    private static final int GROWTH_FACTOR = 2;
+    private static final double TIGHTENING_RATIO = 0.85;
+
+    private static final long SEED_1 = 0x9E3779B97F4A7C15L;
+    private static final long SEED_2 = 0xC2B2AE3D27D4EB4FL;
+
+    private final double falsePositiveProbability;
+    private final List<Stage> stages = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param initialCapacity Items the first stage holds before the filter grows
+     * @param falsePositiveProbability Target compound false-positive probability (e.g. 0.01)
+     */
+    public ScalableBloomFilter(long initialCapacity, double falsePositiveProbability) {
+        if (initialCapacity <= 0) {
+            throw new IllegalArgumentException("Initial capacity must be positive");
+        }
+        if (falsePositiveProbability <= 0 || falsePositiveProbability >= 1) {
+            throw new IllegalArgumentException("False positive probability must be in (0, 1)");
+        }
+        this.falsePositiveProbability = falsePositiveProbability;
+        // Geometric series: P = P0 / (1 - r)
+        stages.add(new Stage(initialCapacity, falsePositiveProbability * (1 - TIGHTENING_RATIO)));
+    }
+
+    /**
+     * Adds an item to the filter
+     */
+    public void put(String item) {
+        long[] hashes = hash(item);
+        if (mightContain(hashes)) {
+            return;
+        }
+
+        Stage stage = stages.get(stages.size() - 1);
+        if (stage.count.get() >= stage.capacity) {
+            stage = grow(stage);
+        }
+        stage.put(hashes[0], hashes[1]);
+    }
+
+    /**
+     * Returns false if the item was definitely never added, true if it probably was
+     */
+    public boolean mightContain(String item) {
+        return mightContain(hash(item));
+    }
+
+    /**
+     * Estimated false-positive probability given the current fill of every stage
+     */
+    public double expectedFalsePositiveProbability() {
+        double allMiss = 1.0;
+        for (Stage stage : stages) {
+            allMiss *= 1.0 - stage.expectedFalsePositiveProbability();
+        }
+        return 1.0 - allMiss;
+    }
+
+    /**
+     * Approximate number of distinct items added
+     */
+    public long approximateSize() {
+        long size = 0;
+        for (Stage stage : stages) {
+            size += stage.count.get();
+        }
+        return size;
+    }
+
+    public int stageCount() {
+        return stages.size();
+    }
+
+    public double getFalsePositiveProbability() {
+        return falsePositiveProbability;
+    }
+
+    private boolean mightContain(long[] hashes) {
+        for (Stage stage : stages) {
+            if (stage.mightContain(hashes[0], hashes[1])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized Stage grow(Stage full) {
+        Stage last = stages.get(stages.size() - 1);
+        if (last != full) {
+            // Another thread already grew the filter
+            return last;
+        }
+        Stage next = new Stage(full.capacity * GROWTH_FACTOR, full.falsePositiveProbability * TIGHTENING_RATIO);
+        stages.add(next);
+        return next;
+    }
+
+    private static long[] hash(String item) {
+        byte[] data = item.getBytes(StandardCharsets.UTF_8);
+        long h1 = hash64(data, SEED_1);
+        // Odd second hash so the probe sequence visits distinct bits
+        long h2 = hash64(data, SEED_2) | 1L;
+        return new long[] {h1, h2};
+    }
+
+    /**
+     * 64-bit hash of the data (FNV-1a mixing with a MurmurHash3 finalizer)
+     */
+    static long hash64(byte[] data, long seed) {
+        long h = seed ^ (data.length * 0xFF51AFD7ED558CCDL);
+        for (byte b : data) {
+            h ^= b & 0xFF;
+            h *= 0x100000001B3L;
+        }
+        // MurmurHash3 fmix64 finalizer
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static final class Stage {
+        private final long capacity;
+        private final double falsePositiveProbability;
+        private final long numBits;
+        private final int numHashes;
+        private final AtomicLongArray words;
+        private final AtomicLong count = new AtomicLong();
+
+        private Stage(long capacity, double falsePositiveProbability) {
+            this.capacity = capacity;
+            this.falsePositiveProbability = falsePositiveProbability;
+            double ln2 = Math.log(2);
+            this.numBits = Math.max(64, (long) Math.ceil(-capacity * Math.log(falsePositiveProbability) / (ln2 * ln2)));
+            this.numHashes = Math.max(1, (int) Math.round((double) numBits / capacity * ln2));
+            this.words = new AtomicLongArray((int) ((numBits + 63) / 64));
+        }
+
+        private void put(long h1, long h2) {
+            boolean changed = false;
+            for (int i = 0; i < numHashes; i++) {
+                long bit = Math.floorMod(h1 + i * h2, numBits);
+                changed |= setBit(bit);
+            }
+            if (changed) {
+                count.incrementAndGet();
+            }
+        }
+
+        private boolean mightContain(long h1, long h2) {
+            for (int i = 0; i < numHashes; i++) {
+                long bit = Math.floorMod(h1 + i * h2, numBits);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean setBit(long bit) {
+            int index = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current;
+            do {
+                current = words.get(index);
+                if ((current & mask) != 0) {
+                    return false;
+                }
+            } while (!words.compareAndSet(index, current, current | mask));
+            return true;
+        }
+
+        private double expectedFalsePositiveProbability() {
+            return Math.pow(1 - Math.exp(-(double) numHashes * count.get() / numBits), numHashes);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.example.tinyurl.cache;
+
+import com.example.tinyurl.repository.ShortUrlRepository;
+import com.example.tinyurl.util.Base62Util;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.connection.ReactiveSubscription;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.ReactiveRedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.List;
+
+/**
+ * Bloom-filter existence index over all issued short codes
+ * Lets getLongUrl reject codes that were never issued (e.g. enumeration of base62 ids)
+ * in memory, before touching Redis, the lock path or the DB.
+ *
+ * - Rebuilt from short_url with keyset pagination at startup
+ * - Updated locally by createShortUrl and on other nodes through a pub/sub channel
+ * - Periodically caught up from the DB, in case a pub/sub message was lost
+ *
+ * Ids are only rejected up to a watermark below which all rows are known to be indexed;
+ * newer ids (possibly created on another node a moment ago) always pass through.
+ * Custom codes carry no id to compare with the watermark, so a code created on another node
+ * whose message was lost could not be told apart from a never-issued one - they always pass
+ * through and repeated misses are absorbed by the negative cache instead.
+ * Until the first build completes every code passes through.
+ */
+@Slf4j
+@Component
+public class ShortCodeExistenceIndex {
+
+    static final String ADD_CHANNEL = "bloom:add:short";
+
+    private static final String ID_PREFIX = "#";
+
+    private final ShortUrlRepository shortUrlRepository;
+    private final ReactiveRedisTemplate<String, String> redisTemplate;
+    private final ObjectProvider<ReactiveRedisMessageListenerContainer> listenerContainer;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${bloom.enabled:true}")
+    private boolean enabled;
+
+    @Value("${bloom.expected.items:1000000}")
+    private long expectedItems;
+
+    @Value("${bloom.fpp:0.01}")
+    private double falsePositiveProbability;
+
+    @Value("${bloom.page.size:10000}")
+    private int pageSize;
+
+    // Rows younger than this may still be committing out of id order
+    @Value("${bloom.refresh.lag.seconds:30}")
+    private long refreshLagSeconds;
+
+    private volatile ScalableBloomFilter filter;
+    // Filter being rebuilt, receives concurrent additions as well
+    private volatile ScalableBloomFilter rebuilding;
+    private volatile boolean ready;
+    // All ids <= this watermark are in the filter
+    private volatile long indexedUpToId;
+
+    private Counter rejectedCounter;
+    private Counter falsePositiveCounter;
+    private Disposable subscription;
+
+    public ShortCodeExistenceIndex(ShortUrlRepository shortUrlRepository,
+                                   @Qualifier("reactiveStringRedisTemplate") ReactiveRedisTemplate<String, String> redisTemplate,
+                                   ObjectProvider<ReactiveRedisMessageListenerContainer> listenerContainer,
+                                   MeterRegistry meterRegistry) {
+        this.shortUrlRepository = shortUrlRepository;
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void initialize() {
+        filter = new ScalableBloomFilter(expectedItems, falsePositiveProbability);
+
+        rejectedCounter = Counter.builder("redirect.bloom.rejected")
+            .description("Short codes rejected by the existence index")
+            .register(meterRegistry);
+        falsePositiveCounter = Counter.builder("redirect.bloom.false.positives")
+            .description("Short codes accepted by the existence index but not found in the DB")
+            .register(meterRegistry);
+        Gauge.builder("redirect.bloom.expected.fpp", this, index -> index.filter.expectedFalsePositiveProbability())
+            .description("Expected false-positive probability of the existence index")
+            .register(meterRegistry);
+        Gauge.builder("redirect.bloom.observed.fpp", this, ShortCodeExistenceIndex::observedFalsePositiveRate)
+            .description("Share of non-existent codes that passed the existence index")
+            .register(meterRegistry);
+        Gauge.builder("redirect.bloom.items", this, index -> index.filter.approximateSize())
+            .register(meterRegistry);
+
+        if (!enabled) {
+            return;
+        }
+
+        // Subscribes in the background - additions missed until Redis answers are caught up by refresh
+        subscription = Flux.defer(() -> listenerContainer.getObject().receive(ChannelTopic.of(ADD_CHANNEL)))
+            .map(ReactiveSubscription.Message::getMessage)
+            .doOnNext(this::addLocal)
+            .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofMillis(500)).maxBackoff(Duration.ofSeconds(10)))
+            .subscribe(
+                key -> {
+                    // Handled in doOnNext
+                },
+                error -> log.error("Existence index subscription terminated", error)
+            );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildOnStartup() {
+        if (!enabled) {
+            return;
+        }
+        Mono.fromRunnable(this::rebuild)
+            .subscribeOn(Schedulers.boundedElastic())
+            .subscribe(
+                v -> {
+                },
+                error -> log.error("Failed to build short code existence index", error)
+            );
+    }
+
+    /**
+     * Rebuilds the filter from the DB (keyset pagination over short_url ids)
+     */
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+        ScalableBloomFilter next = new ScalableBloomFilter(expectedItems, falsePositiveProbability);
+        rebuilding = next;
+        try {
+            long watermark = findWatermark();
+
+            long afterId = 0;
+            List<Long> ids;
+            do {
+                ids = shortUrlRepository.findIdsAfter(afterId, PageRequest.of(0, pageSize));
+                for (Long id : ids) {
+                    next.put(ID_PREFIX + id);
+                }
+                if (!ids.isEmpty()) {
+                    afterId = ids.get(ids.size() - 1);
+                }
+            } while (ids.size() == pageSize);
+
+            filter = next;
+            indexedUpToId = watermark;
+            ready = true;
+            log.info("Built short code existence index with ~{} items in {} ms", next.approximateSize(),
+                System.currentTimeMillis() - start);
+        } finally {
+            rebuilding = null;
+        }
+    }
+
+    /**
+     * Catches up with rows created since the last watermark (covers lost pub/sub messages)
+     */
+    @Scheduled(fixedDelayString = "${bloom.refresh.interval.ms:5000}")
+    public void refresh() {
+        if (!enabled || !ready) {
+            return;
+        }
+        try {
+            long previous = indexedUpToId;
+            long watermark = findWatermark();
+
+            long afterId = previous;
+            List<Long> ids;
+            do {
+                ids = shortUrlRepository.findIdsAfter(afterId, PageRequest.of(0, pageSize));
+                for (Long id : ids) {
+                    addLocal(ID_PREFIX + id);
+                }
+                if (!ids.isEmpty()) {
+                    afterId = ids.get(ids.size() - 1);
+                }
+            } while (ids.size() == pageSize);
+
+            indexedUpToId = Math.max(previous, watermark);
+        } catch (Exception e) {
+            log.warn("Failed to refresh short code existence index", e);
+        }
+    }
+
+    /**
+     * Returns false only if the short code was definitely never issued
+     * The caller must have rejected undecodable codes already.
+     */
+    public boolean mightExist(String shortUrlCode) {
+        if (!enabled || !ready) {
+            return true;
+        }
+        String key = toKey(shortUrlCode);
+        if (key == null) {
+            // Custom code or newer than the watermark - cannot tell
+            return true;
+        }
+        if (filter.mightContain(key)) {
+            return true;
+        }
+        rejectedCounter.increment();
+        return false;
+    }
+
+    /**
+     * Records a DB miss for a code that was let through, to measure the false-positive rate
+     */
+    public void recordNotFound(String shortUrlCode) {
+        if (enabled && ready && toKey(shortUrlCode) != null) {
+            falsePositiveCounter.increment();
+        }
+    }
+
+    /**
+     * Adds the id of a newly created short URL on this and all other nodes
+     */
+    public Mono<Void> add(Long urlId) {
+        if (!enabled) {
+            return Mono.empty();
+        }
+        String key = ID_PREFIX + urlId;
+        addLocal(key);
+        return redisTemplate.convertAndSend(ADD_CHANNEL, key)
+            .onErrorResume(e -> Mono.empty())
+            .then();
+    }
+
+    private void addLocal(String key) {
+        filter.put(key);
+        ScalableBloomFilter next = rebuilding;
+        if (next != null) {
+            next.put(key);
+        }
+    }
+
+    /**
+     * Maps a short code to its filter key, or null for custom codes and ids above the watermark
+     */
+    private String toKey(String shortUrlCode) {
+        if (!shortUrlCode.startsWith("_")) {
+            return null;
+        }
+        long id;
+        try {
+            id = Base62Util.decode(shortUrlCode.substring(1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        // Leading zero digits decode to the same id, so the numeric id is the canonical key
+        return id <= indexedUpToId ? ID_PREFIX + id : null;
+    }
+
+    private long findWatermark() {
+        Long maxId = shortUrlRepository.findMaxIdCreatedBefore(OffsetDateTime.now().minusSeconds(refreshLagSeconds));
+        return maxId != null ? maxId : 0L;
+    }
+
+    private double observedFalsePositiveRate() {
+        double falsePositives = falsePositiveCounter.count();
+        double negatives = falsePositives + rejectedCounter.count();
+        return negatives > 0 ? falsePositives / negatives : 0.0;
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.tinyurl.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.listener.ReactiveRedisMessageListenerContainer;
+
+@Configuration
+public class RedisPubSubConfig {
+
+    /**
+     * Shared pub/sub container - all channel subscriptions of this node are multiplexed
+     * over the single connection held by this container
+     * The container connects when it is created, so it is created by the first subscription
+     * (through an ObjectProvider, retried until Redis answers) rather than at startup.
+     */
+    @Bean
+    @Lazy
+    public ReactiveRedisMessageListenerContainer reactiveRedisMessageListenerContainer(
+            ReactiveRedisConnectionFactory connectionFactory) {
+        return new ReactiveRedisMessageListenerContainer(connectionFactory);
+    }
+}
@@ -65,6 +65,7 @@ public class SecurityConfig {
                 .pathMatchers("/api-docs/**", "/swagger-ui/**", "/docs").permitAll()
                 .pathMatchers("/shorten", "/user/logout").authenticated()
                 .pathMatchers(HttpMethod.PATCH, "/user").authenticated() // PATCH /user (change password) requires authentication
+                .pathMatchers("/actuator/cachewarmup").hasRole("ADMIN") // Cache warm-up status and trigger are admin only
                 .anyExchange().permitAll()
             )
             .addFilterBefore(bearerTokenAuthenticationFilter, SecurityWebFiltersOrder.AUTHENTICATION)
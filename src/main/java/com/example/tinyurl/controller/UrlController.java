@@ -4,6 +4,7 @@ import com.example.tinyurl.model.AnalyticsResponse;
 import com.example.tinyurl.model.ErrorResponse;
 import com.example.tinyurl.model.ShortenRequest;
 import com.example.tinyurl.model.ShortenResponse;
+import com.example.tinyurl.service.ClickContextResolver;
 import com.example.tinyurl.service.UrlService;
 import com.example.tinyurl.util.CustomAuthentication;
 import io.swagger.v3.oas.annotations.Operation;
@@ -13,9 +14,12 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.security.core.context.ReactiveSecurityContextHolder;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.web.bind.annotation.*;
@@ -28,9 +32,14 @@ import java.time.OffsetDateTime;
 public class UrlController {
 
     private final UrlService urlService;
+    private final ClickContextResolver clickContextResolver;
 
-    public UrlController(UrlService urlService) {
+    @Value("${redirect.status:301}")
+    private int redirectStatus;
+
+    public UrlController(UrlService urlService, ClickContextResolver clickContextResolver) {
         this.urlService = urlService;
+        this.clickContextResolver = clickContextResolver;
     }
 
     @Operation(summary = "Shorten a URL", description = "Creates a short URL for the provided long URL. Requires Bearer Token Authentication.")
@@ -73,7 +82,7 @@ public class UrlController {
                 .body(new ErrorResponse("UNAUTHORIZED", "Invalid token"))));
     }
 
-    @Operation(summary = "Redirect to long URL", description = "Redirects to the original long URL using the short URL code")
+    @Operation(summary = "Redirect to long URL", description = "Redirects to the original long URL using the short URL code. Normally served by RedirectWebFilter before reaching this controller.")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "301", description = "Redirect to long URL"),
         @ApiResponse(responseCode = "404", description = "Short URL not found",
@@ -82,26 +91,28 @@ public class UrlController {
             content = @Content(schema = @Schema(implementation = ErrorResponse.class)))
     })
     @GetMapping("/{shortURL}")
-    public Mono<ResponseEntity<?>> redirect(@PathVariable String shortURL) {
-        return urlService.getLongUrl(shortURL)
+    public Mono<ResponseEntity<?>> redirect(@PathVariable String shortURL, ServerHttpRequest request) {
+        return urlService.redirect(shortURL, clickContextResolver.resolve(request, redirectStatus))
             .map(result -> {
                 if (result.getError() != null) {
                     // Return error response
                     return ResponseEntity.status(result.getStatus())
                         .body(result.getError());
                 } else {
-                    // Return 301 redirect
-                    return ResponseEntity.status(HttpStatus.MOVED_PERMANENTLY)
+                    // Return 301 (or configured) redirect
+                    return ResponseEntity.status(redirectStatus)
                         .header("Location", result.getLongUrl())
                         .build();
                 }
             });
     }
 
-    @Operation(summary = "Get analytics for a short URL", description = "Retrieves click analytics for a short URL within a time range. Requires Bearer Token Authentication and ownership of the URL.")
+    @Operation(summary = "Get analytics for a short URL", description = "Retrieves click analytics for a short URL within a time range, optionally summed into minute, hour, day or week buckets in a time zone. Requires Bearer Token Authentication and ownership of the URL.")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Analytics retrieved successfully",
             content = @Content(schema = @Schema(implementation = AnalyticsResponse.class))),
+        @ApiResponse(responseCode = "400", description = "Invalid granularity or time zone",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))),
         @ApiResponse(responseCode = "401", description = "Unauthorized",
             content = @Content(schema = @Schema(implementation = ErrorResponse.class))),
         @ApiResponse(responseCode = "403", description = "Forbidden - User is not the owner of the URL",
@@ -116,14 +127,16 @@ public class UrlController {
     public Mono<ResponseEntity<?>> getAnalytics(
             @PathVariable String shortUrlCode,
             @RequestParam("start_date") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime startDate,
-            @RequestParam("end_date") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime endDate) {
+            @RequestParam("end_date") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime endDate,
+            @RequestParam(value = "granularity", required = false) String granularity,
+            @RequestParam(value = "tz", required = false) String tz) {
         // Get userId from request context (set by token authentication)
         return ReactiveSecurityContextHolder.getContext()
             .cast(SecurityContext.class)
             .map(SecurityContext::getAuthentication)
             .cast(CustomAuthentication.class)
             .map(CustomAuthentication::getUserId)
-            .flatMap(userId -> urlService.getAnalytics(shortUrlCode, userId, startDate, endDate)
+            .flatMap(userId -> urlService.getAnalytics(shortUrlCode, userId, startDate, endDate, granularity, tz)
                 .map(result -> {
                     if (result.getError() != null) {
                         // Return error response
@@ -138,5 +151,46 @@ public class UrlController {
             .switchIfEmpty(Mono.just(ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                 .body(new ErrorResponse("UNAUTHORIZED", "Invalid token"))));
     }
-}
 
+    @Operation(summary = "Stream analytics for a short URL", description = "Streams the click analytics of a short URL within a time range as newline-delimited JSON or server-sent events, one row at a time, so large ranges are not loaded into memory. Requires Bearer Token Authentication and ownership of the URL.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Analytics stream",
+            content = @Content(schema = @Schema(implementation = AnalyticsResponse.class))),
+        @ApiResponse(responseCode = "401", description = "Unauthorized",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))),
+        @ApiResponse(responseCode = "403", description = "Forbidden - User is not the owner of the URL",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))),
+        @ApiResponse(responseCode = "404", description = "Short URL not found",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))),
+        @ApiResponse(responseCode = "500", description = "Server error",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class)))
+    })
+    @SecurityRequirement(name = "bearerAuth")
+    @GetMapping(value = "/url/{shortUrlCode}/stream",
+        produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    public Mono<ResponseEntity<?>> streamAnalytics(
+            @PathVariable String shortUrlCode,
+            @RequestParam("start_date") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime startDate,
+            @RequestParam("end_date") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime endDate) {
+        // Get userId from request context (set by token authentication)
+        return ReactiveSecurityContextHolder.getContext()
+            .cast(SecurityContext.class)
+            .map(SecurityContext::getAuthentication)
+            .cast(CustomAuthentication.class)
+            .map(CustomAuthentication::getUserId)
+            .flatMap(userId -> urlService.streamAnalytics(shortUrlCode, userId, startDate, endDate)
+                .map(result -> {
+                    if (result.getError() != null) {
+                        // Return error response
+                        return ResponseEntity.status(result.getStatus())
+                            .body(result.getError());
+                    } else {
+                        // Rows are written as they are read, in the negotiated format
+                        return ResponseEntity.status(result.getStatus())
+                            .body(result.getResponse());
+                    }
+                }))
+            .switchIfEmpty(Mono.just(ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                .body(new ErrorResponse("UNAUTHORIZED", "Invalid token"))));
+    }
+}
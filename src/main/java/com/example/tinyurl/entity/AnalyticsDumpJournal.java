@@ -0,0 +1,86 @@
+package com.example.tinyurl.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Progress of one analytics dump: a bucket (or one shard of it) renamed into a processing key and drained page by page
+ * The page number is advanced in the same transaction as the counts of the page it covers.
+ */
+@Entity
+@Table(name = "analytics_dump_journal", indexes = {
+    @Index(name = "idx_analytics_dump_journal_status", columnList = "status")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class AnalyticsDumpJournal {
+
+    public enum Status {
+        // Journaled, bucket not renamed yet
+        PENDING,
+        // Renamed into the processing key, pages before `pages` are in the DB
+        IN_PROGRESS,
+        // All pages in the DB, processing key not deleted yet
+        DRAINED,
+        DONE
+    }
+
+    @Id
+    @Column(name = "dump_id", length = 36, nullable = false)
+    private String dumpId;
+
+    @Column(name = "bucket", length = 64, nullable = false)
+    private String bucket;
+
+    // Hash key of the shard being dumped (null for journals written before sharding: `analytics:<bucket>`)
+    @Column(name = "bucket_key", length = 128)
+    private String bucketKey;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", length = 16, nullable = false)
+    private Status status;
+
+    // Number of pages committed, which is also the number of the page being moved next
+    @Column(name = "pages", nullable = false)
+    private long pages;
+
+    // Fences writers: a page committed from a stale copy of the journal fails
+    // (a wrapper, so that a journal with an assigned id but no version yet is persisted, not merged)
+    @Version
+    @Column(name = "version", nullable = false)
+    private Long version;
+
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private OffsetDateTime createdAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private OffsetDateTime updatedAt;
+
+    public AnalyticsDumpJournal(String dumpId, String bucket) {
+        this.dumpId = dumpId;
+        this.bucket = bucket;
+        this.status = Status.PENDING;
+    }
+
+    public AnalyticsDumpJournal(String dumpId, String bucket, String bucketKey) {
+        this(dumpId, bucket);
+        this.bucketKey = bucketKey;
+    }
+
+    @PrePersist
+    protected void onCreate() {
+        OffsetDateTime now = OffsetDateTime.now();
+        createdAt = now;
+        updatedAt = now;
+    }
+
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = OffsetDateTime.now();
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.tinyurl.entity;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Resolutions click analytics are kept at, finest first
+ * - RAW: short_url_click_analytics, one row per dumped time key bucket (minute or hour)
+ * - HOUR / DAY: rollups of the next finer resolution, bucketed in UTC
+ * Unique visitor sketches are kept at the same resolutions, in a table of their own.
+ */
+public enum AnalyticsResolution {
+    RAW("short_url_click_analytics", "short_url_click_uniques", null),
+    HOUR("short_url_click_analytics_hourly", "short_url_click_uniques_hourly", ChronoUnit.HOURS),
+    DAY("short_url_click_analytics_daily", "short_url_click_uniques_daily", ChronoUnit.DAYS);
+
+    private final String tableName;
+    private final String uniquesTableName;
+    private final ChronoUnit unit;
+
+    AnalyticsResolution(String tableName, String uniquesTableName, ChronoUnit unit) {
+        this.tableName = tableName;
+        this.uniquesTableName = uniquesTableName;
+        this.unit = unit;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Table of the unique visitor sketches at this resolution
+     */
+    public String getUniquesTableName() {
+        return uniquesTableName;
+    }
+
+    /**
+     * The resolution this one is rolled up from (null for RAW)
+     */
+    public AnalyticsResolution getSource() {
+        return this == RAW ? null : values()[ordinal() - 1];
+    }
+
+    /**
+     * Start of the bucket (UTC) that contains the given time
+     */
+    public OffsetDateTime truncate(OffsetDateTime time) {
+        OffsetDateTime utc = time.withOffsetSameInstant(ZoneOffset.UTC);
+        return unit == null ? utc : utc.truncatedTo(unit);
+    }
+
+    /**
+     * Start of the bucket that follows the one starting at the given time
+     */
+    public OffsetDateTime next(OffsetDateTime bucket) {
+        return unit == null ? bucket : bucket.plus(1, unit);
+    }
+}
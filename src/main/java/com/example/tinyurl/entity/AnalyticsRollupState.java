@@ -0,0 +1,48 @@
+package com.example.tinyurl.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.OffsetDateTime;
+
+/**
+ * How far a rollup resolution has been compacted from its source
+ * Buckets before rolledUpTo are in the rollup table; the rollup of one bucket and the move of
+ * the watermark past it are committed together.
+ */
+@Entity
+@Table(name = "analytics_rollup_state")
+@Getter
+@Setter
+@NoArgsConstructor
+public class AnalyticsRollupState {
+
+    @Id
+    @Enumerated(EnumType.STRING)
+    @Column(name = "resolution", length = 16, nullable = false)
+    private AnalyticsResolution resolution;
+
+    @Column(name = "rolled_up_to", nullable = false)
+    private OffsetDateTime rolledUpTo;
+
+    // Fences a rollup run that lost its lease
+    @Version
+    @Column(name = "version", nullable = false)
+    private Long version;
+
+    @Column(name = "updated_at", nullable = false)
+    private OffsetDateTime updatedAt;
+
+    public AnalyticsRollupState(AnalyticsResolution resolution, OffsetDateTime rolledUpTo) {
+        this.resolution = resolution;
+        this.rolledUpTo = rolledUpTo;
+    }
+
+    @PrePersist
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = OffsetDateTime.now();
+    }
+}
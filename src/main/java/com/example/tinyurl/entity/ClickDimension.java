@@ -0,0 +1,11 @@
+package com.example.tinyurl.entity;
+
+/**
+ * Dimensions click events are counted by in short_url_click_dimensions
+ */
+public enum ClickDimension {
+    REFERRER,
+    USER_AGENT,
+    COUNTRY,
+    STATUS
+}
@@ -0,0 +1,46 @@
+package com.example.tinyurl.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Clicks per URL per hour (UTC), rolled up from short_url_click_analytics
+ */
+@Entity
+@Table(name = "short_url_click_analytics_hourly", indexes = {
+    @Index(name = "idx_hourly_time", columnList = "time"),
+    @Index(name = "idx_hourly_url_id", columnList = "url_id")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class ShortUrlClickAnalyticsHourly {
+
+    @EmbeddedId
+    private ShortUrlClickAnalyticsId id;
+
+    @Column(name = "count", nullable = false)
+    private Long count;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "url_id", insertable = false, updatable = false,
+                foreignKey = @ForeignKey(name = "fk_short_url_click_analytics_hourly_url_id"))
+    private ShortUrl url;
+
+    public ShortUrlClickAnalyticsHourly(OffsetDateTime time, Long urlId, Long count) {
+        this.id = new ShortUrlClickAnalyticsId(time, urlId);
+        this.count = count;
+    }
+
+    public OffsetDateTime getTime() {
+        return id != null ? id.getTime() : null;
+    }
+
+    public Long getUrlId() {
+        return id != null ? id.getUrlId() : null;
+    }
+}
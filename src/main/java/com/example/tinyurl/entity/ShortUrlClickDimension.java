@@ -0,0 +1,47 @@
+package com.example.tinyurl.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Clicks per URL per hour (UTC) and value of one dimension (referrer, browser, country, status)
+ * Counted from the click event stream by ClickEventConsumer; an empty value is an unknown one.
+ */
+@Entity
+@Table(name = "short_url_click_dimensions", indexes = {
+    @Index(name = "idx_dimensions_url_id_time", columnList = "url_id, time")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class ShortUrlClickDimension {
+
+    @EmbeddedId
+    private ShortUrlClickDimensionId id;
+
+    @Column(name = "count", nullable = false)
+    private Long count;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "url_id", insertable = false, updatable = false,
+                foreignKey = @ForeignKey(name = "fk_short_url_click_dimensions_url_id"))
+    private ShortUrl url;
+
+    public ShortUrlClickDimension(OffsetDateTime time, Long urlId, ClickDimension dimension, String dimensionValue,
+                                  Long count) {
+        this.id = new ShortUrlClickDimensionId(time, urlId, dimension, dimensionValue);
+        this.count = count;
+    }
+
+    public OffsetDateTime getTime() {
+        return id != null ? id.getTime() : null;
+    }
+
+    public Long getUrlId() {
+        return id != null ? id.getUrlId() : null;
+    }
+}
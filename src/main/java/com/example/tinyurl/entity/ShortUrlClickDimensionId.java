@@ -0,0 +1,36 @@
+package com.example.tinyurl.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.Serializable;
+import java.time.OffsetDateTime;
+
+@Embeddable
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode
+public class ShortUrlClickDimensionId implements Serializable {
+
+    @Column(name = "time", nullable = false)
+    private OffsetDateTime time;
+
+    @Column(name = "url_id", nullable = false)
+    private Long urlId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "dimension", nullable = false, length = 16)
+    private ClickDimension dimension;
+
+    @Column(name = "dimension_value", nullable = false, length = 255)
+    private String dimensionValue;
+}
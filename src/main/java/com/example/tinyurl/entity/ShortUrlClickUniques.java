@@ -0,0 +1,50 @@
+package com.example.tinyurl.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Unique visitors per URL per time key bucket, as the serialized registers of a Redis HyperLogLog
+ * Sparse sketches of a few hundred visitors take a few hundred bytes; a dense one is 12 KB at most.
+ * Sketches are merged (PFMERGE / PFCOUNT over several keys) to count the visitors of a range.
+ */
+@Entity
+@Table(name = "short_url_click_uniques", indexes = {
+    @Index(name = "idx_uniques_url_id_time", columnList = "url_id, time")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class ShortUrlClickUniques {
+
+    // Dense HyperLogLog: 16 byte header and 16384 registers of 6 bits
+    public static final int MAX_REGISTERS_BYTES = 16 + 12288;
+
+    @EmbeddedId
+    private ShortUrlClickAnalyticsId id;
+
+    @Column(name = "registers", nullable = false, length = MAX_REGISTERS_BYTES)
+    private byte[] registers;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "url_id", insertable = false, updatable = false,
+                foreignKey = @ForeignKey(name = "fk_short_url_click_uniques_url_id"))
+    private ShortUrl url;
+
+    public ShortUrlClickUniques(OffsetDateTime time, Long urlId, byte[] registers) {
+        this.id = new ShortUrlClickAnalyticsId(time, urlId);
+        this.registers = registers;
+    }
+
+    public OffsetDateTime getTime() {
+        return id != null ? id.getTime() : null;
+    }
+
+    public Long getUrlId() {
+        return id != null ? id.getUrlId() : null;
+    }
+}
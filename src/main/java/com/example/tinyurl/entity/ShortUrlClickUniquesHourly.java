@@ -0,0 +1,45 @@
+package com.example.tinyurl.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Unique visitors per URL per hour (UTC), the union (PFMERGE) of the sketches in short_url_click_uniques
+ */
+@Entity
+@Table(name = "short_url_click_uniques_hourly", indexes = {
+    @Index(name = "idx_uniques_hourly_url_id_time", columnList = "url_id, time")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class ShortUrlClickUniquesHourly {
+
+    @EmbeddedId
+    private ShortUrlClickAnalyticsId id;
+
+    @Column(name = "registers", nullable = false, length = ShortUrlClickUniques.MAX_REGISTERS_BYTES)
+    private byte[] registers;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "url_id", insertable = false, updatable = false,
+                foreignKey = @ForeignKey(name = "fk_short_url_click_uniques_hourly_url_id"))
+    private ShortUrl url;
+
+    public ShortUrlClickUniquesHourly(OffsetDateTime time, Long urlId, byte[] registers) {
+        this.id = new ShortUrlClickAnalyticsId(time, urlId);
+        this.registers = registers;
+    }
+
+    public OffsetDateTime getTime() {
+        return id != null ? id.getTime() : null;
+    }
+
+    public Long getUrlId() {
+        return id != null ? id.getUrlId() : null;
+    }
+}
@@ -32,7 +32,8 @@ public class BearerTokenAuthenticationFilter implements WebFilter, Ordered {
         boolean requiresAuth = "/shorten".equals(path) 
             || "/user/logout".equals(path)
             || ("/user".equals(path) && "PATCH".equals(method))
-            || (path.startsWith("/url/") && "GET".equals(method));
+            || (path.startsWith("/url/") && "GET".equals(method))
+            || "/actuator/cachewarmup".equals(path);
         
         if (!requiresAuth) {
             return chain.filter(exchange);
@@ -5,6 +5,7 @@ import com.example.tinyurl.service.RateLimitService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.server.reactive.ServerHttpResponse;
@@ -30,6 +31,10 @@ public class RateLimitWebFilter implements WebFilter, Ordered {
     private final RateLimitService rateLimitService;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    // In script mode the redirect rate limit is checked by the redirect script itself
+    @Value("${redirect.script.enabled:false}")
+    private boolean redirectScriptEnabled;
+
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
         String path = exchange.getRequest().getPath().value();
@@ -39,6 +44,9 @@ public class RateLimitWebFilter implements WebFilter, Ordered {
         if ("GET".equals(method) && !path.equals("/user") && !path.equals("/shorten")) {
             // Extract shortURL from path (remove leading slash)
             String shortURL = path.startsWith("/") ? path.substring(1) : path;
+            if (redirectScriptEnabled && shortURL.indexOf('/') < 0) {
+                return chain.filter(exchange);
+            }
             return rateLimitService.checkGetRateLimit(shortURL)
                 .flatMap(allowed -> {
                     if (!allowed) {
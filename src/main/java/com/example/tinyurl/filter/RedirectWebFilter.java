@@ -0,0 +1,176 @@
+package com.example.tinyurl.filter;
+
+import com.example.tinyurl.model.ClickContext;
+import com.example.tinyurl.model.ErrorResponse;
+import com.example.tinyurl.service.ClickContextResolver;
+import com.example.tinyurl.service.RateLimitService;
+import com.example.tinyurl.service.UrlService;
+import com.example.tinyurl.service.UrlService.RedirectResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.reactive.handler.AbstractUrlHandlerMapping;
+import org.springframework.web.reactive.result.method.RequestMappingInfoHandlerMapping;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.UriUtils;
+import org.springframework.web.util.pattern.PathPattern;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Fast path for GET /{shortURL}
+ * Redirects are public and make up almost all of the traffic, so they are served here before
+ * the security chain, the other web filters and the annotated controller ever run:
+ * the filter rate limits the code, resolves it and writes the redirect (status and Location only)
+ * straight to the response.
+ * Every other path, and single-segment paths owned by other endpoints, continue down the chain.
+ *
+ * The single-segment paths owned by other endpoints are derived from the handler mappings
+ * once the context is refreshed (controllers, actuator and the API docs alike); until then
+ * every request continues down the chain.
+ */
+@Slf4j
+@Component
+public class RedirectWebFilter implements WebFilter, Ordered {
+
+    // Run ahead of the security chain (-100), BearerTokenAuthenticationFilter (-100) and RateLimitWebFilter (-50)
+    private static final int FILTER_ORDER = -200;
+
+    private final UrlService urlService;
+    private final RateLimitService rateLimitService;
+    private final ClickContextResolver clickContextResolver;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Value("${redirect.fast.path.enabled:true}")
+    private boolean enabled;
+
+    @Value("${redirect.status:301}")
+    private int redirectStatusCode;
+
+    // In script mode the rate limit is checked by the redirect script itself
+    @Value("${redirect.script.enabled:false}")
+    private boolean redirectScriptEnabled;
+
+    private HttpStatus redirectStatus;
+    // First path segments mapped by other endpoints, null until the handler mappings are known
+    private volatile Set<String> reservedSegments;
+
+    public RedirectWebFilter(UrlService urlService, RateLimitService rateLimitService,
+                             ClickContextResolver clickContextResolver) {
+        this.urlService = urlService;
+        this.rateLimitService = rateLimitService;
+        this.clickContextResolver = clickContextResolver;
+    }
+
+    @PostConstruct
+    public void initialize() {
+        redirectStatus = HttpStatus.valueOf(redirectStatusCode);
+        if (!redirectStatus.is3xxRedirection()) {
+            throw new IllegalStateException("redirect.status must be a 3xx status, got " + redirectStatusCode);
+        }
+    }
+
+    /**
+     * Collects the literal first segment of every pattern mapped by the handler mappings
+     * Patterns starting with a variable or wildcard (such as GET /{shortURL} itself) reserve nothing.
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public void collectReservedSegments(ContextRefreshedEvent event) {
+        // A child context (e.g. a separate management port) only adds to what is already known
+        Set<String> segments = reservedSegments != null ? new HashSet<>(reservedSegments) : new HashSet<>();
+        for (HandlerMapping mapping : event.getApplicationContext().getBeansOfType(HandlerMapping.class).values()) {
+            if (mapping instanceof RequestMappingInfoHandlerMapping infoMapping) {
+                infoMapping.getHandlerMethods().keySet().stream()
+                    .flatMap(info -> info.getPatternsCondition().getPatterns().stream())
+                    .forEach(pattern -> addFirstSegment(segments, pattern));
+            } else if (mapping instanceof AbstractUrlHandlerMapping urlMapping) {
+                urlMapping.getHandlerMap().keySet().forEach(pattern -> addFirstSegment(segments, pattern));
+            }
+        }
+        reservedSegments = Set.copyOf(segments);
+        log.info("Redirect fast path leaves these paths to other endpoints: {}", reservedSegments);
+    }
+
+    private static void addFirstSegment(Set<String> segments, PathPattern pattern) {
+        String patternString = pattern.getPatternString();
+        int start = patternString.startsWith("/") ? 1 : 0;
+        int end = patternString.indexOf('/', start);
+        String segment = patternString.substring(start, end < 0 ? patternString.length() : end);
+        if (!segment.isEmpty() && segment.indexOf('{') < 0 && segment.indexOf('*') < 0 && segment.indexOf('?') < 0) {
+            segments.add(segment);
+        }
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        Set<String> reserved = reservedSegments;
+        if (!enabled || reserved == null || exchange.getRequest().getMethod() != HttpMethod.GET) {
+            return chain.filter(exchange);
+        }
+
+        // Only single-segment paths: /{shortURL}
+        String path = exchange.getRequest().getPath().value();
+        if (path.length() < 2 || path.indexOf('/', 1) >= 0) {
+            return chain.filter(exchange);
+        }
+        String shortURL = UriUtils.decode(path.substring(1), StandardCharsets.UTF_8);
+        if (reserved.contains(shortURL)) {
+            return chain.filter(exchange);
+        }
+
+        // Click event dimensions and visitor fingerprint (ClickContext.NONE unless either is enabled)
+        ClickContext clickContext = clickContextResolver.resolve(exchange.getRequest(), redirectStatus.value());
+        Mono<RedirectResult> result = redirectScriptEnabled
+            ? urlService.redirect(shortURL, clickContext)
+            : rateLimitService.checkGetRateLimit(shortURL)
+                .flatMap(allowed -> allowed
+                    ? urlService.getLongUrl(shortURL, clickContext)
+                    : Mono.just(new RedirectResult(null,
+                        new ErrorResponse("RATE_LIMIT_EXCEEDED", "Rate limit exceeded"), HttpStatus.TOO_MANY_REQUESTS)));
+
+        return result.flatMap(redirect -> redirect.getError() != null
+            ? writeError(exchange.getResponse(), redirect.getStatus(), redirect.getError())
+            : writeRedirect(exchange.getResponse(), redirect.getLongUrl()));
+    }
+
+    private Mono<Void> writeRedirect(ServerHttpResponse response, String longUrl) {
+        response.setStatusCode(redirectStatus);
+        response.getHeaders().set(HttpHeaders.LOCATION, longUrl);
+        return response.setComplete();
+    }
+
+    private Mono<Void> writeError(ServerHttpResponse response, HttpStatus status, ErrorResponse errorResponse) {
+        response.setStatusCode(status);
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+
+        try {
+            String json = objectMapper.writeValueAsString(errorResponse);
+            DataBuffer buffer = response.bufferFactory().wrap(json.getBytes(StandardCharsets.UTF_8));
+            return response.writeWith(Mono.just(buffer));
+        } catch (Exception e) {
+            return Mono.error(e);
+        }
+    }
+
+    @Override
+    public int getOrder() {
+        return FILTER_ORDER;
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.tinyurl.model;
+
+import java.time.DayOfWeek;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Locale;
+
+/**
+ * Bucket size of an analytics query (`granularity` request parameter)
+ * Weeks start on Monday.
+ */
+public enum AnalyticsGranularity {
+    MINUTE,
+    HOUR,
+    DAY,
+    WEEK;
+
+    /**
+     * Start of the bucket that contains the given time, in the given zone
+     * Matches the buckets computed by the DB (date_trunc on the local time).
+     */
+    public OffsetDateTime truncate(OffsetDateTime time, ZoneId zone) {
+        ZonedDateTime local = time.atZoneSameInstant(zone);
+        ZonedDateTime bucket = switch (this) {
+            case MINUTE -> local.truncatedTo(ChronoUnit.MINUTES);
+            case HOUR -> local.truncatedTo(ChronoUnit.HOURS);
+            case DAY -> local.toLocalDate().atStartOfDay(zone);
+            case WEEK -> local.toLocalDate().with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)).atStartOfDay(zone);
+        };
+        return bucket.toOffsetDateTime();
+    }
+
+    /**
+     * Parses a request parameter value, ignoring case
+     * @return The granularity, or null if the value names none
+     */
+    public static AnalyticsGranularity parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.tinyurl.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -12,5 +13,11 @@ import java.time.OffsetDateTime;
 public class AnalyticsResponse {
     private OffsetDateTime time;
     private Long count;
-}
+    // Estimated distinct visitors, left out where no visitor was counted
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long uniques;
 
+    public AnalyticsResponse(OffsetDateTime time, Long count) {
+        this(time, count, null);
+    }
+}
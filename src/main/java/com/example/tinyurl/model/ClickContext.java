@@ -0,0 +1,19 @@
+package com.example.tinyurl.model;
+
+/**
+ * Request dimensions recorded with a click (analytics.events.enabled, analytics.uniques.enabled)
+ * Values are reduced when the context is built: the referrer to its host, the User-Agent to a
+ * browser family, the country header to a two-letter code and the client to a hashed fingerprint;
+ * unknown values are empty.
+ *
+ * @param referrer Host of the Referer header
+ * @param userAgent Browser family of the User-Agent header (e.g. "chrome", "bot")
+ * @param country ISO 3166 country code from the country header
+ * @param status HTTP status of the response
+ * @param visitor Hashed client fingerprint, counted in the link's unique visitors
+ */
+public record ClickContext(String referrer, String userAgent, String country, int status, String visitor) {
+
+    // No request at hand - the click is counted, but no event or visitor is recorded
+    public static final ClickContext NONE = new ClickContext("", "", "", 0, "");
+}
@@ -0,0 +1,32 @@
+package com.example.tinyurl.repository;
+
+import com.example.tinyurl.entity.AnalyticsDumpJournal;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+@Repository
+public interface AnalyticsDumpJournalRepository extends JpaRepository<AnalyticsDumpJournal, String> {
+
+    /**
+     * Dumps that have not completed (oldest first)
+     */
+    @Query("SELECT j FROM AnalyticsDumpJournal j WHERE j.status <> com.example.tinyurl.entity.AnalyticsDumpJournal.Status.DONE " +
+           "ORDER BY j.createdAt ASC")
+    List<AnalyticsDumpJournal> findUnfinished();
+
+    /**
+     * Removes completed dumps last updated before the given time
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM AnalyticsDumpJournal j WHERE j.status = com.example.tinyurl.entity.AnalyticsDumpJournal.Status.DONE " +
+           "AND j.updatedAt < :before")
+    int deleteDoneBefore(@Param("before") OffsetDateTime before);
+}
@@ -0,0 +1,10 @@
+package com.example.tinyurl.repository;
+
+import com.example.tinyurl.entity.AnalyticsResolution;
+import com.example.tinyurl.entity.AnalyticsRollupState;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface AnalyticsRollupStateRepository extends JpaRepository<AnalyticsRollupState, AnalyticsResolution> {
+}
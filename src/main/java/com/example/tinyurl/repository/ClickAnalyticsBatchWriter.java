@@ -0,0 +1,346 @@
+package com.example.tinyurl.repository;
+
+import com.example.tinyurl.entity.AnalyticsResolution;
+import com.example.tinyurl.entity.ClickDimension;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+/**
+ * Set-based writer for short_url_click_analytics and its hourly / daily rollups
+ * Adds click counts to (time, url_id) rows with one multi-row upsert statement per batch,
+ * and sends all full batches to the DB as a single JDBC batch:
+ * - PostgreSQL: INSERT ... ON CONFLICT (time, url_id) DO UPDATE SET count = count + EXCLUDED.count
+ * - H2 (tests): MERGE INTO ... USING (VALUES ...) with the same semantics
+ * No entities are loaded, so there is no per-row SELECT and no dirty checking.
+ *
+ * Rollups are computed in the DB with one INSERT ... SELECT ... GROUP BY url_id per bucket.
+ * Unique visitor sketches are rolled up alongside: the sketches of a URL within a bucket are read a
+ * page of URLs at a time and replaced by their union, which the caller computes (PFMERGE in Redis).
+ * Dimension counts of click events (short_url_click_dimensions) are upserted the same way.
+ */
+@Repository
+public class ClickAnalyticsBatchWriter {
+
+    // Keeps a statement well below the PostgreSQL limit of 32767 bind parameters
+    private static final int MAX_BATCH_SIZE = 10000;
+
+    // URLs whose sketches are read and merged at once by a sketch rollup (60 minute sketches each at most)
+    private static final int SKETCH_PAGE_URLS = 100;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${analytics.dump.batch.size:1000}")
+    private int batchSize;
+
+    private volatile Boolean postgres;
+
+    public ClickAnalyticsBatchWriter(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Adds click counts for a single time bucket
+     * Counts that arrive for an hour or day that is already rolled up (a late dump) are added
+     * to that rollup as well, in the same transaction.
+     * @param time The bucket time
+     * @param countsByUrlId url_id -> clicks to add (one entry per url_id)
+     * @return Number of rows written
+     */
+    @Transactional
+    public int addCounts(OffsetDateTime time, Map<Long, Long> countsByUrlId) {
+        if (countsByUrlId.isEmpty()) {
+            return 0;
+        }
+        List<Map.Entry<Long, Long>> rows = new ArrayList<>(countsByUrlId.entrySet());
+        upsert(AnalyticsResolution.RAW, time, rows);
+
+        Map<AnalyticsResolution, OffsetDateTime> rolledUpTo = findRolledUpTo();
+        for (AnalyticsResolution resolution : List.of(AnalyticsResolution.HOUR, AnalyticsResolution.DAY)) {
+            OffsetDateTime watermark = rolledUpTo.get(resolution);
+            if (watermark != null && time.isBefore(watermark)) {
+                upsert(resolution, resolution.truncate(time), rows);
+            }
+        }
+        return rows.size();
+    }
+
+    /**
+     * Adds click counts per dimension value to short_url_click_dimensions
+     * @param counts (hour, url_id, dimension, value) -> clicks to add
+     * @return Number of rows written
+     */
+    @Transactional
+    public int addDimensionCounts(Map<DimensionKey, Long> counts) {
+        if (counts.isEmpty()) {
+            return 0;
+        }
+        List<Map.Entry<DimensionKey, Long>> rows = new ArrayList<>(counts.entrySet());
+        int size = Math.max(1, Math.min(batchSize, MAX_BATCH_SIZE / 2));
+        int fullBatches = rows.size() / size;
+
+        if (fullBatches > 0) {
+            jdbcTemplate.batchUpdate(dimensionUpsertSql(size), new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement statement, int batch) throws SQLException {
+                    bindDimensions(statement, rows.subList(batch * size, (batch + 1) * size));
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return fullBatches;
+                }
+            });
+        }
+
+        List<Map.Entry<DimensionKey, Long>> remainder = rows.subList(fullBatches * size, rows.size());
+        if (!remainder.isEmpty()) {
+            jdbcTemplate.update(dimensionUpsertSql(remainder.size()), statement -> bindDimensions(statement, remainder));
+        }
+        return rows.size();
+    }
+
+    /**
+     * Rolls one bucket of a resolution up from its source resolution
+     * The bucket's rows are replaced by the source rows summed per url_id, so a bucket can be rolled up again.
+     * @param resolution HOUR or DAY
+     * @param bucket Start of the bucket (as returned by resolution.truncate)
+     * @return Number of rows written
+     */
+    public int rollUp(AnalyticsResolution resolution, OffsetDateTime bucket) {
+        String source = resolution.getSource().getTableName();
+        String target = resolution.getTableName();
+        String select = "SELECT CAST(? AS TIMESTAMP WITH TIME ZONE) AS time, url_id, SUM(count) AS count FROM " + source
+            + " WHERE time >= ? AND time < ? GROUP BY url_id";
+        String sql = isPostgres()
+            ? "INSERT INTO " + target + " (time, url_id, count) " + select
+                + " ON CONFLICT (time, url_id) DO UPDATE SET count = EXCLUDED.count"
+            : "MERGE INTO " + target + " a USING (" + select + ") s ON a.time = s.time AND a.url_id = s.url_id"
+                + " WHEN MATCHED THEN UPDATE SET count = s.count"
+                + " WHEN NOT MATCHED THEN INSERT (time, url_id, count) VALUES (s.time, s.url_id, s.count)";
+        return jdbcTemplate.update(sql, bucket, bucket, resolution.next(bucket));
+    }
+
+    /**
+     * Rolls the unique visitor sketches of one bucket of a resolution up from its source resolution
+     * The bucket's sketches are replaced by the union of the source sketches per url_id, so a bucket can be
+     * rolled up again.
+     * @param resolution HOUR or DAY
+     * @param bucket Start of the bucket (as returned by resolution.truncate)
+     * @param union Serialized registers of the union of the given sketches
+     * @return Number of rows written
+     */
+    public int rollUpUniques(AnalyticsResolution resolution, OffsetDateTime bucket, Function<List<byte[]>, byte[]> union) {
+        String source = resolution.getSource().getUniquesTableName();
+        OffsetDateTime end = resolution.next(bucket);
+        int written = 0;
+        long afterUrlId = Long.MIN_VALUE;
+        while (true) {
+            // Step 1: The next page of URLs with sketches in the bucket
+            List<Long> urlIds = jdbcTemplate.queryForList("SELECT DISTINCT url_id FROM " + source
+                + " WHERE time >= ? AND time < ? AND url_id > ? ORDER BY url_id LIMIT " + SKETCH_PAGE_URLS,
+                Long.class, bucket, end, afterUrlId);
+            if (urlIds.isEmpty()) {
+                return written;
+            }
+
+            // Step 2: Their sketches, merged per URL
+            Map<Long, List<byte[]>> sketches = new LinkedHashMap<>();
+            jdbcTemplate.query("SELECT url_id, registers FROM " + source
+                + " WHERE time >= ? AND time < ? AND url_id >= ? AND url_id <= ?", row -> {
+                sketches.computeIfAbsent(row.getLong(1), urlId -> new ArrayList<>()).add(row.getBytes(2));
+            }, bucket, end, urlIds.get(0), urlIds.get(urlIds.size() - 1));
+            List<Object[]> rows = new ArrayList<>(sketches.size());
+            sketches.forEach((urlId, registers) -> rows.add(new Object[]{bucket, urlId, union.apply(registers)}));
+
+            // Step 3: Replace the rolled up sketches
+            jdbcTemplate.batchUpdate(putSketchSql(resolution.getUniquesTableName()), rows);
+            written += rows.size();
+            if (urlIds.size() < SKETCH_PAGE_URLS) {
+                return written;
+            }
+            afterUrlId = urlIds.get(urlIds.size() - 1);
+        }
+    }
+
+    /**
+     * Merges a unique visitor sketch into the row of its URL and bucket
+     * A sketch that arrives for an hour or day that is already rolled up (a late dump) is merged
+     * into that rollup as well, in the same transaction.
+     * @param time The bucket time
+     * @param union Serialized registers of the union of two sketches
+     */
+    @Transactional
+    public void addSketch(OffsetDateTime time, Long urlId, byte[] registers, BinaryOperator<byte[]> union) {
+        mergeSketch(AnalyticsResolution.RAW, time, urlId, registers, union);
+
+        Map<AnalyticsResolution, OffsetDateTime> rolledUpTo = findRolledUpTo();
+        for (AnalyticsResolution resolution : List.of(AnalyticsResolution.HOUR, AnalyticsResolution.DAY)) {
+            OffsetDateTime watermark = rolledUpTo.get(resolution);
+            if (watermark != null && time.isBefore(watermark)) {
+                mergeSketch(resolution, resolution.truncate(time), urlId, registers, union);
+            }
+        }
+    }
+
+    /**
+     * Deletes the rows of a resolution older than the given time
+     * @return Number of rows deleted
+     */
+    public int deleteBefore(AnalyticsResolution resolution, OffsetDateTime before) {
+        return jdbcTemplate.update("DELETE FROM " + resolution.getTableName() + " WHERE time < ?", before);
+    }
+
+    /**
+     * Deletes the unique visitor sketches of a resolution older than the given time
+     * @return Number of rows deleted
+     */
+    public int deleteUniquesBefore(AnalyticsResolution resolution, OffsetDateTime before) {
+        return jdbcTemplate.update("DELETE FROM " + resolution.getUniquesTableName() + " WHERE time < ?", before);
+    }
+
+    /**
+     * Rollup watermarks (resolutions that were never rolled up are left out)
+     */
+    private Map<AnalyticsResolution, OffsetDateTime> findRolledUpTo() {
+        Map<AnalyticsResolution, OffsetDateTime> rolledUpTo = new EnumMap<>(AnalyticsResolution.class);
+        jdbcTemplate.query("SELECT resolution, rolled_up_to FROM analytics_rollup_state", row -> {
+            rolledUpTo.put(AnalyticsResolution.valueOf(row.getString(1)), row.getObject(2, OffsetDateTime.class));
+        });
+        return rolledUpTo;
+    }
+
+    /**
+     * Merges a sketch into one row, locked while it is read so concurrent merges do not lose visitors
+     */
+    private void mergeSketch(AnalyticsResolution resolution, OffsetDateTime time, Long urlId, byte[] registers,
+                             BinaryOperator<byte[]> union) {
+        String table = resolution.getUniquesTableName();
+        List<byte[]> current = jdbcTemplate.query("SELECT registers FROM " + table
+            + " WHERE time = ? AND url_id = ? FOR UPDATE", (row, index) -> row.getBytes(1), time, urlId);
+        byte[] merged = current.isEmpty() ? registers : union.apply(current.get(0), registers);
+        jdbcTemplate.update(putSketchSql(table), time, urlId, merged);
+    }
+
+    private String putSketchSql(String table) {
+        if (isPostgres()) {
+            return "INSERT INTO " + table + " (time, url_id, registers) VALUES (?, ?, ?)"
+                + " ON CONFLICT (time, url_id) DO UPDATE SET registers = EXCLUDED.registers";
+        }
+        return "MERGE INTO " + table + " (time, url_id, registers) KEY (time, url_id) VALUES (?, ?, ?)";
+    }
+
+    private void upsert(AnalyticsResolution resolution, OffsetDateTime time, List<Map.Entry<Long, Long>> rows) {
+        String table = resolution.getTableName();
+        int size = Math.max(1, Math.min(batchSize, MAX_BATCH_SIZE));
+        int fullBatches = rows.size() / size;
+
+        if (fullBatches > 0) {
+            jdbcTemplate.batchUpdate(upsertSql(table, size), new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement statement, int batch) throws SQLException {
+                    bind(statement, time, rows.subList(batch * size, (batch + 1) * size));
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return fullBatches;
+                }
+            });
+        }
+
+        List<Map.Entry<Long, Long>> remainder = rows.subList(fullBatches * size, rows.size());
+        if (!remainder.isEmpty()) {
+            jdbcTemplate.update(upsertSql(table, remainder.size()), statement -> bind(statement, time, remainder));
+        }
+    }
+
+    private static void bind(PreparedStatement statement, OffsetDateTime time, List<Map.Entry<Long, Long>> rows)
+            throws SQLException {
+        int index = 1;
+        for (Map.Entry<Long, Long> row : rows) {
+            statement.setObject(index++, time);
+            statement.setLong(index++, row.getKey());
+            statement.setLong(index++, row.getValue());
+        }
+    }
+
+    private String upsertSql(String table, int rows) {
+        if (isPostgres()) {
+            return "INSERT INTO " + table + " (time, url_id, count) VALUES "
+                + String.join(", ", Collections.nCopies(rows, "(?, ?, ?)"))
+                + " ON CONFLICT (time, url_id) DO UPDATE SET count = " + table + ".count + EXCLUDED.count";
+        }
+        return "MERGE INTO " + table + " a USING (VALUES "
+            + String.join(", ", Collections.nCopies(rows,
+                "(CAST(? AS TIMESTAMP WITH TIME ZONE), CAST(? AS BIGINT), CAST(? AS BIGINT))"))
+            + ") AS s(time, url_id, count) ON a.time = s.time AND a.url_id = s.url_id"
+            + " WHEN MATCHED THEN UPDATE SET count = a.count + s.count"
+            + " WHEN NOT MATCHED THEN INSERT (time, url_id, count) VALUES (s.time, s.url_id, s.count)";
+    }
+
+    private static void bindDimensions(PreparedStatement statement, List<Map.Entry<DimensionKey, Long>> rows)
+            throws SQLException {
+        int index = 1;
+        for (Map.Entry<DimensionKey, Long> row : rows) {
+            statement.setObject(index++, row.getKey().time());
+            statement.setLong(index++, row.getKey().urlId());
+            statement.setString(index++, row.getKey().dimension().name());
+            statement.setString(index++, row.getKey().value());
+            statement.setLong(index++, row.getValue());
+        }
+    }
+
+    private String dimensionUpsertSql(int rows) {
+        String table = "short_url_click_dimensions";
+        if (isPostgres()) {
+            return "INSERT INTO " + table + " (time, url_id, dimension, dimension_value, count) VALUES "
+                + String.join(", ", Collections.nCopies(rows, "(?, ?, ?, ?, ?)"))
+                + " ON CONFLICT (time, url_id, dimension, dimension_value) DO UPDATE SET count = "
+                + table + ".count + EXCLUDED.count";
+        }
+        return "MERGE INTO " + table + " a USING (VALUES "
+            + String.join(", ", Collections.nCopies(rows,
+                "(CAST(? AS TIMESTAMP WITH TIME ZONE), CAST(? AS BIGINT), CAST(? AS VARCHAR(16)),"
+                    + " CAST(? AS VARCHAR(255)), CAST(? AS BIGINT))"))
+            + ") AS s(time, url_id, dimension, dimension_value, count)"
+            + " ON a.time = s.time AND a.url_id = s.url_id AND a.dimension = s.dimension"
+            + " AND a.dimension_value = s.dimension_value"
+            + " WHEN MATCHED THEN UPDATE SET count = a.count + s.count"
+            + " WHEN NOT MATCHED THEN INSERT (time, url_id, dimension, dimension_value, count)"
+            + " VALUES (s.time, s.url_id, s.dimension, s.dimension_value, s.count)";
+    }
+
+    private boolean isPostgres() {
+        Boolean result = postgres;
+        if (result == null) {
+            String product = jdbcTemplate.execute((ConnectionCallback<String>) connection ->
+                connection.getMetaData().getDatabaseProductName());
+            result = product != null && product.toLowerCase().contains("postgres");
+            postgres = result;
+        }
+        return result;
+    }
+
+    /**
+     * One row of short_url_click_dimensions
+     * @param time Start of the hour (UTC)
+     */
+    public record DimensionKey(OffsetDateTime time, long urlId, ClickDimension dimension, String value) {
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.tinyurl.repository;
+
+import com.example.tinyurl.entity.AnalyticsResolution;
+import com.example.tinyurl.model.AnalyticsGranularity;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Sums the clicks of a URL per time bucket in the DB, so only the buckets leave it
+ * Rows of a (url_id, time) range are truncated to the bucket in the requested time zone and grouped:
+ * - PostgreSQL: date_trunc('<granularity>', time AT TIME ZONE <zone>) AT TIME ZONE <zone>
+ * - H2 (tests): DATE_TRUNC on time AT TIME ZONE <zone>, weeks moved back to Monday with ISO_DAY_OF_WEEK
+ * Unique visitor sketches cannot be summed; they are read as stored and counted by the caller.
+ */
+@Repository
+public class ClickAnalyticsBucketReader {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private volatile Boolean postgres;
+
+    public ClickAnalyticsBucketReader(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Clicks per bucket for one URL in one table
+     * @param resolution The table to read
+     * @param urlId The URL ID
+     * @param startTime The start time (inclusive)
+     * @param endTime The end time (inclusive)
+     * @param before Only rows before this time (exclusive), null for no bound
+     * @param granularity Bucket size, null to group by the stored time
+     * @param zone Time zone the buckets are aligned to
+     * @return Bucket start (at the zone's offset) -> clicks, ordered by time
+     */
+    public Map<OffsetDateTime, Long> sumByBucket(AnalyticsResolution resolution, Long urlId,
+                                                 OffsetDateTime startTime, OffsetDateTime endTime, OffsetDateTime before,
+                                                 AnalyticsGranularity granularity, ZoneId zone) {
+        List<Object> args = new ArrayList<>();
+        String bucket = bucketExpression(granularity, zone);
+        StringBuilder sql = new StringBuilder("SELECT bucket, SUM(count) FROM (SELECT ")
+            .append(bucket).append(" AS bucket, count FROM ").append(resolution.getTableName())
+            .append(" WHERE url_id = ? AND time >= ? AND time <= ?");
+        args.add(urlId);
+        args.add(startTime);
+        args.add(endTime);
+        if (before != null) {
+            sql.append(" AND time < ?");
+            args.add(before);
+        }
+        sql.append(") b GROUP BY bucket ORDER BY bucket");
+
+        Map<OffsetDateTime, Long> buckets = new LinkedHashMap<>();
+        jdbcTemplate.query(sql.toString(), row -> {
+            OffsetDateTime time = row.getObject(1, OffsetDateTime.class);
+            buckets.merge(time.atZoneSameInstant(zone).toOffsetDateTime(), row.getLong(2), Long::sum);
+        }, args.toArray());
+        return buckets;
+    }
+
+    /**
+     * Unique visitor sketches of one URL in one table
+     * @param resolution The table to read
+     * @param urlId The URL ID
+     * @param startTime The start time (inclusive)
+     * @param endTime The end time (inclusive)
+     * @param before Only rows before this time (exclusive), null for no bound
+     * @return Stored time -> serialized registers, ordered by time
+     */
+    public Map<OffsetDateTime, byte[]> findSketches(AnalyticsResolution resolution, Long urlId,
+                                                    OffsetDateTime startTime, OffsetDateTime endTime,
+                                                    OffsetDateTime before) {
+        List<Object> args = new ArrayList<>(List.of(urlId, startTime, endTime));
+        StringBuilder sql = new StringBuilder("SELECT time, registers FROM ").append(resolution.getUniquesTableName())
+            .append(" WHERE url_id = ? AND time >= ? AND time <= ?");
+        if (before != null) {
+            sql.append(" AND time < ?");
+            args.add(before);
+        }
+        sql.append(" ORDER BY time");
+
+        Map<OffsetDateTime, byte[]> sketches = new LinkedHashMap<>();
+        jdbcTemplate.query(sql.toString(), row -> {
+            sketches.put(row.getObject(1, OffsetDateTime.class), row.getBytes(2));
+        }, args.toArray());
+        return sketches;
+    }
+
+    private String bucketExpression(AnalyticsGranularity granularity, ZoneId zone) {
+        if (granularity == null) {
+            return "time";
+        }
+        String field = granularity.name().toLowerCase(Locale.ROOT);
+        String local = "time AT TIME ZONE " + zoneSql(zone);
+        if (isPostgres()) {
+            return "date_trunc('" + field + "', " + local + ") AT TIME ZONE " + zoneSql(zone);
+        }
+        if (granularity == AnalyticsGranularity.WEEK) {
+            return "DATEADD(DAY, 1 - ISO_DAY_OF_WEEK(" + local + "), DATE_TRUNC('DAY', " + local + "))";
+        }
+        return "DATE_TRUNC('" + field.toUpperCase(Locale.ROOT) + "', " + local + ")";
+    }
+
+    /**
+     * A time zone operand for AT TIME ZONE (zone ids are validated by ZoneId - safe to inline)
+     * PostgreSQL reads an offset string the POSIX way (east is negative), so offsets go in as an INTERVAL.
+     */
+    private String zoneSql(ZoneId zone) {
+        ZoneId normalized = zone.normalized();
+        if (normalized instanceof ZoneOffset offset) {
+            if (offset.getTotalSeconds() == 0) {
+                return "'UTC'";
+            }
+            return isPostgres() ? "INTERVAL '" + offset.getId() + "'" : "'" + offset.getId() + "'";
+        }
+        return "'" + normalized.getId().replace("'", "''") + "'";
+    }
+
+    private boolean isPostgres() {
+        Boolean result = postgres;
+        if (result == null) {
+            String product = jdbcTemplate.execute((ConnectionCallback<String>) connection ->
+                connection.getMetaData().getDatabaseProductName());
+            result = product != null && product.toLowerCase().contains("postgres");
+            postgres = result;
+        }
+        return result;
+    }
+}
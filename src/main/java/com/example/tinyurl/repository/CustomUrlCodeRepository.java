@@ -2,13 +2,41 @@ package com.example.tinyurl.repository;
 
 import com.example.tinyurl.entity.CustomUrlCode;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface CustomUrlCodeRepository extends JpaRepository<CustomUrlCode, String> {
     
     Optional<CustomUrlCode> findByCode(String code);
-}
 
+    /**
+     * Custom codes of the given URL id
+     */
+    @Query("SELECT c.code FROM CustomUrlCode c WHERE c.url.id = :urlId")
+    List<String> findCodesByUrlId(@Param("urlId") Long urlId);
+
+    /**
+     * Custom codes of the given URL ids
+     */
+    @Query("SELECT c FROM CustomUrlCode c WHERE c.url.id IN :urlIds")
+    List<CustomUrlCode> findByUrlIdIn(@Param("urlIds") Collection<Long> urlIds);
+
+    /**
+     * URL ids of the given custom codes (codes that do not exist are left out)
+     * Projection only - the URL entity is not loaded.
+     */
+    @Query("SELECT c.code AS code, c.url.id AS urlId FROM CustomUrlCode c WHERE c.code IN :codes")
+    List<CodeUrlId> findUrlIdsByCodeIn(@Param("codes") Collection<String> codes);
+
+    interface CodeUrlId {
+        String getCode();
+
+        Long getUrlId();
+    }
+}
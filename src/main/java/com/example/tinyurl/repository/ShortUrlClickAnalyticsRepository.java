@@ -2,6 +2,8 @@ package com.example.tinyurl.repository;
 
 import com.example.tinyurl.entity.ShortUrlClickAnalytics;
 import com.example.tinyurl.entity.ShortUrlClickAnalyticsId;
+import com.example.tinyurl.model.AnalyticsResponse;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -30,5 +32,42 @@ public interface ShortUrlClickAnalyticsRepository extends JpaRepository<ShortUrl
         @Param("startTime") OffsetDateTime startTime,
         @Param("endTime") OffsetDateTime endTime
     );
-}
 
+    /**
+     * Most-clicked URL ids since the given time
+     * @param since The start time (inclusive)
+     * @param pageable Number of ids to return (page number should stay 0)
+     * @return URL ids ordered by total clicks descending
+     */
+    @Query("SELECT a.id.urlId FROM ShortUrlClickAnalytics a " +
+           "WHERE a.id.time >= :since " +
+           "GROUP BY a.id.urlId " +
+           "ORDER BY SUM(a.count) DESC")
+    List<Long> findTopUrlIdsSince(@Param("since") OffsetDateTime since, Pageable pageable);
+
+    /**
+     * Time of the oldest row (null when the table is empty)
+     */
+    @Query("SELECT MIN(a.id.time) FROM ShortUrlClickAnalytics a")
+    OffsetDateTime findMinTime();
+
+    /**
+     * One keyset page of a URL's rows, for streaming
+     * @param urlId The URL ID to filter by
+     * @param afterTime Only rows after this time (exclusive) - the time of the last row of the previous page
+     * @param endTime The end time (inclusive)
+     * @param pageable Page size (page number should stay 0)
+     * @return Rows ordered by time, as DTOs (no entities are kept in a persistence context)
+     */
+    @Query("SELECT new com.example.tinyurl.model.AnalyticsResponse(a.id.time, a.count) FROM ShortUrlClickAnalytics a " +
+           "WHERE a.id.urlId = :urlId " +
+           "AND a.id.time > :afterTime " +
+           "AND a.id.time <= :endTime " +
+           "ORDER BY a.id.time ASC")
+    List<AnalyticsResponse> findPageByUrlId(
+        @Param("urlId") Long urlId,
+        @Param("afterTime") OffsetDateTime afterTime,
+        @Param("endTime") OffsetDateTime endTime,
+        Pageable pageable
+    );
+}
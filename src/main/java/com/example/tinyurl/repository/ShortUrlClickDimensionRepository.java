@@ -0,0 +1,18 @@
+package com.example.tinyurl.repository;
+
+import com.example.tinyurl.entity.ClickDimension;
+import com.example.tinyurl.entity.ShortUrlClickDimension;
+import com.example.tinyurl.entity.ShortUrlClickDimensionId;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface ShortUrlClickDimensionRepository extends JpaRepository<ShortUrlClickDimension, ShortUrlClickDimensionId> {
+
+    /**
+     * Counts of a URL by the values of one dimension, all hours
+     */
+    List<ShortUrlClickDimension> findByIdUrlIdAndIdDimension(Long urlId, ClickDimension dimension);
+}
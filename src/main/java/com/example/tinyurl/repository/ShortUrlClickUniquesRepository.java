@@ -0,0 +1,10 @@
+package com.example.tinyurl.repository;
+
+import com.example.tinyurl.entity.ShortUrlClickAnalyticsId;
+import com.example.tinyurl.entity.ShortUrlClickUniques;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ShortUrlClickUniquesRepository extends JpaRepository<ShortUrlClickUniques, ShortUrlClickAnalyticsId> {
+}
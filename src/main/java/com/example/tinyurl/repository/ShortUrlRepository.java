@@ -1,9 +1,14 @@
 package com.example.tinyurl.repository;
 
 import com.example.tinyurl.entity.ShortUrl;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.OffsetDateTime;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -12,5 +17,28 @@ public interface ShortUrlRepository extends JpaRepository<ShortUrl, Long> {
     Optional<ShortUrl> findByLongUrlHashAndLongUrl(String longUrlHash, String longUrl);
     
     Optional<ShortUrl> findById(Long id);
-}
 
+    /**
+     * Keyset pagination over URL ids
+     * @param afterId Only ids greater than this are returned
+     * @param pageable Page size (page number should stay 0)
+     * @return Ids ordered ascending
+     */
+    @Query("SELECT s.id FROM ShortUrl s WHERE s.id > :afterId ORDER BY s.id ASC")
+    List<Long> findIdsAfter(@Param("afterId") Long afterId, Pageable pageable);
+
+    /**
+     * Keyset pagination over URLs
+     * @param afterId Only URLs with an id greater than this are returned
+     * @param pageable Page size (page number should stay 0)
+     * @return URLs ordered by id ascending
+     */
+    @Query("SELECT s FROM ShortUrl s WHERE s.id > :afterId ORDER BY s.id ASC")
+    List<ShortUrl> findPageAfter(@Param("afterId") Long afterId, Pageable pageable);
+
+    /**
+     * Highest URL id created before the given time
+     */
+    @Query("SELECT MAX(s.id) FROM ShortUrl s WHERE s.createdAt < :before")
+    Long findMaxIdCreatedBefore(@Param("before") OffsetDateTime before);
+}
@@ -1,20 +1,30 @@
 package com.example.tinyurl.scheduler;
 
+import com.example.tinyurl.service.AnalyticsDumpService;
 import com.example.tinyurl.service.AnalyticsService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.ReactiveRedisTemplate;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.support.CronTrigger;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
+import java.time.Duration;
 import java.time.OffsetDateTime;
-import java.time.temporal.ChronoUnit;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Slf4j
 @Component
@@ -22,38 +32,61 @@ import java.util.Set;
 public class AnalyticsDumpScheduler {
 
     private final AnalyticsService analyticsService;
+    private final AnalyticsDumpService analyticsDumpService;
     private final @Qualifier("reactiveStringRedisTemplate") ReactiveRedisTemplate<String, String> redisTemplate;
+    private final TaskScheduler taskScheduler;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${analytics.dump.enabled:true}")
+    private boolean enabled;
 
     @Value("${analytics.time.key.format:year.month.day.hour}")
     private String timeKeyFormat;
 
+    // Buckets dumped at the same time (oldest buckets are started first)
+    @Value("${analytics.dump.parallelism:4}")
+    private int parallelism;
+
+    // A bucket is closed this long after its time window ended (clicks still in flight)
+    @Value("${analytics.dump.close.delay.seconds:1}")
+    private long closeDelaySeconds;
+
     private String dumpCron;
-    private long offsetValue;
-    private String offsetUnit;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile long backlogBuckets;
+    private volatile long backlogAgeSeconds;
 
     @PostConstruct
     public void initialize() {
-        // Always infer cron and offset from time key format
+        // Always infer cron from time key format
         String lastPart = getLastPartOfTimeKeyFormat();
-        
+
         // Infer cron schedule based on time key format
         if ("minute".equalsIgnoreCase(lastPart)) {
             dumpCron = "1 * * * * *"; // Every minute at second 1
-            offsetValue = 1;
-            offsetUnit = "minutes";
-            log.info("Inferred from time key format (ends with 'minute'): cron = {}, offset = {} {}", dumpCron, offsetValue, offsetUnit);
+            log.info("Inferred from time key format (ends with 'minute'): cron = {}", dumpCron);
         } else if ("hour".equalsIgnoreCase(lastPart)) {
-            dumpCron = "0 1 * * * *"; // Every hour at minute 0
-            offsetValue = 1;
-            offsetUnit = "hours";
-            log.info("Inferred from time key format (ends with 'hour'): cron = {}, offset = {} {}", dumpCron, offsetValue, offsetUnit);
+            dumpCron = "0 1 * * * *"; // Every hour at minute 1
+            log.info("Inferred from time key format (ends with 'hour'): cron = {}", dumpCron);
         } else {
             // Default based on common case (minute-based)
             dumpCron = "1 * * * * *";
-            offsetValue = 1;
-            offsetUnit = "minutes";
-            log.warn("Could not infer from time key format ending with '{}'. Using defaults: cron = {}, offset = {} {}", lastPart, dumpCron, offsetValue, offsetUnit);
+            log.warn("Could not infer from time key format ending with '{}'. Using default: cron = {}", lastPart, dumpCron);
+        }
+        if (enabled) {
+            taskScheduler.schedule(this::dumpAnalytics, new CronTrigger(dumpCron));
+        } else {
+            log.info("Scheduled analytics dump is disabled");
         }
+
+        Gauge.builder("analytics.dump.backlog.buckets", this, scheduler -> scheduler.backlogBuckets)
+            .description("Closed analytics buckets waiting in Redis to be dumped")
+            .register(meterRegistry);
+        Gauge.builder("analytics.dump.backlog.age", this, scheduler -> scheduler.backlogAgeSeconds)
+            .description("Age of the oldest closed analytics bucket waiting to be dumped")
+            .baseUnit("seconds")
+            .register(meterRegistry);
     }
 
     /**
@@ -68,75 +101,74 @@ public class AnalyticsDumpScheduler {
     }
 
     /**
-     * Scheduled job that runs to dump analytics data from Redis to database
-     * Looks for key `analytics:t_key` of current timestamp - inferred offset
-     * Cron and offset are automatically inferred from analytics.time.key.format:
-     * - If format ends with "minute": cron = "1 * * * * *", offset = "1 minutes"
-     * - If format ends with "hour": cron = "0 1 * * * *", offset = "1 hours"
-     * The inferred offset is used for calculating the target time.
+     * Scheduled job that dumps analytics data from Redis to database
+     * Runs on the cron inferred from analytics.time.key.format:
+     * - If format ends with "minute": cron = "1 * * * * *"
+     * - If format ends with "hour": cron = "0 1 * * * *"
+     * Every run drains the whole backlog, not just the previous bucket:
+     * - Dumps left unfinished by an earlier run (crash, outage) are resumed first
+     * - All `analytics:<tKey>` buckets whose time window has closed are found with SCAN
+     *   and dumped oldest first, with bounded parallelism
+     * Buckets missed during a deploy or an outage are caught up on the next run, and late clicks
+     * that recreate an already dumped bucket are dumped again (the upsert adds them to the row).
      */
-    @Scheduled(cron = "1 * * * * *")
     public void dumpAnalytics() {
+        if (!running.compareAndSet(false, true)) {
+            log.info("Previous analytics dump job still running, skipping this run");
+            return;
+        }
         log.info("Starting analytics dump job");
-        
-        // Calculate timestamp with configured offset
-        OffsetDateTime targetTime = calculateTargetTime();
-        
-        // Generate t_key for target time
-        String tKey = analyticsService.generateTimeKey(targetTime);
-        String redisKey = "analytics:" + tKey;
-        
-        log.info("Dumping analytics for time key: {}", tKey);
-        
-        // Check if the key exists in Redis
-        redisTemplate.hasKey(redisKey)
-            .flatMap(exists -> {
-                if (Boolean.TRUE.equals(exists)) {
-                    log.info("Found analytics data for key: {}", redisKey);
-                    // Dump the data
-                    return analyticsService.dumpAnalyticsForTimeKey(tKey)
-                        .doOnSuccess(v -> log.info("Successfully dumped analytics for time key: {}", tKey))
-                        .doOnError(e -> log.error("Error dumping analytics for time key: {}", tKey, e));
-                } else {
-                    log.info("No analytics data found for key: {}", redisKey);
-                    return Mono.empty();
-                }
+
+        analyticsDumpService.resumeUnfinished()
+            .onErrorResume(e -> {
+                log.error("Error resuming unfinished analytics dumps", e);
+                return Mono.empty();
+            })
+            .then(findClosedBuckets())
+            .flatMapMany(buckets -> {
+                log.info("Dumping {} analytics buckets", buckets.size());
+                return Flux.fromIterable(buckets)
+                    .flatMap(tKey -> analyticsDumpService.dumpTimeKey(tKey)
+                        .doOnError(e -> log.error("Error dumping analytics for time key: {}", tKey, e))
+                        .onErrorResume(e -> Mono.empty()), parallelism);
             })
+            .then(Mono.defer(this::findClosedBuckets))
             .subscribeOn(Schedulers.boundedElastic())
+            .doFinally(signal -> running.set(false))
             .subscribe(
-                result -> log.info("Analytics dump job completed"),
+                remaining -> log.info("Analytics dump job completed, {} buckets left", remaining.size()),
                 error -> log.error("Analytics dump job failed", error)
             );
     }
 
     /**
-     * Calculates the target time by subtracting the configured offset from current time
-     * 
-     * @return OffsetDateTime with the configured offset subtracted
+     * Finds the closed buckets in Redis, oldest first, and updates the backlog metrics
      */
-    private OffsetDateTime calculateTargetTime() {
+    private Mono<List<String>> findClosedBuckets() {
+        // Compare in time key space - time keys carry no zone
         OffsetDateTime now = OffsetDateTime.now();
-        
-        switch (offsetUnit.toLowerCase()) {
-            case "hours":
-                return now.minus(offsetValue, ChronoUnit.HOURS);
-            case "minutes":
-                return now.minus(offsetValue, ChronoUnit.MINUTES);
-            case "seconds":
-                return now.minus(offsetValue, ChronoUnit.SECONDS);
-            default:
-                log.warn("Unknown offset unit: {}. Defaulting to hours.", offsetUnit);
-                return now.minus(offsetValue, ChronoUnit.HOURS);
-        }
+        OffsetDateTime current = analyticsService.parseTimeKey(analyticsService.generateTimeKey(now));
+        OffsetDateTime open = analyticsService.parseTimeKey(
+            analyticsService.generateTimeKey(now.minusSeconds(closeDelaySeconds)));
+
+        return analyticsService.scanBucketTimes()
+            .filter(bucket -> bucket.getValue().isBefore(open))
+            .sort(Map.Entry.comparingByValue(Comparator.naturalOrder()))
+            .collectList()
+            .map(buckets -> {
+                backlogBuckets = buckets.size();
+                backlogAgeSeconds = buckets.isEmpty() ? 0
+                    : Math.max(0, Duration.between(buckets.get(0).getValue(), current).getSeconds());
+                return buckets.stream().map(Map.Entry::getKey).toList();
+            });
     }
 
     /**
      * Helper method to get all analytics keys (for testing/debugging)
      */
     public Mono<Set<String>> getAllAnalyticsKeys() {
-        return redisTemplate.keys("analytics:*")
+        return redisTemplate.scan(ScanOptions.scanOptions().match(AnalyticsService.ANALYTICS_KEY_PREFIX + "*").build())
             .collect(java.util.stream.Collectors.toSet())
             .subscribeOn(Schedulers.boundedElastic());
     }
 }
-
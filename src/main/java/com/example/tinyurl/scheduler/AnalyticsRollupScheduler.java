@@ -0,0 +1,38 @@
+package com.example.tinyurl.scheduler;
+
+import com.example.tinyurl.service.AnalyticsRollupService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AnalyticsRollupScheduler {
+
+    private final AnalyticsRollupService analyticsRollupService;
+
+    @Value("${analytics.rollup.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * Scheduled job that compacts dumped analytics into hourly and daily rollups and applies retention
+     * Only one instance runs it at a time (the others skip the run).
+     */
+    @Scheduled(initialDelayString = "${analytics.rollup.interval.ms:300000}",
+               fixedDelayString = "${analytics.rollup.interval.ms:300000}")
+    public void rollUpAnalytics() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            if (!analyticsRollupService.rollUpAndApplyRetention()) {
+                log.debug("Analytics rollup is running on another instance, skipping this run");
+            }
+        } catch (RuntimeException e) {
+            log.error("Analytics rollup job failed", e);
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package com.example.tinyurl.service;
+
+import com.example.tinyurl.entity.AnalyticsDumpJournal;
+import com.example.tinyurl.entity.AnalyticsDumpJournal.Status;
+import com.example.tinyurl.repository.AnalyticsDumpJournalRepository;
+import com.example.tinyurl.repository.ClickAnalyticsBatchWriter;
+import com.example.tinyurl.service.DumpLeaseCoordinator.Lease;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Crash-safe dump of analytics buckets (`analytics:<tKey>` hashes) into short_url_click_analytics
+ *
+ * Protocol for one bucket (for every shard `analytics:<tKey>:{tag}` of it, one after the other):
+ * 1. A journal row (PENDING) is committed, then the hash is RENAMEd to `dump:<hash key>:<dumpId>`
+ *    (the hash tag stays, so both keys are in one cluster slot).
+ *    New clicks for the bucket start a fresh hash, the processing key is never written again.
+ * 2. The processing key is drained in bounded pages. A script moves the fields of page n into
+ *    `<processing key>:page:<n>`; the page's counts are upserted and the journal's page number is
+ *    advanced to n + 1 in one DB transaction, then the page key is deleted.
+ *    A page is either fully counted and recorded, or neither.
+ * 3. Once the processing key is empty (DRAINED) it is deleted and the dump is DONE.
+ *
+ * A dump interrupted at any point (crash, DB or Redis outage, failover) is resumed from the journal:
+ * page n is moved again only if its page key does not exist, otherwise the moved fields are counted,
+ * so no page is lost or counted twice. Unlike an HSCAN cursor, this holds when the hash is rehashed or
+ * rebuilt (restart, failover); moving a page is a single script, so a replica has all of it or none.
+ *
+ * With several instances, each shard of a bucket is dumped by the instance holding the shard's lease
+ * (DumpLeaseCoordinator), so the shards of one bucket are dumped independently, possibly by different instances.
+ * The journal is versioned, so a page committed by an instance that lost its lease
+ * (e.g. after a long GC pause) fails and is rolled back instead of being counted twice.
+ *
+ * Unique visitor sketches of the bucket (`analytics:<tKey>:u:{code}`) are RENAMEd the same way
+ * and merged into short_url_click_uniques (and into the hour and day rollups of a bucket that is already
+ * rolled up), under a lease of their own (`analytics:<tKey>:u`).
+ * They need no journal: merging a sketch into a row again after an interruption leaves the row unchanged.
+ */
+@Slf4j
+@Service
+public class AnalyticsDumpService {
+
+    static final String PROCESSING_KEY_PREFIX_ROOT = "dump:";
+    static final String PROCESSING_KEY_PREFIX = PROCESSING_KEY_PREFIX_ROOT + AnalyticsService.ANALYTICS_KEY_PREFIX;
+
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> MOVE_PAGE_SCRIPT =
+        RedisScript.of(new ClassPathResource("scripts/move_page.lua"), List.class);
+
+    static final String PAGE_KEY_INFIX = ":page:";
+
+    private final ReactiveRedisTemplate<String, String> redisTemplate;
+    private final AnalyticsService analyticsService;
+    private final ClickAnalyticsBatchWriter batchWriter;
+    private final AnalyticsDumpJournalRepository journalRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final DumpLeaseCoordinator leaseCoordinator;
+    private final UniqueVisitorCounter uniqueVisitorCounter;
+
+    // HSCAN COUNT hint - roughly the number of fields moved and written per transaction
+    @Value("${analytics.dump.page.size:1000}")
+    private int pageSize;
+
+    @Value("${analytics.dump.journal.retention.days:7}")
+    private long journalRetentionDays;
+
+    public AnalyticsDumpService(@Qualifier("reactiveStringRedisTemplate") ReactiveRedisTemplate<String, String> redisTemplate,
+                                AnalyticsService analyticsService,
+                                ClickAnalyticsBatchWriter batchWriter,
+                                AnalyticsDumpJournalRepository journalRepository,
+                                PlatformTransactionManager transactionManager,
+                                DumpLeaseCoordinator leaseCoordinator,
+                                UniqueVisitorCounter uniqueVisitorCounter) {
+        this.redisTemplate = redisTemplate;
+        this.analyticsService = analyticsService;
+        this.batchWriter = batchWriter;
+        this.journalRepository = journalRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.leaseCoordinator = leaseCoordinator;
+        this.uniqueVisitorCounter = uniqueVisitorCounter;
+    }
+
+    /**
+     * Dumps a bucket in the background, after finishing any earlier dump of it
+     * @param tKey The time key to dump (e.g., "2025.12.21.10")
+     */
+    public Mono<Void> dumpTimeKey(String tKey) {
+        return Mono.<Void>fromRunnable(() -> {
+                if (!dump(tKey)) {
+                    log.debug("Parts of time key {} are being dumped by another instance", tKey);
+                }
+            })
+            .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Resumes every dump that did not complete and prunes old journal rows, in the background
+     */
+    public Mono<Void> resumeUnfinished() {
+        return Mono.<Void>fromRunnable(() -> {
+                Set<String> bucketKeys = new LinkedHashSet<>();
+                for (AnalyticsDumpJournal journal : journalRepository.findUnfinished()) {
+                    bucketKeys.add(bucketKeyOf(journal));
+                }
+                // Buckets with sketches left in their processing keys
+                Set<String> sketchBuckets = new LinkedHashSet<>();
+                for (String processingKey : scanKeys(PROCESSING_KEY_PREFIX + "*" + UniqueVisitorCounter.SKETCH_KEY_INFIX + "*")) {
+                    String key = processingKey.substring(PROCESSING_KEY_PREFIX.length());
+                    sketchBuckets.add(key.substring(0, key.indexOf(UniqueVisitorCounter.SKETCH_KEY_INFIX)));
+                }
+                // Units leased by another instance are being resumed there
+                for (String bucketKey : bucketKeys) {
+                    try {
+                        leaseCoordinator.runWithLease(bucketKey, lease -> resumeUnfinished(bucketKey, lease));
+                    } catch (RuntimeException e) {
+                        log.warn("Could not resume analytics dumps of {}", bucketKey, e);
+                    }
+                }
+                for (String tKey : sketchBuckets) {
+                    try {
+                        leaseCoordinator.runWithLease(uniquesUnit(tKey), lease -> resumeUniques(tKey, lease));
+                    } catch (RuntimeException e) {
+                        log.warn("Could not resume unique visitor dumps of time key {}", tKey, e);
+                    }
+                }
+                journalRepository.deleteDoneBefore(OffsetDateTime.now().minusDays(journalRetentionDays));
+            })
+            .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Dumps a bucket on the calling thread (blocking)
+     * Every shard, and the unique visitor sketches, are dumped under a lease of their own: a unit leased by
+     * another instance is left alone, and a unit that fails does not stop the others (its error is rethrown at the end).
+     * @return false if any unit of the bucket is leased by another instance (and was left alone)
+     */
+    public boolean dump(String tKey) {
+        boolean dumped = true;
+        RuntimeException failure = null;
+        for (String bucketKey : analyticsService.bucketKeys(tKey)) {
+            try {
+                dumped &= leaseCoordinator.runWithLease(bucketKey, lease -> dumpShard(tKey, bucketKey, lease));
+            } catch (RuntimeException e) {
+                failure = addFailure(failure, e);
+            }
+        }
+        try {
+            dumped &= leaseCoordinator.runWithLease(uniquesUnit(tKey), lease -> dumpUniques(tKey, lease));
+        } catch (RuntimeException e) {
+            failure = addFailure(failure, e);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return dumped;
+    }
+
+    /**
+     * Dumps one shard of a bucket (the caller holds its lease)
+     */
+    private void dumpShard(String tKey, String bucketKey, Lease lease) {
+        // Step 1: Finish earlier dumps of this shard first (interrupted ones)
+        resumeUnfinished(bucketKey, lease);
+
+        // Step 2: Journal a new dump of the shard, then take it out of the way of new clicks
+        if (Boolean.TRUE.equals(redisTemplate.hasKey(bucketKey).block())) {
+            resume(journalRepository.save(new AnalyticsDumpJournal(UUID.randomUUID().toString(), tKey, bucketKey)), lease);
+        }
+    }
+
+    private static RuntimeException addFailure(RuntimeException failure, RuntimeException e) {
+        if (failure == null) {
+            return e;
+        }
+        failure.addSuppressed(e);
+        return failure;
+    }
+
+    /**
+     * Lease unit of the unique visitor sketches of a bucket
+     */
+    private static String uniquesUnit(String tKey) {
+        return AnalyticsService.ANALYTICS_KEY_PREFIX + tKey + ":u";
+    }
+
+    /**
+     * Hash key a journaled dump was renamed from (journals without one dumped the unsharded bucket)
+     */
+    private static String bucketKeyOf(AnalyticsDumpJournal journal) {
+        return journal.getBucketKey() != null ? journal.getBucketKey()
+            : AnalyticsService.ANALYTICS_KEY_PREFIX + journal.getBucket();
+    }
+
+    /**
+     * Merges the unique visitor sketches of a bucket into short_url_click_uniques (the caller holds its lease)
+     * Processing keys left by an interrupted dump go first, so a rename never overwrites one.
+     */
+    private void dumpUniques(String tKey, Lease lease) {
+        OffsetDateTime time = analyticsService.parseTimeKey(tKey);
+        int sketches = resumeUniques(tKey, lease);
+        for (String sketchKey : scanKeys(UniqueVisitorCounter.keyPattern(tKey))) {
+            String processingKey = PROCESSING_KEY_PREFIX_ROOT + sketchKey;
+            if (Boolean.TRUE.equals(redisTemplate.rename(sketchKey, processingKey).onErrorReturn(false).block())) {
+                mergeSketch(processingKey, time, lease);
+                sketches++;
+            }
+        }
+        if (sketches > 0) {
+            log.info("Dumped {} unique visitor sketches for time key {}", sketches, tKey);
+        }
+    }
+
+    /**
+     * Merges the sketches of a bucket left in their processing keys (the caller holds its lease)
+     * @return Number of sketches merged
+     */
+    private int resumeUniques(String tKey, Lease lease) {
+        List<String> processingKeys = scanKeys(PROCESSING_KEY_PREFIX_ROOT + UniqueVisitorCounter.keyPattern(tKey));
+        if (processingKeys.isEmpty()) {
+            return 0;
+        }
+        OffsetDateTime time = analyticsService.parseTimeKey(tKey);
+        for (String processingKey : processingKeys) {
+            mergeSketch(processingKey, time, lease);
+        }
+        return processingKeys.size();
+    }
+
+    /**
+     * Merges one sketch into the row of its URL and bucket, then drops the processing key
+     */
+    private void mergeSketch(String processingKey, OffsetDateTime time, Lease lease) {
+        if (!lease.isHeld()) {
+            throw new IllegalStateException("Lost the lease while dumping " + processingKey);
+        }
+        byte[] registers = uniqueVisitorCounter.registers(processingKey).block();
+        String code = UniqueVisitorCounter.codeOf(processingKey);
+        Long urlId = registers != null && code != null ? analyticsService.resolveUrlId(code).block() : null;
+        // Codes that do not resolve are skipped
+        if (urlId != null) {
+            batchWriter.addSketch(time, urlId, registers,
+                (current, added) -> uniqueVisitorCounter.union(List.of(current, added)).block());
+        }
+        redisTemplate.delete(processingKey).block();
+    }
+
+    private List<String> scanKeys(String pattern) {
+        ScanOptions options = ScanOptions.scanOptions().match(pattern).count(1000).build();
+        List<String> keys = redisTemplate.scan(options).collectList().block();
+        return keys != null ? keys : new ArrayList<>();
+    }
+
+    /**
+     * Resumes the unfinished dumps of a shard (the caller holds its lease)
+     */
+    private void resumeUnfinished(String bucketKey, Lease lease) {
+        // Read under the lease - another instance may have finished them meanwhile
+        for (AnalyticsDumpJournal journal : journalRepository.findUnfinished()) {
+            if (bucketKeyOf(journal).equals(bucketKey)) {
+                resume(journal, lease);
+            }
+        }
+    }
+
+    /**
+     * Drives a journaled dump to completion from whatever state it was left in
+     * Stops (with an exception) once the lease is no longer held; the dump is then resumed later.
+     */
+    private void resume(AnalyticsDumpJournal journal, Lease lease) {
+        String bucketKey = bucketKeyOf(journal);
+        // `dump:analytics:<tKey>:<dumpId>` for an unsharded bucket
+        String processingKey = PROCESSING_KEY_PREFIX_ROOT + bucketKey + ":" + journal.getDumpId();
+
+        checkLease(lease, journal);
+        if (journal.getStatus() == Status.PENDING) {
+            // The rename may have happened before an interruption
+            if (!Boolean.TRUE.equals(redisTemplate.hasKey(processingKey).block())) {
+                boolean renamed = Boolean.TRUE.equals(redisTemplate.hasKey(bucketKey).block())
+                    && Boolean.TRUE.equals(redisTemplate.rename(bucketKey, processingKey).block());
+                if (!renamed) {
+                    // Nothing left to dump
+                    journal.setStatus(Status.DONE);
+                    journalRepository.save(journal);
+                    return;
+                }
+            }
+            journal.setStatus(Status.IN_PROGRESS);
+            journal = journalRepository.save(journal);
+        }
+
+        OffsetDateTime time = analyticsService.parseTimeKey(journal.getBucket());
+        long rows = 0;
+        if (journal.getPages() > 0) {
+            // The previous page may have been committed without its page key being deleted
+            redisTemplate.delete(pageKey(processingKey, journal.getPages() - 1)).block();
+        }
+        while (journal.getStatus() == Status.IN_PROGRESS) {
+            checkLease(lease, journal);
+            // Step 3: One page - its counts and the next page number are committed together
+            String pageKey = pageKey(processingKey, journal.getPages());
+            Map<String, Long> page = movePage(processingKey, pageKey);
+            if (page.isEmpty()) {
+                journal.setStatus(Status.DRAINED);
+                journal = journalRepository.save(journal);
+                break;
+            }
+            Map<Long, Long> countsByUrlId = countsByUrlId(page);
+
+            journal.setPages(journal.getPages() + 1);
+            AnalyticsDumpJournal pageJournal = journal;
+            journal = transactionTemplate.execute(status -> {
+                batchWriter.addCounts(time, countsByUrlId);
+                return journalRepository.save(pageJournal);
+            });
+            redisTemplate.delete(pageKey).block();
+            rows += countsByUrlId.size();
+        }
+
+        // Step 4: Everything is in the DB - drop the processing key
+        checkLease(lease, journal);
+        redisTemplate.delete(processingKey).block();
+        journal.setStatus(Status.DONE);
+        journalRepository.save(journal);
+        log.info("Dumped analytics for time key {} from {} ({} rows in {} pages)", journal.getBucket(), bucketKey,
+            rows, journal.getPages());
+    }
+
+    private static void checkLease(Lease lease, AnalyticsDumpJournal journal) {
+        if (!lease.isHeld()) {
+            throw new IllegalStateException("Lost the lease of " + bucketKeyOf(journal)
+                + ", stopping dump " + journal.getDumpId());
+        }
+    }
+
+    /**
+     * Key holding page n of a processing key while it is being committed
+     * It must hash to the processing key's cluster slot: its hash tag, or the whole key as the tag.
+     */
+    static String pageKey(String processingKey, long page) {
+        String base = processingKey.indexOf('{') >= 0 ? processingKey : "{" + processingKey + "}";
+        return base + PAGE_KEY_INFIX + page;
+    }
+
+    /**
+     * Moves the next page of a processing key into its page key (or reads the page key, if it was moved already)
+     * @return The page's short URL codes and counts, empty once the processing key is drained
+     */
+    private Map<String, Long> movePage(String processingKey, String pageKey) {
+        List<?> result = redisTemplate.execute(MOVE_PAGE_SCRIPT, List.of(processingKey, pageKey),
+                List.of(String.valueOf(pageSize)))
+            .collectList()
+            .block();
+        Map<String, Long> page = new LinkedHashMap<>();
+        if (result == null || result.isEmpty()) {
+            return page;
+        }
+        // The multi-bulk reply may arrive as one list or as its elements
+        List<?> reply = result.size() == 1 && result.get(0) instanceof List<?> nested ? nested : result;
+        for (int i = 0; i + 1 < reply.size(); i += 2) {
+            long count;
+            try {
+                count = Long.parseLong(String.valueOf(reply.get(i + 1)));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            page.merge(String.valueOf(reply.get(i)), count, Long::sum);
+        }
+        return page;
+    }
+
+    /**
+     * Sums a page's counts per url_id (a URL can be clicked through its base62 and its custom code)
+     */
+    private Map<Long, Long> countsByUrlId(Map<String, Long> shortUrlCounts) {
+        Map<Long, Long> countsByUrlId = new HashMap<>();
+        if (shortUrlCounts.isEmpty()) {
+            return countsByUrlId;
+        }
+        Map<String, Long> urlIds = analyticsService.resolveUrlIds(shortUrlCounts.keySet()).block();
+        shortUrlCounts.forEach((shortUrl, count) -> {
+            Long urlId = urlIds != null ? urlIds.get(shortUrl) : null;
+            // Codes that do not resolve are skipped
+            if (urlId != null && count > 0) {
+                countsByUrlId.merge(urlId, count, Long::sum);
+            }
+        });
+        return countsByUrlId;
+    }
+}
@@ -0,0 +1,355 @@
+package com.example.tinyurl.service;
+
+import com.example.tinyurl.entity.AnalyticsResolution;
+import com.example.tinyurl.model.AnalyticsGranularity;
+import com.example.tinyurl.model.AnalyticsResponse;
+import com.example.tinyurl.repository.ClickAnalyticsBucketReader;
+import com.example.tinyurl.repository.CustomUrlCodeRepository;
+import com.example.tinyurl.repository.ShortUrlClickAnalyticsDailyRepository;
+import com.example.tinyurl.repository.ShortUrlClickAnalyticsHourlyRepository;
+import com.example.tinyurl.repository.ShortUrlClickAnalyticsRepository;
+import com.example.tinyurl.util.Base62Util;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reads click analytics from the coarsest resolution that satisfies the requested range and granularity
+ * - A resolution qualifies if it is still retained at the start of the range, and its buckets nest
+ *   into the requested buckets (UTC days only nest into days of a zone at offset 0, UTC hours
+ *   into those of a zone with whole-hour offsets)
+ * - The rolled up table is read below its watermark, completed with the finer rows that are not
+ *   rolled up yet
+ * Every table is aggregated into the requested buckets by the DB (ClickAnalyticsBucketReader);
+ * the few partial buckets where two tables meet are summed in memory.
+ *
+ * Clicks still counted in Redis (the open bucket and closed ones not dumped yet) are added to
+ * their buckets, so results are current without dumping more often. The DB is read first:
+ * a bucket dumped in between is missed until the next query rather than counted twice.
+ *
+ * Unique visitors of a bucket are the union of the sketches within it, read from the same
+ * resolutions as the counts (short_url_click_uniques and its hour and day rollups) plus those still
+ * in Redis, counted by UniqueVisitorCounter. A union counts a visitor once, so a sketch read from
+ * both the DB and Redis is harmless.
+ *
+ * streamCounts serves the same rows without granularity as a Flux, one keyset page at a time.
+ */
+@Service
+@RequiredArgsConstructor
+public class AnalyticsQueryService {
+
+    private static final List<AnalyticsResolution> COARSEST_FIRST =
+        List.of(AnalyticsResolution.DAY, AnalyticsResolution.HOUR, AnalyticsResolution.RAW);
+
+    private final ClickAnalyticsBucketReader bucketReader;
+    private final AnalyticsRollupService analyticsRollupService;
+    private final AnalyticsService analyticsService;
+    private final CustomUrlCodeRepository customUrlCodeRepository;
+    private final ShortUrlClickAnalyticsRepository analyticsRepository;
+    private final ShortUrlClickAnalyticsHourlyRepository hourlyRepository;
+    private final ShortUrlClickAnalyticsDailyRepository dailyRepository;
+    private final UniqueVisitorCounter uniqueVisitorCounter;
+
+    // Rows per keyset page when streaming
+    @Value("${analytics.stream.page.size:1000}")
+    private int streamPageSize;
+
+    /**
+     * Click counts of a URL within a time range (blocking)
+     * @param urlId The URL ID
+     * @param startTime The start time (inclusive)
+     * @param endTime The end time (inclusive)
+     * @param granularity Bucket size, null for the rows of the resolution the range is read from
+     * @param zone Time zone the buckets are aligned to
+     * @return Counts (and unique visitors) per bucket ordered by time
+     */
+    public List<AnalyticsResponse> findCounts(Long urlId, OffsetDateTime startTime, OffsetDateTime endTime,
+                                              AnalyticsGranularity granularity, ZoneId zone) {
+        Map<AnalyticsResolution, OffsetDateTime> rolledUpTo = analyticsRollupService.findRolledUpTo();
+        AnalyticsResolution resolution = selectResolution(startTime, endTime, granularity, zone, rolledUpTo);
+        if (granularity == null) {
+            // Rows as stored, rollups in their own UTC buckets
+            granularity = switch (resolution) {
+                case RAW -> null;
+                case HOUR -> AnalyticsGranularity.HOUR;
+                case DAY -> AnalyticsGranularity.DAY;
+            };
+            zone = ZoneOffset.UTC;
+        }
+
+        // Bucket start -> count; each table is read only below its watermark, so no click is counted twice
+        Map<OffsetDateTime, Long> buckets = new TreeMap<>();
+        OffsetDateTime from = startTime;
+        for (AnalyticsResolution table : List.of(AnalyticsResolution.DAY, AnalyticsResolution.HOUR)) {
+            if (resolution.compareTo(table) < 0) {
+                continue;
+            }
+            OffsetDateTime watermark = rolledUpTo.get(table);
+            // Rolled up buckets are whole: take the one the range starts in
+            OffsetDateTime bucketStart = table.truncate(from);
+            if (bucketStart.isBefore(watermark)) {
+                bucketReader.sumByBucket(table, urlId, bucketStart, endTime, watermark, granularity, zone)
+                    .forEach((time, count) -> buckets.merge(time, count, Long::sum));
+            }
+            if (watermark.isAfter(from)) {
+                from = watermark;
+            }
+        }
+        if (!from.isAfter(endTime)) {
+            bucketReader.sumByBucket(AnalyticsResolution.RAW, urlId, from, endTime, null, granularity, zone)
+                .forEach((time, count) -> buckets.merge(time, count, Long::sum));
+        }
+
+        // Clicks of every code of the URL that are not dumped yet
+        Map<OffsetDateTime, Long> undumped = analyticsService.undumpedCounts(undumpedCodes(urlId), from, endTime).block();
+        if (undumped != null) {
+            for (Map.Entry<OffsetDateTime, Long> entry : undumped.entrySet()) {
+                OffsetDateTime bucket = granularity != null ? granularity.truncate(entry.getKey(), zone) : entry.getKey();
+                buckets.merge(bucket, entry.getValue(), Long::sum);
+            }
+        }
+
+        Map<OffsetDateTime, Long> uniques = uniqueVisitorCounter.isEnabled()
+            ? findUniques(urlId, startTime, endTime, granularity, zone, resolution, rolledUpTo) : Map.of();
+
+        List<AnalyticsResponse> responses = new ArrayList<>(buckets.size());
+        buckets.forEach((time, count) -> responses.add(new AnalyticsResponse(time, count, uniques.get(time))));
+        return responses;
+    }
+
+    /**
+     * Estimated unique visitors of a URL per bucket (blocking)
+     * Sketches are read from the same resolution and below the same watermarks as the counts, so a month
+     * by day reads one sketch per day rather than one per minute. Buckets whose sketches cannot be counted
+     * are left out.
+     */
+    private Map<OffsetDateTime, Long> findUniques(Long urlId, OffsetDateTime startTime, OffsetDateTime endTime,
+                                                  AnalyticsGranularity granularity, ZoneId zone,
+                                                  AnalyticsResolution resolution,
+                                                  Map<AnalyticsResolution, OffsetDateTime> rolledUpTo) {
+        // Step 1: Dumped sketches by bucket, coarsest table first
+        Map<OffsetDateTime, List<byte[]>> sketches = new HashMap<>();
+        OffsetDateTime from = startTime;
+        for (AnalyticsResolution table : List.of(AnalyticsResolution.DAY, AnalyticsResolution.HOUR)) {
+            if (resolution.compareTo(table) < 0) {
+                continue;
+            }
+            OffsetDateTime watermark = rolledUpTo.get(table);
+            OffsetDateTime bucketStart = table.truncate(from);
+            if (bucketStart.isBefore(watermark)) {
+                addSketches(sketches, bucketReader.findSketches(table, urlId, bucketStart, endTime, watermark),
+                    granularity, zone);
+            }
+            if (watermark.isAfter(from)) {
+                from = watermark;
+            }
+        }
+        if (!from.isAfter(endTime)) {
+            addSketches(sketches, bucketReader.findSketches(AnalyticsResolution.RAW, urlId, from, endTime, null),
+                granularity, zone);
+        }
+
+        // Step 2: Sketches of every code of the URL still in Redis, read concurrently
+        List<String> codes = undumpedCodes(urlId);
+        List<Map.Entry<OffsetDateTime, byte[]>> live = Flux.fromIterable(analyticsService.freshBucketTimes(from, endTime))
+            .flatMap(time -> {
+                String tKey = analyticsService.generateTimeKey(time);
+                return Flux.fromIterable(codes)
+                    .flatMap(code -> uniqueVisitorCounter.registers(UniqueVisitorCounter.key(tKey, code)))
+                    .map(registers -> Map.entry(time, registers));
+            })
+            .onErrorResume(e -> Flux.empty())
+            .collectList()
+            .block();
+        if (live != null) {
+            for (Map.Entry<OffsetDateTime, byte[]> entry : live) {
+                OffsetDateTime bucket = granularity != null ? granularity.truncate(entry.getKey(), zone) : entry.getKey();
+                sketches.computeIfAbsent(bucket, time -> new ArrayList<>()).add(entry.getValue());
+            }
+        }
+
+        // Step 3: PFCOUNT over the sketches of each bucket, buckets counted concurrently
+        Map<OffsetDateTime, Long> uniques = Flux.fromIterable(sketches.entrySet())
+            .flatMap(bucket -> uniqueVisitorCounter.count(bucket.getValue())
+                .map(count -> Map.entry(bucket.getKey(), count))
+                .onErrorResume(e -> Mono.empty()))
+            .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+            .block();
+        return uniques != null ? uniques : Map.of();
+    }
+
+    private static void addSketches(Map<OffsetDateTime, List<byte[]>> sketches, Map<OffsetDateTime, byte[]> rows,
+                                    AnalyticsGranularity granularity, ZoneId zone) {
+        rows.forEach((time, registers) -> {
+            OffsetDateTime bucket = granularity != null ? granularity.truncate(time, zone) : time;
+            sketches.computeIfAbsent(bucket, key -> new ArrayList<>()).add(registers);
+        });
+    }
+
+    /**
+     * Streams the click counts of a URL within a time range, as stored (no granularity)
+     * Reads the same resolutions as findCounts one keyset page at a time, and only when the subscriber
+     * asks for more rows, so memory per request does not grow with the range. Clicks not dumped yet
+     * follow for the buckets after the last row from the DB.
+     * @param urlId The URL ID
+     * @param startTime The start time (inclusive)
+     * @param endTime The end time (inclusive)
+     * @return Counts ordered by time
+     */
+    public Flux<AnalyticsResponse> streamCounts(Long urlId, OffsetDateTime startTime, OffsetDateTime endTime) {
+        return Mono.fromCallable(analyticsRollupService::findRolledUpTo)
+            .subscribeOn(Schedulers.boundedElastic())
+            .flatMapMany(rolledUpTo -> {
+                AnalyticsResolution resolution = selectResolution(startTime, endTime, null, ZoneOffset.UTC, rolledUpTo);
+
+                // Consecutive time ranges, one per table, oldest first
+                List<Flux<AnalyticsResponse>> segments = new ArrayList<>();
+                OffsetDateTime from = startTime;
+                for (AnalyticsResolution table : List.of(AnalyticsResolution.DAY, AnalyticsResolution.HOUR)) {
+                    if (resolution.compareTo(table) < 0) {
+                        continue;
+                    }
+                    OffsetDateTime watermark = rolledUpTo.get(table);
+                    OffsetDateTime bucketStart = table.truncate(from);
+                    if (bucketStart.isBefore(watermark)) {
+                        // Times have microsecond precision: "<= watermark - 1ns" is "< watermark"
+                        OffsetDateTime until = watermark.minusNanos(1).isBefore(endTime) ? watermark.minusNanos(1) : endTime;
+                        PageLoader loader = table == AnalyticsResolution.DAY ? dailyRepository::findPageByUrlId
+                            : hourlyRepository::findPageByUrlId;
+                        segments.add(pages(loader, urlId, bucketStart, until));
+                    }
+                    if (watermark.isAfter(from)) {
+                        from = watermark;
+                    }
+                }
+                OffsetDateTime rawFrom = from;
+                if (!rawFrom.isAfter(endTime)) {
+                    segments.add(pages(analyticsRepository::findPageByUrlId, urlId, rawFrom, endTime));
+                }
+
+                AtomicReference<OffsetDateTime> lastTime = new AtomicReference<>();
+                return Flux.concat(segments)
+                    .doOnNext(response -> lastTime.set(response.getTime()))
+                    .concatWith(Mono.fromCallable(() -> undumpedCodes(urlId))
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .flatMap(codes -> analyticsService.undumpedCounts(codes, rawFrom, endTime))
+                        .flatMapMany(undumped -> Flux.fromIterable(new TreeMap<>(undumped).entrySet()))
+                        .filter(entry -> lastTime.get() == null || entry.getKey().isAfter(lastTime.get()))
+                        .map(entry -> new AnalyticsResponse(entry.getKey(), entry.getValue())));
+            });
+    }
+
+    /**
+     * Keyset pages of one table, each loaded once the previous one is consumed
+     */
+    private Flux<AnalyticsResponse> pages(PageLoader loader, Long urlId, OffsetDateTime startTime,
+                                          OffsetDateTime endTime) {
+        // Times have microsecond precision: "> startTime - 1ns" is ">= startTime"
+        return loadPage(loader, urlId, startTime.minusNanos(1), endTime)
+            .expand(page -> page.size() < streamPageSize ? Mono.empty()
+                : loadPage(loader, urlId, page.get(page.size() - 1).getTime(), endTime))
+            .concatMapIterable(page -> page);
+    }
+
+    private Mono<List<AnalyticsResponse>> loadPage(PageLoader loader, Long urlId, OffsetDateTime afterTime,
+                                                   OffsetDateTime endTime) {
+        return Mono.fromCallable(() -> loader.load(urlId, afterTime, endTime, PageRequest.of(0, streamPageSize)))
+            .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Every code a URL can be clicked through: its base62 code and its custom codes
+     */
+    private List<String> undumpedCodes(Long urlId) {
+        List<String> codes = new ArrayList<>(customUrlCodeRepository.findCodesByUrlId(urlId));
+        codes.add("_" + Base62Util.encode(urlId));
+        return codes;
+    }
+
+    @FunctionalInterface
+    private interface PageLoader {
+        List<AnalyticsResponse> load(Long urlId, OffsetDateTime afterTime, OffsetDateTime endTime, Pageable pageable);
+    }
+
+    /**
+     * The coarsest resolution that is rolled up, retained at the start of the range and nests into
+     * the requested buckets - or, if none does, the finest resolution still retained
+     */
+    private AnalyticsResolution selectResolution(OffsetDateTime startTime, OffsetDateTime endTime,
+                                                 AnalyticsGranularity granularity, ZoneId zone,
+                                                 Map<AnalyticsResolution, OffsetDateTime> rolledUpTo) {
+        if (granularity != null) {
+            for (AnalyticsResolution resolution : COARSEST_FIRST) {
+                if (isAvailable(resolution, startTime, rolledUpTo) && nests(resolution, granularity, zone, startTime, endTime)) {
+                    return resolution;
+                }
+            }
+        }
+        AnalyticsResolution resolution = AnalyticsResolution.RAW;
+        for (AnalyticsResolution coarser : List.of(AnalyticsResolution.HOUR, AnalyticsResolution.DAY)) {
+            if (isAvailable(resolution, startTime, rolledUpTo) || !rolledUpTo.containsKey(coarser)) {
+                break;
+            }
+            resolution = coarser;
+        }
+        return resolution;
+    }
+
+    private boolean isAvailable(AnalyticsResolution resolution, OffsetDateTime startTime,
+                                Map<AnalyticsResolution, OffsetDateTime> rolledUpTo) {
+        if (resolution != AnalyticsResolution.RAW && !rolledUpTo.containsKey(resolution)) {
+            return false;
+        }
+        OffsetDateTime retainedSince = analyticsRollupService.retainedSince(resolution);
+        return retainedSince == null || !startTime.isBefore(retainedSince);
+    }
+
+    /**
+     * Whether every bucket of the resolution lies within one requested bucket
+     */
+    private static boolean nests(AnalyticsResolution resolution, AnalyticsGranularity granularity, ZoneId zone,
+                                 OffsetDateTime startTime, OffsetDateTime endTime) {
+        return switch (resolution) {
+            case RAW -> true;
+            case HOUR -> granularity != AnalyticsGranularity.MINUTE && hasOffsetsMultipleOf(zone, 3600, startTime, endTime);
+            case DAY -> (granularity == AnalyticsGranularity.DAY || granularity == AnalyticsGranularity.WEEK)
+                && hasOffsetsMultipleOf(zone, 86400, startTime, endTime);
+        };
+    }
+
+    /**
+     * Whether the zone's UTC offsets within the range are all multiples of the given number of seconds
+     */
+    private static boolean hasOffsetsMultipleOf(ZoneId zone, int seconds, OffsetDateTime startTime,
+                                                OffsetDateTime endTime) {
+        ZoneRules rules = zone.getRules();
+        if (rules.getOffset(startTime.toInstant()).getTotalSeconds() % seconds != 0) {
+            return false;
+        }
+        ZoneOffsetTransition transition = rules.nextTransition(startTime.toInstant());
+        while (transition != null && !transition.getInstant().isAfter(endTime.toInstant())) {
+            if (transition.getOffsetAfter().getTotalSeconds() % seconds != 0) {
+                return false;
+            }
+            transition = rules.nextTransition(transition.getInstant());
+        }
+        return true;
+    }
+}
@@ -0,0 +1,252 @@
+package com.example.tinyurl.service;
+
+import com.example.tinyurl.entity.AnalyticsDumpJournal;
+import com.example.tinyurl.entity.AnalyticsResolution;
+import com.example.tinyurl.entity.AnalyticsRollupState;
+import com.example.tinyurl.repository.AnalyticsDumpJournalRepository;
+import com.example.tinyurl.repository.AnalyticsRollupStateRepository;
+import com.example.tinyurl.repository.ClickAnalyticsBatchWriter;
+import com.example.tinyurl.repository.ShortUrlClickAnalyticsHourlyRepository;
+import com.example.tinyurl.repository.ShortUrlClickAnalyticsRepository;
+import com.example.tinyurl.service.DumpLeaseCoordinator.Lease;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.OffsetDateTime;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Compacts click analytics into coarser resolutions and applies per-resolution retention
+ * - Closed hours of short_url_click_analytics are summed into short_url_click_analytics_hourly,
+ *   closed days of the hourly table into short_url_click_analytics_daily (UTC buckets)
+ * - Unique visitor sketches are rolled up with the counts: the sketches of a URL within an hour
+ *   (short_url_click_uniques) are merged into one (PFMERGE) in short_url_click_uniques_hourly,
+ *   those of a day into short_url_click_uniques_daily
+ * - Each resolution keeps a watermark (analytics_rollup_state); a bucket's rollup and the move of
+ *   the watermark past it are committed together, so an interrupted run just continues later
+ * - Rows older than the retention of their resolution are deleted, but never before they are rolled up;
+ *   rolled up sketches follow the retention of their counts, minute sketches have a retention of their own
+ *
+ * A bucket is only rolled up once no dump can still write into it: the watermark stops at the
+ * oldest bucket still waiting in Redis or in an unfinished dump. Counts and sketches that arrive later
+ * anyway are added to the rollups by ClickAnalyticsBatchWriter.
+ */
+@Slf4j
+@Service
+public class AnalyticsRollupService {
+
+    private static final String LEASE_UNIT = "rollup";
+
+    private final AnalyticsService analyticsService;
+    private final ClickAnalyticsBatchWriter batchWriter;
+    private final AnalyticsRollupStateRepository stateRepository;
+    private final AnalyticsDumpJournalRepository journalRepository;
+    private final ShortUrlClickAnalyticsRepository analyticsRepository;
+    private final ShortUrlClickAnalyticsHourlyRepository hourlyRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final DumpLeaseCoordinator leaseCoordinator;
+    private final UniqueVisitorCounter uniqueVisitorCounter;
+
+    // A closed hour is rolled up once it ended this long ago (dumps of its buckets are done by then)
+    @Value("${analytics.rollup.delay.minutes:15}")
+    private long rollupDelayMinutes;
+
+    // Retention per resolution in days (0 keeps rows forever)
+    @Value("${analytics.retention.raw.days:0}")
+    private long rawRetentionDays;
+
+    @Value("${analytics.retention.hour.days:0}")
+    private long hourRetentionDays;
+
+    @Value("${analytics.retention.day.days:0}")
+    private long dayRetentionDays;
+
+    @Value("${analytics.retention.uniques.days:90}")
+    private long uniquesRetentionDays;
+
+    public AnalyticsRollupService(AnalyticsService analyticsService,
+                                  ClickAnalyticsBatchWriter batchWriter,
+                                  AnalyticsRollupStateRepository stateRepository,
+                                  AnalyticsDumpJournalRepository journalRepository,
+                                  ShortUrlClickAnalyticsRepository analyticsRepository,
+                                  ShortUrlClickAnalyticsHourlyRepository hourlyRepository,
+                                  PlatformTransactionManager transactionManager,
+                                  DumpLeaseCoordinator leaseCoordinator,
+                                  UniqueVisitorCounter uniqueVisitorCounter) {
+        this.analyticsService = analyticsService;
+        this.batchWriter = batchWriter;
+        this.stateRepository = stateRepository;
+        this.journalRepository = journalRepository;
+        this.analyticsRepository = analyticsRepository;
+        this.hourlyRepository = hourlyRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.leaseCoordinator = leaseCoordinator;
+        this.uniqueVisitorCounter = uniqueVisitorCounter;
+    }
+
+    /**
+     * Rolls up every closed bucket and applies retention (blocking)
+     * Runs on one instance at a time.
+     * @return false if another instance is running it
+     */
+    public boolean rollUpAndApplyRetention() {
+        return leaseCoordinator.runWithLease(LEASE_UNIT, lease -> {
+            OffsetDateTime now = now();
+
+            // Step 1: Hours - up to the oldest bucket a dump may still write into
+            OffsetDateTime hourLimit = AnalyticsResolution.HOUR.truncate(now.minusMinutes(rollupDelayMinutes));
+            OffsetDateTime pending = oldestPendingBucket();
+            if (pending != null && pending.isBefore(hourLimit)) {
+                hourLimit = AnalyticsResolution.HOUR.truncate(pending);
+            }
+            OffsetDateTime hourWatermark = rollUp(AnalyticsResolution.HOUR, hourLimit, analyticsRepository.findMinTime(), lease);
+
+            // Step 2: Days - only days whose hours are all rolled up
+            OffsetDateTime dayWatermark = null;
+            if (hourWatermark != null) {
+                dayWatermark = rollUp(AnalyticsResolution.DAY, AnalyticsResolution.DAY.truncate(hourWatermark),
+                    hourlyRepository.findMinTime(), lease);
+            }
+
+            // Step 3: Retention - rows are kept until the next coarser resolution has them
+            applyRetention(AnalyticsResolution.RAW, now, rawRetentionDays, hourWatermark);
+            applyRetention(AnalyticsResolution.HOUR, now, hourRetentionDays, dayWatermark);
+            applyRetention(AnalyticsResolution.DAY, now, dayRetentionDays, now);
+            applyUniquesRetention(now, hourWatermark);
+        });
+    }
+
+    /**
+     * Rollup watermarks: buckets before them are in the rollup table (never rolled up resolutions are left out)
+     */
+    public Map<AnalyticsResolution, OffsetDateTime> findRolledUpTo() {
+        Map<AnalyticsResolution, OffsetDateTime> rolledUpTo = new EnumMap<>(AnalyticsResolution.class);
+        for (AnalyticsRollupState state : stateRepository.findAll()) {
+            rolledUpTo.put(state.getResolution(), state.getRolledUpTo());
+        }
+        return rolledUpTo;
+    }
+
+    /**
+     * Oldest time (in time key space) that is stored at every resolution, given the retention
+     */
+    public OffsetDateTime retainedSince(AnalyticsResolution resolution) {
+        long days = switch (resolution) {
+            case RAW -> rawRetentionDays;
+            case HOUR -> hourRetentionDays;
+            case DAY -> dayRetentionDays;
+        };
+        return days > 0 ? now().minusDays(days) : null;
+    }
+
+    /**
+     * Rolls up the buckets of a resolution from its watermark up to the limit, one transaction per bucket
+     * A bucket's sketches are rolled up in the same transaction as its counts.
+     * @param oldestSource Oldest source row, where a resolution without a watermark starts
+     * @return The new watermark (null if the resolution was never rolled up and there was nothing to roll up)
+     */
+    private OffsetDateTime rollUp(AnalyticsResolution resolution, OffsetDateTime limit, OffsetDateTime oldestSource,
+                                  Lease lease) {
+        AnalyticsRollupState state = stateRepository.findById(resolution).orElse(null);
+        if (state == null) {
+            if (oldestSource == null) {
+                return null;
+            }
+            state = new AnalyticsRollupState(resolution, resolution.truncate(oldestSource));
+        }
+
+        int buckets = 0;
+        while (state.getRolledUpTo().isBefore(limit)) {
+            if (!lease.isHeld()) {
+                throw new IllegalStateException("Lost the analytics rollup lease, stopping at "
+                    + resolution + " " + state.getRolledUpTo());
+            }
+            AnalyticsRollupState current = state;
+            state = transactionTemplate.execute(status -> {
+                batchWriter.rollUp(resolution, current.getRolledUpTo());
+                batchWriter.rollUpUniques(resolution, current.getRolledUpTo(),
+                    sketches -> uniqueVisitorCounter.union(sketches).block());
+                current.setRolledUpTo(resolution.next(current.getRolledUpTo()));
+                return stateRepository.save(current);
+            });
+            buckets++;
+        }
+        if (buckets > 0) {
+            log.info("Rolled up {} {} buckets, {} rolled up to {}", buckets, resolution, resolution, state.getRolledUpTo());
+        }
+        return state.getRolledUpTo();
+    }
+
+    private void applyRetention(AnalyticsResolution resolution, OffsetDateTime now, long retentionDays,
+                                OffsetDateTime rolledUpTo) {
+        OffsetDateTime before = retentionLimit(now, retentionDays, rolledUpTo);
+        if (before == null) {
+            return;
+        }
+        int deleted = batchWriter.deleteBefore(resolution, before);
+        if (deleted > 0) {
+            log.info("Deleted {} {} analytics rows before {}", deleted, resolution, before);
+        }
+        if (resolution != AnalyticsResolution.RAW) {
+            deleted = batchWriter.deleteUniquesBefore(resolution, before);
+            if (deleted > 0) {
+                log.info("Deleted {} {} unique visitor sketches before {}", deleted, resolution, before);
+            }
+        }
+    }
+
+    private void applyUniquesRetention(OffsetDateTime now, OffsetDateTime rolledUpTo) {
+        OffsetDateTime before = retentionLimit(now, uniquesRetentionDays, rolledUpTo);
+        if (before == null) {
+            return;
+        }
+        int deleted = batchWriter.deleteUniquesBefore(AnalyticsResolution.RAW, before);
+        if (deleted > 0) {
+            log.info("Deleted {} unique visitor sketches before {}", deleted, before);
+        }
+    }
+
+    /**
+     * Time rows of a resolution are deleted before: past the retention, but not past the watermark of the
+     * resolution they are rolled up into (null if nothing is deleted)
+     */
+    private static OffsetDateTime retentionLimit(OffsetDateTime now, long retentionDays, OffsetDateTime rolledUpTo) {
+        if (retentionDays <= 0 || rolledUpTo == null) {
+            return null;
+        }
+        OffsetDateTime before = now.minusDays(retentionDays);
+        return rolledUpTo.isBefore(before) ? rolledUpTo : before;
+    }
+
+    /**
+     * Oldest bucket still waiting in Redis or in an unfinished dump (null if there is none)
+     */
+    private OffsetDateTime oldestPendingBucket() {
+        OffsetDateTime oldest = analyticsService.scanBucketTimes()
+            .map(Map.Entry::getValue)
+            .reduce((a, b) -> a.isBefore(b) ? a : b)
+            .block();
+        for (AnalyticsDumpJournal journal : journalRepository.findUnfinished()) {
+            try {
+                OffsetDateTime time = analyticsService.parseTimeKey(journal.getBucket());
+                if (oldest == null || time.isBefore(oldest)) {
+                    oldest = time;
+                }
+            } catch (IllegalArgumentException e) {
+                // Journal of another time key format
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Current time in time key space (stored times carry the local fields of the time key)
+     */
+    private OffsetDateTime now() {
+        return analyticsService.parseTimeKey(analyticsService.generateTimeKey(OffsetDateTime.now()));
+    }
+}
@@ -1,65 +1,309 @@
 package com.example.tinyurl.service;
 
-import com.example.tinyurl.entity.CustomUrlCode;
-import com.example.tinyurl.entity.ShortUrlClickAnalytics;
-import com.example.tinyurl.entity.ShortUrlClickAnalyticsId;
+import com.example.tinyurl.model.ClickContext;
 import com.example.tinyurl.repository.CustomUrlCodeRepository;
-import com.example.tinyurl.repository.ShortUrlClickAnalyticsRepository;
+import com.example.tinyurl.repository.CustomUrlCodeRepository.CodeUrlId;
 import com.example.tinyurl.util.Base62Util;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
 import org.springframework.data.redis.core.ReactiveHashOperations;
 import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
 import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class AnalyticsService {
 
+    public static final String ANALYTICS_KEY_PREFIX = "analytics:";
+
     private final @Qualifier("reactiveStringRedisTemplate") ReactiveRedisTemplate<String, String> redisTemplate;
     private final CustomUrlCodeRepository customUrlCodeRepository;
-    private final ShortUrlClickAnalyticsRepository analyticsRepository;
+    private final ClickAggregator clickAggregator;
+    private final ClickEventPublisher clickEventPublisher;
+    private final UniqueVisitorCounter uniqueVisitorCounter;
+    private final MeterRegistry meterRegistry;
 
     @Value("${analytics.time.key.format:year.month.day.hour}")
     private String timeKeyFormat;
 
+    // Custom code -> url id; a custom code never moves to another URL, so entries need no expiry
+    @Value("${analytics.resolve.cache.max.entries:100000}")
+    private long resolveCacheMaxEntries;
+
+    // Maximum number of codes per `WHERE code IN (...)` lookup
+    @Value("${analytics.resolve.batch.size:1000}")
+    private int resolveBatchSize;
+
+    // Most recent buckets (the open one included) read from Redis by analytics queries, 0 to disable
+    @Value("${analytics.fresh.buckets:10}")
+    private int freshBuckets;
+
+    // Sub-keys each bucket is spread across (by hash of the code), so one bucket is not one hot key
+    @Value("${analytics.shards:1}")
+    private int shards;
+
+    private Cache<String, Long> customCodeUrlIds;
+
+    // Hash tag of every shard (none with a single shard)
+    private String[] shardTags;
+    // Parts of the time key format, and the time span of one bucket (its last part)
+    private String[] formatParts;
+    private ChronoUnit bucketUnit;
+    // Time key of the bucket asked for last - clicks of one bucket reuse it
+    private volatile CachedTimeKey lastTimeKey;
+
+    @PostConstruct
+    public void initialize() {
+        formatParts = Arrays.stream(timeKeyFormat.split("\\.")).map(String::trim).toArray(String[]::new);
+        bucketUnit = switch (formatParts[formatParts.length - 1]) {
+            case "year" -> ChronoUnit.YEARS;
+            case "month" -> ChronoUnit.MONTHS;
+            case "day" -> ChronoUnit.DAYS;
+            case "hour" -> ChronoUnit.HOURS;
+            case "minute" -> ChronoUnit.MINUTES;
+            case "seconds" -> ChronoUnit.SECONDS;
+            default -> null;
+        };
+        shardTags = shardTags(shards);
+
+        customCodeUrlIds = Caffeine.newBuilder()
+            .maximumSize(resolveCacheMaxEntries)
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, customCodeUrlIds, "analytics.custom.code.ids");
+    }
+
     /**
      * Captures a click event for analytics
-     * Updates a Redis hash with key as `analytics:t_key`, field as `shortUrl`, and increments the value
-     * This method is async and fire-and-forget - it doesn't block the calling thread
+     * Counts the click for the Redis hash of its bucket and shard (see analyticsKey) with field as `shortUrl`;
+     * ClickAggregator sums clicks in memory and flushes them to the hash with HINCRBY in batches.
+     * This method doesn't block the calling thread
      * 
      * @param shortUrl The short URL code (e.g., "_abc123" or "customCode")
      * @param timestamp The timestamp of the click event
      */
     public void click(String shortUrl, OffsetDateTime timestamp) {
-        String tKey = generateTimeKey(timestamp);
-        String redisKey = "analytics:" + tKey;
-        
+        click(shortUrl, timestamp, ClickContext.NONE);
+    }
+
+    /**
+     * Captures a click event for analytics, with the dimensions of its request
+     * With analytics.events.enabled, the event is also queued for the click event stream (see ClickEventPublisher);
+     * the visitor is added to the link's unique visitor sketch of the bucket (see UniqueVisitorCounter).
+     * This method doesn't block the calling thread
+     *
+     * @param context Referrer, browser family, country, status and visitor of the redirect
+     */
+    public void click(String shortUrl, OffsetDateTime timestamp, ClickContext context) {
+        CachedTimeKey timeKey = timeKeyOf(timestamp);
+        clickAggregator.add(timeKey.key(), timeKey.bucketKeys()[shardOf(shortUrl)], shortUrl);
+        clickEvent(shortUrl, timestamp, context);
+    }
+
+    /**
+     * Records the stream event and the visitor of a click that was counted elsewhere (by the redirect script)
+     */
+    public void clickEvent(String shortUrl, OffsetDateTime timestamp, ClickContext context) {
+        clickEventPublisher.publish(shortUrl, timestamp, context);
+        if (!context.visitor().isEmpty()) {
+            uniqueVisitorCounter.add(timeKeyOf(timestamp).key(), shortUrl, context.visitor());
+        }
+    }
+
+    /**
+     * Returns the Redis hash key that counts the clicks of a code at the given timestamp
+     * `analytics:t_key` with a single shard, otherwise `analytics:t_key:{tag}` of the code's shard
+     */
+    public String analyticsKey(OffsetDateTime timestamp, String shortUrl) {
+        return timeKeyOf(timestamp).bucketKeys()[shardOf(shortUrl)];
+    }
+
+    /**
+     * Returns the Redis hash key that counts the clicks of a code in the bucket of a time key
+     */
+    public String bucketKey(String tKey, String shortUrl) {
+        return bucketKeysOf(tKey)[shardOf(shortUrl)];
+    }
+
+    /**
+     * Every Redis hash key a bucket may be counted in
+     * With several shards, this includes the unsharded `analytics:t_key` written before sharding was enabled.
+     */
+    public List<String> bucketKeys(String tKey) {
+        List<String> keys = new ArrayList<>(List.of(bucketKeysOf(tKey)));
+        if (shards > 1) {
+            keys.add(ANALYTICS_KEY_PREFIX + tKey);
+        }
+        return keys;
+    }
+
+    /**
+     * SCANs the `analytics:<tKey>` buckets (their shards and unique visitor sketches) in Redis and parses their time keys
+     * Keys that do not match the configured time key format are skipped.
+     */
+    public Flux<Map.Entry<String, OffsetDateTime>> scanBucketTimes() {
+        ScanOptions options = ScanOptions.scanOptions().match(ANALYTICS_KEY_PREFIX + "*").count(1000).build();
+        return redisTemplate.scan(options)
+            .map(key -> {
+                // Strip the shard suffix - time keys contain no ':'
+                String tKey = key.substring(ANALYTICS_KEY_PREFIX.length());
+                int shardSeparator = tKey.indexOf(':');
+                return shardSeparator >= 0 ? tKey.substring(0, shardSeparator) : tKey;
+            })
+            .distinct()
+            .flatMap(tKey -> {
+                try {
+                    return Mono.just(Map.entry(tKey, parseTimeKey(tKey)));
+                } catch (IllegalArgumentException e) {
+                    // Not a bucket of the current time key format
+                    return Mono.empty();
+                }
+            });
+    }
+
+    /**
+     * Clicks of the given codes that are still counted in Redis and not dumped yet
+     * Looks at the most recent buckets (analytics.fresh.buckets) whose time is within the range, with
+     * one HMGET per bucket shard holding any of the codes; the commands are sent concurrently, so they
+     * share a pipelined connection. With several shards, the unsharded key of each bucket (bucketKeys)
+     * is read for every code as well.
+     * Buckets already renamed by a dump are left out, as their pages may be in the DB already.
+     *
+     * @param codes All short URL codes of one URL
+     * @param startTime The start time (inclusive)
+     * @param endTime The end time (inclusive)
+     * @return Mono containing bucket time (as written by the dump) -> clicks
+     */
+    public Mono<Map<OffsetDateTime, Long>> undumpedCounts(List<String> codes, OffsetDateTime startTime,
+                                                          OffsetDateTime endTime) {
+        List<OffsetDateTime> buckets = freshBucketTimes(startTime, endTime);
+        if (codes.isEmpty() || buckets.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+
+        // Shard -> its codes (each code is counted in one shard of a bucket)
+        Map<Integer, List<String>> codesByShard = new HashMap<>();
+        for (String code : codes) {
+            codesByShard.computeIfAbsent(shardOf(code), shard -> new ArrayList<>()).add(code);
+        }
+
         ReactiveHashOperations<String, String, String> hashOps = redisTemplate.opsForHash();
-        
-        // Increment the count for this shortUrl in the hash
-        // HINCRBY analytics:t_key shortUrl 1
-        // Fire and forget - subscribe on a separate scheduler and don't block
-        hashOps.increment(redisKey, shortUrl, 1L)
-            .subscribeOn(Schedulers.boundedElastic())
-            .subscribe(
-                count -> {
-                    // Successfully incremented - analytics captured
-                },
-                error -> {
-                    // Log error but don't fail the request
-                    // In production, you might want to log this to a monitoring system
+        return Flux.fromIterable(buckets)
+            .flatMap(bucket -> {
+                String tKey = generateTimeKey(bucket);
+                String[] bucketKeys = bucketKeysOf(tKey);
+                // Bucket key -> the codes to read from it
+                List<Map.Entry<String, List<String>>> reads = new ArrayList<>();
+                codesByShard.forEach((shard, shardCodes) -> reads.add(Map.entry(bucketKeys[shard], shardCodes)));
+                if (shards > 1) {
+                    // Clicks counted before sharding was enabled
+                    reads.add(Map.entry(ANALYTICS_KEY_PREFIX + tKey, codes));
                 }
-            );
+                return Flux.fromIterable(reads)
+                    .flatMap(read -> hashOps.multiGet(read.getKey(), read.getValue()))
+                    .map(values -> {
+                        long count = 0;
+                        for (String value : values) {
+                            if (value != null) {
+                                count += Long.parseLong(value);
+                            }
+                        }
+                        return count;
+                    })
+                    .reduce(0L, Long::sum)
+                    .map(count -> Map.entry(bucket, count));
+            })
+            .filter(entry -> entry.getValue() > 0)
+            .collectMap(Map.Entry::getKey, Map.Entry::getValue);
+    }
+
+    /**
+     * Times of the most recent buckets (analytics.fresh.buckets, the open one included) within the range
+     * These are the buckets analytics queries read from Redis as well.
+     */
+    public List<OffsetDateTime> freshBucketTimes(OffsetDateTime startTime, OffsetDateTime endTime) {
+        ChronoUnit unit = bucketUnit;
+        List<OffsetDateTime> buckets = new ArrayList<>();
+        if (freshBuckets <= 0 || unit == null) {
+            return buckets;
+        }
+        OffsetDateTime current = parseTimeKey(generateTimeKey(OffsetDateTime.now()));
+        for (int i = 0; i < freshBuckets; i++) {
+            OffsetDateTime bucket = current.minus(i, unit);
+            if (bucket.isBefore(startTime)) {
+                break;
+            }
+            if (!bucket.isAfter(endTime)) {
+                buckets.add(bucket);
+            }
+        }
+        return buckets;
+    }
+
+    /**
+     * Shard of a code within every bucket (String.hashCode is the same on every instance)
+     */
+    private int shardOf(String shortUrl) {
+        return shards > 1 ? Math.floorMod(shortUrl.hashCode(), shards) : 0;
+    }
+
+    /**
+     * Hash key of every shard of a bucket, by shard
+     */
+    private String[] bucketKeysOf(String tKey) {
+        String[] keys = new String[shardTags.length];
+        for (int shard = 0; shard < keys.length; shard++) {
+            keys[shard] = shardTags[shard] == null ? ANALYTICS_KEY_PREFIX + tKey
+                : ANALYTICS_KEY_PREFIX + tKey + ":{" + shardTags[shard] + "}";
+        }
+        return keys;
+    }
+
+    /**
+     * Picks a hash tag for every shard whose cluster slot lies in the shard's share of the slot range
+     * With slots assigned to nodes in contiguous ranges, the shards of a bucket are spread evenly
+     * over the nodes of a Redis Cluster, and the tag keeps a shard and its processing key in one slot.
+     */
+    private static String[] shardTags(int shards) {
+        if (shards <= 1) {
+            return new String[1];
+        }
+        if (shards > ClusterSlotHashUtil.SLOT_COUNT) {
+            throw new IllegalArgumentException("analytics.shards must not exceed " + ClusterSlotHashUtil.SLOT_COUNT);
+        }
+        String[] tags = new String[shards];
+        int found = 0;
+        for (int candidate = 0; found < shards; candidate++) {
+            String tag = Integer.toString(candidate);
+            int shard = ClusterSlotHashUtil.calculateSlot(tag) * shards / ClusterSlotHashUtil.SLOT_COUNT;
+            if (tags[shard] == null) {
+                tags[shard] = tag;
+                found++;
+            }
+        }
+        return tags;
     }
 
     /**
@@ -72,38 +316,51 @@ public class AnalyticsService {
      * - "year.month.day" -> "2025.12.21"
      * - "year.month.day.hour" -> "2025.12.21.10"
      * 
+     * The key of the last bucket is cached, so the clicks of one bucket don't build it again.
+     * 
      * @param timestamp The timestamp to generate the key from
      * @return The generated time key string
      */
     public String generateTimeKey(OffsetDateTime timestamp) {
-        List<String> formatParts = Arrays.asList(timeKeyFormat.split("\\."));
-        
+        return timeKeyOf(timestamp).key();
+    }
+
+    /**
+     * The time key of a timestamp with the hash keys of its bucket, from the cache if it is the last bucket
+     */
+    private CachedTimeKey timeKeyOf(OffsetDateTime timestamp) {
+        CachedTimeKey cached = lastTimeKey;
+        if (cached != null && cached.start().getOffset().equals(timestamp.getOffset())
+                && !timestamp.isBefore(cached.start()) && timestamp.isBefore(cached.end())) {
+            return cached;
+        }
+
         StringBuilder keyBuilder = new StringBuilder();
         
-        for (int i = 0; i < formatParts.size(); i++) {
+        for (int i = 0; i < formatParts.length; i++) {
             if (i > 0) {
                 keyBuilder.append(".");
             }
             
-            String part = formatParts.get(i).trim();
+            String part = formatParts[i];
             switch (part) {
                 case "year":
                     keyBuilder.append(timestamp.getYear());
                     break;
                 case "month":
-                    keyBuilder.append(String.format("%02d", timestamp.getMonthValue()));
+                    appendTwoDigits(keyBuilder, timestamp.getMonthValue());
                     break;
                 case "day":
-                    keyBuilder.append(String.format("%02d", timestamp.getDayOfMonth()));
+                    appendTwoDigits(keyBuilder, timestamp.getDayOfMonth());
                     break;
                 case "hour":
-                    keyBuilder.append(String.format("%02d", timestamp.getHour()));
+                    appendTwoDigits(keyBuilder, timestamp.getHour());
                     break;
                 case "minute":
-                    keyBuilder.append(String.format("%02d", timestamp.getMinute()));
+                    appendTwoDigits(keyBuilder, timestamp.getMinute());
                     break;
                 case "seconds":
-                    keyBuilder.append(String.format("%02d", timestamp.getSecond()));
+                    appendTwoDigits(keyBuilder, timestamp.getSecond());
                     break;
                 default:
                     // Unknown format part - skip it or throw exception
@@ -111,7 +368,26 @@ public class AnalyticsService {
             }
         }
         
-        return keyBuilder.toString();
+        String key = keyBuilder.toString();
+        if (bucketUnit == null) {
+            return new CachedTimeKey(timestamp, timestamp, key, bucketKeysOf(key));
+        }
+        // Every timestamp of the bucket (same offset) has the same key
+        OffsetDateTime start = switch (bucketUnit) {
+            case YEARS -> timestamp.withDayOfYear(1).truncatedTo(ChronoUnit.DAYS);
+            case MONTHS -> timestamp.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS);
+            default -> timestamp.truncatedTo(bucketUnit);
+        };
+        CachedTimeKey timeKey = new CachedTimeKey(start, start.plus(1, bucketUnit), key, bucketKeysOf(key));
+        lastTimeKey = timeKey;
+        return timeKey;
+    }
+
+    private static void appendTwoDigits(StringBuilder builder, int value) {
+        if (value < 10) {
+            builder.append('0');
+        }
+        builder.append(value);
     }
 
     /**
@@ -123,11 +399,10 @@ public class AnalyticsService {
      * @return OffsetDateTime with the parsed values and rest set to 0
      */
     public OffsetDateTime parseTimeKey(String tKey) {
-        List<String> formatParts = Arrays.asList(timeKeyFormat.split("\\."));
         String[] keyParts = tKey.split("\\.");
         
-        if (keyParts.length != formatParts.size()) {
-            throw new IllegalArgumentException("Time key format mismatch. Expected " + formatParts.size() + " parts, got " + keyParts.length);
+        if (keyParts.length != formatParts.length) {
+            throw new IllegalArgumentException("Time key format mismatch. Expected " + formatParts.length + " parts, got " + keyParts.length);
         }
         
         int year = OffsetDateTime.now().getYear();
@@ -137,8 +412,8 @@ public class AnalyticsService {
         int minute = 0;
         int second = 0;
         
-        for (int i = 0; i < formatParts.size(); i++) {
-            String part = formatParts.get(i).trim();
+        for (int i = 0; i < formatParts.length; i++) {
+            String part = formatParts[i];
             int value = Integer.parseInt(keyParts[i]);
             
             switch (part) {
@@ -169,106 +444,62 @@ public class AnalyticsService {
     /**
      * Resolves url_id from shortUrl code
      * If shortUrl has '_' prefix, base62 decode it
-     * Otherwise, look up in custom_url_code table
+     * Otherwise, look up in custom_url_code table (through the code -> url id cache)
      * 
      * @param shortUrl The short URL code
      * @return Mono containing the url_id, or empty if not found
      */
     public Mono<Long> resolveUrlId(String shortUrl) {
-        if (shortUrl.startsWith("_")) {
-            // Base62 encoded URL
-            try {
-                String encoded = shortUrl.substring(1); // Remove '_' prefix
-                long id = Base62Util.decode(encoded);
-                return Mono.just(id);
-            } catch (IllegalArgumentException e) {
-                return Mono.empty();
-            }
-        } else {
-            // Custom URL code - look up in database
-            return Mono.fromCallable(() -> customUrlCodeRepository.findByCode(shortUrl))
-                .subscribeOn(Schedulers.boundedElastic())
-                .flatMap(optional -> {
-                    if (optional.isPresent()) {
-                        CustomUrlCode customCode = optional.get();
-                        return Mono.just(customCode.getUrl().getId());
-                    } else {
-                        return Mono.empty();
-                    }
-                });
-        }
+        return resolveUrlIds(List.of(shortUrl))
+            .flatMap(urlIds -> Mono.justOrEmpty(urlIds.get(shortUrl)));
     }
 
     /**
-     * Dumps analytics data from Redis to database for a specific time key
-     * After successful dump, deletes the Redis key
-     * 
-     * @param tKey The time key to dump (e.g., "2025.12.21.10")
-     * @return Mono that completes when dump is finished and key is deleted
+     * Resolves the url_ids of many short URL codes at once
+     * Base62 codes are decoded in memory; custom codes are served from the code -> url id cache,
+     * and the rest are looked up with one `WHERE code IN (...)` projection query per batch
+     *
+     * @param shortUrls The short URL codes
+     * @return Mono containing code -> url_id (codes that do not resolve are left out)
      */
-    public Mono<Void> dumpAnalyticsForTimeKey(String tKey) {
-        String redisKey = "analytics:" + tKey;
-        ReactiveHashOperations<String, String, String> hashOps = redisTemplate.opsForHash();
-        
-        // Get all entries from the hash
-        return hashOps.entries(redisKey)
-            .collectMap(Map.Entry::getKey, entry -> {
+    public Mono<Map<String, Long>> resolveUrlIds(Collection<String> shortUrls) {
+        Map<String, Long> urlIds = new HashMap<>();
+        List<String> unresolved = new ArrayList<>();
+        for (String shortUrl : shortUrls) {
+            if (shortUrl.startsWith("_")) {
+                // Base62 encoded URL
                 try {
-                    return Long.parseLong(entry.getValue());
-                } catch (NumberFormatException e) {
-                    return 0L;
+                    urlIds.put(shortUrl, Base62Util.decode(shortUrl.substring(1)));
+                } catch (IllegalArgumentException e) {
+                    // Not a valid code - skip it
                 }
+                continue;
+            }
+            Long cached = customCodeUrlIds.getIfPresent(shortUrl);
+            if (cached != null) {
+                urlIds.put(shortUrl, cached);
+            } else {
+                unresolved.add(shortUrl);
+            }
+        }
+        if (unresolved.isEmpty()) {
+            return Mono.just(urlIds);
+        }
+
+        // Custom URL codes - look up in database, a batch at a time
+        return Mono.fromCallable(() -> {
+                for (int from = 0; from < unresolved.size(); from += resolveBatchSize) {
+                    List<String> batch = unresolved.subList(from, Math.min(from + resolveBatchSize, unresolved.size()));
+                    for (CodeUrlId row : customUrlCodeRepository.findUrlIdsByCodeIn(batch)) {
+                        customCodeUrlIds.put(row.getCode(), row.getUrlId());
+                        urlIds.put(row.getCode(), row.getUrlId());
+                    }
+                }
+                return urlIds;
             })
-            .flatMapMany(shortUrlCounts -> {
-                // Process each shortUrl
-                return Flux.fromIterable(shortUrlCounts.entrySet())
-                    .flatMap(entry -> {
-                        String shortUrl = entry.getKey();
-                        Long count = entry.getValue();
-                        
-                        // Resolve url_id
-                        return resolveUrlId(shortUrl)
-                            .flatMap(urlId -> {
-                                // Parse timestamp from t_key
-                                OffsetDateTime timestamp = parseTimeKey(tKey);
-                                
-                                // Save or update in database
-                                return Mono.fromCallable(() -> {
-                                    ShortUrlClickAnalyticsId id = new ShortUrlClickAnalyticsId(timestamp, urlId);
-                                    return analyticsRepository.findById(id);
-                                })
-                                .subscribeOn(Schedulers.boundedElastic())
-                                .flatMap(optional -> {
-                                    if (optional.isPresent()) {
-                                        // Update existing record
-                                        ShortUrlClickAnalytics existing = optional.get();
-                                        existing.setCount(existing.getCount() + count);
-                                        return Mono.fromCallable(() -> analyticsRepository.save(existing))
-                                            .subscribeOn(Schedulers.boundedElastic())
-                                            .then();
-                                    } else {
-                                        // Create new record
-                                        ShortUrlClickAnalytics analytics = new ShortUrlClickAnalytics(timestamp, urlId, count);
-                                        return Mono.fromCallable(() -> analyticsRepository.save(analytics))
-                                            .subscribeOn(Schedulers.boundedElastic())
-                                            .then();
-                                    }
-                                });
-                            })
-                            .onErrorResume(e -> {
-                                // Log error but continue processing other entries
-                                return Mono.empty();
-                            });
-                    });
-            })
-            .then()
-            .then(redisTemplate.delete(redisKey))
-            .then()
-            .onErrorResume(e -> {
-                // Log error but don't fail the entire dump
-                // Note: Key deletion happens even if some entries failed
-                return Mono.empty();
-            });
+            .subscribeOn(Schedulers.boundedElastic());
     }
-}
 
+    private record CachedTimeKey(OffsetDateTime start, OffsetDateTime end, String key, String[] bucketKeys) {
+    }
+}
\ No newline at end of file
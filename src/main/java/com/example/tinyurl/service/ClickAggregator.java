@@ -0,0 +1,327 @@
+package com.example.tinyurl.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Node-local aggregation of click counts before they reach Redis
+ * - Clicks add to a LongAdder per code of their bucket (time key), so concurrent redirects of
+ *   the same link contend on striped cells instead of issuing a HINCRBY each
+ * - Every analytics.aggregate.flush.interval.ms the accumulated deltas are sent to their bucket
+ *   hashes in batches of HINCRBYs, issued concurrently so they are pipelined on the shared connection
+ * - A click in a new bucket flushes the previous one right away, so a closed bucket is complete
+ *   in Redis before the dump picks it up; the last deltas are flushed on graceful shutdown
+ *
+ * Redis writes then scale with the distinct links clicked per interval rather than with clicks.
+ * The buffer holds at most analytics.aggregate.max.codes codes; clicks of further codes overflow
+ * to a direct HINCRBY. Deltas whose HINCRBY fails or times out are written to the disk spool
+ * (ClickSpool), which replays them once Redis is back; if the spool cannot take them, they are
+ * added back and retried with the next flush.
+ *
+ * A timed-out batch may have been applied by Redis all the same. Every batch therefore carries a random
+ * delta id that the script records next to the bucket (addOnce), and a spooled delta is replayed with the
+ * id of its batch, so Redis counts it once. Timed-out deltas the spool cannot take are dropped, not retried.
+ * A direct HINCRBY (aggregation disabled, or an overflow) is a single click that is never retried: it carries
+ * no delta id, is spooled only if Redis did not apply it, and dropped if it timed out.
+ *
+ * Adders are never removed from the bucket they count: a bucket left behind by a rollover is
+ * drained once more on the following flush before it is dropped, which catches clicks that were
+ * added to it while it was retired.
+ */
+@Slf4j
+@Service
+public class ClickAggregator {
+
+    static final String APPLIED_KEY_PREFIX = "applied:";
+
+    private static final RedisScript<Long> ADD_CLICKS_ONCE_SCRIPT =
+        RedisScript.of(new ClassPathResource("scripts/add_clicks_once.lua"), Long.class);
+
+    private final ReactiveRedisTemplate<String, String> redisTemplate;
+    private final ClickSpool clickSpool;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${analytics.aggregate.enabled:true}")
+    private boolean enabled;
+
+    @Value("${analytics.aggregate.max.codes:100000}")
+    private int maxCodes;
+
+    // Batches of one flush in flight at the same time
+    @Value("${analytics.aggregate.flush.concurrency:256}")
+    private int flushConcurrency;
+
+    // Codes of one bucket hash sent in one batch (one script call)
+    @Value("${analytics.aggregate.flush.batch.size:1000}")
+    private int flushBatchSize;
+
+    // How long Redis remembers the delta ids of the batches it applied - replays of older spooled deltas may count twice
+    @Value("${analytics.aggregate.delta.ids.ttl.ms:3600000}")
+    private long deltaIdsTtlMs;
+
+    // A HINCRBY not answered within this time is spooled (Redis failing over or overloaded)
+    @Value("${analytics.aggregate.redis.timeout.ms:2000}")
+    private long redisTimeoutMs;
+
+    // Time key -> code -> clicks not flushed yet
+    private final Map<String, Map<String, PendingClicks>> buckets = new ConcurrentHashMap<>();
+    // Buckets retired by the last flush, drained once more by the next one
+    private List<Map.Entry<String, Map<String, PendingClicks>>> retired = new ArrayList<>();
+    private final AtomicInteger bufferedCodes = new AtomicInteger();
+    private volatile String openTimeKey;
+
+    private Counter overflowCounter;
+    private Counter flushFailureCounter;
+    private Counter droppedCounter;
+
+    public ClickAggregator(@Qualifier("reactiveStringRedisTemplate") ReactiveRedisTemplate<String, String> redisTemplate,
+                           ClickSpool clickSpool,
+                           MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.clickSpool = clickSpool;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void initialize() {
+        overflowCounter = Counter.builder("analytics.aggregate.overflow")
+            .description("Clicks written to Redis directly because the aggregation buffer was full")
+            .register(meterRegistry);
+        flushFailureCounter = Counter.builder("analytics.aggregate.flush.failures")
+            .description("Flushes of aggregated clicks with HINCRBYs that failed or timed out")
+            .register(meterRegistry);
+        droppedCounter = Counter.builder("analytics.aggregate.dropped")
+            .description("Click deltas dropped because Redis may have counted them and the spool could not take them")
+            .register(meterRegistry);
+        Gauge.builder("analytics.aggregate.codes", bufferedCodes, AtomicInteger::get)
+            .description("Codes with clicks buffered for the next flush")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Counts a click in the given bucket (non-blocking)
+     * @param tKey The time key of the bucket
+     * @param bucketKey The Redis hash key the code is counted in (`analytics:t_key` or one of its shards)
+     * @param shortUrl The short URL code
+     */
+    public void add(String tKey, String bucketKey, String shortUrl) {
+        if (!enabled) {
+            incrementNow(tKey, bucketKey, shortUrl, 1L);
+            return;
+        }
+
+        // Step 1: Rollover - hand the previous bucket to a flush right away
+        String open = openTimeKey;
+        if (!tKey.equals(open)) {
+            openTimeKey = tKey;
+            if (open != null) {
+                Mono.fromRunnable(this::flush)
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .subscribe(
+                        result -> {
+                            // Nothing to emit
+                        },
+                        error -> log.warn("Flush of aggregated clicks on bucket rollover failed", error)
+                    );
+            }
+        }
+
+        // Step 2: Count in the buffer, or overflow to Redis if it is full
+        Map<String, PendingClicks> counts = buckets.computeIfAbsent(tKey, key -> new ConcurrentHashMap<>());
+        PendingClicks pending = counts.get(shortUrl);
+        if (pending == null) {
+            if (bufferedCodes.get() >= maxCodes) {
+                overflowCounter.increment();
+                incrementNow(tKey, bucketKey, shortUrl, 1L);
+                return;
+            }
+            pending = counts.computeIfAbsent(shortUrl, code -> newPendingClicks(bucketKey));
+        }
+        pending.clicks().increment();
+    }
+
+    /**
+     * Sends the accumulated deltas to Redis as one pipelined batch (blocking)
+     * Buckets other than the open one are retired; failed deltas are spooled (or added back).
+     */
+    @Scheduled(initialDelayString = "${analytics.aggregate.flush.interval.ms:500}",
+               fixedDelayString = "${analytics.aggregate.flush.interval.ms:500}")
+    public synchronized void flush() {
+        // Step 1: Drain the buckets retired last time, then every live bucket
+        List<Delta> deltas = new ArrayList<>();
+        for (Map.Entry<String, Map<String, PendingClicks>> bucket : retired) {
+            drain(bucket.getKey(), bucket.getValue(), deltas);
+            bufferedCodes.addAndGet(-bucket.getValue().size());
+        }
+        retired = new ArrayList<>();
+        String open = openTimeKey;
+        for (Map.Entry<String, Map<String, PendingClicks>> bucket : buckets.entrySet()) {
+            if (!bucket.getKey().equals(open) && buckets.remove(bucket.getKey(), bucket.getValue())) {
+                retired.add(bucket);
+            }
+            drain(bucket.getKey(), bucket.getValue(), deltas);
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        // Step 2: Batches of HINCRBYs per bucket hash, each with a delta id, sent concurrently (pipelined)
+        List<DeltaBatch> batches = new ArrayList<>();
+        Map<String, DeltaBatch> openBatches = new LinkedHashMap<>();
+        for (Delta delta : deltas) {
+            DeltaBatch batch = openBatches.get(delta.bucketKey());
+            if (batch == null || batch.counts().size() >= flushBatchSize) {
+                batch = new DeltaBatch(delta.tKey(), delta.bucketKey(), nextDeltaId(), new LinkedHashMap<>());
+                openBatches.put(delta.bucketKey(), batch);
+                batches.add(batch);
+            }
+            // A code may be drained from a retired and a live bucket of the same time key
+            batch.counts().merge(delta.code(), delta.count(), Long::sum);
+        }
+        List<FailedBatch> failed = Flux.fromIterable(batches)
+            .flatMap(batch -> addOnce(batch.bucketKey(), batch.deltaId(), batch.counts(), false)
+                .then(Mono.<FailedBatch>empty())
+                .onErrorResume(e -> Mono.just(new FailedBatch(batch, ClickSpool.mayBeApplied(e)))), flushConcurrency)
+            .collectList()
+            .block();
+
+        // Step 3: Spool failed deltas with their delta id, or retry the ones Redis did not apply with the next flush
+        if (failed != null && !failed.isEmpty()) {
+            flushFailureCounter.increment();
+            log.warn("Failed to flush {} of {} batches of aggregated click counts to Redis, spooling them",
+                failed.size(), batches.size());
+            for (FailedBatch failure : failed) {
+                DeltaBatch batch = failure.batch();
+                batch.counts().forEach((shortUrl, count) -> {
+                    if (clickSpool.append(batch.tKey(), shortUrl, count, batch.deltaId(), failure.mayBeApplied())) {
+                        return;
+                    }
+                    if (failure.mayBeApplied()) {
+                        // Retrying it under a new id could count it twice
+                        droppedCounter.increment(count);
+                        return;
+                    }
+                    buckets.computeIfAbsent(batch.tKey(), key -> new ConcurrentHashMap<>())
+                        .computeIfAbsent(shortUrl, code -> newPendingClicks(batch.bucketKey()))
+                        .clicks()
+                        .add(count);
+                });
+            }
+        }
+    }
+
+    /**
+     * Adds click deltas to a bucket hash, unless the batch with the same delta id was added before (non-blocking)
+     * @param bucketKey The Redis hash key (`analytics:t_key` or one of its shards)
+     * @param deltaId Id of the batch, random per batch sent by the aggregator and kept by the spool
+     * @param counts Clicks per code
+     * @param replay Whether this is (a part of) a spooled batch, whose codes are then added once each
+     * @return Number of codes added (0 if the batch had been added already)
+     */
+    public Mono<Long> addOnce(String bucketKey, long deltaId, Map<String, Long> counts, boolean replay) {
+        List<String> args = new ArrayList<>(3 + counts.size() * 2);
+        args.add(Long.toString(deltaId));
+        args.add(Long.toString(deltaIdsTtlMs));
+        args.add(replay ? "1" : "0");
+        counts.forEach((code, count) -> {
+            args.add(code);
+            args.add(Long.toString(count));
+        });
+        return redisTemplate.execute(ADD_CLICKS_ONCE_SCRIPT, List.of(bucketKey, appliedKey(bucketKey)), args)
+            .next()
+            .timeout(Duration.ofMillis(redisTimeoutMs));
+    }
+
+    /**
+     * Key of the delta ids applied to a bucket hash, in the hash's cluster slot (its hash tag, or the whole key as the tag)
+     */
+    static String appliedKey(String bucketKey) {
+        return APPLIED_KEY_PREFIX + (bucketKey.indexOf('{') >= 0 ? bucketKey : "{" + bucketKey + "}");
+    }
+
+    private static long nextDeltaId() {
+        return ThreadLocalRandom.current().nextLong();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // The open bucket and the retired ones - nothing is counted any more
+        openTimeKey = null;
+        flush();
+        flush();
+    }
+
+    private static void drain(String tKey, Map<String, PendingClicks> counts, List<Delta> deltas) {
+        for (Map.Entry<String, PendingClicks> entry : counts.entrySet()) {
+            long count = entry.getValue().clicks().sumThenReset();
+            if (count != 0) {
+                deltas.add(new Delta(tKey, entry.getValue().bucketKey(), entry.getKey(), count));
+            }
+        }
+    }
+
+    private PendingClicks newPendingClicks(String bucketKey) {
+        bufferedCodes.incrementAndGet();
+        return new PendingClicks(bucketKey, new LongAdder());
+    }
+
+    private void incrementNow(String tKey, String bucketKey, String shortUrl, long count) {
+        // HINCRBY analytics:t_key shortUrl count - fire and forget, spooled if Redis did not apply it
+        redisTemplate.opsForHash().increment(bucketKey, shortUrl, count)
+            .timeout(Duration.ofMillis(redisTimeoutMs))
+            .subscribe(
+                result -> {
+                    // Successfully incremented - analytics captured
+                },
+                error -> {
+                    if (ClickSpool.mayBeApplied(error)) {
+                        // No delta id that a replay could be checked against - it may have been counted
+                        droppedCounter.increment(count);
+                        log.debug("Click in {} timed out, not retried", bucketKey, error);
+                        return;
+                    }
+                    if (!clickSpool.append(tKey, shortUrl, count, nextDeltaId(), false)) {
+                        log.debug("Failed to count a click in {}", bucketKey, error);
+                    }
+                }
+            );
+    }
+
+    // Clicks of one code, with the hash key (shard) they go to
+    private record PendingClicks(String bucketKey, LongAdder clicks) {
+    }
+
+    private record Delta(String tKey, String bucketKey, String code, long count) {
+    }
+
+    // Clicks per code of one bucket hash sent in one script call
+    private record DeltaBatch(String tKey, String bucketKey, long deltaId, Map<String, Long> counts) {
+    }
+
+    private record FailedBatch(DeltaBatch batch, boolean mayBeApplied) {
+    }
+}
@@ -0,0 +1,281 @@
+package com.example.tinyurl.service;
+
+import com.example.tinyurl.model.ClickContext;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Builds the ClickContext of a redirect request
+ * Only what is enabled is computed: the dimensions of the click event (analytics.events.enabled)
+ * and the visitor fingerprint of the unique visitor sketches (analytics.uniques.enabled).
+ * X-Forwarded-For is only believed from the proxies listed in analytics.trusted.proxies; the
+ * fingerprint is keyed with analytics.uniques.secret, so it cannot be hashed back to an address.
+ */
+@Component
+public class ClickContextResolver {
+
+    private static final int MAX_VALUE_LENGTH = 255;
+    private static final String FORWARDED_FOR = "X-Forwarded-For";
+    private static final String FINGERPRINT_ALGORITHM = "HmacSHA256";
+
+    @Value("${analytics.events.enabled:false}")
+    private boolean eventsEnabled;
+
+    @Value("${analytics.uniques.enabled:true}")
+    private boolean uniquesEnabled;
+
+    // Header with the client's country code, as set by the CDN or load balancer
+    @Value("${analytics.events.country.header:CF-IPCountry}")
+    private String countryHeader;
+
+    // Addresses or CIDR ranges of the proxies whose X-Forwarded-For is believed
+    @Value("${analytics.trusted.proxies:}")
+    private List<String> trustedProxies;
+
+    // Key of the visitor fingerprint - the same on every node, so a visitor is counted once
+    @Value("${analytics.uniques.secret:}")
+    private String fingerprintSecret;
+
+    private final List<Subnet> trustedSubnets = new ArrayList<>();
+    private SecretKeySpec fingerprintKey;
+
+    @PostConstruct
+    public void initialize() {
+        for (String proxy : trustedProxies) {
+            if (!proxy.isBlank()) {
+                trustedSubnets.add(Subnet.parse(proxy.trim()));
+            }
+        }
+        if (uniquesEnabled && (fingerprintSecret == null || fingerprintSecret.isBlank())) {
+            throw new IllegalStateException("analytics.uniques.secret must be set when unique visitors are counted");
+        }
+        fingerprintKey = fingerprintSecret != null && !fingerprintSecret.isBlank()
+            ? new SecretKeySpec(fingerprintSecret.getBytes(StandardCharsets.UTF_8), FINGERPRINT_ALGORITHM)
+            : null;
+    }
+
+    /**
+     * The click context of a redirect request
+     * @param request The redirect request
+     * @param status The status the redirect is answered with
+     * @return ClickContext.NONE when neither click events nor unique visitors are enabled
+     */
+    public ClickContext resolve(ServerHttpRequest request, int status) {
+        if (!eventsEnabled && !uniquesEnabled) {
+            return ClickContext.NONE;
+        }
+        HttpHeaders headers = request.getHeaders();
+        String userAgent = headers.getFirst(HttpHeaders.USER_AGENT);
+        String visitor = uniquesEnabled
+            ? fingerprint(clientAddress(request), userAgent, headers.getFirst(HttpHeaders.ACCEPT_LANGUAGE))
+            : "";
+        if (!eventsEnabled) {
+            return new ClickContext("", "", "", status, visitor);
+        }
+        return new ClickContext(referrerHost(headers.getFirst(HttpHeaders.REFERER)),
+            userAgentFamily(userAgent),
+            countryCode(headers.getFirst(countryHeader)),
+            status,
+            visitor);
+    }
+
+    /**
+     * Client address - the peer address, or behind trusted proxies the last X-Forwarded-For entry
+     * that is not a trusted proxy itself (entries left of it may be set by the client)
+     */
+    String clientAddress(ServerHttpRequest request) {
+        InetSocketAddress remote = request.getRemoteAddress();
+        String peer = remote == null ? ""
+            : remote.getAddress() != null ? remote.getAddress().getHostAddress() : remote.getHostString();
+        String forwarded = request.getHeaders().getFirst(FORWARDED_FOR);
+        if (forwarded == null || forwarded.isBlank() || !isTrustedProxy(peer)) {
+            return peer;
+        }
+        String[] hops = forwarded.split(",");
+        for (int i = hops.length - 1; i >= 0; i--) {
+            String hop = hops[i].trim();
+            if (!hop.isEmpty() && !isTrustedProxy(hop)) {
+                return hop;
+            }
+        }
+        // Every hop is a trusted proxy - the first one is the client side
+        return hops.length > 0 && !hops[0].isBlank() ? hops[0].trim() : peer;
+    }
+
+    private boolean isTrustedProxy(String address) {
+        if (trustedSubnets.isEmpty()) {
+            return false;
+        }
+        InetAddress parsed = Subnet.parseLiteral(address);
+        if (parsed == null) {
+            return false;
+        }
+        for (Subnet subnet : trustedSubnets) {
+            if (subnet.contains(parsed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Keyed visitor fingerprint of a client (64 bits of HMAC-SHA256 with analytics.uniques.secret, hex)
+     * Address, User-Agent and Accept-Language together tell apart visitors behind one NAT;
+     * the key keeps addresses out of Redis - without it a fingerprint cannot be brute-forced back to an address.
+     */
+    String fingerprint(String address, String userAgent, String acceptLanguage) {
+        String client = (address != null ? address : "") + '\n'
+            + (userAgent != null ? userAgent : "") + '\n'
+            + (acceptLanguage != null ? acceptLanguage : "");
+        try {
+            Mac mac = Mac.getInstance(FINGERPRINT_ALGORITHM);
+            mac.init(fingerprintKey);
+            byte[] hash = mac.doFinal(client.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 8);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(FINGERPRINT_ALGORITHM + " is not available", e);
+        }
+    }
+
+    /**
+     * Host of a Referer header, lower case ("" if there is none)
+     */
+    static String referrerHost(String referer) {
+        if (referer == null || referer.isBlank()) {
+            return "";
+        }
+        try {
+            String host = URI.create(referer.trim()).getHost();
+            if (host == null) {
+                return "";
+            }
+            host = host.toLowerCase(Locale.ROOT);
+            return host.length() > MAX_VALUE_LENGTH ? host.substring(0, MAX_VALUE_LENGTH) : host;
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Browser family of a User-Agent header ("" if there is none)
+     * The order matters: Edge and Opera also claim to be Chrome, Chrome also claims to be Safari.
+     */
+    static String userAgentFamily(String userAgent) {
+        if (userAgent == null || userAgent.isBlank()) {
+            return "";
+        }
+        String agent = userAgent.toLowerCase(Locale.ROOT);
+        if (agent.contains("bot") || agent.contains("spider") || agent.contains("crawl")) {
+            return "bot";
+        }
+        if (agent.contains("edg/") || agent.contains("edga/") || agent.contains("edgios/")) {
+            return "edge";
+        }
+        if (agent.contains("opr/") || agent.contains("opera")) {
+            return "opera";
+        }
+        if (agent.contains("firefox/") || agent.contains("fxios/")) {
+            return "firefox";
+        }
+        if (agent.contains("chrome/") || agent.contains("crios/")) {
+            return "chrome";
+        }
+        if (agent.contains("safari/")) {
+            return "safari";
+        }
+        if (agent.startsWith("curl/") || agent.startsWith("wget/")) {
+            return "cli";
+        }
+        return "other";
+    }
+
+    /**
+     * Two-letter upper case country code of the country header ("" if it is missing or not one, e.g. "XX")
+     */
+    static String countryCode(String country) {
+        if (country == null) {
+            return "";
+        }
+        String code = country.trim().toUpperCase(Locale.ROOT);
+        if (code.length() != 2 || !Character.isLetter(code.charAt(0)) || !Character.isLetter(code.charAt(1))
+                || code.equals("XX")) {
+            return "";
+        }
+        return code;
+    }
+
+    /**
+     * An address range of trusted proxies: a single address or CIDR notation (10.0.0.0/8, fd00::/8)
+     */
+    private record Subnet(byte[] network, int prefixLength) {
+
+        private static Subnet parse(String cidr) {
+            int slash = cidr.indexOf('/');
+            InetAddress address = parseLiteral(slash >= 0 ? cidr.substring(0, slash) : cidr);
+            if (address == null) {
+                throw new IllegalArgumentException("Not an IP address or CIDR range in analytics.trusted.proxies: " + cidr);
+            }
+            int bits = address.getAddress().length * 8;
+            int prefixLength = slash >= 0 ? Integer.parseInt(cidr.substring(slash + 1)) : bits;
+            if (prefixLength < 0 || prefixLength > bits) {
+                throw new IllegalArgumentException("Invalid prefix length in analytics.trusted.proxies: " + cidr);
+            }
+            return new Subnet(address.getAddress(), prefixLength);
+        }
+
+        /**
+         * An IP literal, or null - host names are never resolved (the header is set by the client)
+         */
+        private static InetAddress parseLiteral(String address) {
+            if (address.isEmpty() || (address.indexOf('.') < 0 && address.indexOf(':') < 0)) {
+                return null;
+            }
+            for (int i = 0; i < address.length(); i++) {
+                char c = address.charAt(i);
+                if (Character.digit(c, 16) < 0 && c != '.' && c != ':') {
+                    return null;
+                }
+            }
+            try {
+                return InetAddress.getByName(address);
+            } catch (UnknownHostException e) {
+                return null;
+            }
+        }
+
+        private boolean contains(InetAddress address) {
+            byte[] bytes = address.getAddress();
+            if (bytes.length != network.length) {
+                return false;
+            }
+            int fullBytes = prefixLength / 8;
+            for (int i = 0; i < fullBytes; i++) {
+                if (bytes[i] != network[i]) {
+                    return false;
+                }
+            }
+            int rest = prefixLength % 8;
+            if (rest == 0) {
+                return true;
+            }
+            int mask = (0xFF << (8 - rest)) & 0xFF;
+            return (bytes[fullBytes] & mask) == (network[fullBytes] & mask);
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package com.example.tinyurl.service;
+
+import com.example.tinyurl.entity.AnalyticsResolution;
+import com.example.tinyurl.entity.ClickDimension;
+import com.example.tinyurl.repository.ClickAnalyticsBatchWriter;
+import com.example.tinyurl.repository.ClickAnalyticsBatchWriter.DimensionKey;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo.XInfoConsumer;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ReactiveStreamOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Consumer-group workers that count the click event stream into short_url_click_dimensions
+ * - Each node runs analytics.events.consumers workers in one consumer group, so entries are
+ *   split between all workers of all nodes and throughput grows with the number of consumers
+ * - A worker reads a batch with XREADGROUP, sums it per URL, hour (UTC) and dimension value,
+ *   upserts the sums in one JDBC batch and then acknowledges the entries (XACK); a poll reads at
+ *   most analytics.events.max.batches batches per worker, so a busy stream does not hold the scheduler
+ * - Entries left pending longer than analytics.events.reclaim.idle.ms (a worker or node died
+ *   before acknowledging them) are claimed with XCLAIM and counted by a worker of this node;
+ *   entries delivered analytics.events.max.deliveries times are acknowledged and dropped
+ * - Workers are named after the node (analytics.events.consumer.name, the host name by default), so a
+ *   restarted node reuses its consumers; consumers of other nodes that are idle for
+ *   analytics.events.consumer.expiry.ms with nothing pending are deleted after the reclaim
+ *
+ * Counting is at least once: a crash between the upsert and the XACK counts a batch again.
+ */
+@Slf4j
+@Service
+public class ClickEventConsumer {
+
+    private static final RedisScript<Long> DELETE_IDLE_CONSUMER_SCRIPT =
+        RedisScript.of(new ClassPathResource("scripts/delete_idle_consumer.lua"), Long.class);
+
+    private final ReactiveRedisTemplate<String, String> redisTemplate;
+    private final ClickEventPublisher clickEventPublisher;
+    private final AnalyticsService analyticsService;
+    private final ClickAnalyticsBatchWriter batchWriter;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${analytics.events.group:click-aggregators}")
+    private String group;
+
+    // Workers of this node
+    @Value("${analytics.events.consumers:2}")
+    private int consumers;
+
+    // Entries read by a worker at a time
+    @Value("${analytics.events.read.count:1000}")
+    private int readCount;
+
+    // Batches a worker reads per poll - the rest is read by the next poll
+    @Value("${analytics.events.max.batches:10}")
+    private int maxBatches;
+
+    @Value("${analytics.events.reclaim.idle.ms:60000}")
+    private long reclaimIdleMs;
+
+    @Value("${analytics.events.max.deliveries:5}")
+    private long maxDeliveries;
+
+    // Prefix of the consumer names of this node - stable across restarts
+    @Value("${analytics.events.consumer.name:${HOSTNAME:}}")
+    private String nodeName;
+
+    // Consumers of other nodes idle this long with nothing pending are deleted from the group
+    @Value("${analytics.events.consumer.expiry.ms:3600000}")
+    private long consumerExpiryMs;
+
+    private List<String> consumerNames;
+
+    // Polls and reclaims hold separate locks, so a reclaim never waits for a long poll
+    private final Object consumeLock = new Object();
+    private final Object reclaimLock = new Object();
+
+    private Counter consumedCounter;
+    private Counter droppedCounter;
+
+    public ClickEventConsumer(@Qualifier("reactiveStringRedisTemplate") ReactiveRedisTemplate<String, String> redisTemplate,
+                              ClickEventPublisher clickEventPublisher,
+                              AnalyticsService analyticsService,
+                              ClickAnalyticsBatchWriter batchWriter,
+                              MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.clickEventPublisher = clickEventPublisher;
+        this.analyticsService = analyticsService;
+        this.batchWriter = batchWriter;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void initialize() {
+        String nodeId = nodeName == null || nodeName.isBlank() ? localHostName() : nodeName;
+        consumerNames = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, consumers); i++) {
+            consumerNames.add(nodeId + "-" + i);
+        }
+        consumedCounter = Counter.builder("analytics.events.consumed")
+            .description("Click events counted into the dimension table")
+            .register(meterRegistry);
+        droppedCounter = Counter.builder("analytics.events.poisoned")
+            .description("Click events dropped after too many deliveries, or unreadable")
+            .register(meterRegistry);
+        if (clickEventPublisher.isEnabled()) {
+            createGroup().block();
+        }
+    }
+
+    /**
+     * Runs every worker of this node until the stream has no new entries for it, or for at most
+     * analytics.events.max.batches batches (blocking)
+     * @return Number of entries counted
+     */
+    @Scheduled(initialDelayString = "${analytics.events.poll.interval.ms:1000}",
+               fixedDelayString = "${analytics.events.poll.interval.ms:1000}")
+    public long consume() {
+        if (!clickEventPublisher.isEnabled()) {
+            return 0;
+        }
+        synchronized (consumeLock) {
+            return consumeAll();
+        }
+    }
+
+    private long consumeAll() {
+        Long consumed = Flux.fromIterable(consumerNames)
+            .flatMap(consumer -> Mono.fromCallable(() -> consume(consumer))
+                .subscribeOn(Schedulers.boundedElastic())
+                .onErrorResume(e -> {
+                    log.warn("Click event worker {} failed", consumer, e);
+                    return Mono.just(0L);
+                }))
+            .reduce(0L, Long::sum)
+            .block();
+        return consumed != null ? consumed : 0;
+    }
+
+    /**
+     * Runs one worker until the stream has no new entries for it, or for at most
+     * analytics.events.max.batches batches (blocking)
+     * @param consumer Consumer name in the group
+     * @return Number of entries counted
+     */
+    public long consume(String consumer) {
+        String streamKey = clickEventPublisher.getStreamKey();
+        ReactiveStreamOperations<String, String, String> streamOps = redisTemplate.opsForStream();
+        long consumed = 0;
+        for (int batch = 0; batch < Math.max(1, maxBatches); batch++) {
+            // Step 1: XREADGROUP the next entries not delivered to any worker
+            List<MapRecord<String, String, String>> records = streamOps
+                .read(Consumer.from(group, consumer), StreamReadOptions.empty().count(readCount),
+                    StreamOffset.create(streamKey, ReadOffset.lastConsumed()))
+                .onErrorResume(e -> causedBy(e, "NOGROUP")
+                    ? createGroup().thenMany(Flux.empty())
+                    : Flux.error(e))
+                .collectList()
+                .block();
+            if (records == null || records.isEmpty()) {
+                return consumed;
+            }
+
+            // Step 2: Count and acknowledge them
+            consumed += process(records);
+            if (records.size() < readCount) {
+                return consumed;
+            }
+        }
+        return consumed;
+    }
+
+    /**
+     * Claims entries idle in the pending list of any worker and counts them (blocking)
+     * @return Number of entries counted
+     */
+    @Scheduled(initialDelayString = "${analytics.events.reclaim.interval.ms:30000}",
+               fixedDelayString = "${analytics.events.reclaim.interval.ms:30000}")
+    public long reclaim() {
+        if (!clickEventPublisher.isEnabled()) {
+            return 0;
+        }
+        synchronized (reclaimLock) {
+            return reclaimPending();
+        }
+    }
+
+    private long reclaimPending() {
+        String streamKey = clickEventPublisher.getStreamKey();
+        ReactiveStreamOperations<String, String, String> streamOps = redisTemplate.opsForStream();
+        Duration minIdle = Duration.ofMillis(reclaimIdleMs);
+
+        // Step 1: XPENDING - entries delivered long enough ago and not acknowledged
+        PendingMessages pending = streamOps.pending(streamKey, group, Range.unbounded(), readCount)
+            .onErrorResume(e -> Mono.empty())
+            .block();
+        List<RecordId> claimable = new ArrayList<>();
+        List<RecordId> poisoned = new ArrayList<>();
+        for (PendingMessage message : pending != null ? pending : List.<PendingMessage>of()) {
+            if (message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) < 0) {
+                continue;
+            }
+            (message.getTotalDeliveryCount() >= maxDeliveries ? poisoned : claimable).add(message.getId());
+        }
+
+        // Step 2: Entries that keep failing are dropped, so they do not block the reclaim
+        if (!poisoned.isEmpty()) {
+            log.warn("Dropping {} click events delivered {} times without being acknowledged",
+                poisoned.size(), maxDeliveries);
+            streamOps.acknowledge(streamKey, group, poisoned.toArray(RecordId[]::new)).block();
+            droppedCounter.increment(poisoned.size());
+        }
+
+        // Step 3: XCLAIM the rest for a worker of this node (only entries still idle are claimed)
+        long reclaimed = 0;
+        if (!claimable.isEmpty()) {
+            List<MapRecord<String, String, String>> records = streamOps
+                .claim(streamKey, group, consumerNames.get(0), minIdle, claimable.toArray(RecordId[]::new))
+                .collectList()
+                .block();
+            if (records != null && !records.isEmpty()) {
+                log.info("Reclaimed {} pending click events", records.size());
+                reclaimed = process(records);
+            }
+        }
+
+        // Step 4: Consumers whose entries were all reclaimed (e.g. of nodes that are gone) leave the group
+        deleteIdleConsumers();
+        return reclaimed;
+    }
+
+    /**
+     * XGROUP DELCONSUMER for the consumers of other nodes that are idle and have no pending entries
+     * @return Number of consumers deleted
+     */
+    public long deleteIdleConsumers() {
+        String streamKey = clickEventPublisher.getStreamKey();
+        List<XInfoConsumer> idle = redisTemplate.opsForStream().consumers(streamKey, group)
+            .filter(consumer -> consumer.pendingCount() == 0 && consumer.idleTimeMs() >= consumerExpiryMs
+                && !consumerNames.contains(consumer.consumerName()))
+            .collectList()
+            .onErrorResume(e -> Mono.empty())
+            .block();
+        if (idle == null || idle.isEmpty()) {
+            return 0;
+        }
+        long deleted = 0;
+        for (XInfoConsumer consumer : idle) {
+            // Pending entries are checked again in the script - the consumer may have read meanwhile
+            Long result = redisTemplate.execute(DELETE_IDLE_CONSUMER_SCRIPT, List.of(streamKey),
+                    List.of(group, consumer.consumerName()))
+                .next()
+                .onErrorResume(e -> Mono.empty())
+                .block();
+            if (result != null && result == 1L) {
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            log.info("Deleted {} idle consumers from consumer group {}", deleted, group);
+        }
+        return deleted;
+    }
+
+    /**
+     * Upserts the dimension counts of a batch of entries and acknowledges them
+     * @return Number of entries counted
+     */
+    private long process(List<MapRecord<String, String, String>> records) {
+        // Step 1: Decode - unreadable entries are acknowledged without being counted
+        List<DecodedEvent> events = new ArrayList<>(records.size());
+        Set<String> codes = new HashSet<>();
+        for (MapRecord<String, String, String> record : records) {
+            DecodedEvent event = decode(record.getValue());
+            if (event == null) {
+                droppedCounter.increment();
+                continue;
+            }
+            events.add(event);
+            codes.add(event.code());
+        }
+
+        // Step 2: Sum per hour, URL and dimension value
+        Map<String, Long> urlIds = codes.isEmpty() ? Map.of() : analyticsService.resolveUrlIds(codes).block();
+        Map<DimensionKey, Long> counts = new HashMap<>();
+        for (DecodedEvent event : events) {
+            Long urlId = urlIds != null ? urlIds.get(event.code()) : null;
+            if (urlId == null) {
+                // Codes that do not resolve are skipped, as by the dump
+                continue;
+            }
+            OffsetDateTime hour = AnalyticsResolution.HOUR.truncate(event.time());
+            counts.merge(new DimensionKey(hour, urlId, ClickDimension.REFERRER, event.referrer()), 1L, Long::sum);
+            counts.merge(new DimensionKey(hour, urlId, ClickDimension.USER_AGENT, event.userAgent()), 1L, Long::sum);
+            counts.merge(new DimensionKey(hour, urlId, ClickDimension.COUNTRY, event.country()), 1L, Long::sum);
+            counts.merge(new DimensionKey(hour, urlId, ClickDimension.STATUS, event.status()), 1L, Long::sum);
+        }
+
+        // Step 3: One batch upsert, then XACK - a failure leaves the entries pending for the reclaim
+        batchWriter.addDimensionCounts(counts);
+        RecordId[] ids = records.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+        redisTemplate.opsForStream().acknowledge(clickEventPublisher.getStreamKey(), group, ids).block();
+        consumedCounter.increment(events.size());
+        return events.size();
+    }
+
+    private static DecodedEvent decode(Map<String, String> fields) {
+        String code = fields.get(ClickEventPublisher.FIELD_CODE);
+        String time = fields.get(ClickEventPublisher.FIELD_TIME);
+        if (code == null || time == null) {
+            return null;
+        }
+        try {
+            return new DecodedEvent(code,
+                OffsetDateTime.ofInstant(Instant.ofEpochSecond(Long.parseLong(time)), ZoneOffset.UTC),
+                fields.getOrDefault(ClickEventPublisher.FIELD_REFERRER, ""),
+                fields.getOrDefault(ClickEventPublisher.FIELD_USER_AGENT, ""),
+                fields.getOrDefault(ClickEventPublisher.FIELD_COUNTRY, ""),
+                fields.getOrDefault(ClickEventPublisher.FIELD_STATUS, ""));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String localHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            String nodeId = UUID.randomUUID().toString();
+            log.warn("Could not resolve the host name, naming the click event consumers of this node {}", nodeId);
+            return nodeId;
+        }
+    }
+
+    /**
+     * XGROUP CREATE ... MKSTREAM from the start of the stream; an existing group is kept
+     */
+    private Mono<Void> createGroup() {
+        return redisTemplate.opsForStream()
+            .createGroup(clickEventPublisher.getStreamKey(), ReadOffset.from("0"), group)
+            .onErrorResume(e -> {
+                if (!causedBy(e, "BUSYGROUP")) {
+                    log.warn("Failed to create consumer group {} of stream {}", group, clickEventPublisher.getStreamKey(), e);
+                }
+                return Mono.empty();
+            })
+            .then();
+    }
+
+    // Redis error replies arrive wrapped in Spring's data access exceptions
+    private static boolean causedBy(Throwable e, String errorCode) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (String.valueOf(cause.getMessage()).contains(errorCode)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private record DecodedEvent(String code, OffsetDateTime time, String referrer, String userAgent,
+                                String country, String status) {
+    }
+}
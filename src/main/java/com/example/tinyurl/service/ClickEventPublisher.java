@@ -0,0 +1,182 @@
+package com.example.tinyurl.service;
+
+import com.example.tinyurl.model.ClickContext;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStreamCommands.XAddOptions;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ReactiveStreamOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Appends click events to a Redis Stream (analytics.events.enabled)
+ * - Clicks are queued in memory, so the redirect path does not wait for Redis
+ * - Every analytics.events.flush.interval.ms the queued events are sent as one batch of XADDs,
+ *   issued concurrently so they are pipelined on the shared connection
+ * - Each XADD trims the stream to about analytics.events.max.length entries (MAXLEN ~)
+ *
+ * Events are compact: short field names and the dimension values of ClickContextResolver.
+ * They are counted by ClickEventConsumer. Events are best effort - the click counts in the
+ * analytics hashes do not depend on them: when the queue is full or an XADD fails, events are dropped.
+ */
+@Slf4j
+@Service
+public class ClickEventPublisher {
+
+    // Stream entry fields
+    public static final String FIELD_CODE = "c";
+    public static final String FIELD_TIME = "t";
+    public static final String FIELD_REFERRER = "r";
+    public static final String FIELD_USER_AGENT = "u";
+    public static final String FIELD_COUNTRY = "g";
+    public static final String FIELD_STATUS = "s";
+
+    private final ReactiveRedisTemplate<String, String> redisTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${analytics.events.enabled:false}")
+    private boolean enabled;
+
+    @Value("${analytics.events.stream.key:clicks:events}")
+    private String streamKey;
+
+    // Approximate length the stream is trimmed to; entries not consumed by then are lost
+    @Value("${analytics.events.max.length:1000000}")
+    private long maxLength;
+
+    // Events queued for the next flush at most
+    @Value("${analytics.events.buffer.max:100000}")
+    private int bufferMax;
+
+    // XADDs of one flush in flight at the same time
+    @Value("${analytics.aggregate.flush.concurrency:256}")
+    private int flushConcurrency;
+
+    @Value("${analytics.aggregate.redis.timeout.ms:2000}")
+    private long redisTimeoutMs;
+
+    private final Queue<ClickEvent> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private Counter droppedCounter;
+    private Counter failedCounter;
+
+    public ClickEventPublisher(@Qualifier("reactiveStringRedisTemplate") ReactiveRedisTemplate<String, String> redisTemplate,
+                               MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void initialize() {
+        droppedCounter = Counter.builder("analytics.events.dropped")
+            .description("Click events dropped because the event queue was full")
+            .register(meterRegistry);
+        failedCounter = Counter.builder("analytics.events.failed")
+            .description("Click events dropped because their XADD failed or timed out")
+            .register(meterRegistry);
+        Gauge.builder("analytics.events.queued", queued, AtomicInteger::get)
+            .description("Click events queued for the next XADD batch")
+            .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getStreamKey() {
+        return streamKey;
+    }
+
+    /**
+     * Queues the event of a click (non-blocking)
+     * Clicks without a context (ClickContext.NONE) are not recorded.
+     */
+    public void publish(String shortUrl, OffsetDateTime timestamp, ClickContext context) {
+        if (!enabled || context == null || context == ClickContext.NONE) {
+            return;
+        }
+        if (queued.incrementAndGet() > bufferMax) {
+            queued.decrementAndGet();
+            droppedCounter.increment();
+            return;
+        }
+        queue.add(new ClickEvent(shortUrl, timestamp.toEpochSecond(), context));
+    }
+
+    /**
+     * Sends the queued events to the stream as one pipelined batch of XADDs (blocking)
+     * @return Number of events added
+     */
+    @Scheduled(initialDelayString = "${analytics.events.flush.interval.ms:200}",
+               fixedDelayString = "${analytics.events.flush.interval.ms:200}")
+    public synchronized int flush() {
+        // Step 1: Take what is queued now
+        List<ClickEvent> events = new ArrayList<>();
+        ClickEvent event;
+        while ((event = queue.poll()) != null) {
+            events.add(event);
+        }
+        if (events.isEmpty()) {
+            return 0;
+        }
+        queued.addAndGet(-events.size());
+
+        // Step 2: One XADD per event with approximate trimming, sent concurrently (pipelined)
+        ReactiveStreamOperations<String, String, String> streamOps = redisTemplate.opsForStream();
+        XAddOptions options = XAddOptions.maxlen(maxLength).approximateTrimming(true);
+        Long failed = Flux.fromIterable(events)
+            .flatMap(clickEvent -> streamOps.add(toRecord(clickEvent), options)
+                .timeout(Duration.ofMillis(redisTimeoutMs))
+                .then(Mono.just(0L))
+                .onErrorResume(e -> Mono.just(1L)), flushConcurrency)
+            .reduce(0L, Long::sum)
+            .block();
+
+        if (failed != null && failed > 0) {
+            failedCounter.increment(failed);
+            log.warn("Failed to add {} of {} click events to stream {}", failed, events.size(), streamKey);
+        }
+        return events.size() - (failed != null ? failed.intValue() : 0);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private MapRecord<String, String, String> toRecord(ClickEvent event) {
+        return StreamRecords.newRecord()
+            .in(streamKey)
+            .ofMap(Map.of(
+                FIELD_CODE, event.code(),
+                FIELD_TIME, String.valueOf(event.epochSecond()),
+                FIELD_REFERRER, event.context().referrer(),
+                FIELD_USER_AGENT, event.context().userAgent(),
+                FIELD_COUNTRY, event.context().country(),
+                FIELD_STATUS, String.valueOf(event.context().status())));
+    }
+
+    private record ClickEvent(String code, long epochSecond, ClickContext context) {
+    }
+}
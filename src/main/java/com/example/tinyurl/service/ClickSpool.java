@@ -0,0 +1,185 @@
+package com.example.tinyurl.service;
+
+import com.example.tinyurl.service.MappedClickSpool.Batch;
+import com.example.tinyurl.service.MappedClickSpool.SpooledClicks;
+import io.lettuce.core.RedisCommandExecutionException;
+import io.lettuce.core.RedisConnectionException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Node-local disk spool of click deltas that could not be written to Redis (error or timeout)
+ * Backed by MappedClickSpool in analytics.spool.dir, one directory per node. Appends go to the
+ * page cache and are fsynced in batches every analytics.spool.fsync.interval.ms; the spooled
+ * deltas are replayed by ClickSpoolReplayer once Redis or the DB accept them again.
+ * A delta keeps the id of the batch it was sent in, so Redis skips it if the batch was applied after all.
+ */
+@Slf4j
+@Service
+public class ClickSpool {
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${analytics.spool.enabled:true}")
+    private boolean enabled;
+
+    @Value("${analytics.spool.dir:data/spool}")
+    private String directory;
+
+    @Value("${analytics.spool.segment.bytes:16777216}")
+    private int segmentBytes;
+
+    @Value("${analytics.spool.max.segments:64}")
+    private int maxSegments;
+
+    private volatile MappedClickSpool spool;
+
+    private Counter spooledCounter;
+    private Counter rejectedCounter;
+
+    public ClickSpool(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void initialize() {
+        if (!enabled) {
+            return;
+        }
+        MappedClickSpool opened;
+        try {
+            opened = new MappedClickSpool(Path.of(directory), segmentBytes, maxSegments);
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not open click spool in {}, continuing without it", directory, e);
+            return;
+        }
+        spool = opened;
+        if (opened.pendingRecords() > 0) {
+            log.info("Opened click spool in {} with {} click deltas to replay", directory, opened.pendingRecords());
+        }
+
+        spooledCounter = Counter.builder("analytics.spool.appended")
+            .description("Click deltas written to the spool because Redis failed")
+            .register(meterRegistry);
+        rejectedCounter = Counter.builder("analytics.spool.rejected")
+            .description("Click deltas the spool could not take (full or failing)")
+            .register(meterRegistry);
+        Gauge.builder("analytics.spool.depth", opened, MappedClickSpool::pendingRecords)
+            .description("Click deltas in the spool waiting to be replayed")
+            .register(meterRegistry);
+        Gauge.builder("analytics.spool.bytes", opened, MappedClickSpool::pendingBytes)
+            .baseUnit("bytes")
+            .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        MappedClickSpool current = spool;
+        spool = null;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                log.warn("Failed to close click spool", e);
+            }
+        }
+    }
+
+    /**
+     * Spools a click delta of a code in a bucket
+     * @param deltaId Id of the batch the delta was sent to Redis in
+     * @param mayBeApplied Whether Redis may have applied the batch (see mayBeApplied(Throwable))
+     * @return false if the spool is disabled, full or failing (the caller keeps the delta)
+     */
+    public boolean append(String tKey, String shortUrl, long count, long deltaId, boolean mayBeApplied) {
+        MappedClickSpool current = spool;
+        if (current == null) {
+            return false;
+        }
+        try {
+            if (current.append(tKey, shortUrl, count, deltaId, mayBeApplied)) {
+                spooledCounter.increment();
+                return true;
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to spool a click delta of {}", shortUrl, e);
+        }
+        rejectedCounter.increment();
+        return false;
+    }
+
+    /**
+     * Spools several click deltas, all of them or none
+     * @return false if the spool is disabled, full or failing (nothing is spooled, the caller keeps the deltas)
+     */
+    public boolean appendAll(List<SpooledClicks> deltas) {
+        MappedClickSpool current = spool;
+        if (current == null) {
+            return false;
+        }
+        try {
+            if (current.appendAll(deltas)) {
+                spooledCounter.increment(deltas.size());
+                return true;
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to spool {} click deltas", deltas.size(), e);
+        }
+        rejectedCounter.increment(deltas.size());
+        return false;
+    }
+
+    /**
+     * Whether a failed Redis write may have been applied anyway
+     * Only an error reply or a connection that could not be opened prove that Redis did not run the command;
+     * a timeout or a connection lost while waiting for the reply do not.
+     */
+    public static boolean mayBeApplied(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RedisCommandExecutionException || cause instanceof RedisConnectionException) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Oldest spooled deltas, null if the spool is disabled
+     */
+    public Batch read(int maxRecords) {
+        MappedClickSpool current = spool;
+        return current != null ? current.read(maxRecords) : null;
+    }
+
+    /**
+     * Acknowledges replayed deltas
+     */
+    public void commit(Batch batch) {
+        MappedClickSpool current = spool;
+        if (current != null) {
+            current.commit(batch);
+        }
+    }
+
+    /**
+     * Flushes the appended deltas to disk (fsync batching)
+     */
+    @Scheduled(fixedDelayString = "${analytics.spool.fsync.interval.ms:200}")
+    public void force() {
+        MappedClickSpool current = spool;
+        if (current != null) {
+            current.force();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.tinyurl.service;
+
+import com.example.tinyurl.repository.ClickAnalyticsBatchWriter;
+import com.example.tinyurl.service.MappedClickSpool.Batch;
+import com.example.tinyurl.service.MappedClickSpool.SpooledClicks;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Drains the click spool once its dependencies recover
+ * Spooled deltas are grouped by the batch (delta id) they were sent in and added to Redis with the
+ * aggregator's script, under the same delta id: a batch that timed out but was applied is skipped,
+ * and a code replayed before is not added again, so nothing is counted twice. A bucket that was
+ * dumped meanwhile is simply dumped again.
+ * Deltas Redis still rejects are added straight to short_url_click_analytics instead, so clicks
+ * are not held back by a long Redis outage - but only those Redis cannot have applied (error replies,
+ * connections that could not be opened). The others wait in the spool until Redis answers.
+ * A batch is acknowledged once all of its deltas are stored or re-spooled (all or none of them, so a
+ * failed re-spool does not leave a group in the spool twice); a crash before that
+ * replays the batch again, which Redis skips (the DB fallback is counted at least once).
+ */
+@Slf4j
+@Service
+public class ClickSpoolReplayer {
+
+    private final ClickSpool clickSpool;
+    private final AnalyticsService analyticsService;
+    private final ClickAggregator clickAggregator;
+    private final ClickAnalyticsBatchWriter batchWriter;
+
+    // Spooled deltas read and replayed at a time
+    @Value("${analytics.spool.replay.batch.size:1000}")
+    private int batchSize;
+
+    public ClickSpoolReplayer(ClickSpool clickSpool,
+                              AnalyticsService analyticsService,
+                              ClickAggregator clickAggregator,
+                              ClickAnalyticsBatchWriter batchWriter) {
+        this.clickSpool = clickSpool;
+        this.analyticsService = analyticsService;
+        this.clickAggregator = clickAggregator;
+        this.batchWriter = batchWriter;
+    }
+
+    /**
+     * Replays spooled deltas until the spool is empty or neither Redis nor the DB takes them (blocking)
+     * @return Number of deltas replayed
+     */
+    @Scheduled(initialDelayString = "${analytics.spool.replay.interval.ms:5000}",
+               fixedDelayString = "${analytics.spool.replay.interval.ms:5000}")
+    public synchronized long replay() {
+        long replayed = 0;
+        Batch batch;
+        while ((batch = clickSpool.read(batchSize)) != null && !batch.isEmpty()) {
+            // Step 1: Group the batch by the bucket hash and delta id it was sent with
+            Map<DeltaKey, Deltas> groups = new LinkedHashMap<>();
+            for (SpooledClicks clicks : batch.records()) {
+                DeltaKey key = new DeltaKey(clicks.tKey(), analyticsService.bucketKey(clicks.tKey(), clicks.code()),
+                    clicks.deltaId());
+                groups.computeIfAbsent(key, k -> new Deltas())
+                    .add(clicks.code(), clicks.count(), clicks.mayBeApplied());
+            }
+
+            // Step 2: Redis first, with the delta ids; what it definitely did not apply goes into the DB
+            Map<DeltaKey, Deltas> rejected = replayToRedis(groups);
+            Map<DeltaKey, Deltas> kept = new LinkedHashMap<>();
+            Map<DeltaKey, Deltas> toDatabase = new LinkedHashMap<>();
+            rejected.forEach((key, deltas) -> (deltas.mayBeApplied ? kept : toDatabase).put(key, deltas));
+            if (!toDatabase.isEmpty()) {
+                try {
+                    replayToDatabase(toDatabase);
+                } catch (RuntimeException e) {
+                    log.warn("Could not replay click deltas to Redis or the DB, will retry", e);
+                    kept.putAll(toDatabase);
+                }
+            }
+
+            // Step 3: Keep what is not stored, acknowledge the rest, which must not be replayed twice
+            if (!kept.isEmpty()) {
+                if (!respool(kept)) {
+                    log.error("Could not replay or re-spool click deltas, keeping the batch");
+                    return replayed;
+                }
+                clickSpool.commit(batch);
+                return replayed;
+            }
+            clickSpool.commit(batch);
+            replayed += batch.records().size();
+        }
+        if (replayed > 0) {
+            log.info("Replayed {} spooled click deltas", replayed);
+        }
+        return replayed;
+    }
+
+    /**
+     * Adds every group of deltas to its bucket hash (shard), once per delta id
+     * @return The groups that failed, flagged if Redis may have applied them
+     */
+    private Map<DeltaKey, Deltas> replayToRedis(Map<DeltaKey, Deltas> groups) {
+        List<Map.Entry<DeltaKey, Deltas>> failed = Flux.fromIterable(groups.entrySet())
+            .flatMap(group -> clickAggregator.addOnce(group.getKey().bucketKey(), group.getKey().deltaId(),
+                    group.getValue().counts, true)
+                .then(Mono.<Map.Entry<DeltaKey, Deltas>>empty())
+                .onErrorResume(e -> {
+                    // The replay itself may have been applied (timeout) - then only Redis can tell
+                    group.getValue().mayBeApplied |= ClickSpool.mayBeApplied(e);
+                    return Mono.just(group);
+                }))
+            .collectList()
+            .block();
+
+        Map<DeltaKey, Deltas> rejected = new LinkedHashMap<>();
+        if (failed != null) {
+            for (Map.Entry<DeltaKey, Deltas> group : failed) {
+                rejected.put(group.getKey(), group.getValue());
+            }
+        }
+        return rejected;
+    }
+
+    /**
+     * Adds the deltas to short_url_click_analytics directly, one transaction per bucket
+     */
+    private void replayToDatabase(Map<DeltaKey, Deltas> groups) {
+        Map<String, Map<DeltaKey, Deltas>> byTimeKey = new LinkedHashMap<>();
+        groups.forEach((key, deltas) -> byTimeKey.computeIfAbsent(key.tKey(), tKey -> new LinkedHashMap<>())
+            .put(key, deltas));
+
+        for (Map.Entry<String, Map<DeltaKey, Deltas>> bucket : byTimeKey.entrySet()) {
+            OffsetDateTime time;
+            try {
+                time = analyticsService.parseTimeKey(bucket.getKey());
+            } catch (IllegalArgumentException e) {
+                log.warn("Dropping spooled clicks of time key {} (not of the current time key format)", bucket.getKey());
+                bucket.getValue().keySet().forEach(groups::remove);
+                continue;
+            }
+            Map<String, Long> counts = new HashMap<>();
+            bucket.getValue().values().forEach(deltas -> deltas.counts.forEach((code, count) ->
+                counts.merge(code, count, Long::sum)));
+            Map<String, Long> urlIds = analyticsService.resolveUrlIds(counts.keySet()).block();
+            Map<Long, Long> countsByUrlId = new HashMap<>();
+            counts.forEach((code, count) -> {
+                Long urlId = urlIds != null ? urlIds.get(code) : null;
+                // Codes that do not resolve are skipped, as by the dump
+                if (urlId != null) {
+                    countsByUrlId.merge(urlId, count, Long::sum);
+                }
+            });
+            batchWriter.addCounts(time, countsByUrlId);
+            // Written - not replayed again if a later bucket fails
+            bucket.getValue().keySet().forEach(groups::remove);
+        }
+    }
+
+    private boolean respool(Map<DeltaKey, Deltas> groups) {
+        List<SpooledClicks> deltas = new ArrayList<>();
+        groups.forEach((key, group) -> group.counts.forEach((code, count) ->
+            deltas.add(new SpooledClicks(key.tKey(), code, count, key.deltaId(), group.mayBeApplied))));
+        return clickSpool.appendAll(deltas);
+    }
+
+    // Deltas sent to one bucket hash in one batch
+    private record DeltaKey(String tKey, String bucketKey, long deltaId) {
+    }
+
+    private static final class Deltas {
+        private final Map<String, Long> counts = new LinkedHashMap<>();
+        private boolean mayBeApplied;
+
+        private void add(String code, long count, boolean mayBeApplied) {
+            counts.merge(code, count, Long::sum);
+            this.mayBeApplied |= mayBeApplied;
+        }
+    }
+}
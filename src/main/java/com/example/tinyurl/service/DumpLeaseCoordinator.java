@@ -0,0 +1,120 @@
+package com.example.tinyurl.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Redis leases that let exactly one app instance work on a dump unit at a time
+ * (one shard of an analytics bucket, the unique visitor sketches of a bucket, or the rollup)
+ * - Claimed with SET NX PX under `lease:analytics:<unit>` and a token unique to the claim
+ *   (a shard's lease key carries the shard's hash tag, so it lives in the shard's cluster slot)
+ * - Renewed in the background while the work runs, released when it ends (both fenced by the token)
+ * - A node that dies stops renewing, so the lease expires and another node takes the unit over
+ * Instances that find a unit leased skip it and move on to the next one, so the backlog is
+ * spread over all instances instead of every instance racing on the same shard.
+ *
+ * The lease only keeps instances out of each other's way; correctness does not depend on it,
+ * as the dump journal rejects a page committed by a node that lost its lease (optimistic locking).
+ */
+@Slf4j
+@Component
+public class DumpLeaseCoordinator {
+
+    static final String LEASE_KEY_PREFIX = "lease:analytics:";
+
+    private static final RedisScript<Long> RENEW_LEASE_SCRIPT =
+        RedisScript.of(new ClassPathResource("scripts/renew_lease.lua"), Long.class);
+
+    private static final RedisScript<Long> RELEASE_LEASE_SCRIPT =
+        RedisScript.of(new ClassPathResource("scripts/release_lock.lua"), Long.class);
+
+    private final ReactiveRedisTemplate<String, String> redisTemplate;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    @Value("${analytics.dump.lease.ttl.ms:30000}")
+    private long leaseTtlMillis;
+
+    public DumpLeaseCoordinator(@Qualifier("reactiveStringRedisTemplate") ReactiveRedisTemplate<String, String> redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    /**
+     * Runs the task on the calling thread while holding the lease of a unit (blocking)
+     * The task should check Lease.isHeld() between steps and stop once it returns false.
+     * @return false if another instance holds the lease (the task did not run)
+     */
+    public boolean runWithLease(String unit, Consumer<Lease> task) {
+        String leaseKey = LEASE_KEY_PREFIX + unit;
+        String token = nodeId + ":" + UUID.randomUUID();
+        Boolean acquired = redisTemplate.opsForValue()
+            .setIfAbsent(leaseKey, token, Duration.ofMillis(leaseTtlMillis))
+            .block();
+        if (!Boolean.TRUE.equals(acquired)) {
+            log.debug("Dump unit {} is leased by another instance", unit);
+            return false;
+        }
+
+        Lease lease = new Lease(System.currentTimeMillis());
+        Disposable renewal = Flux.interval(Duration.ofMillis(Math.max(1, leaseTtlMillis / 3)))
+            .concatMap(tick -> {
+                long attemptedAt = System.currentTimeMillis();
+                return redisTemplate.execute(RENEW_LEASE_SCRIPT, List.of(leaseKey),
+                        List.of(token, String.valueOf(leaseTtlMillis)))
+                    .next()
+                    .doOnNext(renewed -> lease.renewed(attemptedAt, renewed != null && renewed == 1))
+                    // A failed renewal is retried on the next tick; the lease runs out meanwhile
+                    .onErrorResume(e -> Mono.empty());
+            })
+            .subscribe();
+        try {
+            task.accept(lease);
+        } finally {
+            renewal.dispose();
+            redisTemplate.execute(RELEASE_LEASE_SCRIPT, List.of(leaseKey), List.of(token))
+                .next()
+                .onErrorResume(e -> Mono.empty())
+                .block();
+        }
+        return true;
+    }
+
+    /**
+     * A held lease as seen by the task
+     */
+    public final class Lease {
+        private volatile long validUntilMillis;
+        private volatile boolean lost;
+
+        private Lease(long acquiredAtMillis) {
+            this.validUntilMillis = acquiredAtMillis + leaseTtlMillis;
+        }
+
+        private void renewed(long attemptedAtMillis, boolean held) {
+            if (held) {
+                validUntilMillis = attemptedAtMillis + leaseTtlMillis;
+            } else {
+                lost = true;
+            }
+        }
+
+        /**
+         * Returns false once the lease was taken over or may have expired
+         */
+        public boolean isHeld() {
+            return !lost && System.currentTimeMillis() < validUntilMillis;
+        }
+    }
+}
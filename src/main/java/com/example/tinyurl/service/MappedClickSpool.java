@@ -0,0 +1,405 @@
+package com.example.tinyurl.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Append-only, memory-mapped spool of click deltas that could not be written to Redis
+ *
+ * A sequence of fixed-size segment files (segment-<seq>.spool) in the given directory:
+ * - Header: magic, write position, read position
+ * - Records: [recordLen][tKeyLen][codeLen][count][deltaId][flags][tKey][code], 8-byte aligned
+ * Records are appended to the newest segment; a full segment is sealed (flushed) and the next one
+ * is created. Records are read from the oldest segment and acknowledged with commit once they are
+ * stored elsewhere, which moves its read position; a sealed segment that is read to its end is deleted.
+ *
+ * The write position is published after the record, so a record is either complete or not there.
+ * Appends reach the page cache immediately (they survive a process crash); force() flushes the
+ * newest segment to disk, so a caller can batch fsyncs.
+ */
+@Slf4j
+public class MappedClickSpool implements Closeable {
+
+    static final String LOCK_FILE = "spool.lock";
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final long MAGIC = 0x54494E5953504C32L; // "TINYSPL2"
+
+    // Header: magic, write position, read position
+    private static final int HEADER_BYTES = 64;
+    private static final int POS_WRITE = 8;
+    private static final int POS_READ = 16;
+
+    // Record layout: recordLen(4) tKeyLen(2) codeLen(2) count(8) deltaId(8) flags(1) tKey code
+    private static final int RECORD_HEADER_BYTES = 25;
+    private static final byte FLAG_MAY_BE_APPLIED = 1;
+    private static final int MAX_FIELD_BYTES = 0xFFFF;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    // Oldest first; the last one is written to
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long nextSequence;
+    private volatile long pendingRecords;
+    private volatile long pendingBytes;
+    private boolean dirty;
+    private boolean fullWarned;
+
+    /**
+     * Opens (or creates) the spool, keeping the records not acknowledged yet
+     * @param directory Directory holding the segments (must not be shared by several processes)
+     * @param segmentBytes Size of one segment file (at most 2 GiB)
+     * @param maxSegments Maximum number of segments; appends fail once all are full
+     * @throws IOException if the directory cannot be used or is locked by another process
+     */
+    public MappedClickSpool(Path directory, int segmentBytes, int maxSegments) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = Math.max(1, maxSegments);
+        Files.createDirectories(directory);
+
+        lockChannel = FileChannel.open(directory.resolve(LOCK_FILE),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        lock = lockChannel.tryLock();
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Click spool directory " + directory + " is in use by another process");
+        }
+
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                try {
+                    files.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring unexpected file {} in click spool {}", file, directory);
+                }
+            }
+        }
+        for (Map.Entry<Long, Path> entry : files.entrySet()) {
+            Segment segment = openSegment(entry.getKey(), entry.getValue());
+            if (segment != null) {
+                segments.addLast(segment);
+                countPending(segment);
+            }
+            nextSequence = entry.getKey() + 1;
+        }
+    }
+
+    /**
+     * Appends a click delta
+     * @param deltaId Id of the batch the delta was sent to Redis in (see ClickAggregator.addOnce)
+     * @param mayBeApplied Whether Redis may have applied the batch (it timed out rather than failed)
+     * @return false if the spool is full
+     */
+    public synchronized boolean append(String tKey, String code, long count, long deltaId, boolean mayBeApplied)
+            throws IOException {
+        byte[] tKeyBytes = tKey.getBytes(StandardCharsets.UTF_8);
+        byte[] codeBytes = code.getBytes(StandardCharsets.UTF_8);
+        int recordBytes = align(RECORD_HEADER_BYTES + tKeyBytes.length + codeBytes.length);
+        if (tKeyBytes.length > MAX_FIELD_BYTES || codeBytes.length > MAX_FIELD_BYTES
+                || HEADER_BYTES + recordBytes > segmentBytes) {
+            throw new IllegalArgumentException("Click delta of " + recordBytes + " bytes does not fit into a spool segment");
+        }
+
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.writePosition() + recordBytes > segmentBytes) {
+            if (segments.size() >= maxSegments) {
+                if (!fullWarned) {
+                    log.warn("Click spool {} is full ({} segments), further click deltas are rejected", directory, maxSegments);
+                    fullWarned = true;
+                }
+                return false;
+            }
+            if (segment != null) {
+                // Sealed - flush it once, it is not written again
+                segment.buffer.force();
+            }
+            segment = createSegment(nextSequence++);
+            segments.addLast(segment);
+        }
+
+        int position = (int) segment.writePosition();
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.putInt(position, recordBytes);
+        buffer.putShort(position + 4, (short) tKeyBytes.length);
+        buffer.putShort(position + 6, (short) codeBytes.length);
+        buffer.putLong(position + 8, count);
+        buffer.putLong(position + 16, deltaId);
+        buffer.put(position + 24, mayBeApplied ? FLAG_MAY_BE_APPLIED : 0);
+        buffer.put(position + RECORD_HEADER_BYTES, tKeyBytes);
+        buffer.put(position + RECORD_HEADER_BYTES + tKeyBytes.length, codeBytes);
+        LONGS.setRelease(buffer, POS_WRITE, (long) position + recordBytes);
+
+        pendingRecords++;
+        pendingBytes += recordBytes;
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * Appends several click deltas, all of them or none
+     * A failed append drops the records appended before it, and the segments created for them.
+     * @return false if the spool is full (nothing is appended)
+     */
+    public synchronized boolean appendAll(List<SpooledClicks> records) throws IOException {
+        Segment last = segments.peekLast();
+        long lastWritePosition = last != null ? last.writePosition() : 0;
+        int segmentCount = segments.size();
+        long records0 = pendingRecords;
+        long bytes0 = pendingBytes;
+        boolean appended = false;
+        try {
+            for (SpooledClicks clicks : records) {
+                if (!append(clicks.tKey(), clicks.code(), clicks.count(), clicks.deltaId(), clicks.mayBeApplied())) {
+                    return false;
+                }
+            }
+            appended = true;
+            return true;
+        } finally {
+            if (!appended) {
+                // Nothing reads them meanwhile - reads are synchronized as well
+                while (segments.size() > segmentCount) {
+                    deleteSegment(segments.pollLast());
+                }
+                if (last != null) {
+                    LONGS.setRelease(last.buffer, POS_WRITE, lastWritePosition);
+                }
+                pendingRecords = records0;
+                pendingBytes = bytes0;
+            }
+        }
+    }
+
+    /**
+     * Reads the oldest records not acknowledged yet, from one segment
+     * @param maxRecords Maximum number of records
+     * @return The records (empty if there are none), to be passed to commit once they are stored
+     */
+    public synchronized Batch read(int maxRecords) {
+        // Drop read sealed segments (e.g. left by a crash before their deletion)
+        while (segments.size() > 1 && segments.peekFirst().readPosition() >= segments.peekFirst().writePosition()) {
+            deleteSegment(segments.pollFirst());
+        }
+        Segment segment = segments.peekFirst();
+        List<SpooledClicks> records = new ArrayList<>();
+        if (segment == null) {
+            return new Batch(-1, 0, records, 0);
+        }
+
+        long position = segment.readPosition();
+        long end = segment.writePosition();
+        while (position < end && records.size() < maxRecords) {
+            int recordBytes = segment.buffer.getInt((int) position);
+            records.add(readRecord(segment.buffer, (int) position));
+            position += recordBytes;
+        }
+        return new Batch(segment.sequence, position, records, position - segment.readPosition());
+    }
+
+    /**
+     * Acknowledges the records of a batch (they are stored elsewhere and will not be read again)
+     */
+    public synchronized void commit(Batch batch) {
+        for (Segment segment : segments) {
+            if (segment.sequence != batch.sequence()) {
+                continue;
+            }
+            LONGS.setRelease(segment.buffer, POS_READ, batch.endPosition());
+            pendingRecords -= batch.records().size();
+            pendingBytes -= batch.bytes();
+            dirty = true;
+            if (segment != segments.peekLast() && batch.endPosition() >= segment.writePosition()) {
+                segments.remove(segment);
+                deleteSegment(segment);
+            }
+            return;
+        }
+    }
+
+    /**
+     * Records appended and not acknowledged yet
+     */
+    public long pendingRecords() {
+        return pendingRecords;
+    }
+
+    public long pendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * Flushes the newest segment to disk, if it was written since the last call
+     */
+    public synchronized void force() {
+        Segment segment = segments.peekLast();
+        if (dirty && segment != null) {
+            segment.buffer.force();
+        }
+        dirty = false;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+            segment.channel.close();
+        }
+        segments.clear();
+        lock.release();
+        lockChannel.close();
+    }
+
+    private Segment createSegment(long sequence) throws IOException {
+        Path file = directory.resolve(segmentName(sequence));
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        LONGS.set(buffer, POS_WRITE, (long) HEADER_BYTES);
+        LONGS.set(buffer, POS_READ, (long) HEADER_BYTES);
+        LONGS.setRelease(buffer, 0, MAGIC);
+        return new Segment(sequence, file, channel, buffer);
+    }
+
+    private Segment openSegment(long sequence, Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        MappedByteBuffer buffer = size >= HEADER_BYTES && size <= Integer.MAX_VALUE
+            ? channel.map(FileChannel.MapMode.READ_WRITE, 0, size) : null;
+        Segment segment = buffer != null ? new Segment(sequence, file, channel, buffer) : null;
+        boolean valid = segment != null && (long) LONGS.get(buffer, 0) == MAGIC
+            && segment.readPosition() >= HEADER_BYTES && segment.readPosition() <= segment.writePosition()
+            && segment.writePosition() <= size && recordsAreValid(segment);
+        if (!valid) {
+            channel.close();
+            // Kept for inspection, never replayed
+            Path corrupt = file.resolveSibling(file.getFileName() + ".corrupt");
+            Files.move(file, corrupt, StandardCopyOption.REPLACE_EXISTING);
+            log.error("Click spool segment {} is invalid, moved it to {}", file, corrupt);
+            return null;
+        }
+        return segment;
+    }
+
+    private boolean recordsAreValid(Segment segment) {
+        long position = segment.readPosition();
+        long end = segment.writePosition();
+        while (position < end) {
+            int recordBytes = segment.buffer.getInt((int) position);
+            if (recordBytes < RECORD_HEADER_BYTES || position + recordBytes > end
+                    || RECORD_HEADER_BYTES + Short.toUnsignedInt(segment.buffer.getShort((int) position + 4))
+                        + Short.toUnsignedInt(segment.buffer.getShort((int) position + 6)) > recordBytes) {
+                return false;
+            }
+            position += recordBytes;
+        }
+        return true;
+    }
+
+    private void countPending(Segment segment) {
+        long position = segment.readPosition();
+        long end = segment.writePosition();
+        while (position < end) {
+            position += segment.buffer.getInt((int) position);
+            pendingRecords++;
+        }
+        pendingBytes += end - segment.readPosition();
+    }
+
+    private void deleteSegment(Segment segment) {
+        try {
+            segment.channel.close();
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            log.warn("Could not delete click spool segment {}", segment.file, e);
+        }
+    }
+
+    private static SpooledClicks readRecord(MappedByteBuffer buffer, int position) {
+        int tKeyLength = Short.toUnsignedInt(buffer.getShort(position + 4));
+        int codeLength = Short.toUnsignedInt(buffer.getShort(position + 6));
+        long count = buffer.getLong(position + 8);
+        long deltaId = buffer.getLong(position + 16);
+        boolean mayBeApplied = (buffer.get(position + 24) & FLAG_MAY_BE_APPLIED) != 0;
+        byte[] tKeyBytes = new byte[tKeyLength];
+        byte[] codeBytes = new byte[codeLength];
+        buffer.get(position + RECORD_HEADER_BYTES, tKeyBytes);
+        buffer.get(position + RECORD_HEADER_BYTES + tKeyLength, codeBytes);
+        return new SpooledClicks(new String(tKeyBytes, StandardCharsets.UTF_8), new String(codeBytes, StandardCharsets.UTF_8),
+            count, deltaId, mayBeApplied);
+    }
+
+    private static String segmentName(long sequence) {
+        return SEGMENT_PREFIX + String.format("%020d", sequence) + SEGMENT_SUFFIX;
+    }
+
+    private static int align(int bytes) {
+        return (bytes + 7) & ~7;
+    }
+
+    /**
+     * Clicks of a code in a bucket, with the id of the batch they were sent to Redis in
+     */
+    public record SpooledClicks(String tKey, String code, long count, long deltaId, boolean mayBeApplied) {
+    }
+
+    /**
+     * Records read from one segment, up to (excluding) endPosition
+     */
+    public record Batch(long sequence, long endPosition, List<SpooledClicks> records, long bytes) {
+
+        public boolean isEmpty() {
+            return records.isEmpty();
+        }
+    }
+
+    private static final class Segment {
+        private final long sequence;
+        private final Path file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        private Segment(long sequence, Path file, FileChannel channel, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        private long writePosition() {
+            return (long) LONGS.getAcquire(buffer, POS_WRITE);
+        }
+
+        private long readPosition() {
+            return (long) LONGS.getAcquire(buffer, POS_READ);
+        }
+    }
+}
@@ -14,6 +14,8 @@ import java.time.Duration;
 @RequiredArgsConstructor
 public class RateLimitService {
 
+    static final String GET_KEY_PREFIX = "rate_limit:get:";
+
     private final @Qualifier("reactiveStringRedisTemplate") ReactiveRedisTemplate<String, String> redisTemplate;
 
     @Value("${rate_limit.shorten.get.size:60}")
@@ -32,7 +34,7 @@ public class RateLimitService {
      * Checks rate limit for GET /{shortURL} based on shortURL parameter
      */
     public Mono<Boolean> checkGetRateLimit(String shortURL) {
-        String key = "rate_limit:get:" + shortURL;
+        String key = GET_KEY_PREFIX + shortURL;
         return checkRateLimit(key, getWindowSize, getCapacity);
     }
 
@@ -17,6 +17,7 @@ import reactor.core.publisher.Mono;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 @Service
 public class TokenAuthenticationService {
@@ -26,6 +27,10 @@ public class TokenAuthenticationService {
     @Value("${auth.aes.secret.key}")
     private String aesSecretKey;
 
+    // Users granted ROLE_ADMIN (admin endpoints such as the cache warm-up)
+    @Value("${auth.admin.user.ids:}")
+    private Set<String> adminUserIds;
+
     public TokenAuthenticationService(@Qualifier("reactiveStringRedisTemplate") ReactiveRedisTemplate<String, String> redisTemplate) {
         this.redisTemplate = redisTemplate;
     }
@@ -37,6 +42,7 @@ public class TokenAuthenticationService {
      * 2. Perform AES decrypt of first portion as user_id
      * 3. Hash get from redis for key token:<user_id>, field_name as <second portion of split>
      * 4. If the field_name exists token is valid
+     * Users listed in auth.admin.user.ids are granted ROLE_ADMIN next to ROLE_USER
      */
     public Mono<Authentication> verifyToken(String token) {
         if (token == null || token.isEmpty()) {
@@ -68,7 +74,7 @@ public class TokenAuthenticationService {
             return hashOps.get(redisKey, randomString)
                 .flatMap(value -> {
                     if (value != null && "true".equals(value)) {
-                        Authentication auth = new CustomAuthentication(userId, randomString);
+                        Authentication auth = new CustomAuthentication(userId, randomString, adminUserIds.contains(userId));
                         return Mono.just(auth);
                     } else {
                         // Token field doesn't exist - invalid token
@@ -0,0 +1,250 @@
+package com.example.tinyurl.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands.SetOption;
+import org.springframework.data.redis.core.ReactiveHyperLogLogOperations;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.util.ByteUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-link, per-bucket HyperLogLog sketches of the visitors of a link
+ * - A click adds its visitor fingerprint (ClickContext.visitor) to an in-memory set per code and bucket
+ * - Every analytics.aggregate.flush.interval.ms each set is sent as one PFADD to
+ *   `analytics:<tKey>:u:{code}`; the PFADDs are issued concurrently so they are pipelined
+ * - The dump moves the sketch of a closed bucket into short_url_click_uniques as serialized registers
+ *
+ * Sketches are counted and merged in Redis (PFCOUNT / PFMERGE over temporary keys that share a
+ * hash tag, so they are in one cluster slot). A merge is idempotent: merging a sketch twice, or
+ * reading a bucket both from the DB and from Redis, does not count a visitor twice.
+ * The hash tag of a sketch is its code, which keeps it and its processing key in one slot.
+ */
+@Slf4j
+@Service
+public class UniqueVisitorCounter {
+
+    public static final String SKETCH_KEY_INFIX = ":u:";
+    private static final String TEMP_KEY_PREFIX = "uniques:tmp:";
+    // Temporary keys outlive a query or merge that dies before deleting them only this long
+    private static final Duration TEMP_KEY_TTL = Duration.ofMinutes(1);
+
+    private final ReactiveRedisTemplate<String, String> redisTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${analytics.uniques.enabled:true}")
+    private boolean enabled;
+
+    // Sketches (code and bucket) with visitors buffered for the next flush at most
+    @Value("${analytics.uniques.max.keys:100000}")
+    private int maxKeys;
+
+    @Value("${analytics.aggregate.flush.concurrency:256}")
+    private int flushConcurrency;
+
+    @Value("${analytics.aggregate.redis.timeout.ms:2000}")
+    private long redisTimeoutMs;
+
+    // Sketch key -> visitors not added yet
+    private final Map<String, Set<String>> pending = new ConcurrentHashMap<>();
+
+    private Counter droppedCounter;
+
+    public UniqueVisitorCounter(@Qualifier("reactiveStringRedisTemplate") ReactiveRedisTemplate<String, String> redisTemplate,
+                                MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void initialize() {
+        droppedCounter = Counter.builder("analytics.uniques.dropped")
+            .description("Visitors not added to a sketch because the buffer was full")
+            .register(meterRegistry);
+        Gauge.builder("analytics.uniques.keys", pending, Map::size)
+            .description("Sketches with visitors buffered for the next PFADD batch")
+            .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Redis key of the sketch of a code in the bucket of a time key
+     */
+    public static String key(String tKey, String shortUrl) {
+        return AnalyticsService.ANALYTICS_KEY_PREFIX + tKey + SKETCH_KEY_INFIX + "{" + shortUrl + "}";
+    }
+
+    /**
+     * SCAN pattern of every sketch of a bucket
+     */
+    public static String keyPattern(String tKey) {
+        return AnalyticsService.ANALYTICS_KEY_PREFIX + tKey + SKETCH_KEY_INFIX + "*";
+    }
+
+    /**
+     * Code of a sketch key (or of its processing key), null if it is none
+     */
+    public static String codeOf(String key) {
+        int start = key.lastIndexOf(SKETCH_KEY_INFIX + "{");
+        if (start < 0 || !key.endsWith("}")) {
+            return null;
+        }
+        return key.substring(start + SKETCH_KEY_INFIX.length() + 1, key.length() - 1);
+    }
+
+    /**
+     * Counts a visitor of a code in the given bucket (non-blocking)
+     */
+    public void add(String tKey, String shortUrl, String visitor) {
+        if (!enabled || visitor == null || visitor.isEmpty()) {
+            return;
+        }
+        String key = key(tKey, shortUrl);
+        if (pending.size() >= maxKeys && !pending.containsKey(key)) {
+            droppedCounter.increment();
+            return;
+        }
+        // compute locks the entry, so a visitor is never added to a set the flush already took
+        pending.compute(key, (sketchKey, visitors) -> {
+            Set<String> result = visitors != null ? visitors : new HashSet<>();
+            result.add(visitor);
+            return result;
+        });
+    }
+
+    /**
+     * Sends the buffered visitors to Redis, one PFADD per sketch, as one pipelined batch (blocking)
+     * Sketches whose PFADD fails are kept for the next flush (adding a visitor twice changes nothing).
+     */
+    @Scheduled(initialDelayString = "${analytics.aggregate.flush.interval.ms:500}",
+               fixedDelayString = "${analytics.aggregate.flush.interval.ms:500}")
+    public synchronized void flush() {
+        // Step 1: Take every buffered set out of the map
+        List<Map.Entry<String, Set<String>>> batch = new ArrayList<>();
+        for (String key : pending.keySet()) {
+            Set<String> visitors = pending.remove(key);
+            if (visitors != null && !visitors.isEmpty()) {
+                batch.add(Map.entry(key, visitors));
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        // Step 2: PFADD key visitor... per sketch, sent concurrently (pipelined)
+        ReactiveHyperLogLogOperations<String, String> hllOps = redisTemplate.opsForHyperLogLog();
+        List<Map.Entry<String, Set<String>>> failed = Flux.fromIterable(batch)
+            .flatMap(sketch -> hllOps.add(sketch.getKey(), sketch.getValue().toArray(String[]::new))
+                .timeout(Duration.ofMillis(redisTimeoutMs))
+                .then(Mono.<Map.Entry<String, Set<String>>>empty())
+                .onErrorResume(e -> Mono.just(sketch)), flushConcurrency)
+            .collectList()
+            .block();
+
+        // Step 3: Keep the failed ones
+        if (failed != null && !failed.isEmpty()) {
+            log.warn("Failed to add the visitors of {} of {} sketches to Redis, retrying with the next flush",
+                failed.size(), batch.size());
+            for (Map.Entry<String, Set<String>> sketch : failed) {
+                pending.merge(sketch.getKey(), sketch.getValue(), (current, retry) -> {
+                    current.addAll(retry);
+                    return current;
+                });
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    /**
+     * Serialized registers of a sketch (empty if the key does not exist)
+     */
+    public Mono<byte[]> registers(String key) {
+        ByteBuffer rawKey = raw(key);
+        return redisTemplate.execute(connection -> connection.stringCommands().get(rawKey))
+            .next()
+            .map(ByteUtils::getBytes);
+    }
+
+    /**
+     * Estimated number of distinct visitors of the union of the given sketches (PFCOUNT)
+     */
+    public Mono<Long> count(List<byte[]> sketches) {
+        if (sketches.isEmpty()) {
+            return Mono.just(0L);
+        }
+        List<String> keys = tempKeys(sketches.size());
+        return writeTemp(keys, sketches)
+            .then(redisTemplate.opsForHyperLogLog().size(keys.toArray(String[]::new)))
+            .flatMap(size -> deleteTemp(keys).thenReturn(size));
+    }
+
+    /**
+     * The serialized registers of the union of the given sketches (PFMERGE)
+     */
+    public Mono<byte[]> union(List<byte[]> sketches) {
+        if (sketches.size() == 1) {
+            return Mono.just(sketches.get(0));
+        }
+        List<String> keys = tempKeys(sketches.size());
+        return writeTemp(keys, sketches)
+            .then(redisTemplate.opsForHyperLogLog().union(keys.get(0), keys.toArray(String[]::new)))
+            .then(registers(keys.get(0)))
+            .flatMap(merged -> deleteTemp(keys).thenReturn(merged));
+    }
+
+    /**
+     * Temporary keys sharing one hash tag, so multi-key commands over them work on Redis Cluster
+     */
+    private static List<String> tempKeys(int count) {
+        String tag = UUID.randomUUID().toString();
+        List<String> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add(TEMP_KEY_PREFIX + "{" + tag + "}:" + i);
+        }
+        return keys;
+    }
+
+    private Mono<Void> writeTemp(List<String> keys, List<byte[]> sketches) {
+        return Flux.range(0, keys.size())
+            .flatMap(i -> redisTemplate.execute(connection -> connection.stringCommands()
+                .set(raw(keys.get(i)), ByteBuffer.wrap(sketches.get(i)), Expiration.from(TEMP_KEY_TTL),
+                    SetOption.upsert())))
+            .then();
+    }
+
+    private Mono<Long> deleteTemp(List<String> keys) {
+        return redisTemplate.delete(keys.toArray(String[]::new));
+    }
+
+    private static ByteBuffer raw(String key) {
+        return ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+    }
+}
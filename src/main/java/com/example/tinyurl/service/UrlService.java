@@ -1,13 +1,20 @@
 package com.example.tinyurl.service;
 
+import com.example.tinyurl.cache.CacheFillNotifier;
+import com.example.tinyurl.cache.CachedRedirect;
+import com.example.tinyurl.cache.LocalRedirectCache;
+import com.example.tinyurl.cache.RedirectCachePolicy;
+import com.example.tinyurl.cache.RedirectSnapshot;
+import com.example.tinyurl.cache.ShortCodeExistenceIndex;
 import com.example.tinyurl.entity.CustomUrlCode;
 import com.example.tinyurl.entity.ShortUrl;
 import com.example.tinyurl.entity.User;
+import com.example.tinyurl.model.AnalyticsGranularity;
 import com.example.tinyurl.model.AnalyticsResponse;
+import com.example.tinyurl.model.ClickContext;
 import com.example.tinyurl.model.ErrorResponse;
 import com.example.tinyurl.model.ShortenResponse;
 import com.example.tinyurl.repository.CustomUrlCodeRepository;
-import com.example.tinyurl.repository.ShortUrlClickAnalyticsRepository;
 import com.example.tinyurl.repository.ShortUrlRepository;
 import com.example.tinyurl.util.Base62Util;
 import jakarta.persistence.EntityManager;
@@ -16,10 +23,14 @@ import lombok.Getter;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.ReactiveValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 import reactor.core.scheduler.Schedulers;
 
 import java.net.MalformedURLException;
@@ -27,22 +38,58 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.time.DateTimeException;
 import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
 
 @Service
 public class UrlService {
 
+    // Matches the custom_url_code.code column length
+    private static final int MAX_CUSTOM_CODE_LENGTH = 100;
+
+    private static final RedisScript<Long> RELEASE_LOCK_SCRIPT =
+        RedisScript.of(new ClassPathResource("scripts/release_lock.lua"), Long.class);
+
+    private static final RedisScript<String> REDIRECT_SCRIPT =
+        RedisScript.of(new ClassPathResource("scripts/redirect.lua"), String.class);
+
+    // Redirect script modes and replies (see scripts/redirect.lua)
+    private static final String MODE_RATE_LIMIT_ONLY = "0";
+    private static final String MODE_COUNT_CLICK = "1";
+    private static final String MODE_LOOKUP = "2";
+    private static final String REPLY_RATE_LIMITED = "R";
+    private static final String REPLY_MISS = "M";
+    private static final String REPLY_NOT_FOUND = "N";
+    // Any other reply is "H" followed by the cached value
+
     private final ShortUrlRepository shortUrlRepository;
     private final CustomUrlCodeRepository customUrlCodeRepository;
-    private final ShortUrlClickAnalyticsRepository analyticsRepository;
+    private final AnalyticsQueryService analyticsQueryService;
     private final ReactiveRedisTemplate<String, String> redisTemplate;
     private final EntityManager entityManager;
     private final AnalyticsService analyticsService;
+    private final LocalRedirectCache localRedirectCache;
+    private final CacheFillNotifier cacheFillNotifier;
+    private final ShortCodeExistenceIndex shortCodeExistenceIndex;
+    private final RedirectCachePolicy redirectCachePolicy;
+    private final RedirectSnapshot redirectSnapshot;
+    private final RateLimitService rateLimitService;
+
+    // In-flight cache-miss loads keyed by short code (single-flight)
+    private final ConcurrentMap<String, Mono<RedirectResult>> inFlightLoads = new ConcurrentHashMap<>();
+    // Short codes with a background early refresh in progress on this node
+    private final Set<String> refreshingCodes = ConcurrentHashMap.newKeySet();
     
     @Value("${app.host:http://localhost:8080}")
     private String host;
@@ -53,18 +100,45 @@ public class UrlService {
     @Value("${cache.lock.ttl:10}")
     private long lockTtlSeconds;
 
+    @Value("${cache.negative.ttl:60}")
+    private long negativeCacheTtlSeconds;
+
+    @Value("${cache.fill.wait.timeout.ms:2000}")
+    private long fillWaitTimeoutMillis;
+
+    @Value("${redirect.script.enabled:false}")
+    private boolean redirectScriptEnabled;
+
+    @Value("${rate_limit.shorten.get.size:60}")
+    private long getRateLimitWindowSize;
+
+    @Value("${rate_limit.shorten.get.capacity:10}")
+    private long getRateLimitCapacity;
+
     public UrlService(ShortUrlRepository shortUrlRepository,
                      CustomUrlCodeRepository customUrlCodeRepository,
-                     ShortUrlClickAnalyticsRepository analyticsRepository,
+                     AnalyticsQueryService analyticsQueryService,
                      @Qualifier("reactiveStringRedisTemplate") ReactiveRedisTemplate<String, String> redisTemplate,
                      EntityManager entityManager,
-                     AnalyticsService analyticsService) {
+                     AnalyticsService analyticsService,
+                     LocalRedirectCache localRedirectCache,
+                     CacheFillNotifier cacheFillNotifier,
+                     ShortCodeExistenceIndex shortCodeExistenceIndex,
+                     RedirectCachePolicy redirectCachePolicy,
+                     RedirectSnapshot redirectSnapshot,
+                     RateLimitService rateLimitService) {
         this.shortUrlRepository = shortUrlRepository;
         this.customUrlCodeRepository = customUrlCodeRepository;
-        this.analyticsRepository = analyticsRepository;
+        this.analyticsQueryService = analyticsQueryService;
         this.redisTemplate = redisTemplate;
         this.entityManager = entityManager;
         this.analyticsService = analyticsService;
+        this.localRedirectCache = localRedirectCache;
+        this.cacheFillNotifier = cacheFillNotifier;
+        this.shortCodeExistenceIndex = shortCodeExistenceIndex;
+        this.redirectCachePolicy = redirectCachePolicy;
+        this.redirectSnapshot = redirectSnapshot;
+        this.rateLimitService = rateLimitService;
     }
 
     /**
@@ -170,6 +244,11 @@ public class UrlService {
                 return savedShortUrl;
             })
                 .subscribeOn(Schedulers.boundedElastic())
+                .doOnNext(saved -> redirectSnapshot.add(saved, customShortUrl))
+                // Index the new codes; they may also have been probed (and tombstoned) before they existed
+                .flatMap(saved -> shortCodeExistenceIndex.add(saved.getId())
+                    .then(invalidateNegativeCache(saved, customShortUrl))
+                    .thenReturn(saved))
                 .map(saved -> {
                     if (customShortUrl != null && !customShortUrl.trim().isEmpty()) { 
                         String responseShortUrl = host + "/" + customShortUrl;
@@ -187,176 +266,452 @@ public class UrlService {
         });
     }
 
+    /**
+     * Removes negative cache entries (local and Redis tombstones) for the codes of a new short URL
+     */
+    private Mono<Void> invalidateNegativeCache(ShortUrl saved, String customShortUrl) {
+        List<String> codes = new ArrayList<>();
+        codes.add("_" + Base62Util.encode(saved.getId()));
+        if (customShortUrl != null && !customShortUrl.trim().isEmpty()) {
+            codes.add(customShortUrl);
+        }
+
+        codes.forEach(localRedirectCache::invalidate);
+        String[] cacheKeys = codes.stream().map(code -> "short:" + code).toArray(String[]::new);
+        return redisTemplate.delete(cacheKeys)
+            .onErrorResume(e -> Mono.empty())
+            .then();
+    }
+
     /**
      * Retrieves the long URL from a short URL
      * Implements caching with Redis lock to prevent multiple DB queries for the same record
+     * An in-process cache (kept coherent through Redis client tracking) is consulted before Redis
      * Logic:
      * - If shortURL has prefix '_', proceed with existing flow (Base62 decode)
      * - If no prefix '_', check in custom_url_code table
      * - Check expiry (expiry > current timestamp or is null)
+     * Unknown, expired and malformed codes are negatively cached (locally and as a Redis tombstone)
+     * Codes that were never issued are rejected by the Bloom-filter existence index
+     * Cached values carry the link's expiry, so a cache hit checks it without the DB
+     * Hits close to the entry's cache expiry trigger a background refresh (stale-while-revalidate)
+     * A Redis miss is resolved from the node's memory-mapped snapshot before the lock / DB load path,
+     * so the snapshot never overrides a tombstone; it also serves while Redis is unavailable
      */
     public Mono<RedirectResult> getLongUrl(String shortUrlCode) {
+        return getLongUrl(shortUrlCode, ClickContext.NONE);
+    }
+
+    /**
+     * Retrieves the long URL from a short URL, recording the click with the dimensions of its request
+     */
+    public Mono<RedirectResult> getLongUrl(String shortUrlCode, ClickContext clickContext) {
         String cacheKey = "short:" + shortUrlCode;
         String lockKey = "lock:short:" + shortUrlCode;
         
         ReactiveValueOperations<String, String> valueOps = redisTemplate.opsForValue();
+
+        // Step 0: Codes that can never exist are rejected without any lookup
+        if (isMalformedCode(shortUrlCode)) {
+            return Mono.just(noRecordResult());
+        }
+
+        // Step 1: Check the local cache - a hit needs no network hop at all
+        CachedRedirect localRedirect = localRedirectCache.get(shortUrlCode);
+        if (localRedirect != null) {
+            OffsetDateTime now = OffsetDateTime.now();
+            if (localRedirect.isExpired(now.toEpochSecond())) {
+                return Mono.just(noRecordResult());
+            }
+            analyticsService.click(shortUrlCode, now, clickContext);
+            refreshEarlyIfDue(shortUrlCode, localRedirect);
+            return Mono.just(new RedirectResult(localRedirect.getLongUrl(), null, HttpStatus.MOVED_PERMANENTLY));
+        }
+        if (!shortCodeExistenceIndex.mightExist(shortUrlCode)) {
+            // Never issued - rejected in memory
+            return Mono.just(noRecordResult());
+        }
+        if (localRedirectCache.isNegative(shortUrlCode)) {
+            return Mono.just(noRecordResult());
+        }
+        long localStamp = localRedirectCache.stamp();
         
-        // Step 1: Check Redis cache first
+        // Step 2: Check Redis cache
         return valueOps.get(cacheKey)
-            .flatMap(cachedLongUrl -> {
-                if (cachedLongUrl != null && !cachedLongUrl.isEmpty()) {
-                    // Cache hit - capture analytics and return immediately
-                    analyticsService.click(shortUrlCode, OffsetDateTime.now());
-                    return Mono.just(new RedirectResult(cachedLongUrl, null, HttpStatus.MOVED_PERMANENTLY));
+            .filter(cachedValue -> !cachedValue.isEmpty())
+            .flatMap(cachedValue -> {
+                if (CachedRedirect.TOMBSTONE.equals(cachedValue)) {
+                    // Tombstone - known not to resolve
+                    localRedirectCache.putNegative(shortUrlCode, localStamp);
+                    redirectSnapshot.verify(shortUrlCode);
+                    return Mono.just(noRecordResult());
                 }
-                
-                // Cache miss - try to acquire lock
-                return acquireLock(lockKey)
-                    .flatMap(lockAcquired -> {
-                        if (lockAcquired) {
-                            // This request acquired the lock - query DB and update cache
-                            return queryDbAndUpdateCache(shortUrlCode, cacheKey, lockKey);
-                        } else {
-                            // Another request has the lock - wait and retry cache
-                            return waitAndRetryCache(cacheKey, lockKey, 0);
-                        }
-                    });
+                CachedRedirect redirect;
+                try {
+                    redirect = CachedRedirect.decode(cachedValue);
+                } catch (IllegalArgumentException e) {
+                    // Unreadable entry - treat as a miss and reload it
+                    return Mono.empty();
+                }
+                if (redirect.isExpired(OffsetDateTime.now().toEpochSecond())) {
+                    // Expired since it was cached
+                    localRedirectCache.putNegative(shortUrlCode, localStamp);
+                    return Mono.just(noRecordResult());
+                }
+                // Cache hit - keep a local copy and return immediately
+                localRedirectCache.put(shortUrlCode, redirect, localStamp);
+                refreshEarlyIfDue(shortUrlCode, redirect);
+                return Mono.just(new RedirectResult(redirect.getLongUrl(), null, HttpStatus.MOVED_PERMANENTLY));
             })
-            .switchIfEmpty(
-                // Cache key doesn't exist - try to acquire lock
-                acquireLock(lockKey)
-                    .flatMap(lockAcquired -> {
-                        if (lockAcquired) {
-                            // This request acquired the lock - query DB and update cache
-                            return queryDbAndUpdateCache(shortUrlCode, cacheKey, lockKey);
-                        } else {
-                            // Another request has the lock - wait and retry cache
-                            return waitAndRetryCache(cacheKey, lockKey, 0);
-                        }
-                    })
-            )
-            .onErrorResume(e -> {
-                ErrorResponse error = new ErrorResponse("NO_RECORD", "A long URL does not exist for the short URL");
-                return Mono.just(new RedirectResult(null, error, HttpStatus.NOT_FOUND));
-            });
+            // Cache miss - the snapshot answers without the lock / DB load
+            .switchIfEmpty(Mono.defer(() -> fromSnapshot(shortUrlCode, localStamp)))
+            // Otherwise share a single lock / DB load with concurrent misses on this node
+            .switchIfEmpty(Mono.defer(() -> loadOnMiss(shortUrlCode, cacheKey, lockKey)))
+            // Redis unavailable - only the snapshot can still answer
+            .onErrorResume(e -> fromSnapshot(shortUrlCode, localStamp))
+            .doOnNext(result -> {
+                if (result.getLongUrl() != null) {
+                    // Capture analytics for every successful redirect, including coalesced ones
+                    analyticsService.click(shortUrlCode, OffsetDateTime.now(), clickContext);
+                }
+            })
+            .onErrorResume(e -> Mono.just(noRecordResult()))
+            .defaultIfEmpty(noRecordResult());
+    }
+
+    /**
+     * Resolves a short code from the node's snapshot, keeping a local copy of live entries
+     * @return Empty if the snapshot does not know the code
+     */
+    private Mono<RedirectResult> fromSnapshot(String shortUrlCode, long localStamp) {
+        CachedRedirect redirect = redirectSnapshot.get(shortUrlCode);
+        if (redirect == null) {
+            return Mono.empty();
+        }
+        if (redirect.isExpired(OffsetDateTime.now().toEpochSecond())) {
+            return Mono.just(noRecordResult());
+        }
+        localRedirectCache.put(shortUrlCode, redirect, localStamp);
+        return Mono.just(new RedirectResult(redirect.getLongUrl(), null, HttpStatus.MOVED_PERMANENTLY));
+    }
+
+    /**
+     * Resolves a short code for the redirect endpoint
+     * In script mode the rate limit check, the Redis cache lookup and the click count run as
+     * a single server-side script (one round trip instead of three); a cache miss falls back
+     * to the lock / DB load path of getLongUrl.
+     * Otherwise the rate limit is applied by RateLimitWebFilter and this is getLongUrl.
+     * The script touches keys of several hash slots, so script mode needs a non-cluster Redis.
+     */
+    public Mono<RedirectResult> redirect(String shortUrlCode) {
+        return redirect(shortUrlCode, ClickContext.NONE);
+    }
+
+    /**
+     * Resolves a short code for the redirect endpoint, recording the click with the dimensions of its request
+     */
+    public Mono<RedirectResult> redirect(String shortUrlCode, ClickContext clickContext) {
+        if (!redirectScriptEnabled) {
+            return getLongUrl(shortUrlCode, clickContext);
+        }
+
+        String cacheKey = "short:" + shortUrlCode;
+        String lockKey = "lock:short:" + shortUrlCode;
+        OffsetDateTime now = OffsetDateTime.now();
+
+        // Step 1: Decide in memory what the script has to do
+        String mode = MODE_LOOKUP;
+        CachedRedirect localRedirect = null;
+        if (isMalformedCode(shortUrlCode)) {
+            mode = MODE_RATE_LIMIT_ONLY;
+        } else {
+            localRedirect = localRedirectCache.get(shortUrlCode);
+            if (localRedirect != null) {
+                // Local hit - the script only has to rate limit and count the click
+                mode = localRedirect.isExpired(now.toEpochSecond()) ? MODE_RATE_LIMIT_ONLY : MODE_COUNT_CLICK;
+            } else if (!shortCodeExistenceIndex.mightExist(shortUrlCode) || localRedirectCache.isNegative(shortUrlCode)) {
+                mode = MODE_RATE_LIMIT_ONLY;
+            }
+        }
+        long localStamp = localRedirectCache.stamp();
+
+        List<String> keys = List.of(RateLimitService.GET_KEY_PREFIX + shortUrlCode, cacheKey,
+            analyticsService.analyticsKey(now, shortUrlCode));
+        List<String> args = List.of(String.valueOf(getRateLimitCapacity), String.valueOf(getRateLimitWindowSize),
+            shortUrlCode, String.valueOf(now.toEpochSecond()), mode);
+
+        // Step 2: One script call - rate limit, then cache lookup and click count
+        String scriptMode = mode;
+        CachedRedirect scriptLocalRedirect = localRedirect;
+        return redisTemplate.execute(REDIRECT_SCRIPT, keys, args)
+            .next()
+            .flatMap(reply -> {
+                if (REPLY_RATE_LIMITED.equals(reply)) {
+                    return Mono.just(rateLimitedResult());
+                }
+                if (MODE_COUNT_CLICK.equals(scriptMode)) {
+                    analyticsService.clickEvent(shortUrlCode, now, clickContext);
+                    refreshEarlyIfDue(shortUrlCode, scriptLocalRedirect);
+                    return Mono.just(new RedirectResult(scriptLocalRedirect.getLongUrl(), null, HttpStatus.MOVED_PERMANENTLY));
+                }
+                if (MODE_RATE_LIMIT_ONLY.equals(scriptMode) || REPLY_NOT_FOUND.equals(reply)) {
+                    if (REPLY_NOT_FOUND.equals(reply)) {
+                        localRedirectCache.putNegative(shortUrlCode, localStamp);
+                        redirectSnapshot.verify(shortUrlCode);
+                    }
+                    return Mono.just(noRecordResult());
+                }
+                if (REPLY_MISS.equals(reply)) {
+                    // Resolve from the snapshot, else fall back to the lock / DB load path (the rate limit is already applied)
+                    return fromSnapshot(shortUrlCode, localStamp)
+                        .switchIfEmpty(Mono.defer(() -> loadOnMiss(shortUrlCode, cacheKey, lockKey)))
+                        .doOnNext(result -> {
+                            if (result.getLongUrl() != null) {
+                                analyticsService.click(shortUrlCode, now, clickContext);
+                            }
+                        });
+                }
+                // Cache hit, click already counted by the script
+                CachedRedirect redirect;
+                try {
+                    redirect = CachedRedirect.decode(reply.substring(1));
+                } catch (IllegalArgumentException e) {
+                    return Mono.just(noRecordResult());
+                }
+                analyticsService.clickEvent(shortUrlCode, now, clickContext);
+                localRedirectCache.put(shortUrlCode, redirect, localStamp);
+                refreshEarlyIfDue(shortUrlCode, redirect);
+                return Mono.just(new RedirectResult(redirect.getLongUrl(), null, HttpStatus.MOVED_PERMANENTLY));
+            })
+            // Script unavailable - serve through the regular path, rate limited as it would be outside script mode
+            .switchIfEmpty(Mono.defer(() -> rateLimitedGetLongUrl(shortUrlCode, clickContext)))
+            .onErrorResume(e -> rateLimitedGetLongUrl(shortUrlCode, clickContext));
+    }
+
+    /**
+     * Rate limits the short code, then resolves it through getLongUrl
+     * A failing rate limit check fails the redirect, the limit is never skipped
+     */
+    private Mono<RedirectResult> rateLimitedGetLongUrl(String shortUrlCode, ClickContext clickContext) {
+        return rateLimitService.checkGetRateLimit(shortUrlCode)
+            .flatMap(allowed -> allowed ? getLongUrl(shortUrlCode, clickContext) : Mono.just(rateLimitedResult()));
+    }
+
+    /**
+     * Coalesces concurrent cache misses for the same short code on this node (single-flight)
+     * Only the first caller runs acquireLock / queryDbAndUpdateCache, everyone else completes
+     * with the same result the instant it is available.
+     * The load is subscribed independently of the callers, so a client disconnect only detaches
+     * that caller and never cancels the load half-way (which would leave the Redis lock held).
+     */
+    private Mono<RedirectResult> loadOnMiss(String shortUrlCode, String cacheKey, String lockKey) {
+        Sinks.One<RedirectResult> sink = Sinks.one();
+        Mono<RedirectResult> shared = sink.asMono();
+
+        Mono<RedirectResult> inFlight = inFlightLoads.putIfAbsent(shortUrlCode, shared);
+        if (inFlight != null) {
+            // Another request on this node is already loading this code
+            return inFlight;
+        }
+
+        acquireLock(lockKey)
+            // This request acquired the lock - query DB and update cache
+            .flatMap(lockToken -> queryDbAndUpdateCache(shortUrlCode, cacheKey, lockKey, lockToken))
+            // Another node has the lock - wait for its fill notification
+            .switchIfEmpty(Mono.defer(() -> waitForFill(shortUrlCode, cacheKey, lockKey)))
+            // Late arrivals between completion and removal still see the replayed result
+            .doFinally(signal -> inFlightLoads.remove(shortUrlCode, shared))
+            .subscribe(sink::tryEmitValue, sink::tryEmitError, sink::tryEmitEmpty);
+
+        return shared;
     }
 
     /**
      * Acquires a distributed lock using Redis SET NX EX
+     * The lock value is a random token which fences the release
+     *
+     * @return Mono containing the lock token, or empty if the lock is held by someone else
      */
-    private Mono<Boolean> acquireLock(String lockKey) {
-        String lockValue = UUID.randomUUID().toString();
+    private Mono<String> acquireLock(String lockKey) {
+        String lockToken = UUID.randomUUID().toString();
         ReactiveValueOperations<String, String> valueOps = redisTemplate.opsForValue();
         
-        // SET lockKey lockValue NX EX lockTtlSeconds
-        return valueOps.setIfAbsent(lockKey, lockValue, Duration.ofSeconds(lockTtlSeconds))
-            .map(Boolean::booleanValue);
+        // SET lockKey lockToken NX EX lockTtlSeconds
+        return valueOps.setIfAbsent(lockKey, lockToken, Duration.ofSeconds(lockTtlSeconds))
+            .filter(Boolean::booleanValue)
+            .map(acquired -> lockToken);
     }
 
     /**
      * Queries database and updates Redis cache
      * Handles both Base62 encoded URLs (with '_' prefix) and custom URL codes
+     * The outcome (fill or not-found) is published to waiters on other nodes
      */
-    private Mono<RedirectResult> queryDbAndUpdateCache(String shortUrlCode, String cacheKey, String lockKey) {
+    private Mono<RedirectResult> queryDbAndUpdateCache(String shortUrlCode, String cacheKey, String lockKey, String lockToken) {
         ReactiveValueOperations<String, String> valueOps = redisTemplate.opsForValue();
         OffsetDateTime now = OffsetDateTime.now();
-        
-        // Check if shortURL has prefix '_'
+        long startMillis = System.currentTimeMillis();
+
+        return findShortUrl(shortUrlCode)
+            .switchIfEmpty(Mono.fromRunnable(() -> shortCodeExistenceIndex.recordNotFound(shortUrlCode)))
+            .flatMap(shortUrl -> {
+                CachedRedirect redirect = CachedRedirect.of(shortUrl.getId(), shortUrl.getExpiry(), shortUrl.getLongUrl());
+                // The entry must not outlive the link: TTL = min(jittered cacheTtl, expiry - now)
+                long ttlSeconds = redirectCachePolicy.ttlSeconds(redirect, now.toEpochSecond());
+
+                // Check expiry: expiry > current timestamp or is null
+                if (ttlSeconds <= 0) {
+                    // URL has expired - expiry is final, so the tombstone can live as long as a cache entry
+                    return valueOps.set(cacheKey, CachedRedirect.TOMBSTONE, Duration.ofSeconds(cacheTtlSeconds))
+                        .then(Mono.<RedirectResult>empty());
+                }
+
+                String cachedValue = redirectCachePolicy
+                    .forCaching(redirect, ttlSeconds, System.currentTimeMillis() - startMillis)
+                    .encode();
+                // Update Redis cache with the encoded redirect, release the lock and notify waiters
+                return valueOps.set(cacheKey, cachedValue, Duration.ofSeconds(ttlSeconds))
+                    .then(releaseLock(lockKey, lockToken))
+                    .then(cacheFillNotifier.publishFilled(shortUrlCode, cachedValue)
+                        .onErrorResume(e -> Mono.empty()))
+                    .thenReturn(new RedirectResult(redirect.getLongUrl(), null, HttpStatus.MOVED_PERMANENTLY));
+            })
+            .switchIfEmpty(Mono.defer(() ->
+                // Record not found or expired - tombstone it, release lock, notify waiters and return error
+                // (an expired link was already tombstoned above, SET NX leaves its longer TTL alone)
+                valueOps.setIfAbsent(cacheKey, CachedRedirect.TOMBSTONE, Duration.ofSeconds(negativeCacheTtlSeconds))
+                    .then(releaseLock(lockKey, lockToken))
+                    .then(cacheFillNotifier.publishNotFound(shortUrlCode)
+                        .onErrorResume(e -> Mono.empty()))
+                    .thenReturn(noRecordResult())))
+            .onErrorResume(e -> {
+                // On error, release lock
+                return releaseLock(lockKey, lockToken)
+                    .thenReturn(noRecordResult());
+            });
+    }
+
+    /**
+     * Looks up the ShortUrl behind a short code
+     * - If shortURL has prefix '_', Base62 decode it and look up by id
+     * - If no prefix '_', look up in custom_url_code table
+     *
+     * @return Mono containing the ShortUrl, or empty if it does not exist or cannot be decoded
+     */
+    private Mono<ShortUrl> findShortUrl(String shortUrlCode) {
         if (shortUrlCode.startsWith("_")) {
-            // Proceed with existing flow - Base62 decode
+            long id;
             try {
-                String encoded = shortUrlCode.substring(1); // Remove '_' prefix
-                long id = Base62Util.decode(encoded);
-                
-                return Mono.fromCallable(() -> shortUrlRepository.findById(id))
-                    .subscribeOn(Schedulers.boundedElastic())
-                    .flatMap(optional -> {
-                        if (optional.isPresent()) {
-                            ShortUrl shortUrl = optional.get();
-                            
-                            // Check expiry: expiry > current timestamp or is null
-                            if (shortUrl.getExpiry() != null && shortUrl.getExpiry().isBefore(now)) {
-                                // URL has expired
-                                return releaseLock(lockKey)
-                                    .then(Mono.just(new RedirectResult(null, 
-                                        new ErrorResponse("NO_RECORD", "A long URL does not exist for the short URL"), 
-                                        HttpStatus.NOT_FOUND)));
-                            }
-                            
-                            String longUrl = shortUrl.getLongUrl();
-                            // Capture analytics before returning successful response
-                            analyticsService.click(shortUrlCode, OffsetDateTime.now());
-                            // Update Redis cache with long URL
-                            return valueOps.set(cacheKey, longUrl, Duration.ofSeconds(cacheTtlSeconds))
-                                .then(releaseLock(lockKey))
-                                .then(Mono.just(new RedirectResult(longUrl, null, HttpStatus.MOVED_PERMANENTLY)));
-                        } else {
-                            // Record not found - release lock and return error
-                            return releaseLock(lockKey)
-                                .then(Mono.just(new RedirectResult(null, 
-                                    new ErrorResponse("NO_RECORD", "A long URL does not exist for the short URL"), 
-                                    HttpStatus.NOT_FOUND)));
-                        }
-                    })
-                    .onErrorResume(e -> {
-                        // On error, release lock
-                        return releaseLock(lockKey)
-                            .then(Mono.just(new RedirectResult(null, 
-                                new ErrorResponse("NO_RECORD", "A long URL does not exist for the short URL"), 
-                                HttpStatus.NOT_FOUND)));
-                    });
+                id = Base62Util.decode(shortUrlCode.substring(1)); // Remove '_' prefix
             } catch (IllegalArgumentException e) {
                 // Invalid Base62 encoding
-                return releaseLock(lockKey)
-                    .then(Mono.just(new RedirectResult(null, 
-                        new ErrorResponse("NO_RECORD", "A long URL does not exist for the short URL"), 
-                        HttpStatus.NOT_FOUND)));
+                return Mono.empty();
             }
-        } else {
-            // No prefix '_' - check in custom_url_code table
-            return Mono.fromCallable(() -> customUrlCodeRepository.findByCode(shortUrlCode))
+            return Mono.fromCallable(() -> shortUrlRepository.findById(id))
                 .subscribeOn(Schedulers.boundedElastic())
-                .flatMap(optional -> {
-                    if (optional.isPresent()) {
-                        CustomUrlCode customCode = optional.get();
-                        ShortUrl shortUrl = customCode.getUrl();
-                        
-                        // Check expiry: expiry > current timestamp or is null
-                        if (shortUrl.getExpiry() != null && shortUrl.getExpiry().isBefore(now)) {
-                            // URL has expired
-                            return releaseLock(lockKey)
-                                .then(Mono.just(new RedirectResult(null, 
-                                    new ErrorResponse("NO_RECORD", "A long URL does not exist for the short URL"), 
-                                    HttpStatus.NOT_FOUND)));
-                        }
-                        
-                        String longUrl = shortUrl.getLongUrl();
-                        // Capture analytics before returning successful response
-                        analyticsService.click(shortUrlCode, OffsetDateTime.now());
-                        // Update Redis cache with long URL
-                        return valueOps.set(cacheKey, longUrl, Duration.ofSeconds(cacheTtlSeconds))
-                            .then(releaseLock(lockKey))
-                            .then(Mono.just(new RedirectResult(longUrl, null, HttpStatus.MOVED_PERMANENTLY)));
-                    } else {
-                        // Custom code not found - release lock and return error
-                        return releaseLock(lockKey)
-                            .then(Mono.just(new RedirectResult(null, 
-                                new ErrorResponse("NO_RECORD", "A long URL does not exist for the short URL"), 
-                                HttpStatus.NOT_FOUND)));
-                    }
-                })
-                .onErrorResume(e -> {
-                    // On error, release lock
-                    return releaseLock(lockKey)
-                        .then(Mono.just(new RedirectResult(null, 
-                            new ErrorResponse("NO_RECORD", "A long URL does not exist for the short URL"), 
-                            HttpStatus.NOT_FOUND)));
-                });
+                .flatMap(optional -> optional.map(Mono::just).orElseGet(Mono::empty));
+        }
+
+        return Mono.fromCallable(() -> customUrlCodeRepository.findByCode(shortUrlCode))
+            .subscribeOn(Schedulers.boundedElastic())
+            .flatMap(optional -> optional.map(Mono::just).orElseGet(Mono::empty))
+            .map(CustomUrlCode::getUrl);
+    }
+
+    /**
+     * Stale-while-revalidate: refreshes a cache entry close to its expiry in the background (XFetch)
+     * The request is still served from the cache. The refresh takes the regular cache-fill lock,
+     * so only one node re-reads the DB and rewrites the entry with a fresh TTL.
+     */
+    private void refreshEarlyIfDue(String shortUrlCode, CachedRedirect redirect) {
+        if (!redirectCachePolicy.shouldRefreshEarly(redirect) || !refreshingCodes.add(shortUrlCode)) {
+            return;
+        }
+        String cacheKey = "short:" + shortUrlCode;
+        String lockKey = "lock:short:" + shortUrlCode;
+        acquireLock(lockKey)
+            .flatMap(lockToken -> queryDbAndUpdateCache(shortUrlCode, cacheKey, lockKey, lockToken))
+            .doFinally(signal -> refreshingCodes.remove(shortUrlCode))
+            .subscribe(
+                result -> {
+                    // Entry rewritten (or tombstoned) - other nodes drop their local copy via client tracking
+                },
+                error -> {
+                    // The current entry keeps being served until it expires
+                }
+            );
+    }
+
+    /**
+     * Waits for the lock holder (on any node) to fill the cache
+     * Interest is registered before the cache is re-checked, so a fill racing with the check is not missed.
+     * Polling the lock and cache keys is only used as a fallback when no notification arrives in time.
+     */
+    private Mono<RedirectResult> waitForFill(String shortUrlCode, String cacheKey, String lockKey) {
+        ReactiveValueOperations<String, String> valueOps = redisTemplate.opsForValue();
+
+        return Mono.usingWhen(
+            Mono.fromSupplier(() -> cacheFillNotifier.register(shortUrlCode)),
+            registration -> valueOps.get(cacheKey)
+                .filter(cachedValue -> !cachedValue.isEmpty())
+                // Filled (or tombstoned) before we registered
+                .map(this::toCachedResult)
+                .switchIfEmpty(Mono.defer(() -> registration.event()
+                    .timeout(Duration.ofMillis(fillWaitTimeoutMillis))
+                    .map(event -> event.isFilled() ? toCachedResult(event.getCachedValue()) : noRecordResult())
+                    .onErrorResume(TimeoutException.class, e -> waitAndRetryCache(cacheKey, lockKey, 0)))),
+            registration -> Mono.fromRunnable(() -> cacheFillNotifier.unregister(registration)));
+    }
+
+    /**
+     * Returns true for codes that can never resolve: undecodable Base62 ids and over-long custom codes
+     */
+    private boolean isMalformedCode(String shortUrlCode) {
+        if (shortUrlCode.length() > MAX_CUSTOM_CODE_LENGTH) {
+            return true;
+        }
+        if (shortUrlCode.startsWith("_")) {
+            try {
+                Base62Util.decode(shortUrlCode.substring(1));
+            } catch (IllegalArgumentException e) {
+                return true;
+            }
         }
+        return false;
+    }
+
+    /**
+     * Maps a non-empty cached value to a redirect result (tombstones, expired and unreadable values map to NO_RECORD)
+     */
+    private RedirectResult toCachedResult(String cachedValue) {
+        if (CachedRedirect.TOMBSTONE.equals(cachedValue)) {
+            return noRecordResult();
+        }
+        CachedRedirect redirect;
+        try {
+            redirect = CachedRedirect.decode(cachedValue);
+        } catch (IllegalArgumentException e) {
+            return noRecordResult();
+        }
+        if (redirect.isExpired(OffsetDateTime.now().toEpochSecond())) {
+            return noRecordResult();
+        }
+        return new RedirectResult(redirect.getLongUrl(), null, HttpStatus.MOVED_PERMANENTLY);
+    }
+
+    private RedirectResult rateLimitedResult() {
+        ErrorResponse error = new ErrorResponse("RATE_LIMIT_EXCEEDED", "Rate limit exceeded");
+        return new RedirectResult(null, error, HttpStatus.TOO_MANY_REQUESTS);
+    }
+
+    private RedirectResult noRecordResult() {
+        ErrorResponse error = new ErrorResponse("NO_RECORD", "A long URL does not exist for the short URL");
+        return new RedirectResult(null, error, HttpStatus.NOT_FOUND);
     }
 
     /**
      * Waits for lock to be released and retries cache lookup
+     * Fallback for waitForFill when no fill notification arrived in time
      */
     private Mono<RedirectResult> waitAndRetryCache(String cacheKey, String lockKey, int retryCount) {
         final int maxRetries = 20; // Maximum retries (20 * 100ms = 2 seconds max wait)
@@ -382,8 +737,8 @@ public class UrlService {
                     return valueOps.get(cacheKey)
                         .flatMap(cachedLongUrl -> {
                             if (cachedLongUrl != null && !cachedLongUrl.isEmpty()) {
-                                // Cache now has value - return it
-                                return Mono.just(new RedirectResult(cachedLongUrl, null, HttpStatus.MOVED_PERMANENTLY));
+                                // Cache now has value (or a tombstone) - return it
+                                return Mono.just(toCachedResult(cachedLongUrl));
                             } else {
                                 // Cache still empty - wait a bit more and retry
                                 return Mono.delay(java.time.Duration.ofMillis(waitMillis))
@@ -402,7 +757,7 @@ public class UrlService {
                 valueOps.get(cacheKey)
                     .flatMap(cachedLongUrl -> {
                         if (cachedLongUrl != null && !cachedLongUrl.isEmpty()) {
-                            return Mono.just(new RedirectResult(cachedLongUrl, null, HttpStatus.MOVED_PERMANENTLY));
+                            return Mono.just(toCachedResult(cachedLongUrl));
                         } else {
                             return Mono.delay(java.time.Duration.ofMillis(waitMillis))
                                 .then(waitAndRetryCache(cacheKey, lockKey, retryCount + 1));
@@ -416,11 +771,14 @@ public class UrlService {
     }
 
     /**
-     * Releases the distributed lock
+     * Releases the distributed lock if it is still held by this request (fenced release)
+     * A lock that expired and was re-acquired by another request is left untouched
      */
-    private Mono<Boolean> releaseLock(String lockKey) {
-        return redisTemplate.delete(lockKey)
-            .map(count -> count > 0);
+    private Mono<Boolean> releaseLock(String lockKey, String lockToken) {
+        return redisTemplate.execute(RELEASE_LOCK_SCRIPT, List.of(lockKey), List.of(lockToken))
+            .next()
+            .map(deleted -> deleted > 0)
+            .defaultIfEmpty(false);
     }
 
     /**
@@ -429,9 +787,26 @@ public class UrlService {
      * @param userId The user ID from request context (from token)
      * @param startDate The start timestamp (inclusive)
      * @param endDate The end timestamp (inclusive)
+     * @param granularity Optional bucket size (minute, hour, day or week); without it rows are returned as stored
+     * @param tz Optional time zone the buckets are aligned to (default UTC)
      * @return Mono containing AnalyticsResult with list of analytics or error
      */
-    public Mono<AnalyticsResult> getAnalytics(String shortUrlCode, Long userId, OffsetDateTime startDate, OffsetDateTime endDate) {
+    public Mono<AnalyticsResult> getAnalytics(String shortUrlCode, Long userId, OffsetDateTime startDate, OffsetDateTime endDate,
+                                              String granularity, String tz) {
+        // Validate bucketing parameters
+        AnalyticsGranularity bucketGranularity = AnalyticsGranularity.parse(granularity);
+        if (granularity != null && bucketGranularity == null) {
+            ErrorResponse error = new ErrorResponse("INVALID_GRANULARITY", "Granularity must be one of minute, hour, day, week");
+            return Mono.just(new AnalyticsResult(null, error, HttpStatus.BAD_REQUEST));
+        }
+        ZoneId zone;
+        try {
+            zone = tz != null ? ZoneId.of(tz) : ZoneOffset.UTC;
+        } catch (DateTimeException e) {
+            ErrorResponse error = new ErrorResponse("INVALID_TIMEZONE", "Provided time zone is invalid");
+            return Mono.just(new AnalyticsResult(null, error, HttpStatus.BAD_REQUEST));
+        }
+
         // Resolve url_id from shortUrlCode
         return analyticsService.resolveUrlId(shortUrlCode)
             .flatMap(urlId -> {
@@ -454,22 +829,12 @@ public class UrlService {
                             return Mono.just(new AnalyticsResult(null, error, HttpStatus.FORBIDDEN));
                         }
                         
-                        // Query analytics for the time range
+                        // Query analytics for the time range, aggregated into buckets by the DB
                         return Mono.fromCallable(() -> 
-                            analyticsRepository.findByUrlIdAndTimeRange(urlId, startDate, endDate)
+                            analyticsQueryService.findCounts(urlId, startDate, endDate, bucketGranularity, zone)
                         )
                         .subscribeOn(Schedulers.boundedElastic())
-                        .map(analyticsList -> {
-                            // Map to AnalyticsResponse
-                            List<AnalyticsResponse> responseList = analyticsList.stream()
-                                .map(analytics -> new AnalyticsResponse(
-                                    analytics.getTime(),
-                                    analytics.getCount()
-                                ))
-                                .collect(Collectors.toList());
-                            
-                            return new AnalyticsResult(responseList, null, HttpStatus.OK);
-                        });
+                        .map(responseList -> new AnalyticsResult(responseList, null, HttpStatus.OK));
                     });
             })
             .switchIfEmpty(
@@ -485,6 +850,52 @@ public class UrlService {
             });
     }
 
+    /**
+     * Streams analytics for a short URL code, one row at a time
+     * Ownership is checked before the first row; rows are then read page by page as the client consumes them.
+     * @param shortUrlCode The short URL code
+     * @param userId The user ID from request context (from token)
+     * @param startDate The start timestamp (inclusive)
+     * @param endDate The end timestamp (inclusive)
+     * @return Mono containing AnalyticsStreamResult with the analytics stream or error
+     */
+    public Mono<AnalyticsStreamResult> streamAnalytics(String shortUrlCode, Long userId, OffsetDateTime startDate,
+                                                       OffsetDateTime endDate) {
+        // Resolve url_id from shortUrlCode
+        return analyticsService.resolveUrlId(shortUrlCode)
+            .flatMap(urlId -> Mono.fromCallable(() -> shortUrlRepository.findById(urlId))
+                .subscribeOn(Schedulers.boundedElastic())
+                .map(optional -> {
+                    if (optional.isEmpty()) {
+                        // URL not found
+                        ErrorResponse error = new ErrorResponse("NO_RECORD", "Short URL not found");
+                        return new AnalyticsStreamResult(null, error, HttpStatus.NOT_FOUND);
+                    }
+
+                    // Verify ownership: check if current user is the owner
+                    ShortUrl shortUrl = optional.get();
+                    if (shortUrl.getOwner() == null || !shortUrl.getOwner().getId().equals(userId)) {
+                        ErrorResponse error = new ErrorResponse("FORBIDDEN", "You are not authorized to view analytics for this URL");
+                        return new AnalyticsStreamResult(null, error, HttpStatus.FORBIDDEN);
+                    }
+
+                    // Rows are read lazily, once the response is subscribed
+                    return new AnalyticsStreamResult(analyticsQueryService.streamCounts(urlId, startDate, endDate),
+                        null, HttpStatus.OK);
+                }))
+            .switchIfEmpty(
+                // URL ID could not be resolved
+                Mono.just(new AnalyticsStreamResult(null,
+                    new ErrorResponse("NO_RECORD", "Short URL not found"),
+                    HttpStatus.NOT_FOUND))
+            )
+            .onErrorResume(e -> {
+                // On error, return server error
+                ErrorResponse error = new ErrorResponse("SERVER_ERROR", "Something went wrong");
+                return Mono.just(new AnalyticsStreamResult(null, error, HttpStatus.INTERNAL_SERVER_ERROR));
+            });
+    }
+
     // Inner classes for result handling
     @Getter
     @AllArgsConstructor
@@ -509,5 +920,12 @@ public class UrlService {
         private final ErrorResponse error;
         private final HttpStatus status;
     }
-}
 
+    @Getter
+    @AllArgsConstructor
+    public static class AnalyticsStreamResult {
+        private final Flux<AnalyticsResponse> response;
+        private final ErrorResponse error;
+        private final HttpStatus status;
+    }
+}
@@ -3,22 +3,32 @@ package com.example.tinyurl.util;
 import org.jspecify.annotations.Nullable;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
 
 import java.util.Collection;
+import java.util.List;
 
 public class CustomAuthentication implements Authentication {
     private boolean authenticated = true;
     final private String randomToken;
     final private Long userId;
+    final private List<GrantedAuthority> authorities;
 
     public CustomAuthentication(String userId, String randomToken) {
+        this(userId, randomToken, false);
+    }
+
+    public CustomAuthentication(String userId, String randomToken, boolean admin) {
         this.userId = Long.parseLong(userId);
         this.randomToken = randomToken;
+        this.authorities = admin
+            ? AuthorityUtils.createAuthorityList("ROLE_USER", "ROLE_ADMIN")
+            : AuthorityUtils.createAuthorityList("ROLE_USER");
     }
 
     @Override
     public Collection<? extends GrantedAuthority> getAuthorities() {
-        return null;
+        return authorities;
     }
 
     @Override
@@ -0,0 +1,30 @@
+-- Adds a batch of click deltas to a bucket hash at most once per delta id
+-- A batch that timed out may have been applied; replaying it from the spool with its id then adds nothing.
+-- The spool may replay a batch in parts, so a replay records every code it adds (<id>:<code>) instead of the id.
+-- KEYS[1] = bucket hash key
+-- KEYS[2] = delta ids applied to the bucket (same cluster slot)
+-- ARGV[1] = delta id of the batch
+-- ARGV[2] = TTL of the applied ids (milliseconds)
+-- ARGV[3] = '1' for a replay from the spool, '0' for the first attempt
+-- ARGV[4..] = code1, count1, code2, count2, ...
+-- Returns the number of codes added
+if redis.call('HEXISTS', KEYS[2], ARGV[1]) == 1 then
+    return 0
+end
+local added = 0
+if ARGV[3] == '1' then
+    for i = 4, #ARGV, 2 do
+        if redis.call('HSETNX', KEYS[2], ARGV[1] .. ':' .. ARGV[i], 1) == 1 then
+            redis.call('HINCRBY', KEYS[1], ARGV[i], ARGV[i + 1])
+            added = added + 1
+        end
+    end
+else
+    redis.call('HSET', KEYS[2], ARGV[1], 1)
+    for i = 4, #ARGV, 2 do
+        redis.call('HINCRBY', KEYS[1], ARGV[i], ARGV[i + 1])
+        added = added + 1
+    end
+end
+redis.call('PEXPIRE', KEYS[2], ARGV[2])
+return added
@@ -0,0 +1,11 @@
+-- Deletes a consumer from a consumer group, unless it has entries pending
+-- Checked and deleted in one step, so entries delivered to the consumer meanwhile are not dropped with it.
+-- KEYS[1] = stream key
+-- ARGV[1] = consumer group
+-- ARGV[2] = consumer name
+-- Returns 1 if the consumer was deleted
+if #redis.call('XPENDING', KEYS[1], ARGV[1], '-', '+', 1, ARGV[2]) > 0 then
+    return 0
+end
+redis.call('XGROUP', 'DELCONSUMER', KEYS[1], ARGV[1], ARGV[2])
+return 1
@@ -0,0 +1,26 @@
+-- Moves one page of an analytics dump processing key into its own page key
+-- Idempotent: a page key that already exists (moved before an interruption) is returned as it is
+-- KEYS[1] = processing key (dump:analytics:<tKey>:<dumpId>)
+-- KEYS[2] = page key (same cluster slot as the processing key)
+-- ARGV[1] = HSCAN COUNT hint (small hashes are moved whole)
+-- Returns {field1, value1, field2, value2, ...} of the page, empty once the processing key is drained
+local moved = redis.call('HGETALL', KEYS[2])
+if #moved > 0 then
+    return moved
+end
+
+-- Sparse hash tables can return empty pages before the end
+local cursor = '0'
+local items
+repeat
+    local page = redis.call('HSCAN', KEYS[1], cursor, 'COUNT', ARGV[1])
+    cursor = page[1]
+    items = page[2]
+until #items > 0 or cursor == '0'
+
+for i = 1, #items, 2 do
+    redis.call('HSET', KEYS[2], items[i], items[i + 1])
+    redis.call('HDEL', KEYS[1], items[i])
+end
+-- A field returned twice by HSCAN is only in the page once
+return redis.call('HGETALL', KEYS[2])
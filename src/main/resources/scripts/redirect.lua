@@ -0,0 +1,60 @@
+-- Single-round-trip redirect: rate limit, cache lookup and click count in one call
+-- KEYS[1] = rate limit key (rate_limit:get:<code>)
+-- KEYS[2] = cache key (short:<code>)
+-- KEYS[3] = analytics bucket key (analytics:<tKey>)
+-- ARGV[1] = rate limit capacity
+-- ARGV[2] = rate limit window (seconds)
+-- ARGV[3] = short code (analytics hash field)
+-- ARGV[4] = current time (epoch seconds)
+-- ARGV[5] = mode: 0 = rate limit only, 1 = rate limit and count the click (local cache hit), 2 = full lookup
+-- Returns R (rate limited), O (allowed, modes 0 and 1), M (cache miss), N (tombstone or expired)
+-- or H followed by the cached value
+
+-- Same counter semantics as RateLimitService.checkRateLimit
+local remaining = tonumber(redis.call('GET', KEYS[1]))
+local allowed
+if remaining == nil then
+    -- Window start (or invalid value) - reset the window
+    redis.call('SET', KEYS[1], ARGV[1], 'EX', ARGV[2])
+    allowed = redis.call('DECR', KEYS[1]) >= 0
+elseif remaining <= 0 then
+    allowed = false
+else
+    allowed = redis.call('DECR', KEYS[1]) >= 0
+end
+if not allowed then
+    return 'R'
+end
+
+if ARGV[5] == '0' then
+    return 'O'
+end
+if ARGV[5] == '1' then
+    redis.call('HINCRBY', KEYS[3], ARGV[3], 1)
+    return 'O'
+end
+
+local value = redis.call('GET', KEYS[2])
+if not value or value == '' then
+    return 'M'
+end
+if value == '!' then
+    return 'N'
+end
+-- Encoded value: <version>|<urlId>|<expiryEpochSeconds or 0>|... (see CachedRedirect)
+local version = string.sub(value, 1, 2)
+if version == '1|' or version == '2|' then
+    local idEnd = string.find(value, '|', 3, true)
+    local expiryEnd = idEnd and string.find(value, '|', idEnd + 1, true)
+    local expiry = expiryEnd and tonumber(string.sub(value, idEnd + 1, expiryEnd - 1))
+    if not expiry then
+        -- Unreadable entry - let the caller reload it
+        return 'M'
+    end
+    if expiry > 0 and expiry <= tonumber(ARGV[4]) then
+        return 'N'
+    end
+end
+
+redis.call('HINCRBY', KEYS[3], ARGV[3], 1)
+return 'H' .. value
@@ -0,0 +1,7 @@
+-- Fenced lock release: deletes the lock only if it is still held by the caller
+-- KEYS[1] = lock key
+-- ARGV[1] = lock token set by the caller on acquire
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+    return redis.call('DEL', KEYS[1])
+end
+return 0
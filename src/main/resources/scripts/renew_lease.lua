@@ -0,0 +1,8 @@
+-- Fenced lease renewal: extends the lease only if it is still held by the caller
+-- KEYS[1] = lease key
+-- ARGV[1] = lease token set by the caller on acquire
+-- ARGV[2] = new lease TTL (milliseconds)
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+    return redis.call('PEXPIRE', KEYS[1], ARGV[2])
+end
+return 0
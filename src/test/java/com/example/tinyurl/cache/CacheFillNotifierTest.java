@@ -0,0 +1,86 @@
+package com.example.tinyurl.cache;
+
+import com.example.tinyurl.config.TestRedisConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+@Import(TestRedisConfig.class)
+class CacheFillNotifierTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    @Autowired
+    private CacheFillNotifier cacheFillNotifier;
+
+    @BeforeEach
+    void awaitSubscription() throws InterruptedException {
+        // The channel is subscribed in the background - wait until a message reaches this node
+        for (int i = 0; i < 50; i++) {
+            Long receivers = cacheFillNotifier.publishNotFound("probe-" + UUID.randomUUID()).block();
+            if (receivers != null && receivers > 0) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        fail("Cache fill channel was not subscribed");
+    }
+
+    @Test
+    @DisplayName("Test waiters for the same code share the fill and not-found events published on the channel")
+    void testEventsReachWaiters() {
+        String code = "fill-" + UUID.randomUUID();
+        CacheFillNotifier.Registration first = cacheFillNotifier.register(code);
+        CacheFillNotifier.Registration second = cacheFillNotifier.register(code);
+        try {
+            cacheFillNotifier.publishFilled(code, "cached-value").block();
+
+            CacheFillNotifier.FillEvent event = first.event().block(TIMEOUT);
+            assertNotNull(event);
+            assertTrue(event.isFilled());
+            assertEquals("cached-value", event.getCachedValue());
+            assertSame(event, second.event().block(TIMEOUT));
+        } finally {
+            cacheFillNotifier.unregister(first);
+            cacheFillNotifier.unregister(second);
+        }
+
+        CacheFillNotifier.Registration missing = cacheFillNotifier.register(code);
+        try {
+            cacheFillNotifier.publishNotFound(code).block();
+            assertFalse(missing.event().block(TIMEOUT).isFilled());
+        } finally {
+            cacheFillNotifier.unregister(missing);
+        }
+    }
+
+    @Test
+    @DisplayName("Test unregistering after an event leaves the waiter of a later registration alone")
+    void testLateUnregisterKeepsNewerWaiter() {
+        String code = "fill-" + UUID.randomUUID();
+        CacheFillNotifier.Registration early = cacheFillNotifier.register(code);
+        cacheFillNotifier.publishFilled(code, "first").block();
+        assertEquals("first", early.event().block(TIMEOUT).getCachedValue());
+
+        // Registered after the event, before the early caller cleans up
+        CacheFillNotifier.Registration late = cacheFillNotifier.register(code);
+        cacheFillNotifier.unregister(early);
+        try {
+            cacheFillNotifier.publishFilled(code, "second").block();
+            assertEquals("second", late.event().block(TIMEOUT).getCachedValue());
+        } finally {
+            cacheFillNotifier.unregister(late);
+        }
+    }
+}
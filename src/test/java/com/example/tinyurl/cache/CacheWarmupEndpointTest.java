@@ -0,0 +1,135 @@
+package com.example.tinyurl.cache;
+
+import com.example.tinyurl.config.TestRedisConfig;
+import com.example.tinyurl.util.AESUtil;
+import com.example.tinyurl.util.CryptoUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.time.Duration;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+@Import(TestRedisConfig.class)
+@TestPropertySource(properties = {
+    "auth.aes.secret.key=12345678901234567890123456789012",
+    "auth.admin.user.ids=900001"
+})
+class CacheWarmupEndpointTest {
+
+    private static final long ADMIN_USER_ID = 900001L;
+    private static final long USER_ID = 900002L;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    @Qualifier("reactiveStringRedisTemplate")
+    private ReactiveRedisTemplate<String, String> redisTemplate;
+
+    @Value("${auth.aes.secret.key}")
+    private String aesSecretKey;
+
+    private WebTestClient webTestClient;
+    private String adminToken;
+    private String userToken;
+
+    @BeforeEach
+    void setUp() {
+        webTestClient = WebTestClient.bindToServer()
+            .baseUrl("http://localhost:" + port)
+            .build();
+        adminToken = createToken(ADMIN_USER_ID);
+        userToken = createToken(USER_ID);
+    }
+
+    @AfterEach
+    void tearDown() {
+        redisTemplate.delete("token:" + ADMIN_USER_ID, "token:" + USER_ID).block();
+    }
+
+    @Test
+    @DisplayName("Test /actuator/cachewarmup - 401 without a token, 403 for a user that is not an admin")
+    void testRequiresAdmin() {
+        webTestClient.get()
+            .uri("/actuator/cachewarmup")
+            .exchange()
+            .expectStatus().isUnauthorized();
+
+        webTestClient.post()
+            .uri("/actuator/cachewarmup")
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue("{\"mode\": \"top\"}")
+            .exchange()
+            .expectStatus().isUnauthorized();
+
+        webTestClient.get()
+            .uri("/actuator/cachewarmup")
+            .header("Authorization", "Bearer " + userToken)
+            .exchange()
+            .expectStatus().isForbidden();
+
+        webTestClient.post()
+            .uri("/actuator/cachewarmup")
+            .header("Authorization", "Bearer " + userToken)
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue("{\"mode\": \"top\"}")
+            .exchange()
+            .expectStatus().isForbidden();
+    }
+
+    @Test
+    @DisplayName("Test /actuator/cachewarmup as admin - status and trigger succeed, an unknown mode returns 400")
+    void testAdmin() {
+        webTestClient.get()
+            .uri("/actuator/cachewarmup")
+            .header("Authorization", "Bearer " + adminToken)
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.running").exists();
+
+        webTestClient.post()
+            .uri("/actuator/cachewarmup")
+            .header("Authorization", "Bearer " + adminToken)
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue("{\"mode\": \"top\"}")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.mode").isEqualTo("TOP");
+
+        webTestClient.post()
+            .uri("/actuator/cachewarmup")
+            .header("Authorization", "Bearer " + adminToken)
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue("{\"mode\": \"everything\"}")
+            .exchange()
+            .expectStatus().isBadRequest();
+    }
+
+    /**
+     * Creates a Bearer token the way login does: <encrypted(user id)>.<random string>
+     */
+    private String createToken(long userId) {
+        String randomString = CryptoUtil.generateRandomString(32);
+        String redisKey = "token:" + userId;
+        redisTemplate.opsForHash().put(redisKey, randomString, "true")
+            .then(redisTemplate.expire(redisKey, Duration.ofSeconds(60)))
+            .block();
+        return AESUtil.encrypt(String.valueOf(userId), aesSecretKey) + "." + randomString;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.tinyurl.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+class CachedRedirectTest {
+
+    @Test
+    @DisplayName("Test encode and decode round trip keeps url id, expiry and long URL")
+    void testRoundTrip() {
+        OffsetDateTime expiry = OffsetDateTime.of(2030, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+        String longUrl = "https://example.com/path?a=1|b=2";
+        CachedRedirect decoded = CachedRedirect.decode(CachedRedirect.of(42L, expiry, longUrl).encode());
+
+        assertEquals(42L, decoded.getUrlId());
+        assertEquals(expiry.toEpochSecond(), decoded.getExpiryEpochSeconds());
+        assertEquals(longUrl, decoded.getLongUrl());
+    }
+
+    @Test
+    @DisplayName("Test cache window survives encoding and version 1 values still decode")
+    void testCacheWindowAndVersion1() {
+        CachedRedirect redirect = new CachedRedirect(7L, 0L, "https://example.com").withCacheWindow(5_000L, 12L);
+        CachedRedirect decoded = CachedRedirect.decode(redirect.encode());
+        assertEquals(5_000L, decoded.getCachedUntilMillis());
+        assertEquals(12L, decoded.getRecomputeMillis());
+
+        CachedRedirect version1 = CachedRedirect.decode("1|7|99|https://example.com/a|b");
+        assertEquals(7L, version1.getUrlId());
+        assertEquals(99L, version1.getExpiryEpochSeconds());
+        assertEquals("https://example.com/a|b", version1.getLongUrl());
+        assertEquals(0L, version1.getCachedUntilMillis());
+    }
+
+    @Test
+    @DisplayName("Test early refresh triggers near the end of the cache window only")
+    void testShouldRefreshEarly() {
+        long now = 1_000_000L;
+        CachedRedirect unknownWindow = new CachedRedirect(1L, 0L, "https://example.com");
+        CachedRedirect farFromExpiry = unknownWindow.withCacheWindow(now + 3_600_000L, 10L);
+        CachedRedirect pastExpiry = unknownWindow.withCacheWindow(now - 1, 10L);
+
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(unknownWindow.shouldRefreshEarly(now, 1000, 1.0));
+            assertFalse(farFromExpiry.shouldRefreshEarly(now, 1000, 1.0));
+            assertTrue(pastExpiry.shouldRefreshEarly(now, 1000, 1.0));
+        }
+    }
+
+    @Test
+    @DisplayName("Test decode treats values without the version prefix as a raw long URL")
+    void testDecodeLegacyValue() {
+        CachedRedirect decoded = CachedRedirect.decode("https://example.com");
+
+        assertNull(decoded.getUrlId());
+        assertFalse(decoded.hasExpiry());
+        assertEquals("https://example.com", decoded.getLongUrl());
+    }
+
+    @Test
+    @DisplayName("Test decode rejects malformed values")
+    void testDecodeMalformed() {
+        assertThrows(IllegalArgumentException.class, () -> CachedRedirect.decode("1|12"));
+        assertThrows(IllegalArgumentException.class, () -> CachedRedirect.decode("1|x|0|https://example.com"));
+        assertThrows(IllegalArgumentException.class, () -> CachedRedirect.decode("2|1|0|https://example.com"));
+    }
+
+    @Test
+    @DisplayName("Test TTL is capped by the remaining lifetime of the link")
+    void testTtlSeconds() {
+        long now = 1_000_000L;
+        CachedRedirect noExpiry = new CachedRedirect(1L, 0L, "https://example.com");
+        CachedRedirect expiresSoon = new CachedRedirect(1L, now + 30, "https://example.com");
+        CachedRedirect expired = new CachedRedirect(1L, now - 1, "https://example.com");
+
+        assertEquals(3600, noExpiry.ttlSeconds(3600, now));
+        assertEquals(30, expiresSoon.ttlSeconds(3600, now));
+        assertTrue(expired.ttlSeconds(3600, now) <= 0);
+
+        assertFalse(noExpiry.isExpired(now));
+        assertFalse(expiresSoon.isExpired(now));
+        assertTrue(expired.isExpired(now));
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.tinyurl.cache;
+
+import com.example.tinyurl.config.TestRedisConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+@Import(TestRedisConfig.class)
+class LocalRedirectCacheTest {
+
+    @Autowired
+    private LocalRedirectCache localRedirectCache;
+
+    @Autowired
+    @Qualifier("reactiveStringRedisTemplate")
+    private ReactiveRedisTemplate<String, String> redisTemplate;
+
+    @BeforeEach
+    void awaitTracking() throws InterruptedException {
+        // Client tracking is enabled on a dedicated connection in the background
+        for (int i = 0; i < 50 && !localRedirectCache.isActive(); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(localRedirectCache.isActive(), "Client tracking should be enabled");
+    }
+
+    @Test
+    @DisplayName("Test put and get round trip, positive and negative entries are kept apart")
+    void testPutAndGet() {
+        String code = "local-" + UUID.randomUUID();
+        CachedRedirect redirect = CachedRedirect.of(7L, null, "https://www.example.com/local");
+
+        assertNull(localRedirectCache.get(code));
+        localRedirectCache.put(code, redirect, localRedirectCache.stamp());
+        assertEquals("https://www.example.com/local", localRedirectCache.get(code).getLongUrl());
+        assertFalse(localRedirectCache.isNegative(code));
+
+        String missing = "local-" + UUID.randomUUID();
+        localRedirectCache.putNegative(missing, localRedirectCache.stamp());
+        assertTrue(localRedirectCache.isNegative(missing));
+        assertNull(localRedirectCache.get(missing));
+
+        localRedirectCache.invalidate(code);
+        localRedirectCache.invalidate(missing);
+        assertNull(localRedirectCache.get(code));
+        assertFalse(localRedirectCache.isNegative(missing));
+    }
+
+    @Test
+    @DisplayName("Test a put that raced with an invalidation is dropped")
+    void testStalePutDropped() {
+        String code = "local-" + UUID.randomUUID();
+        long stamp = localRedirectCache.stamp();
+
+        // Invalidation arrives between reading Redis and storing the value
+        localRedirectCache.invalidate("local-" + UUID.randomUUID());
+        localRedirectCache.put(code, CachedRedirect.of(7L, null, "https://www.example.com/stale"), stamp);
+        localRedirectCache.putNegative(code, stamp);
+
+        assertNull(localRedirectCache.get(code));
+        assertFalse(localRedirectCache.isNegative(code));
+    }
+
+    @Test
+    @DisplayName("Test a write to the short: key in Redis evicts the local copy through client tracking")
+    void testInvalidatedByRedisWrite() throws InterruptedException {
+        String code = "local-" + UUID.randomUUID();
+        String cacheKey = LocalRedirectCache.CACHE_KEY_PREFIX + code;
+        localRedirectCache.put(code, CachedRedirect.of(7L, null, "https://www.example.com/old"), localRedirectCache.stamp());
+
+        try {
+            // Any node writing the key - here another connection of this JVM
+            redisTemplate.opsForValue()
+                .set(cacheKey, CachedRedirect.of(7L, null, "https://www.example.com/new").encode())
+                .block();
+
+            for (int i = 0; i < 50 && localRedirectCache.get(code) != null; i++) {
+                Thread.sleep(100);
+            }
+            assertNull(localRedirectCache.get(code), "The local copy should be evicted");
+        } finally {
+            redisTemplate.delete(cacheKey).block();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.tinyurl.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+class MappedRedirectStoreTest {
+
+    private static final long MAX_BYTES = 16 * 1024 * 1024;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Test stored redirects are returned and unknown keys are not")
+    void testPutAndGet() throws IOException {
+        try (MappedRedirectStore store = new MappedRedirectStore(directory, MAX_BYTES, 16)) {
+            assertTrue(store.put("#1", new CachedRedirect(1L, 0L, "https://example.com/a")));
+            assertTrue(store.put("c:promo", new CachedRedirect(1L, 1_900_000_000L, "https://example.com/a")));
+
+            CachedRedirect byId = store.get("#1");
+            assertEquals(1L, byId.getUrlId());
+            assertEquals("https://example.com/a", byId.getLongUrl());
+            assertFalse(byId.hasExpiry());
+            assertEquals(1_900_000_000L, store.get("c:promo").getExpiryEpochSeconds());
+            assertNull(store.get("#2"));
+
+            // Existing keys are not overwritten
+            assertFalse(store.put("#1", new CachedRedirect(1L, 0L, "https://example.com/b")));
+            assertEquals("https://example.com/a", store.get("#1").getLongUrl());
+            assertEquals(2, store.size());
+        }
+    }
+
+    @Test
+    @DisplayName("Test an invalidated redirect reads back as expired, also after a reopen")
+    void testInvalidate() throws IOException {
+        long now = System.currentTimeMillis() / 1000;
+        try (MappedRedirectStore store = new MappedRedirectStore(directory, MAX_BYTES, 16)) {
+            store.put("#1", new CachedRedirect(1L, 0L, "https://example.com/a"));
+            store.put("#2", new CachedRedirect(2L, 0L, "https://example.com/b"));
+
+            assertTrue(store.invalidate("#1"));
+            assertFalse(store.invalidate("#3"));
+            assertTrue(store.get("#1").isExpired(now));
+            assertEquals("https://example.com/a", store.get("#1").getLongUrl());
+            assertFalse(store.get("#2").isExpired(now));
+            // Re-adding the key does not revive it
+            assertFalse(store.put("#1", new CachedRedirect(1L, 0L, "https://example.com/a")));
+        }
+        try (MappedRedirectStore store = new MappedRedirectStore(directory, MAX_BYTES, 16)) {
+            assertTrue(store.get("#1").isExpired(now));
+            assertFalse(store.get("#2").isExpired(now));
+        }
+    }
+
+    @Test
+    @DisplayName("Test index grows past its initial capacity without losing entries")
+    void testIndexGrowth() throws IOException {
+        try (MappedRedirectStore store = new MappedRedirectStore(directory, MAX_BYTES, 16)) {
+            for (long id = 1; id <= 20000; id++) {
+                assertTrue(store.put("#" + id, new CachedRedirect(id, 0L, "https://example.com/" + id)));
+            }
+            for (long id = 1; id <= 20000; id++) {
+                assertEquals("https://example.com/" + id, store.get("#" + id).getLongUrl(), "Failed for id: " + id);
+            }
+            assertEquals(20000, store.size());
+            assertEquals(20000, store.getLastUrlId());
+        }
+    }
+
+    @Test
+    @DisplayName("Test entries and watermarks survive a reopen and a lost index")
+    void testReopen() throws IOException {
+        try (MappedRedirectStore store = new MappedRedirectStore(directory, MAX_BYTES, 16)) {
+            for (long id = 1; id <= 100; id++) {
+                store.put("#" + id, new CachedRedirect(id, 0L, "https://example.com/" + id));
+            }
+            store.setIndexedUpToId(90);
+        }
+
+        try (MappedRedirectStore store = new MappedRedirectStore(directory, MAX_BYTES, 16)) {
+            assertEquals(100, store.size());
+            assertEquals(90, store.getIndexedUpToId());
+            assertEquals(100, store.getLastUrlId());
+            assertEquals("https://example.com/42", store.get("#42").getLongUrl());
+        }
+
+        Files.delete(directory.resolve(MappedRedirectStore.INDEX_FILE));
+        try (MappedRedirectStore store = new MappedRedirectStore(directory, MAX_BYTES, 16)) {
+            assertEquals(100, store.size());
+            assertEquals("https://example.com/7", store.get("#7").getLongUrl());
+        }
+    }
+
+    @Test
+    @DisplayName("Test a full data file rejects new entries and clear empties the store")
+    void testFullAndClear() throws IOException {
+        try (MappedRedirectStore store = new MappedRedirectStore(directory, 4096, 16)) {
+            int stored = 0;
+            while (store.put("#" + (stored + 1), new CachedRedirect(stored + 1L, 0L, "https://example.com/" + "x".repeat(100)))) {
+                stored++;
+            }
+            assertTrue(stored > 0 && stored < 40, "Store should fill up, stored: " + stored);
+            assertNotNull(store.get("#1"));
+
+            store.clear();
+            assertEquals(0, store.size());
+            assertEquals(0, store.getLastUrlId());
+            assertNull(store.get("#1"));
+            assertTrue(store.put("#1", new CachedRedirect(1L, 0L, "https://example.com")));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.tinyurl.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScalableBloomFilterTest {
+
+    @Test
+    @DisplayName("Test added items are always reported as present")
+    void testNoFalseNegatives() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(1000, 0.01);
+        for (int i = 0; i < 50000; i++) {
+            filter.put("#" + i);
+        }
+        for (int i = 0; i < 50000; i++) {
+            assertTrue(filter.mightContain("#" + i), "Failed for item: #" + i);
+        }
+    }
+
+    @Test
+    @DisplayName("Test filter grows beyond its initial capacity")
+    void testGrowsBeyondInitialCapacity() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(100, 0.01);
+        assertEquals(1, filter.stageCount());
+
+        for (int i = 0; i < 1000; i++) {
+            filter.put("c:code-" + i);
+        }
+
+        assertTrue(filter.stageCount() > 1, "Filter should add stages when full");
+        assertTrue(filter.approximateSize() > 900, "Approximate size should track inserted items");
+    }
+
+    @Test
+    @DisplayName("Test false-positive rate stays around the configured target after growth")
+    void testFalsePositiveRate() {
+        double target = 0.01;
+        ScalableBloomFilter filter = new ScalableBloomFilter(1000, target);
+        for (int i = 0; i < 100000; i++) {
+            filter.put("#" + i);
+        }
+
+        int falsePositives = 0;
+        int probes = 100000;
+        for (int i = 0; i < probes; i++) {
+            if (filter.mightContain("x" + i)) {
+                falsePositives++;
+            }
+        }
+
+        double observed = (double) falsePositives / probes;
+        assertTrue(observed < target * 1.5, "Observed false-positive rate too high: " + observed);
+        assertTrue(filter.expectedFalsePositiveProbability() < target,
+            "Expected false-positive probability should stay below target");
+    }
+
+    @Test
+    @DisplayName("Test empty filter contains nothing")
+    void testEmptyFilter() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(1000, 0.01);
+        assertFalse(filter.mightContain("#1"));
+        assertEquals(0.0, filter.expectedFalsePositiveProbability());
+    }
+
+    @Test
+    @DisplayName("Test invalid constructor arguments")
+    void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new ScalableBloomFilter(0, 0.01));
+        assertThrows(IllegalArgumentException.class, () -> new ScalableBloomFilter(1000, 0));
+        assertThrows(IllegalArgumentException.class, () -> new ScalableBloomFilter(1000, 1));
+    }
+}
@@ -23,7 +23,14 @@ public class TestRedisConfig {
     @Primary
     public ReactiveRedisConnectionFactory reactiveRedisConnectionFactory() {
         // Create connection factory using properties from application-test.properties
-        LettuceConnectionFactory factory = new LettuceConnectionFactory(redisHost, redisPort);
+        // Cached test contexts are paused between test classes; keep Redis connected, since client tracking
+        // (LocalRedirectCache) and the pub/sub subscriptions are opened once per context
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(redisHost, redisPort) {
+            @Override
+            public boolean isPauseable() {
+                return false;
+            }
+        };
         factory.setValidateConnection(false);
         // Set longer timeout to allow connection (in milliseconds)
         factory.setTimeout(5000L);
@@ -0,0 +1,100 @@
+package com.example.tinyurl.config;
+
+import com.example.tinyurl.entity.CustomUrlCode;
+import com.example.tinyurl.entity.ShortUrl;
+import com.example.tinyurl.entity.User;
+import com.example.tinyurl.repository.CustomUrlCodeRepository;
+import com.example.tinyurl.repository.ShortUrlRepository;
+import com.example.tinyurl.repository.UserRepository;
+import com.example.tinyurl.service.AnalyticsService;
+import com.example.tinyurl.util.Base62Util;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.TestComponent;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Short URL fixtures shared by the tests, each owned by a user of its own
+ * Import it next to TestRedisConfig: @Import({TestRedisConfig.class, TestUrls.class})
+ */
+@TestComponent
+public class TestUrls {
+
+    private final UserRepository userRepository;
+    private final ShortUrlRepository shortUrlRepository;
+    private final CustomUrlCodeRepository customUrlCodeRepository;
+    private final AnalyticsService analyticsService;
+    private final ReactiveRedisTemplate<String, String> redisTemplate;
+    private final TransactionTemplate requiresNew;
+
+    public TestUrls(UserRepository userRepository,
+                    ShortUrlRepository shortUrlRepository,
+                    CustomUrlCodeRepository customUrlCodeRepository,
+                    AnalyticsService analyticsService,
+                    @Qualifier("reactiveStringRedisTemplate") ReactiveRedisTemplate<String, String> redisTemplate,
+                    PlatformTransactionManager transactionManager) {
+        this.userRepository = userRepository;
+        this.shortUrlRepository = shortUrlRepository;
+        this.customUrlCodeRepository = customUrlCodeRepository;
+        this.analyticsService = analyticsService;
+        this.redisTemplate = redisTemplate;
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Saves a user in the caller's transaction (rolled back with a @Transactional test)
+     */
+    public User createUser() {
+        return userRepository.save(new User("testuser-" + UUID.randomUUID(), "hash"));
+    }
+
+    /**
+     * Saves a short URL in the caller's transaction (rolled back with a @Transactional test)
+     */
+    public ShortUrl createUrl(String longUrl) {
+        return shortUrlRepository.save(new ShortUrl(longUrl, "hash", createUser()));
+    }
+
+    /**
+     * Saves a short URL with a custom code in its own transaction, for code that reads it on another thread
+     * @return The URL id
+     */
+    public Long createCustomCode(String code) {
+        return inTransaction(() -> {
+            ShortUrl url = createUrl("https://www.example.com/" + code);
+            customUrlCodeRepository.save(new CustomUrlCode(code, url));
+            return url.getId();
+        });
+    }
+
+    /**
+     * Drops the clicks Redis still counts for the base62 code of a URL id in the fresh buckets of a range
+     * Ids start over with each test context, while Redis keeps what earlier contexts and runs counted for them.
+     */
+    public void clearUndumped(Long urlId, OffsetDateTime startTime, OffsetDateTime endTime) {
+        String code = "_" + Base62Util.encode(urlId);
+        for (OffsetDateTime time : analyticsService.freshBucketTimes(startTime, endTime)) {
+            for (String bucketKey : analyticsService.bucketKeys(analyticsService.generateTimeKey(time))) {
+                redisTemplate.opsForHash().remove(bucketKey, code).block();
+            }
+        }
+    }
+
+    /**
+     * Runs an action in its own, committed transaction
+     */
+    public <T> T inTransaction(Supplier<T> action) {
+        return requiresNew.execute(status -> action.get());
+    }
+
+    public void inTransaction(Runnable action) {
+        requiresNew.executeWithoutResult(status -> action.run());
+    }
+}
@@ -371,5 +371,57 @@ class UrlControllerTest {
             .exchange()
             .expectStatus().isUnauthorized();
     }
+
+    @Test
+    @DisplayName("Test GET /{shortURL} - Redirects to the long URL and returns NO_RECORD for unknown codes")
+    void testRedirect() throws Exception {
+        String longUrl = "https://www.example.com/redirect-" + System.currentTimeMillis();
+        String requestBody = String.format("""
+            {
+                "url": "%s"
+            }
+            """, longUrl);
+
+        String[] codeHolder = new String[1];
+
+        webTestClient.post()
+            .uri("/shorten")
+            .header("Authorization", "Bearer " + bearerToken)
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue(requestBody)
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.shortUrl").value(url -> {
+                String shortUrl = url.toString();
+                codeHolder[0] = shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+            });
+
+        // Redirect is served without authentication
+        webTestClient.get()
+            .uri("/" + codeHolder[0])
+            .exchange()
+            .expectStatus().isEqualTo(org.springframework.http.HttpStatus.MOVED_PERMANENTLY)
+            .expectHeader().valueEquals("Location", longUrl);
+
+        webTestClient.get()
+            .uri("/unknown-redirect-code-" + System.currentTimeMillis())
+            .exchange()
+            .expectStatus().isNotFound()
+            .expectHeader().contentType(MediaType.APPLICATION_JSON)
+            .expectBody()
+            .jsonPath("$.code").isEqualTo("NO_RECORD");
+    }
+
+    @Test
+    @DisplayName("Test GET on single-segment paths mapped by other endpoints - Not taken for short codes")
+    void testRedirectLeavesMappedPaths() {
+        // The API docs welcome page redirects to the Swagger UI instead of returning NO_RECORD
+        webTestClient.get()
+            .uri("/docs")
+            .exchange()
+            .expectStatus().is3xxRedirection()
+            .expectHeader().value("Location", location -> assertTrue(location.contains("swagger-ui")));
+    }
 }
 
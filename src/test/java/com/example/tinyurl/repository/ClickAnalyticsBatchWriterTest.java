@@ -0,0 +1,68 @@
+package com.example.tinyurl.repository;
+
+import com.example.tinyurl.entity.ShortUrl;
+import com.example.tinyurl.entity.User;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Transactional;
+import com.example.tinyurl.config.TestRedisConfig;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+@Import(TestRedisConfig.class)
+@TestPropertySource(properties = "analytics.dump.batch.size=2")
+@Transactional
+class ClickAnalyticsBatchWriterTest {
+
+    @Autowired
+    private ClickAnalyticsBatchWriter batchWriter;
+
+    @Autowired
+    private ShortUrlRepository shortUrlRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    @DisplayName("Test counts are inserted for new rows and added to existing rows across batches")
+    void testAddCounts() {
+        User user = userRepository.save(new User("batchwriteruser", "hash"));
+        Map<Long, Long> counts = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            ShortUrl url = shortUrlRepository.save(new ShortUrl("https://www.example.com/" + i, "hash" + i, user));
+            counts.put(url.getId(), (long) i + 1);
+        }
+        OffsetDateTime time = OffsetDateTime.of(2025, 12, 21, 10, 5, 0, 0, ZoneOffset.UTC);
+
+        // 5 rows with batches of 2: two batched statements and a remainder
+        assertEquals(5, batchWriter.addCounts(time, counts));
+        assertEquals(5, batchWriter.addCounts(time, counts));
+        assertEquals(0, batchWriter.addCounts(time, Map.of()));
+
+        for (Map.Entry<Long, Long> entry : counts.entrySet()) {
+            Long stored = jdbcTemplate.queryForObject(
+                "SELECT count FROM short_url_click_analytics WHERE time = ? AND url_id = ?",
+                Long.class, time, entry.getKey());
+            assertEquals(entry.getValue() * 2, stored, "Failed for url id: " + entry.getKey());
+        }
+        Long otherBucket = jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM short_url_click_analytics WHERE time = ?", Long.class, time.plusMinutes(1));
+        assertEquals(0L, otherBucket);
+    }
+}
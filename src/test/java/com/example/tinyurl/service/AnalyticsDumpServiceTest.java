@@ -0,0 +1,170 @@
+package com.example.tinyurl.service;
+
+import com.example.tinyurl.entity.AnalyticsDumpJournal;
+import com.example.tinyurl.entity.ShortUrl;
+import com.example.tinyurl.entity.ShortUrlClickAnalytics;
+import com.example.tinyurl.entity.ShortUrlClickAnalyticsId;
+import com.example.tinyurl.repository.AnalyticsDumpJournalRepository;
+import com.example.tinyurl.repository.ShortUrlClickAnalyticsRepository;
+import com.example.tinyurl.util.Base62Util;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Transactional;
+import com.example.tinyurl.config.TestRedisConfig;
+import com.example.tinyurl.config.TestUrls;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+@Import({TestRedisConfig.class, TestUrls.class})
+@Transactional
+@TestPropertySource(properties = "analytics.dump.page.size=2")
+class AnalyticsDumpServiceTest {
+
+    @Autowired
+    private AnalyticsDumpService analyticsDumpService;
+
+    @Autowired
+    private TestUrls testUrls;
+
+    @Autowired
+    private AnalyticsService analyticsService;
+
+    @Autowired
+    private AnalyticsDumpJournalRepository journalRepository;
+
+    @Autowired
+    private ShortUrlClickAnalyticsRepository analyticsRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    @Qualifier("reactiveStringRedisTemplate")
+    private ReactiveRedisTemplate<String, String> redisTemplate;
+
+    @Test
+    @DisplayName("Test dump sums codes of the same URL, removes the bucket and journals the dump as DONE")
+    void testDump() {
+        ShortUrl url = testUrls.createUrl("https://www.example.com/dump");
+        OffsetDateTime time = OffsetDateTime.of(2020, 3, 1, 10, 0, 0, 0, ZoneOffset.UTC);
+        String tKey = analyticsService.generateTimeKey(time);
+        String bucketKey = AnalyticsService.ANALYTICS_KEY_PREFIX + tKey;
+        redisTemplate.delete(bucketKey).block();
+
+        String code = "_" + Base62Util.encode(url.getId());
+        redisTemplate.opsForHash().increment(bucketKey, code, 3L).block();
+        // Leading zero digit - same url id
+        redisTemplate.opsForHash().increment(bucketKey, "_a" + code.substring(1), 2L).block();
+        redisTemplate.opsForHash().increment(bucketKey, "unknownCustomCode", 7L).block();
+
+        analyticsDumpService.dump(tKey);
+
+        assertFalse(Boolean.TRUE.equals(redisTemplate.hasKey(bucketKey).block()), "Bucket should be removed");
+        assertEquals(5L, storedCount(analyticsService.parseTimeKey(tKey), url.getId()));
+        assertTrue(journalRepository.findUnfinished().stream().noneMatch(journal -> journal.getBucket().equals(tKey)));
+    }
+
+    @Test
+    @DisplayName("Test a dump interrupted after the rename is resumed and counted once")
+    void testResumeAfterInterruption() {
+        ShortUrl url = testUrls.createUrl("https://www.example.com/resume");
+        OffsetDateTime time = OffsetDateTime.of(2020, 3, 1, 11, 0, 0, 0, ZoneOffset.UTC);
+        String tKey = analyticsService.generateTimeKey(time);
+        String bucketKey = AnalyticsService.ANALYTICS_KEY_PREFIX + tKey;
+        redisTemplate.delete(bucketKey).block();
+
+        // Interrupted dump: journaled and renamed, no page written yet
+        AnalyticsDumpJournal journal = new AnalyticsDumpJournal(UUID.randomUUID().toString(), tKey);
+        journal.setStatus(AnalyticsDumpJournal.Status.IN_PROGRESS);
+        journalRepository.save(journal);
+        String processingKey = AnalyticsDumpService.PROCESSING_KEY_PREFIX + tKey + ":" + journal.getDumpId();
+        redisTemplate.opsForHash().increment(processingKey, "_" + Base62Util.encode(url.getId()), 4L).block();
+        // A late click arrives in a fresh bucket
+        redisTemplate.opsForHash().increment(bucketKey, "_" + Base62Util.encode(url.getId()), 1L).block();
+
+        analyticsDumpService.dump(tKey);
+        analyticsDumpService.dump(tKey);
+
+        assertFalse(Boolean.TRUE.equals(redisTemplate.hasKey(processingKey).block()), "Processing key should be removed");
+        assertFalse(Boolean.TRUE.equals(redisTemplate.hasKey(bucketKey).block()), "Bucket should be removed");
+        assertEquals(5L, storedCount(analyticsService.parseTimeKey(tKey), url.getId()));
+        assertEquals(AnalyticsDumpJournal.Status.DONE, journalRepository.findById(journal.getDumpId()).orElseThrow().getStatus());
+    }
+
+    @Test
+    @DisplayName("Test a dump interrupted around a page commit counts the moved page once")
+    void testResumeMovedPage() {
+        ShortUrl url = testUrls.createUrl("https://www.example.com/page");
+        ShortUrl committedUrl = testUrls.createUrl("https://www.example.com/committed-page");
+        OffsetDateTime time = OffsetDateTime.of(2020, 3, 1, 13, 0, 0, 0, ZoneOffset.UTC);
+        String tKey = analyticsService.generateTimeKey(time);
+
+        // Page 0 was committed but its key not deleted, page 1 was moved but not committed
+        AnalyticsDumpJournal journal = new AnalyticsDumpJournal(UUID.randomUUID().toString(), tKey);
+        journal.setStatus(AnalyticsDumpJournal.Status.IN_PROGRESS);
+        journal.setPages(1);
+        journalRepository.save(journal);
+        String processingKey = AnalyticsDumpService.PROCESSING_KEY_PREFIX + tKey + ":" + journal.getDumpId();
+        String committedPageKey = AnalyticsDumpService.pageKey(processingKey, 0);
+        String movedPageKey = AnalyticsDumpService.pageKey(processingKey, 1);
+        redisTemplate.opsForHash().increment(committedPageKey, "_" + Base62Util.encode(committedUrl.getId()), 9L).block();
+        redisTemplate.opsForHash().increment(movedPageKey, "_" + Base62Util.encode(url.getId()), 6L).block();
+
+        analyticsDumpService.dump(tKey);
+
+        // Read before storedCount clears the persistence context
+        AnalyticsDumpJournal resumed = journalRepository.findById(journal.getDumpId()).orElseThrow();
+        assertEquals(AnalyticsDumpJournal.Status.DONE, resumed.getStatus());
+        assertEquals(2L, resumed.getPages());
+        assertEquals(6L, storedCount(analyticsService.parseTimeKey(tKey), url.getId()));
+        assertNull(storedCount(analyticsService.parseTimeKey(tKey), committedUrl.getId()));
+        assertFalse(Boolean.TRUE.equals(redisTemplate.hasKey(committedPageKey).block()), "Committed page should be removed");
+        assertFalse(Boolean.TRUE.equals(redisTemplate.hasKey(movedPageKey).block()), "Moved page should be removed");
+    }
+
+    @Test
+    @DisplayName("Test a bucket leased by another instance is left alone until the lease is gone")
+    void testLeasedBucketIsSkipped() {
+        ShortUrl url = testUrls.createUrl("https://www.example.com/lease");
+        OffsetDateTime time = OffsetDateTime.of(2020, 3, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+        String tKey = analyticsService.generateTimeKey(time);
+        String bucketKey = AnalyticsService.ANALYTICS_KEY_PREFIX + tKey;
+        String leaseKey = DumpLeaseCoordinator.LEASE_KEY_PREFIX + bucketKey;
+        redisTemplate.delete(bucketKey).block();
+        redisTemplate.opsForHash().increment(bucketKey, "_" + Base62Util.encode(url.getId()), 2L).block();
+
+        redisTemplate.opsForValue().set(leaseKey, "another-instance").block();
+        try {
+            assertFalse(analyticsDumpService.dump(tKey));
+            assertTrue(Boolean.TRUE.equals(redisTemplate.hasKey(bucketKey).block()), "Bucket should be left alone");
+        } finally {
+            redisTemplate.delete(leaseKey).block();
+        }
+
+        assertTrue(analyticsDumpService.dump(tKey));
+        assertEquals(2L, storedCount(analyticsService.parseTimeKey(tKey), url.getId()));
+        assertFalse(Boolean.TRUE.equals(redisTemplate.hasKey(leaseKey).block()), "Lease should be released");
+    }
+
+    private Long storedCount(OffsetDateTime time, Long urlId) {
+        // Rows are written with JDBC - read past the persistence context
+        entityManager.clear();
+        return analyticsRepository.findById(new ShortUrlClickAnalyticsId(time, urlId))
+            .map(ShortUrlClickAnalytics::getCount)
+            .orElse(null);
+    }
+}
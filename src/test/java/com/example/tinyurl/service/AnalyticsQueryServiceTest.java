@@ -0,0 +1,113 @@
+package com.example.tinyurl.service;
+
+import com.example.tinyurl.config.TestRedisConfig;
+import com.example.tinyurl.config.TestUrls;
+import com.example.tinyurl.model.AnalyticsGranularity;
+import com.example.tinyurl.model.AnalyticsResponse;
+import com.example.tinyurl.repository.ClickAnalyticsBatchWriter;
+import com.example.tinyurl.util.Base62Util;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+@Import({TestRedisConfig.class, TestUrls.class})
+@Transactional
+class AnalyticsQueryServiceTest {
+
+    @Autowired
+    private AnalyticsQueryService analyticsQueryService;
+
+    @Autowired
+    private TestUrls testUrls;
+
+    @Autowired
+    private ClickAnalyticsBatchWriter batchWriter;
+
+    @Autowired
+    private AnalyticsService analyticsService;
+
+    @Autowired
+    @Qualifier("reactiveStringRedisTemplate")
+    private ReactiveRedisTemplate<String, String> redisTemplate;
+
+    @Test
+    @DisplayName("Test day buckets follow the requested time zone")
+    void testDayBucketsInTimeZone() {
+        Long urlId = testUrls.createUrl("https://www.example.com/query-day").getId();
+        // 23:00 and 01:00 / 05:00 the next day in Tokyo
+        batchWriter.addCounts(OffsetDateTime.of(2025, 12, 10, 14, 0, 0, 0, ZoneOffset.UTC), Map.of(urlId, 2L));
+        batchWriter.addCounts(OffsetDateTime.of(2025, 12, 10, 16, 0, 0, 0, ZoneOffset.UTC), Map.of(urlId, 3L));
+        batchWriter.addCounts(OffsetDateTime.of(2025, 12, 10, 20, 0, 0, 0, ZoneOffset.UTC), Map.of(urlId, 4L));
+
+        ZoneOffset tokyo = ZoneOffset.ofHours(9);
+        Map<OffsetDateTime, Long> counts = findCounts(urlId, OffsetDateTime.of(2025, 12, 10, 0, 0, 0, 0, ZoneOffset.UTC),
+            OffsetDateTime.of(2025, 12, 11, 0, 0, 0, 0, ZoneOffset.UTC), AnalyticsGranularity.DAY, ZoneId.of("Asia/Tokyo"));
+
+        assertEquals(Map.of(
+            OffsetDateTime.of(2025, 12, 10, 0, 0, 0, 0, tokyo), 2L,
+            OffsetDateTime.of(2025, 12, 11, 0, 0, 0, 0, tokyo), 7L), counts);
+    }
+
+    @Test
+    @DisplayName("Test week buckets start on Monday")
+    void testWeekBuckets() {
+        Long urlId = testUrls.createUrl("https://www.example.com/query-week").getId();
+        // Wednesday, Sunday night and the following Monday
+        batchWriter.addCounts(OffsetDateTime.of(2025, 12, 17, 10, 0, 0, 0, ZoneOffset.UTC), Map.of(urlId, 2L));
+        batchWriter.addCounts(OffsetDateTime.of(2025, 12, 21, 23, 0, 0, 0, ZoneOffset.UTC), Map.of(urlId, 3L));
+        batchWriter.addCounts(OffsetDateTime.of(2025, 12, 22, 0, 0, 0, 0, ZoneOffset.UTC), Map.of(urlId, 4L));
+
+        Map<OffsetDateTime, Long> counts = findCounts(urlId, OffsetDateTime.of(2025, 12, 1, 0, 0, 0, 0, ZoneOffset.UTC),
+            OffsetDateTime.of(2025, 12, 31, 0, 0, 0, 0, ZoneOffset.UTC), AnalyticsGranularity.WEEK, ZoneOffset.UTC);
+
+        assertEquals(Map.of(
+            OffsetDateTime.of(2025, 12, 15, 0, 0, 0, 0, ZoneOffset.UTC), 5L,
+            OffsetDateTime.of(2025, 12, 22, 0, 0, 0, 0, ZoneOffset.UTC), 4L), counts);
+    }
+
+    @Test
+    @DisplayName("Test clicks not dumped yet are added from Redis for every code of the URL")
+    void testUndumpedClicksAreIncluded() {
+        Long urlId = testUrls.createUrl("https://www.example.com/query-fresh").getId();
+        OffsetDateTime now = OffsetDateTime.now();
+        OffsetDateTime bucket = analyticsService.parseTimeKey(analyticsService.generateTimeKey(now));
+        String code = "_" + Base62Util.encode(urlId);
+        String bucketKey = analyticsService.analyticsKey(now, code);
+        testUrls.clearUndumped(urlId, bucket.minusDays(1), bucket.plusDays(1));
+        try {
+            redisTemplate.opsForHash().increment(bucketKey, code, 3L).block();
+            batchWriter.addCounts(bucket, Map.of(urlId, 2L));
+
+            Map<OffsetDateTime, Long> counts = findCounts(urlId, bucket.minusDays(1), bucket.plusDays(1), null, ZoneOffset.UTC);
+
+            assertEquals(Map.of(bucket, 5L), counts);
+        } finally {
+            redisTemplate.opsForHash().remove(bucketKey, code).block();
+        }
+    }
+
+    private Map<OffsetDateTime, Long> findCounts(Long urlId, OffsetDateTime startTime, OffsetDateTime endTime,
+                                                 AnalyticsGranularity granularity, ZoneId zone) {
+        Map<OffsetDateTime, Long> counts = new LinkedHashMap<>();
+        for (AnalyticsResponse response : analyticsQueryService.findCounts(urlId, startTime, endTime, granularity, zone)) {
+            counts.put(response.getTime(), response.getCount());
+        }
+        return counts;
+    }
+}
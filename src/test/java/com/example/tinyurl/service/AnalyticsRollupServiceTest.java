@@ -0,0 +1,211 @@
+package com.example.tinyurl.service;
+
+import com.example.tinyurl.config.TestRedisConfig;
+import com.example.tinyurl.config.TestUrls;
+import com.example.tinyurl.entity.AnalyticsResolution;
+import com.example.tinyurl.entity.ShortUrl;
+import com.example.tinyurl.entity.ShortUrlClickAnalytics;
+import com.example.tinyurl.entity.ShortUrlClickAnalyticsDaily;
+import com.example.tinyurl.entity.ShortUrlClickAnalyticsHourly;
+import com.example.tinyurl.entity.ShortUrlClickAnalyticsId;
+import com.example.tinyurl.model.AnalyticsGranularity;
+import com.example.tinyurl.model.AnalyticsResponse;
+import com.example.tinyurl.repository.ClickAnalyticsBatchWriter;
+import com.example.tinyurl.repository.ClickAnalyticsBucketReader;
+import com.example.tinyurl.repository.ShortUrlClickAnalyticsDailyRepository;
+import com.example.tinyurl.repository.ShortUrlClickAnalyticsHourlyRepository;
+import com.example.tinyurl.repository.ShortUrlClickAnalyticsRepository;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+@Import({TestRedisConfig.class, TestUrls.class})
+@Transactional
+@TestPropertySource(properties = {
+    "analytics.retention.raw.days=1",
+    "analytics.retention.hour.days=0"
+})
+class AnalyticsRollupServiceTest {
+
+    @Autowired
+    private AnalyticsRollupService analyticsRollupService;
+
+    @Autowired
+    private TestUrls testUrls;
+
+    @Autowired
+    private AnalyticsQueryService analyticsQueryService;
+
+    @Autowired
+    private AnalyticsService analyticsService;
+
+    @Autowired
+    private ClickAnalyticsBatchWriter batchWriter;
+
+    @Autowired
+    private ShortUrlClickAnalyticsRepository analyticsRepository;
+
+    @Autowired
+    private ShortUrlClickAnalyticsHourlyRepository hourlyRepository;
+
+    @Autowired
+    private ShortUrlClickAnalyticsDailyRepository dailyRepository;
+
+    @Autowired
+    private ClickAnalyticsBucketReader bucketReader;
+
+    @Autowired
+    private UniqueVisitorCounter uniqueVisitorCounter;
+
+    @Autowired
+    @Qualifier("reactiveStringRedisTemplate")
+    private ReactiveRedisTemplate<String, String> redisTemplate;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Test
+    @DisplayName("Test closed hours and days are rolled up, late counts reach the rollups and old raw rows are deleted")
+    void testRollUpAndRetention() {
+        ShortUrl url = testUrls.createUrl("https://www.example.com/rollup");
+        Long urlId = url.getId();
+        OffsetDateTime now = analyticsService.parseTimeKey(analyticsService.generateTimeKey(OffsetDateTime.now()));
+        OffsetDateTime day = AnalyticsResolution.DAY.truncate(now.minusDays(3));
+        OffsetDateTime hour = day.plusHours(10);
+
+        batchWriter.addCounts(hour, Map.of(urlId, 2L));
+        batchWriter.addCounts(hour.plusMinutes(20), Map.of(urlId, 3L));
+        batchWriter.addCounts(hour.plusHours(1), Map.of(urlId, 4L));
+        batchWriter.addCounts(hour.plusDays(1), Map.of(urlId, 5L));
+
+        assertTrue(analyticsRollupService.rollUpAndApplyRetention());
+        // The late dump below reads the watermarks with JDBC
+        entityManager.flush();
+
+        assertEquals(5L, hourlyCount(hour, urlId));
+        assertEquals(4L, hourlyCount(hour.plusHours(1), urlId));
+        assertEquals(9L, dailyCount(day, urlId));
+        assertEquals(5L, dailyCount(day.plusDays(1), urlId));
+        assertNull(rawCount(hour, urlId), "Rolled up rows past the raw retention should be deleted");
+
+        // A late dump into an hour and a day that are already rolled up
+        batchWriter.addCounts(hour.plusMinutes(30), Map.of(urlId, 1L));
+        assertEquals(6L, hourlyCount(hour, urlId));
+        assertEquals(10L, dailyCount(day, urlId));
+    }
+
+    @Test
+    @DisplayName("Test a range past the raw retention is read hourly, with the rows not rolled up yet added")
+    void testQueryPicksRollup() {
+        ShortUrl url = testUrls.createUrl("https://www.example.com/rollup-query");
+        Long urlId = url.getId();
+        OffsetDateTime now = analyticsService.parseTimeKey(analyticsService.generateTimeKey(OffsetDateTime.now()));
+        OffsetDateTime hour = AnalyticsResolution.DAY.truncate(now.minusDays(3)).plusHours(10);
+        testUrls.clearUndumped(urlId, hour.minusHours(1), now.plusHours(1));
+
+        batchWriter.addCounts(hour, Map.of(urlId, 2L));
+        batchWriter.addCounts(hour.plusHours(1), Map.of(urlId, 4L));
+        assertTrue(analyticsRollupService.rollUpAndApplyRetention());
+        // Not rolled up yet - read from the raw table
+        batchWriter.addCounts(now, Map.of(urlId, 7L));
+
+        Map<OffsetDateTime, Long> counts = new LinkedHashMap<>();
+        List<AnalyticsResponse> responses = analyticsQueryService.findCounts(urlId, hour.minusHours(1), now.plusHours(1),
+            null, ZoneOffset.UTC);
+        responses.forEach(response -> counts.put(response.getTime(), response.getCount()));
+
+        assertEquals(Map.of(hour, 2L, hour.plusHours(1), 4L, AnalyticsResolution.HOUR.truncate(now), 7L), counts);
+    }
+
+    @Test
+    @DisplayName("Test sketches are merged into hourly and daily rollups, late sketches reach them and days read them")
+    void testUniquesRollUp() {
+        ShortUrl url = testUrls.createUrl("https://www.example.com/rollup-uniques");
+        Long urlId = url.getId();
+        OffsetDateTime now = analyticsService.parseTimeKey(analyticsService.generateTimeKey(OffsetDateTime.now()));
+        OffsetDateTime day = AnalyticsResolution.DAY.truncate(now.minusDays(3));
+        OffsetDateTime hour = day.plusHours(10);
+
+        batchWriter.addCounts(hour, Map.of(urlId, 2L));
+        batchWriter.addCounts(hour.plusHours(1), Map.of(urlId, 1L));
+        addSketch(hour, urlId, "a", "b");
+        addSketch(hour.plusMinutes(20), urlId, "b", "c");
+        addSketch(hour.plusHours(1), urlId, "d");
+
+        assertTrue(analyticsRollupService.rollUpAndApplyRetention());
+        // The late dump below reads the watermarks with JDBC
+        entityManager.flush();
+
+        assertEquals(3L, uniques(AnalyticsResolution.HOUR, hour, urlId));
+        assertEquals(1L, uniques(AnalyticsResolution.HOUR, hour.plusHours(1), urlId));
+        assertEquals(4L, uniques(AnalyticsResolution.DAY, day, urlId));
+
+        // A late sketch of an hour and a day that are already rolled up
+        addSketch(hour.plusMinutes(30), urlId, "a", "e");
+        assertEquals(4L, uniques(AnalyticsResolution.HOUR, hour, urlId));
+        assertEquals(5L, uniques(AnalyticsResolution.DAY, day, urlId));
+
+        // Past the raw retention a day is read from its daily sketch
+        List<AnalyticsResponse> responses = analyticsQueryService.findCounts(urlId, day, day.plusDays(1).minusNanos(1000),
+            AnalyticsGranularity.DAY, ZoneOffset.UTC);
+        assertEquals(1, responses.size());
+        assertEquals(3L, responses.get(0).getCount());
+        assertEquals(5L, responses.get(0).getUniques());
+    }
+
+    private void addSketch(OffsetDateTime time, Long urlId, String... visitors) {
+        String key = "test:rollup:sketch:" + UUID.randomUUID();
+        redisTemplate.opsForHyperLogLog().add(key, visitors).block();
+        byte[] registers = uniqueVisitorCounter.registers(key).block();
+        redisTemplate.delete(key).block();
+        batchWriter.addSketch(time, urlId, registers,
+            (current, added) -> uniqueVisitorCounter.union(List.of(current, added)).block());
+    }
+
+    private Long uniques(AnalyticsResolution resolution, OffsetDateTime time, Long urlId) {
+        Map<OffsetDateTime, byte[]> sketches = bucketReader.findSketches(resolution, urlId, time, time, null);
+        return sketches.isEmpty() ? null : uniqueVisitorCounter.count(List.copyOf(sketches.values())).block();
+    }
+
+    // Rows are written with JDBC - read past the persistence context
+
+    private Long rawCount(OffsetDateTime time, Long urlId) {
+        entityManager.clear();
+        return analyticsRepository.findById(new ShortUrlClickAnalyticsId(time, urlId))
+            .map(ShortUrlClickAnalytics::getCount)
+            .orElse(null);
+    }
+
+    private Long hourlyCount(OffsetDateTime time, Long urlId) {
+        entityManager.clear();
+        return hourlyRepository.findById(new ShortUrlClickAnalyticsId(time, urlId))
+            .map(ShortUrlClickAnalyticsHourly::getCount)
+            .orElse(null);
+    }
+
+    private Long dailyCount(OffsetDateTime time, Long urlId) {
+        entityManager.clear();
+        return dailyRepository.findById(new ShortUrlClickAnalyticsId(time, urlId))
+            .map(ShortUrlClickAnalyticsDaily::getCount)
+            .orElse(null);
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.tinyurl.service;
+
+import com.example.tinyurl.config.TestRedisConfig;
+import com.example.tinyurl.config.TestUrls;
+import com.example.tinyurl.repository.CustomUrlCodeRepository;
+import com.example.tinyurl.util.Base62Util;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+@Import({TestRedisConfig.class, TestUrls.class})
+class AnalyticsServiceTest {
+
+    @Autowired
+    private AnalyticsService analyticsService;
+
+    @Autowired
+    private CustomUrlCodeRepository customUrlCodeRepository;
+
+    @Autowired
+    private TestUrls testUrls;
+
+    @Test
+    @DisplayName("Test resolveUrlIds with base62 codes, cached, uncached and unknown custom codes in one call")
+    void testResolveUrlIds() {
+        String suffix = UUID.randomUUID().toString().substring(0, 8);
+        String cachedCode = "cached-" + suffix;
+        String uncachedCode = "uncached-" + suffix;
+        String unknownCode = "unknown-" + suffix;
+        Long cachedUrlId = testUrls.createCustomCode(cachedCode);
+        Long uncachedUrlId = testUrls.createCustomCode(uncachedCode);
+
+        // Resolve once to cache the code, then remove its row - only the cache can still answer
+        assertEquals(Map.of(cachedCode, cachedUrlId), analyticsService.resolveUrlIds(List.of(cachedCode)).block());
+        testUrls.inTransaction(() -> customUrlCodeRepository.deleteById(cachedCode));
+
+        String base62Code = "_" + Base62Util.encode(12345L);
+        Map<String, Long> urlIds = analyticsService.resolveUrlIds(
+            List.of(base62Code, cachedCode, uncachedCode, unknownCode, "_$")).block();
+
+        assertEquals(Map.of(base62Code, 12345L, cachedCode, cachedUrlId, uncachedCode, uncachedUrlId), urlIds);
+        // The looked up code is cached as well, the unknown one is not
+        testUrls.inTransaction(() -> customUrlCodeRepository.deleteById(uncachedCode));
+        assertEquals(uncachedUrlId, analyticsService.resolveUrlId(uncachedCode).block());
+        assertNull(analyticsService.resolveUrlId(unknownCode).block());
+    }
+}
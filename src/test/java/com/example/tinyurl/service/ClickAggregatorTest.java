@@ -0,0 +1,68 @@
+package com.example.tinyurl.service;
+
+import com.example.tinyurl.config.TestRedisConfig;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+@Import(TestRedisConfig.class)
+class ClickAggregatorTest {
+
+    @Autowired
+    private AnalyticsService analyticsService;
+
+    @Autowired
+    private ClickAggregator clickAggregator;
+
+    @Autowired
+    @Qualifier("reactiveStringRedisTemplate")
+    private ReactiveRedisTemplate<String, String> redisTemplate;
+
+    @Test
+    @DisplayName("Test clicks are summed in memory and flushed to their buckets as one HINCRBY per code")
+    void testClicksAreAggregated() {
+        OffsetDateTime time = OffsetDateTime.of(2020, 4, 1, 10, 0, 0, 0, ZoneOffset.UTC);
+        String bucketKey = analyticsService.analyticsKey(time, "_aggA");
+        String nextBucketKey = analyticsService.analyticsKey(time.plusMinutes(1), "_aggA");
+        redisTemplate.delete(bucketKey, nextBucketKey).block();
+        try {
+            analyticsService.click("_aggA", time);
+            analyticsService.click("_aggA", time.plusSeconds(5));
+            analyticsService.click("_aggB", time.plusSeconds(10));
+            // Rollover into the next bucket
+            analyticsService.click("_aggA", time.plusMinutes(1));
+
+            clickAggregator.flush();
+            clickAggregator.flush();
+
+            assertEquals("2", redisTemplate.<String, String>opsForHash().get(bucketKey, "_aggA").block());
+            assertEquals("1", redisTemplate.<String, String>opsForHash().get(bucketKey, "_aggB").block());
+            assertEquals("1", redisTemplate.<String, String>opsForHash().get(nextBucketKey, "_aggA").block());
+        } finally {
+            redisTemplate.delete(bucketKey, nextBucketKey).block();
+        }
+    }
+
+    @Test
+    @DisplayName("Test the cached time key is not reused across buckets or offsets")
+    void testCachedTimeKey() {
+        OffsetDateTime time = OffsetDateTime.of(2020, 4, 1, 10, 0, 59, 0, ZoneOffset.UTC);
+        String key = analyticsService.generateTimeKey(time);
+
+        assertEquals(key, analyticsService.generateTimeKey(time.minusSeconds(59)));
+        assertNotEquals(key, analyticsService.generateTimeKey(time.plusSeconds(1)));
+        assertNotEquals(key, analyticsService.generateTimeKey(time.withOffsetSameInstant(ZoneOffset.ofHours(2))));
+    }
+}
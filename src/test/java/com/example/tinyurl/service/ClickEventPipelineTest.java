@@ -0,0 +1,239 @@
+package com.example.tinyurl.service;
+
+import com.example.tinyurl.config.TestRedisConfig;
+import com.example.tinyurl.config.TestUrls;
+import com.example.tinyurl.entity.ClickDimension;
+import com.example.tinyurl.entity.ShortUrlClickDimension;
+import com.example.tinyurl.model.ClickContext;
+import com.example.tinyurl.repository.ShortUrlClickDimensionRepository;
+import com.example.tinyurl.util.Base62Util;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamInfo.XInfoConsumer;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+@Import({TestRedisConfig.class, TestUrls.class})
+@Transactional
+@TestPropertySource(properties = {
+    "analytics.events.enabled=true",
+    "analytics.events.stream.key=clicks:events:test",
+    "analytics.events.reclaim.idle.ms=0",
+    "analytics.events.consumer.expiry.ms=0",
+    // Small batches, so a poll stops before a longer backlog is read
+    "analytics.events.read.count=2",
+    "analytics.events.max.batches=2",
+    // Workers and flushes are run by the tests (on the test transaction)
+    "analytics.events.flush.interval.ms=3600000",
+    "analytics.events.poll.interval.ms=3600000",
+    "analytics.events.reclaim.interval.ms=3600000"
+})
+class ClickEventPipelineTest {
+
+    private static final String STREAM_KEY = "clicks:events:test";
+    private static final String GROUP = "click-aggregators";
+    private static final String WORKER = "test-worker";
+
+    @Autowired
+    private AnalyticsService analyticsService;
+
+    @Autowired
+    private TestUrls testUrls;
+
+    @Autowired
+    private ClickEventPublisher clickEventPublisher;
+
+    @Autowired
+    private ClickEventConsumer clickEventConsumer;
+
+    @Autowired
+    private ClickAggregator clickAggregator;
+
+    @Autowired
+    private ShortUrlClickDimensionRepository dimensionRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    @Qualifier("reactiveStringRedisTemplate")
+    private ReactiveRedisTemplate<String, String> redisTemplate;
+
+    // Time keys of the buckets the clicks were counted in
+    private final Set<String> clickedTimeKeys = new HashSet<>();
+
+    @BeforeEach
+    void setUp() {
+        // A fresh stream - the first read recreates the consumer group
+        redisTemplate.delete(STREAM_KEY).block();
+        clickEventConsumer.consume(WORKER);
+    }
+
+    @AfterEach
+    void tearDown() {
+        // The clicks are counted as well - drop their buckets so no other test sees them
+        clickAggregator.flush();
+        for (String tKey : clickedTimeKeys) {
+            redisTemplate.delete(analyticsService.bucketKeys(tKey).toArray(String[]::new)).block();
+        }
+    }
+
+    @Test
+    @DisplayName("Test click events are added to the stream, counted per dimension and acknowledged")
+    void testEventsAreCountedPerDimension() {
+        Long urlId = testUrls.createUrl("https://www.example.com/events").getId();
+        String code = "_" + Base62Util.encode(urlId);
+        OffsetDateTime time = OffsetDateTime.of(2021, 3, 4, 10, 15, 0, 0, ZoneOffset.UTC);
+
+        click(code, time, new ClickContext("news.example.com", "chrome", "DE", 301, ""));
+        click(code, time.plusMinutes(5), new ClickContext("news.example.com", "chrome", "DE", 301, ""));
+        click(code, time.plusMinutes(10), new ClickContext("", "firefox", "", 301, ""));
+        // No request context - counted, but no event
+        click(code, time);
+
+        assertEquals(3, clickEventPublisher.flush());
+        assertEquals(3L, clickEventConsumer.consume(WORKER));
+
+        assertEquals(Map.of("DE", 2L, "", 1L), counts(urlId, ClickDimension.COUNTRY));
+        assertEquals(Map.of("chrome", 2L, "firefox", 1L), counts(urlId, ClickDimension.USER_AGENT));
+        assertEquals(Map.of("news.example.com", 2L, "", 1L), counts(urlId, ClickDimension.REFERRER));
+        assertEquals(Map.of("301", 3L), counts(urlId, ClickDimension.STATUS));
+        assertEquals(0L, pendingEntries());
+    }
+
+    @Test
+    @DisplayName("Test a poll reads a bounded number of batches and leaves the rest for the next poll")
+    void testPollReadsBoundedBatches() {
+        Long urlId = testUrls.createUrl("https://www.example.com/events-batches").getId();
+        String code = "_" + Base62Util.encode(urlId);
+        OffsetDateTime time = OffsetDateTime.of(2021, 3, 4, 13, 0, 0, 0, ZoneOffset.UTC);
+        for (int i = 0; i < 5; i++) {
+            click(code, time, new ClickContext("", "chrome", "NL", 301, ""));
+        }
+        assertEquals(5, clickEventPublisher.flush());
+
+        assertEquals(4L, clickEventConsumer.consume(WORKER));
+        assertEquals(Map.of("NL", 4L), counts(urlId, ClickDimension.COUNTRY));
+        assertEquals(1L, clickEventConsumer.consume(WORKER));
+        assertEquals(Map.of("NL", 5L), counts(urlId, ClickDimension.COUNTRY));
+    }
+
+    @Test
+    @DisplayName("Test events left pending by a dead worker are reclaimed and counted")
+    void testPendingEventsAreReclaimed() {
+        Long urlId = testUrls.createUrl("https://www.example.com/events-reclaim").getId();
+        String code = "_" + Base62Util.encode(urlId);
+        OffsetDateTime time = OffsetDateTime.of(2021, 3, 4, 11, 0, 0, 0, ZoneOffset.UTC);
+
+        click(code, time, new ClickContext("", "safari", "FR", 302, ""));
+        click(code, time, new ClickContext("", "safari", "FR", 302, ""));
+        assertEquals(2, clickEventPublisher.flush());
+
+        // Delivered to a worker that never acknowledges them
+        redisTemplate.opsForStream()
+            .read(Consumer.from(GROUP, "dead-worker"), StreamReadOptions.empty().count(10),
+                StreamOffset.create(STREAM_KEY, ReadOffset.lastConsumed()))
+            .collectList()
+            .block();
+        assertEquals(2L, pendingEntries());
+        assertEquals(0L, clickEventConsumer.consume(WORKER));
+
+        assertEquals(2L, clickEventConsumer.reclaim());
+        assertEquals(Map.of("FR", 2L), counts(urlId, ClickDimension.COUNTRY));
+        assertEquals(0L, pendingEntries());
+        // Its entries were reclaimed, so the dead worker leaves the group
+        assertFalse(consumerNames().contains("dead-worker"));
+    }
+
+    @Test
+    @DisplayName("Test an idle consumer is only deleted once nothing is pending for it")
+    void testIdleConsumerWithPendingEntriesIsKept() {
+        Long urlId = testUrls.createUrl("https://www.example.com/events-idle").getId();
+        click("_" + Base62Util.encode(urlId), OffsetDateTime.of(2021, 3, 4, 12, 0, 0, 0, ZoneOffset.UTC),
+            new ClickContext("", "safari", "FR", 302, ""));
+        assertEquals(1, clickEventPublisher.flush());
+        redisTemplate.opsForStream()
+            .read(Consumer.from(GROUP, "stalled-worker"), StreamReadOptions.empty().count(10),
+                StreamOffset.create(STREAM_KEY, ReadOffset.lastConsumed()))
+            .collectList()
+            .block();
+
+        clickEventConsumer.deleteIdleConsumers();
+        assertTrue(consumerNames().contains("stalled-worker"));
+
+        assertEquals(1L, clickEventConsumer.reclaim());
+        assertFalse(consumerNames().contains("stalled-worker"));
+    }
+
+    @Test
+    @DisplayName("Test request headers are reduced to compact dimension values")
+    void testDimensionValues() {
+        assertEquals("news.example.com", ClickContextResolver.referrerHost("https://News.Example.com/a?b=c"));
+        assertEquals("", ClickContextResolver.referrerHost("not a url"));
+        assertEquals("", ClickContextResolver.referrerHost(null));
+
+        assertEquals("chrome", ClickContextResolver.userAgentFamily(
+            "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0 Safari/537.36"));
+        assertEquals("edge", ClickContextResolver.userAgentFamily(
+            "Mozilla/5.0 (Windows NT 10.0) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0 Safari/537.36 Edg/120.0"));
+        assertEquals("safari", ClickContextResolver.userAgentFamily(
+            "Mozilla/5.0 (Macintosh) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/17.0 Safari/605.1.15"));
+        assertEquals("bot", ClickContextResolver.userAgentFamily("Googlebot/2.1 (+http://www.google.com/bot.html)"));
+        assertEquals("", ClickContextResolver.userAgentFamily(null));
+
+        assertEquals("DE", ClickContextResolver.countryCode(" de "));
+        assertEquals("", ClickContextResolver.countryCode("XX"));
+        assertEquals("", ClickContextResolver.countryCode("Germany"));
+    }
+
+    private void click(String code, OffsetDateTime time, ClickContext context) {
+        clickedTimeKeys.add(analyticsService.generateTimeKey(time));
+        analyticsService.click(code, time, context);
+    }
+
+    private void click(String code, OffsetDateTime time) {
+        click(code, time, ClickContext.NONE);
+    }
+
+    private Map<String, Long> counts(Long urlId, ClickDimension dimension) {
+        // Rows are written with JDBC - read past the persistence context
+        entityManager.clear();
+        return dimensionRepository.findByIdUrlIdAndIdDimension(urlId, dimension).stream()
+            .collect(Collectors.toMap(row -> row.getId().getDimensionValue(), ShortUrlClickDimension::getCount, Long::sum));
+    }
+
+    private Set<String> consumerNames() {
+        return redisTemplate.opsForStream().consumers(STREAM_KEY, GROUP)
+            .map(XInfoConsumer::consumerName)
+            .collect(Collectors.toSet())
+            .block();
+    }
+
+    private long pendingEntries() {
+        return redisTemplate.opsForStream().pending(STREAM_KEY, GROUP).block().getTotalPendingMessages();
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.tinyurl.service;
+
+import com.example.tinyurl.config.TestRedisConfig;
+import io.lettuce.core.RedisCommandExecutionException;
+import io.lettuce.core.RedisConnectionException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+@Import(TestRedisConfig.class)
+@TestPropertySource(properties = {
+    "analytics.spool.enabled=true",
+    "analytics.spool.dir=target/spool-${random.uuid}"
+})
+class ClickSpoolReplayerTest {
+
+    @Autowired
+    private ClickSpoolReplayer clickSpoolReplayer;
+
+    @Autowired
+    private ClickSpool clickSpool;
+
+    @Autowired
+    private ClickAggregator clickAggregator;
+
+    @Autowired
+    private AnalyticsService analyticsService;
+
+    @Autowired
+    @Qualifier("reactiveStringRedisTemplate")
+    private ReactiveRedisTemplate<String, String> redisTemplate;
+
+    @Test
+    @DisplayName("Test spooled deltas are added once: batches applied before a timeout and codes replayed before are skipped")
+    void testReplayIsIdempotent() {
+        String tKey = analyticsService.generateTimeKey(OffsetDateTime.of(2020, 6, 1, 10, 0, 0, 0, ZoneOffset.UTC));
+        String bucketKey = analyticsService.bucketKey(tKey, "_spoolA");
+        String appliedKey = ClickAggregator.appliedKey(bucketKey);
+        redisTemplate.delete(bucketKey, appliedKey).block();
+        try {
+            // Timed out, but Redis applied it
+            assertEquals(1L, clickAggregator.addOnce(bucketKey, 1L, Map.of("_spoolA", 3L), false).block());
+            assertTrue(clickSpool.append(tKey, "_spoolA", 3L, 1L, true));
+            // Replayed in part before, not acknowledged (crash)
+            assertEquals(1L, clickAggregator.addOnce(bucketKey, 2L, Map.of("_spoolB", 2L), true).block());
+            assertTrue(clickSpool.append(tKey, "_spoolB", 2L, 2L, true));
+            assertTrue(clickSpool.append(tKey, "_spoolC", 5L, 2L, true));
+            // Redis refused it
+            assertTrue(clickSpool.append(tKey, "_spoolD", 7L, 3L, false));
+
+            clickSpoolReplayer.replay();
+
+            assertEquals("3", redisTemplate.<String, String>opsForHash().get(bucketKey, "_spoolA").block());
+            assertEquals("2", redisTemplate.<String, String>opsForHash().get(bucketKey, "_spoolB").block());
+            assertEquals("5", redisTemplate.<String, String>opsForHash().get(bucketKey, "_spoolC").block());
+            assertEquals("7", redisTemplate.<String, String>opsForHash().get(bucketKey, "_spoolD").block());
+
+            // The same deltas again add nothing
+            assertTrue(clickSpool.append(tKey, "_spoolC", 5L, 2L, true));
+            assertTrue(clickSpool.append(tKey, "_spoolD", 7L, 3L, false));
+            clickSpoolReplayer.replay();
+            assertEquals("5", redisTemplate.<String, String>opsForHash().get(bucketKey, "_spoolC").block());
+            assertEquals("7", redisTemplate.<String, String>opsForHash().get(bucketKey, "_spoolD").block());
+        } finally {
+            redisTemplate.delete(bucketKey, appliedKey).block();
+        }
+    }
+
+    @Test
+    @DisplayName("Test only timeouts and lost connections count as possibly applied")
+    void testMayBeApplied() {
+        assertTrue(ClickSpool.mayBeApplied(new TimeoutException()));
+        assertFalse(ClickSpool.mayBeApplied(new RuntimeException(
+            new RedisCommandExecutionException("LOADING Redis is loading the dataset in memory"))));
+        assertFalse(ClickSpool.mayBeApplied(new RedisConnectionException("Connection refused")));
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.tinyurl.service;
+
+import com.example.tinyurl.service.MappedClickSpool.Batch;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedClickSpoolTest {
+
+    private static final int SEGMENT_BYTES = 4096;
+    private static final long DELTA_ID = 42L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Test spooled deltas are read in order and not read again once committed")
+    void testAppendReadCommit() throws IOException {
+        try (MappedClickSpool spool = new MappedClickSpool(directory, SEGMENT_BYTES, 4)) {
+            assertTrue(spool.append("2025.12.21.10", "_abc", 3L, DELTA_ID, false));
+            assertTrue(spool.append("2025.12.21.10", "promo", 1L, DELTA_ID, false));
+            assertTrue(spool.append("2025.12.21.11", "_abc", 2L, -7L, true));
+            assertEquals(3, spool.pendingRecords());
+
+            Batch first = spool.read(2);
+            assertEquals(2, first.records().size());
+            assertEquals(new MappedClickSpool.SpooledClicks("2025.12.21.10", "_abc", 3L, DELTA_ID, false), first.records().get(0));
+            assertEquals("promo", first.records().get(1).code());
+            spool.commit(first);
+            assertEquals(1, spool.pendingRecords());
+
+            Batch second = spool.read(10);
+            assertEquals(1, second.records().size());
+            assertEquals(new MappedClickSpool.SpooledClicks("2025.12.21.11", "_abc", 2L, -7L, true), second.records().get(0));
+            spool.commit(second);
+            assertTrue(spool.read(10).isEmpty());
+            assertEquals(0, spool.pendingRecords());
+        }
+    }
+
+    @Test
+    @DisplayName("Test deltas not committed survive a reopen")
+    void testReopen() throws IOException {
+        try (MappedClickSpool spool = new MappedClickSpool(directory, SEGMENT_BYTES, 4)) {
+            spool.append("2025.12.21.10", "_a", 1L, DELTA_ID, false);
+            spool.append("2025.12.21.10", "_b", 2L, DELTA_ID, false);
+            spool.commit(spool.read(1));
+        }
+
+        try (MappedClickSpool spool = new MappedClickSpool(directory, SEGMENT_BYTES, 4)) {
+            assertEquals(1, spool.pendingRecords());
+            Batch batch = spool.read(10);
+            assertEquals(1, batch.records().size());
+            assertEquals("_b", batch.records().get(0).code());
+            // Appends continue after the records already there
+            spool.append("2025.12.21.11", "_c", 5L, DELTA_ID, false);
+            assertEquals(2, spool.pendingRecords());
+        }
+    }
+
+    @Test
+    @DisplayName("Test full segments roll over, read segments are deleted and a full spool rejects deltas")
+    void testSegments() throws IOException {
+        try (MappedClickSpool spool = new MappedClickSpool(directory, SEGMENT_BYTES, 2)) {
+            int appended = 0;
+            while (spool.append("2025.12.21.10", "_code" + appended, 1L, DELTA_ID, false)) {
+                appended++;
+            }
+            assertTrue(appended >= 150, "Both segments should be filled");
+            assertEquals(2, segmentFiles());
+            assertEquals(appended, spool.pendingRecords());
+
+            // The first segment is read to its end and deleted, which makes room again
+            Batch batch = spool.read(Integer.MAX_VALUE);
+            spool.commit(batch);
+            assertEquals(1, segmentFiles());
+            assertEquals(appended - batch.records().size(), spool.pendingRecords());
+            assertTrue(spool.append("2025.12.21.11", "_more", 1L, DELTA_ID, false));
+        }
+    }
+
+    @Test
+    @DisplayName("Test deltas appended together are all spooled, or none of them if the spool fills up")
+    void testAppendAll() throws IOException {
+        try (MappedClickSpool spool = new MappedClickSpool(directory, SEGMENT_BYTES, 1)) {
+            assertTrue(spool.appendAll(List.of(
+                new MappedClickSpool.SpooledClicks("2025.12.21.10", "_a", 1L, DELTA_ID, false),
+                new MappedClickSpool.SpooledClicks("2025.12.21.10", "_b", 2L, DELTA_ID, false))));
+            assertEquals(2, spool.pendingRecords());
+
+            // More than the rest of the only segment holds
+            List<MappedClickSpool.SpooledClicks> tooMany = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                tooMany.add(new MappedClickSpool.SpooledClicks("2025.12.21.11", "_code" + i, 1L, -1L, true));
+            }
+            assertFalse(spool.appendAll(tooMany));
+            assertEquals(2, spool.pendingRecords());
+
+            Batch batch = spool.read(Integer.MAX_VALUE);
+            assertEquals(List.of("_a", "_b"), batch.records().stream().map(MappedClickSpool.SpooledClicks::code).toList());
+            assertTrue(spool.append("2025.12.21.11", "_more", 1L, DELTA_ID, false));
+        }
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".spool")).count();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.tinyurl.service;
+
+import com.example.tinyurl.cache.CachedRedirect;
+import com.example.tinyurl.cache.LocalRedirectCache;
+import com.example.tinyurl.config.TestRedisConfig;
+import com.example.tinyurl.config.TestUrls;
+import com.example.tinyurl.model.ClickContext;
+import com.example.tinyurl.service.UrlService.RedirectResult;
+import com.example.tinyurl.util.Base62Util;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+@Import({TestRedisConfig.class, TestUrls.class})
+@TestPropertySource(properties = "redirect.script.enabled=true")
+class RedirectScriptTest {
+
+    @Autowired
+    private UrlService urlService;
+
+    @Autowired
+    private LocalRedirectCache localRedirectCache;
+
+    @Autowired
+    private TestUrls testUrls;
+
+    @Autowired
+    @Qualifier("reactiveStringRedisTemplate")
+    private ReactiveRedisTemplate<String, String> redisTemplate;
+
+    @Test
+    @DisplayName("Test script mode cache hit: the cached value is served and kept locally")
+    void testHit() throws InterruptedException {
+        String longUrl = "https://www.example.com/script-hit";
+        String code = createShortCode(longUrl);
+        // Only Redis has the entry
+        long stamp = localRedirectCache.stamp();
+        redisTemplate.opsForValue().set("short:" + code,
+            CachedRedirect.of(decodeId(code), null, longUrl).encode()).block();
+        awaitInvalidation(stamp);
+        localRedirectCache.invalidate(code);
+
+        try {
+            RedirectResult result = urlService.redirect(code, ClickContext.NONE).block();
+
+            assertEquals(HttpStatus.MOVED_PERMANENTLY, result.getStatus());
+            assertEquals(longUrl, result.getLongUrl());
+            assertEquals(longUrl, localRedirectCache.get(code).getLongUrl());
+        } finally {
+            cleanUp(code);
+        }
+    }
+
+    @Test
+    @DisplayName("Test script mode cache miss: the code is loaded from the DB and cached")
+    void testMiss() {
+        String longUrl = "https://www.example.com/script-miss";
+        String code = createShortCode(longUrl);
+        redisTemplate.delete("short:" + code).block();
+        localRedirectCache.invalidate(code);
+
+        try {
+            RedirectResult result = urlService.redirect(code, ClickContext.NONE).block();
+
+            assertEquals(HttpStatus.MOVED_PERMANENTLY, result.getStatus());
+            assertEquals(longUrl, result.getLongUrl());
+            String cachedValue = redisTemplate.opsForValue().get("short:" + code).block();
+            assertNotNull(cachedValue, "The DB load should fill the cache");
+            assertEquals(longUrl, CachedRedirect.decode(cachedValue).getLongUrl());
+        } finally {
+            cleanUp(code);
+        }
+    }
+
+    @Test
+    @DisplayName("Test script mode tombstone: NO_RECORD and the code is remembered locally as missing")
+    void testTombstone() {
+        String code = "script-" + UUID.randomUUID();
+        redisTemplate.opsForValue().set("short:" + code, CachedRedirect.TOMBSTONE).block();
+
+        try {
+            RedirectResult result = urlService.redirect(code, ClickContext.NONE).block();
+
+            assertEquals(HttpStatus.NOT_FOUND, result.getStatus());
+            assertEquals("NO_RECORD", result.getError().getCode());
+            assertTrue(localRedirectCache.isNegative(code));
+        } finally {
+            cleanUp(code);
+        }
+    }
+
+    @Test
+    @DisplayName("Test script mode rate limit: an exhausted window is rejected before the lookup")
+    void testRateLimited() {
+        String longUrl = "https://www.example.com/script-limited";
+        String code = createShortCode(longUrl);
+        redisTemplate.opsForValue().set(RateLimitService.GET_KEY_PREFIX + code, "0").block();
+
+        try {
+            RedirectResult result = urlService.redirect(code, ClickContext.NONE).block();
+
+            assertEquals(HttpStatus.TOO_MANY_REQUESTS, result.getStatus());
+            assertEquals("RATE_LIMIT_EXCEEDED", result.getError().getCode());
+            assertNull(result.getLongUrl());
+        } finally {
+            cleanUp(code);
+        }
+    }
+
+    /**
+     * Shortens a URL for a committed user (shortenUrl saves on another thread)
+     */
+    private String createShortCode(String longUrl) {
+        Long userId = testUrls.inTransaction(() -> testUrls.createUser().getId());
+
+        String shortUrl = urlService.shortenUrl(longUrl, null, null, userId).block().getResponse().getShortUrl();
+        return shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Waits for the client-tracking invalidation of a write, which would otherwise drop the local put of the redirect
+     */
+    private void awaitInvalidation(long stamp) throws InterruptedException {
+        for (int i = 0; i < 50 && localRedirectCache.stamp() == stamp; i++) {
+            Thread.sleep(100);
+        }
+    }
+
+    private Long decodeId(String code) {
+        return Base62Util.decode(code.substring(1));
+    }
+
+    private void cleanUp(String code) {
+        localRedirectCache.invalidate(code);
+        redisTemplate.delete("short:" + code, RateLimitService.GET_KEY_PREFIX + code).block();
+    }
+}
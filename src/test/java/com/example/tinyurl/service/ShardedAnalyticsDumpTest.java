@@ -0,0 +1,164 @@
+package com.example.tinyurl.service;
+
+import com.example.tinyurl.config.TestRedisConfig;
+import com.example.tinyurl.config.TestUrls;
+import com.example.tinyurl.entity.ShortUrlClickAnalytics;
+import com.example.tinyurl.entity.ShortUrlClickAnalyticsId;
+import com.example.tinyurl.repository.ShortUrlClickAnalyticsRepository;
+import com.example.tinyurl.util.Base62Util;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+@Import({TestRedisConfig.class, TestUrls.class})
+@Transactional
+@TestPropertySource(properties = "analytics.shards=4")
+class ShardedAnalyticsDumpTest {
+
+    @Autowired
+    private AnalyticsService analyticsService;
+
+    @Autowired
+    private TestUrls testUrls;
+
+    @Autowired
+    private AnalyticsDumpService analyticsDumpService;
+
+    @Autowired
+    private ClickAggregator clickAggregator;
+
+    @Autowired
+    private ShortUrlClickAnalyticsRepository analyticsRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    @Qualifier("reactiveStringRedisTemplate")
+    private ReactiveRedisTemplate<String, String> redisTemplate;
+
+    @Test
+    @DisplayName("Test clicks are spread over the shards of a bucket and the dump drains every shard")
+    void testShardsAreDumped() {
+        OffsetDateTime time = OffsetDateTime.of(2020, 5, 1, 10, 0, 0, 0, ZoneOffset.UTC);
+        String tKey = analyticsService.generateTimeKey(time);
+        List<String> bucketKeys = analyticsService.bucketKeys(tKey);
+        redisTemplate.delete(bucketKeys.toArray(String[]::new)).block();
+
+        List<Long> urlIds = new ArrayList<>();
+        Set<String> usedKeys = new HashSet<>();
+        for (int i = 0; i < 8; i++) {
+            Long urlId = testUrls.createUrl("https://www.example.com/shard-" + i).getId();
+            String code = "_" + Base62Util.encode(urlId);
+            urlIds.add(urlId);
+            usedKeys.add(analyticsService.analyticsKey(time, code));
+            analyticsService.click(code, time);
+            analyticsService.click(code, time.plusSeconds(30));
+        }
+        // A bucket written before sharding was enabled
+        redisTemplate.opsForHash().increment("analytics:" + tKey, "_" + Base62Util.encode(urlIds.get(0)), 1L).block();
+        clickAggregator.flush();
+        clickAggregator.flush();
+        assertTrue(usedKeys.size() > 1, "Codes should land in several shards");
+
+        analyticsDumpService.dump(tKey);
+
+        for (String bucketKey : bucketKeys) {
+            assertFalse(Boolean.TRUE.equals(redisTemplate.hasKey(bucketKey).block()), bucketKey + " should be drained");
+        }
+        OffsetDateTime bucket = analyticsService.parseTimeKey(tKey);
+        assertEquals(3L, storedCount(bucket, urlIds.get(0)));
+        for (Long urlId : urlIds.subList(1, urlIds.size())) {
+            assertEquals(2L, storedCount(bucket, urlId));
+        }
+    }
+
+    @Test
+    @DisplayName("Test a shard leased by another instance is left alone while the other shards are dumped")
+    void testShardsAreLeasedIndependently() {
+        OffsetDateTime time = OffsetDateTime.of(2020, 5, 1, 11, 0, 0, 0, ZoneOffset.UTC);
+        String tKey = analyticsService.generateTimeKey(time);
+        redisTemplate.delete(analyticsService.bucketKeys(tKey).toArray(String[]::new)).block();
+
+        Map<String, Long> urlIdsByKey = new HashMap<>();
+        for (int i = 0; i < 8; i++) {
+            Long urlId = testUrls.createUrl("https://www.example.com/shard-lease-" + i).getId();
+            String code = "_" + Base62Util.encode(urlId);
+            String bucketKey = analyticsService.analyticsKey(time, code);
+            urlIdsByKey.putIfAbsent(bucketKey, urlId);
+            redisTemplate.opsForHash().increment(bucketKey, code, 1L).block();
+        }
+        assertTrue(urlIdsByKey.size() > 1, "Codes should land in several shards");
+        String leasedKey = urlIdsByKey.keySet().iterator().next();
+        String leaseKey = DumpLeaseCoordinator.LEASE_KEY_PREFIX + leasedKey;
+        OffsetDateTime bucket = analyticsService.parseTimeKey(tKey);
+
+        redisTemplate.opsForValue().set(leaseKey, "another-instance").block();
+        try {
+            assertFalse(analyticsDumpService.dump(tKey));
+            assertTrue(Boolean.TRUE.equals(redisTemplate.hasKey(leasedKey).block()), "Leased shard should be left alone");
+            assertNull(storedCount(bucket, urlIdsByKey.get(leasedKey)));
+            for (Map.Entry<String, Long> entry : urlIdsByKey.entrySet()) {
+                if (!entry.getKey().equals(leasedKey)) {
+                    assertFalse(Boolean.TRUE.equals(redisTemplate.hasKey(entry.getKey()).block()),
+                        entry.getKey() + " should be drained");
+                    assertEquals(1L, storedCount(bucket, entry.getValue()));
+                }
+            }
+        } finally {
+            redisTemplate.delete(leaseKey).block();
+        }
+
+        assertTrue(analyticsDumpService.dump(tKey));
+        assertEquals(1L, storedCount(bucket, urlIdsByKey.get(leasedKey)));
+    }
+
+    @Test
+    @DisplayName("Test clicks not dumped yet are read from the shard of a code and from the bucket written before sharding")
+    void testUndumpedCountsReadUnshardedBucket() {
+        Long urlId = testUrls.createUrl("https://www.example.com/shard-fresh").getId();
+        String code = "_" + Base62Util.encode(urlId);
+        OffsetDateTime bucket = analyticsService.parseTimeKey(analyticsService.generateTimeKey(OffsetDateTime.now()));
+        String tKey = analyticsService.generateTimeKey(bucket);
+        String shardKey = analyticsService.bucketKey(tKey, code);
+        String unshardedKey = AnalyticsService.ANALYTICS_KEY_PREFIX + tKey;
+        testUrls.clearUndumped(urlId, bucket, bucket);
+        try {
+            redisTemplate.opsForHash().increment(shardKey, code, 3L).block();
+            redisTemplate.opsForHash().increment(unshardedKey, code, 2L).block();
+
+            assertEquals(Map.of(bucket, 5L), analyticsService.undumpedCounts(List.of(code), bucket, bucket).block());
+        } finally {
+            testUrls.clearUndumped(urlId, bucket, bucket);
+        }
+    }
+
+    private Long storedCount(OffsetDateTime time, Long urlId) {
+        // Rows are written with JDBC - read past the persistence context
+        entityManager.clear();
+        return analyticsRepository.findById(new ShortUrlClickAnalyticsId(time, urlId))
+            .map(ShortUrlClickAnalytics::getCount)
+            .orElse(null);
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.tinyurl.service;
+
+import com.example.tinyurl.config.TestRedisConfig;
+import com.example.tinyurl.config.TestUrls;
+import com.example.tinyurl.entity.ShortUrlClickAnalyticsId;
+import com.example.tinyurl.entity.User;
+import com.example.tinyurl.model.AnalyticsResponse;
+import com.example.tinyurl.model.ClickContext;
+import com.example.tinyurl.repository.ShortUrlClickUniquesRepository;
+import com.example.tinyurl.util.Base62Util;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.net.InetSocketAddress;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("test")
+@Import({TestRedisConfig.class, TestUrls.class})
+@Transactional
+@TestPropertySource(properties = "analytics.trusted.proxies=10.0.0.0/8")
+class UniqueVisitorCounterTest {
+
+    @Autowired
+    private AnalyticsService analyticsService;
+
+    @Autowired
+    private TestUrls testUrls;
+
+    @Autowired
+    private ClickContextResolver clickContextResolver;
+
+    @Autowired
+    private AnalyticsDumpService analyticsDumpService;
+
+    @Autowired
+    private AnalyticsQueryService analyticsQueryService;
+
+    @Autowired
+    private ClickAggregator clickAggregator;
+
+    @Autowired
+    private UniqueVisitorCounter uniqueVisitorCounter;
+
+    @Autowired
+    private ShortUrlClickUniquesRepository uniquesRepository;
+
+    @Autowired
+    @Qualifier("reactiveStringRedisTemplate")
+    private ReactiveRedisTemplate<String, String> redisTemplate;
+
+    @Test
+    @DisplayName("Test visitors are counted once per bucket across dumps, next to the click count")
+    void testUniqueVisitors() {
+        Long urlId = testUrls.createUrl("https://www.example.com/uniques").getId();
+        String code = "_" + Base62Util.encode(urlId);
+        OffsetDateTime time = OffsetDateTime.of(2020, 5, 6, 10, 0, 0, 0, ZoneOffset.UTC);
+        String tKey = analyticsService.generateTimeKey(time);
+        OffsetDateTime bucket = analyticsService.parseTimeKey(tKey);
+        String sketchKey = UniqueVisitorCounter.key(tKey, code);
+
+        try {
+            click(code, time, "v1");
+            click(code, time, "v2");
+            click(code, time, "v1");
+            flush();
+            assertTrue(analyticsDumpService.dump(tKey));
+
+            assertTrue(uniquesRepository.findById(new ShortUrlClickAnalyticsId(bucket, urlId)).isPresent());
+            assertEquals(Boolean.FALSE, redisTemplate.hasKey(sketchKey).block());
+
+            // The second dump of the bucket is merged into the stored sketch
+            click(code, time, "v2");
+            click(code, time, "v3");
+            flush();
+            assertTrue(analyticsDumpService.dump(tKey));
+
+            List<AnalyticsResponse> responses = analyticsQueryService.findCounts(urlId, bucket.minusDays(1),
+                bucket.plusDays(1), null, ZoneOffset.UTC);
+            assertEquals(1, responses.size());
+            assertEquals(5L, responses.get(0).getCount());
+            assertEquals(3L, responses.get(0).getUniques());
+        } finally {
+            redisTemplate.delete(sketchKey, AnalyticsService.ANALYTICS_KEY_PREFIX + tKey).block();
+        }
+    }
+
+    @Test
+    @DisplayName("Test the visitor fingerprint depends on address, User-Agent and Accept-Language only")
+    void testFingerprint() {
+        String fingerprint = clickContextResolver.fingerprint("203.0.113.7", "Mozilla/5.0 Firefox/120.0", "de-DE");
+
+        assertEquals(16, fingerprint.length());
+        assertEquals(fingerprint, clickContextResolver.fingerprint("203.0.113.7", "Mozilla/5.0 Firefox/120.0", "de-DE"));
+        assertNotEquals(fingerprint, clickContextResolver.fingerprint("203.0.113.7", "Mozilla/5.0 Chrome/120.0", "de-DE"));
+        assertNotEquals(fingerprint, clickContextResolver.fingerprint("203.0.113.8", "Mozilla/5.0 Firefox/120.0", "de-DE"));
+    }
+
+    @Test
+    @DisplayName("Test X-Forwarded-For is only believed from trusted proxies")
+    void testClientAddress() {
+        // A client sending the header itself is counted by its own address
+        assertEquals("203.0.113.7", clickContextResolver.clientAddress(request("203.0.113.7", "198.51.100.1")));
+        assertEquals("203.0.113.7", clickContextResolver.clientAddress(request("203.0.113.7", null)));
+
+        // Behind trusted proxies: the last hop that is not one of them, whatever the client prepended
+        assertEquals("203.0.113.7", clickContextResolver.clientAddress(request("10.0.0.2", "203.0.113.7")));
+        assertEquals("203.0.113.7", clickContextResolver.clientAddress(
+            request("10.0.0.2", "198.51.100.1, 203.0.113.7, 10.1.2.3")));
+        assertEquals("10.0.0.2", clickContextResolver.clientAddress(request("10.0.0.2", null)));
+    }
+
+    private static ServerHttpRequest request(String peer, String forwardedFor) {
+        MockServerHttpRequest.BaseBuilder<?> request = MockServerHttpRequest.get("/abc")
+            .remoteAddress(new InetSocketAddress(peer, 443));
+        if (forwardedFor != null) {
+            request.header("X-Forwarded-For", forwardedFor);
+        }
+        return request.build();
+    }
+
+    private void click(String code, OffsetDateTime time, String visitor) {
+        analyticsService.click(code, time, new ClickContext("", "", "", 301, visitor));
+    }
+
+    private void flush() {
+        uniqueVisitorCounter.flush();
+        clickAggregator.flush();
+    }
+}
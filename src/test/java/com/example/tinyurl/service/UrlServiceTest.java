@@ -1,5 +1,8 @@
 package com.example.tinyurl.service;
 
+import com.example.tinyurl.cache.CacheFillNotifier;
+import com.example.tinyurl.cache.CachedRedirect;
+import com.example.tinyurl.cache.LocalRedirectCache;
 import com.example.tinyurl.entity.User;
 import com.example.tinyurl.repository.ShortUrlRepository;
 import com.example.tinyurl.repository.UserRepository;
@@ -10,6 +13,7 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.data.redis.core.ReactiveRedisTemplate;
@@ -24,8 +28,10 @@ import org.springframework.transaction.support.DefaultTransactionDefinition;
 import com.example.tinyurl.config.TestRedisConfig;
 import reactor.test.StepVerifier;
 
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -61,6 +67,15 @@ class UrlServiceTest {
     @Autowired
     private PlatformTransactionManager transactionManager;
 
+    @Autowired
+    private LocalRedirectCache localRedirectCache;
+
+    @Autowired
+    private CacheFillNotifier cacheFillNotifier;
+
+    @Value("${cache.fill.wait.timeout.ms:2000}")
+    private long fillWaitTimeoutMillis;
+
     @BeforeEach
     void setUp() {
         // Clean up Redis cache and locks if needed
@@ -344,7 +359,75 @@ class UrlServiceTest {
         // that the cache is working by checking Redis
         String cachedValue = redisTemplate.opsForValue().get("short:" + encodedPart).block();
         assertNotNull(cachedValue, "Cache should be populated after first call");
-        assertEquals(longUrl, cachedValue, "Cached value should match the long URL");
+        assertEquals(longUrl, CachedRedirect.decode(cachedValue).getLongUrl(), "Cached value should match the long URL");
+    }
+
+    @Test
+    @DisplayName("Test getLongUrl while another node holds the lock: concurrent misses coalesce and complete on its fill notification")
+    void testGetLongUrlWaitsForRemoteFill() throws InterruptedException {
+        // Create and save a user in a separate committed transaction
+        Long userId;
+        {
+            DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+            def.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            TransactionStatus status = transactionManager.getTransaction(def);
+            try {
+                User savedUser = userRepository.save(new User("remotefilluser",
+                    "$2a$10$N9qo8uLOickgx2ZMRZoMyeIjZAgcfl7p92ldGxad68LJZdL17lhWy"));
+                userRepository.flush();
+                userId = savedUser.getId();
+                transactionManager.commit(status);
+            } catch (Exception e) {
+                transactionManager.rollback(status);
+                throw e;
+            }
+        }
+
+        String longUrl = "https://www.example.com/remotefilltest";
+        String shortUrl = urlService.shortenUrl(longUrl, null, null, userId).block().getResponse().getShortUrl();
+        String encodedPart = shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+        String cacheKey = "short:" + encodedPart;
+        String lockKey = "lock:short:" + encodedPart;
+
+        // Another node holds the lock, so no request on this node may load the code itself
+        redisTemplate.delete(cacheKey).block();
+        localRedirectCache.invalidate(encodedPart);
+        redisTemplate.opsForValue().set(lockKey, "other-node", Duration.ofSeconds(30)).block();
+        // The fill channel is subscribed in the background
+        for (int i = 0; i < 50 && cacheFillNotifier.publishNotFound("probe").block() == 0; i++) {
+            Thread.sleep(100);
+        }
+
+        try {
+            int numConcurrentCalls = 10;
+            CountDownLatch latch = new CountDownLatch(numConcurrentCalls);
+            List<String> results = Collections.synchronizedList(new ArrayList<>());
+            long startMillis = System.currentTimeMillis();
+            for (int i = 0; i < numConcurrentCalls; i++) {
+                urlService.getLongUrl(encodedPart)
+                    .doFinally(signal -> latch.countDown())
+                    .subscribe(result -> results.add(result.getLongUrl()));
+            }
+
+            Thread.sleep(300);
+            assertEquals(numConcurrentCalls, latch.getCount(), "Calls should wait while the other node loads");
+
+            // The other node fills the cache and notifies the waiters
+            String cachedValue = CachedRedirect.of(Base62Util.decode(encodedPart.substring(1)), null, longUrl).encode();
+            redisTemplate.opsForValue().set(cacheKey, cachedValue).block();
+            cacheFillNotifier.publishFilled(encodedPart, cachedValue).block();
+
+            assertTrue(latch.await(10, TimeUnit.SECONDS), "All waiting calls should complete");
+            // Well inside the fill wait timeout, so the notification - not the polling fallback - released them
+            assertTrue(System.currentTimeMillis() - startMillis < fillWaitTimeoutMillis,
+                "Waiters should be released by the fill notification");
+            assertEquals(numConcurrentCalls, results.size());
+            results.forEach(result -> assertEquals(longUrl, result));
+            assertEquals("other-node", redisTemplate.opsForValue().get(lockKey).block(),
+                "The lock of the other node should be left alone");
+        } finally {
+            redisTemplate.delete(lockKey).block();
+        }
     }
 
     @Test
@@ -380,6 +463,66 @@ class UrlServiceTest {
             .verifyComplete();
     }
 
+    @Test
+    @DisplayName("Test negative cache: unknown code is tombstoned, creating the code invalidates the tombstone")
+    void testNegativeCacheInvalidatedOnCreate() {
+        // Create and save a user in a separate committed transaction
+        Long userId;
+        {
+            DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+            def.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            TransactionStatus status = transactionManager.getTransaction(def);
+            try {
+                String username = "negativecacheuser";
+                String passwordHash = "$2a$10$N9qo8uLOickgx2ZMRZoMyeIjZAgcfl7p92ldGxad68LJZdL17lhWy";
+                User user = new User(username, passwordHash);
+                User savedUser = userRepository.save(user);
+                userRepository.flush();
+                userId = savedUser.getId();
+                transactionManager.commit(status);
+            } catch (Exception e) {
+                transactionManager.rollback(status);
+                throw e;
+            }
+        }
+
+        assertNotNull(userId);
+
+        String longUrl = "https://www.example.com/negativecachetest";
+        String customShortUrl = "negative-cache-link";
+
+        // Clear any state left by previous runs
+        redisTemplate.delete("short:" + customShortUrl).block();
+        redisTemplate.delete("lock:short:" + customShortUrl).block();
+
+        // Unknown code - should return NO_RECORD
+        StepVerifier.create(urlService.getLongUrl(customShortUrl))
+            .assertNext(result -> {
+                assertNull(result.getLongUrl(), "Long URL should be null for unknown short URL");
+                assertEquals(HttpStatus.NOT_FOUND, result.getStatus());
+            })
+            .verifyComplete();
+
+        // Tombstone as left by a miss on any node (this node may have rejected it via the existence index)
+        redisTemplate.opsForValue().set("short:" + customShortUrl, CachedRedirect.TOMBSTONE).block();
+
+        // Create the code - the tombstone must be dropped
+        StepVerifier.create(urlService.shortenUrl(longUrl, customShortUrl, null, userId))
+            .assertNext(result -> assertEquals(HttpStatus.OK, result.getStatus()))
+            .verifyComplete();
+
+        assertNull(redisTemplate.opsForValue().get("short:" + customShortUrl).block(),
+            "Creating the short URL should invalidate its tombstone");
+
+        // The code now resolves
+        StepVerifier.create(urlService.getLongUrl(customShortUrl))
+            .assertNext(result -> {
+                assertEquals(longUrl, result.getLongUrl());
+                assertEquals(HttpStatus.MOVED_PERMANENTLY, result.getStatus());
+            })
+            .verifyComplete();
+    }
+
     @Test
     @DisplayName("Test shortenUrl with customShortUrl: response should contain the customShortUrl")
     void testShortenUrlWithCustomShortUrl() {